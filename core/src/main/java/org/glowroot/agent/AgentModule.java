@@ -20,14 +20,24 @@ import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.jar.JarFile;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,23 +61,29 @@ import org.glowroot.agent.live.LiveThreadDumpServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.agent.util.JavaVersion;
 import org.glowroot.agent.util.OptionalService;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.weaving.AnalyzedWorld;
 import org.glowroot.agent.weaving.ExtraBootResourceFinder;
+import org.glowroot.agent.weaving.PluginEnabledCallSites;
 import org.glowroot.agent.weaving.PreInitializeWeavingClasses;
+import org.glowroot.agent.weaving.WeavingCache;
 import org.glowroot.agent.weaving.WeavingClassFileTransformer;
 import org.glowroot.agent.weaving.WeavingTimerService;
 import org.glowroot.api.internal.GlowrootService;
 import org.glowroot.collector.spi.Collector;
+import org.glowroot.common.config.PluginConfig;
 import org.glowroot.common.config.PluginDescriptor;
 import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.ScheduledRunnable;
 import org.glowroot.live.LiveAggregateRepository;
 import org.glowroot.live.LiveJvmService;
 import org.glowroot.live.LiveThreadDumpService;
 import org.glowroot.live.LiveTraceRepository;
 import org.glowroot.live.LiveWeavingService;
 import org.glowroot.markers.OnlyUsedByTests;
+import org.glowroot.plugin.api.config.ConfigListener;
 import org.glowroot.plugin.api.transaction.TransactionService;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -84,10 +100,36 @@ public class AgentModule {
     private static final long ROLLUP_0_INTERVAL_MILLIS =
             Long.getLong("glowroot.internal.rollup.0.intervalMillis", 60 * 1000);
 
+    // persist weaving results under the base dir to speed up subsequent jvm startups
+    private static final boolean WEAVING_CACHE =
+            Boolean.getBoolean("glowroot.internal.weaving.cache");
+
+    // number of threads used to read super types in parallel during class analysis (0 disables)
+    private static final int WEAVING_ANALYSIS_THREADS =
+            Integer.getInteger("glowroot.internal.weaving.analysisThreads", 0);
+
+    // when greater than zero, advice is outlined into a static helper method whenever weaving
+    // pushes a method's bytecode size over this threshold, so that the method can still be inlined
+    // by the jit compiler when the advice is not enabled
+    //
+    // hotspot's -XX:MaxInlineSize (35) and -XX:FreqInlineSize (325) are the natural choices
+    private static final int OUTLINE_ADVICE_THRESHOLD =
+            Integer.getInteger("glowroot.internal.weaving.outlineAdviceThreshold", 0);
+
+    // pre-analyze the classes on the application class path in the background at startup
+    private static final boolean WEAVING_WARM_UP =
+            Boolean.getBoolean("glowroot.internal.weaving.warmUp");
+
+    // 1 minute
+    private static final long ANALYZED_WORLD_EVICTION_INTERVAL_MILLIS = Long.getLong(
+            "glowroot.internal.weaving.analyzedWorldEvictionIntervalMillis", 60 * 1000);
+
     private final PluginCache pluginCache;
     private final ConfigService configService;
     private final @Nullable Instrumentation instrumentation;
+    private final @Nullable ExecutorService analysisExecutor;
     private final AnalyzedWorld analyzedWorld;
+    private final ScheduledRunnable analyzedWorldEvictor;
     private final TransactionRegistry transactionRegistry;
     private final AdviceCache adviceCache;
     private final WeavingTimerService weavingTimerService;
@@ -102,6 +144,8 @@ public class AgentModule {
 
     private final boolean timerWrapperMethods;
     private final boolean jvmRetransformClassesSupported;
+    // null when debugging with IsolatedWeavingClassLoader or when running in a java 6 jvm
+    private final @Nullable PluginEnabledCallSites pluginEnabledCallSites;
 
     private final ServiceRegistryImpl serviceRegistry;
 
@@ -126,8 +170,21 @@ public class AgentModule {
 
         adviceCache = new AdviceCache(pluginCache.pluginDescriptors(), pluginCache.pluginJars(),
                 configService.getInstrumentationConfigs(), instrumentation, baseDir);
+        analysisExecutor = createAnalysisExecutor();
         analyzedWorld = new AnalyzedWorld(adviceCache.getAdvisorsSupplier(),
-                adviceCache.getShimTypes(), adviceCache.getMixinTypes(), extraBootResourceFinder);
+                adviceCache.getShimTypes(), adviceCache.getMixinTypes(), extraBootResourceFinder,
+                analysisExecutor);
+        analyzedWorld.prebuildAdviceMatcherIndex();
+        analyzedWorldEvictor = new ScheduledRunnable() {
+            @Override
+            protected void runInternal() {
+                checkNotNull(analyzedWorld);
+                analyzedWorld.evictCollectedClassLoaders();
+            }
+        };
+        analyzedWorldEvictor.scheduleWithFixedDelay(scheduledExecutor,
+                ANALYZED_WORLD_EVICTION_INTERVAL_MILLIS, ANALYZED_WORLD_EVICTION_INTERVAL_MILLIS,
+                MILLISECONDS);
         final TimerNameCache timerNameCache = new TimerNameCache();
         weavingTimerService =
                 new WeavingTimerServiceImpl(transactionRegistry, configService, timerNameCache);
@@ -141,10 +198,25 @@ public class AgentModule {
         // instrumentation is null when debugging with IsolatedWeavingClassLoader
         // instead of javaagent
         if (instrumentation != null) {
+            WeavingCache weavingCache = null;
+            if (WEAVING_CACHE) {
+                weavingCache = new WeavingCache(new File(baseDir, "weaving-cache"),
+                        adviceCache.getAdvisorsSupplier(), adviceCache.getShimTypes(),
+                        adviceCache.getMixinTypes(), timerWrapperMethods,
+                        OUTLINE_ADVICE_THRESHOLD);
+            }
+            Integer pluginEnabledCallSitesId = null;
+            if (JavaVersion.isJava6()) {
+                pluginEnabledCallSites = null;
+            } else {
+                pluginEnabledCallSites = createPluginEnabledCallSites(configService);
+                pluginEnabledCallSitesId = pluginEnabledCallSites.getId();
+            }
             ClassFileTransformer transformer =
                     new WeavingClassFileTransformer(adviceCache.getShimTypes(),
                             adviceCache.getMixinTypes(), adviceCache.getAdvisorsSupplier(),
-                            analyzedWorld, weavingTimerService, timerWrapperMethods);
+                            analyzedWorld, weavingTimerService, timerWrapperMethods,
+                            OUTLINE_ADVICE_THRESHOLD, weavingCache, pluginEnabledCallSitesId);
             PreInitializeWeavingClasses.preInitializeClasses();
             if (instrumentation.isRetransformClassesSupported()) {
                 instrumentation.addTransformer(transformer, true);
@@ -153,8 +225,12 @@ public class AgentModule {
                 instrumentation.addTransformer(transformer);
                 jvmRetransformClassesSupported = false;
             }
+            if (WEAVING_WARM_UP) {
+                startWarmUp(analyzedWorld);
+            }
         } else {
             jvmRetransformClassesSupported = false;
+            pluginEnabledCallSites = null;
         }
 
         OptionalService<ThreadAllocatedBytes> threadAllocatedBytes = ThreadAllocatedBytes.create();
@@ -210,6 +286,11 @@ public class AgentModule {
                 instrumentation == null ? Thread.currentThread().getContextClassLoader()
                         : AgentModule.class.getClassLoader();
         initPlugins(pluginCache.pluginDescriptors(), initPluginClassLoader);
+        if (instrumentation != null && jvmRetransformClassesSupported) {
+            // this is done after initializing plugins so that glowroot's own executor threads
+            // cannot be the first to initialize a plugin's aspect class
+            retransformPreloadedExecutorClasses(instrumentation);
+        }
 
         List<PluginDescriptor> pluginDescriptors = pluginCache.pluginDescriptors();
         List<String> pluginNames = Lists.newArrayList();
@@ -272,6 +353,33 @@ public class AgentModule {
         return new ExtraBootResourceFinder(pluginJars);
     }
 
+    // java.util.concurrent executor classes are loaded by glowroot itself (e.g. for the scheduled
+    // executor) before the weaving transformer is added, so they are retransformed now so that
+    // plugins can weave them (e.g. the executor plugin), this is only possible because none of
+    // these classes implement a mixin interface (e.g. java.lang.Runnable), since retransformation
+    // cannot add fields or methods
+    private static void retransformPreloadedExecutorClasses(Instrumentation instrumentation) {
+        List<Class<?>> classes = Lists.newArrayList();
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (clazz.getName().startsWith("java.util.concurrent.") && !clazz.isInterface()
+                    && Executor.class.isAssignableFrom(clazz)
+                    && !Runnable.class.isAssignableFrom(clazz)
+                    && !Callable.class.isAssignableFrom(clazz)
+                    && instrumentation.isModifiableClass(clazz)) {
+                classes.add(clazz);
+            }
+        }
+        if (classes.isEmpty()) {
+            return;
+        }
+        try {
+            instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
+        } catch (Exception e) {
+            // tasks submitted to these executors are not propagated in this case
+            logger.warn("could not retransform executor classes: {}", e.getMessage(), e);
+        }
+    }
+
     // now init plugins to give them a chance to do something in their static initializer
     // e.g. append their package to jboss.modules.system.pkgs
     private static void initPlugins(List<PluginDescriptor> pluginDescriptors,
@@ -288,6 +396,76 @@ public class AgentModule {
         }
     }
 
+    private static @Nullable ExecutorService createAnalysisExecutor() {
+        if (WEAVING_ANALYSIS_THREADS <= 0) {
+            return null;
+        }
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Weaving-Analysis-%d")
+                .build();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WEAVING_ANALYSIS_THREADS,
+                WEAVING_ANALYSIS_THREADS, 0, MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        // start the threads now so that they are not created from inside
+        // ClassFileTransformer.transform()
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    // keeps the plugin enabled guards in java 7+ woven classes in sync with the plugin configs
+    // (see PluginEnabledCallSites)
+    private static PluginEnabledCallSites createPluginEnabledCallSites(
+            final ConfigService configService) {
+        final PluginEnabledCallSites pluginEnabledCallSites = PluginEnabledCallSites.create();
+        for (PluginConfig pluginConfig : configService.getPluginConfigs()) {
+            final String pluginId = pluginConfig.id();
+            ConfigListener listener = new ConfigListener() {
+                @Override
+                public void onChange() {
+                    PluginConfig pluginConfig = configService.getPluginConfig(pluginId);
+                    if (pluginConfig != null) {
+                        pluginEnabledCallSites.setEnabled(pluginId, pluginConfig.enabled());
+                    }
+                }
+            };
+            configService.addPluginConfigListener(pluginId, listener);
+            listener.onChange();
+        }
+        return pluginEnabledCallSites;
+    }
+
+    private static void startWarmUp(final AnalyzedWorld analyzedWorld) {
+        final List<File> jarFiles = Lists.newArrayList();
+        String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
+        if (classPath != null) {
+            for (String path : Splitter.on(File.pathSeparatorChar).omitEmptyStrings()
+                    .split(classPath)) {
+                File file = new File(path);
+                if (file.isFile() && path.endsWith(".jar")) {
+                    jarFiles.add(file);
+                }
+            }
+        }
+        if (jarFiles.isEmpty()) {
+            return;
+        }
+        final ClassLoader loader = ClassLoader.getSystemClassLoader();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    analyzedWorld.warmUp(jarFiles, loader);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("Glowroot-Weaving-Warm-Up");
+        thread.start();
+    }
+
     @OnlyUsedByTests
     public void reopen() throws Exception {
         ServiceRegistryImpl.reopen(serviceRegistry);
@@ -296,8 +474,15 @@ public class AgentModule {
     @OnlyUsedByTests
     public void close() {
         immedateTraceStoreWatcher.cancel();
+        analyzedWorldEvictor.cancel();
         aggregator.close();
         gaugeCollector.close();
         stackTraceCollector.close();
+        if (analysisExecutor != null) {
+            analysisExecutor.shutdown();
+        }
+        if (pluginEnabledCallSites != null) {
+            pluginEnabledCallSites.close();
+        }
     }
 }
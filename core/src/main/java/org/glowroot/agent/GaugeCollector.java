@@ -18,18 +18,26 @@ package org.glowroot.agent;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 
@@ -74,6 +82,19 @@ class GaugeCollector extends ScheduledRunnable {
     private final Set<String> pendingLoggedMBeanGauges = Sets.newConcurrentHashSet();
     private final Set<String> loggedMBeanGauges = Sets.newConcurrentHashSet();
 
+    // pattern query results are cached until the next mbean registration or unregistration
+    private final ConcurrentMap<String, Set<ObjectName>> patternObjectNames =
+            Maps.newConcurrentMap();
+    // incremented on each mbean registration or unregistration, so that a query result which
+    // races with a registration is not cached
+    private final AtomicInteger mbeanRegistrationCount = new AtomicInteger();
+    private final MBeanRegistrationListener mbeanRegistrationListener =
+            new MBeanRegistrationListener();
+    // pattern query results are only cached once registration notifications are being received,
+    // this is the mbean server that the listener was added to, so that it can be removed on close
+    private volatile @Nullable MBeanServer mbeanRegistrationListenerServer;
+    private volatile boolean closed;
+
     // gauges have their own dedicated scheduled executor service to make sure their collection is
     // not hampered by other glowroot threads
     private final ScheduledExecutorService dedicatedScheduledExecutor;
@@ -82,6 +103,13 @@ class GaugeCollector extends ScheduledRunnable {
     // priorRawCounterValues (except can't initialize here outside of the dedicated thread)
     private @MonotonicNonNull Map<String, GaugePoint> priorRawCounterValues;
 
+    // same thread safety as priorRawCounterValues (but does not need the same delayed
+    // initialization)
+    //
+    // this is bounded by only retaining the object names of the current gauge configs, see
+    // runInternal()
+    private final Map<String, ObjectName> parsedObjectNames = Maps.newHashMap();
+
     GaugeCollector(ConfigService configService, Collector collector,
             LazyPlatformMBeanServer lazyPlatformMBeanServer,
             ScheduledExecutorService scheduledExecutor, Clock clock, @Nullable Logger logger) {
@@ -115,6 +143,18 @@ class GaugeCollector extends ScheduledRunnable {
                     // checkNotNull is just to satisfy checker framework
                     checkNotNull(GaugeCollector.this.logger).debug(e.getMessage(), e);
                 }
+                try {
+                    mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                            mbeanRegistrationListener, null, null);
+                    mbeanRegistrationListenerServer = mbeanServer;
+                } catch (Exception e) {
+                    // checkNotNull is just to satisfy checker framework
+                    checkNotNull(GaugeCollector.this.logger).debug(e.getMessage(), e);
+                }
+                if (closed) {
+                    // closed while the listener was being added
+                    removeMBeanRegistrationListener();
+                }
             }
         });
     }
@@ -126,8 +166,22 @@ class GaugeCollector extends ScheduledRunnable {
             // wait to now to initialize priorGaugeValues inside of the dedicated thread
             priorRawCounterValues = Maps.newHashMap();
         }
+        // group attributes by mbean object name so that each mbean is read using a single
+        // getAttributes() call
+        Map<String, List<MBeanAttribute>> mbeanAttributes = Maps.newLinkedHashMap();
         for (GaugeConfig gaugeConfig : configService.getGaugeConfigs()) {
-            gaugeValues.addAll(collectGaugeValues(gaugeConfig));
+            List<MBeanAttribute> attributes = mbeanAttributes.get(gaugeConfig.mbeanObjectName());
+            if (attributes == null) {
+                attributes = Lists.newArrayList();
+                mbeanAttributes.put(gaugeConfig.mbeanObjectName(), attributes);
+            }
+            attributes.addAll(gaugeConfig.mbeanAttributes());
+        }
+        // drop cached object names of gauges that are no longer configured
+        parsedObjectNames.keySet().retainAll(mbeanAttributes.keySet());
+        patternObjectNames.keySet().retainAll(mbeanAttributes.keySet());
+        for (Entry<String, List<MBeanAttribute>> entry : mbeanAttributes.entrySet()) {
+            gaugeValues.addAll(collectGaugeValues(entry.getKey(), entry.getValue()));
         }
         try {
             scheduledExecutor.execute(new Runnable() {
@@ -156,56 +210,101 @@ class GaugeCollector extends ScheduledRunnable {
     }
 
     void close() {
+        closed = true;
         dedicatedScheduledExecutor.shutdownNow();
+        removeMBeanRegistrationListener();
     }
 
     @VisibleForTesting
     @RequiresNonNull("priorRawCounterValues")
     List<GaugePoint> collectGaugeValues(GaugeConfig gaugeConfig) throws InterruptedException {
-        String mbeanObjectName = gaugeConfig.mbeanObjectName();
+        return collectGaugeValues(gaugeConfig.mbeanObjectName(), gaugeConfig.mbeanAttributes());
+    }
+
+    @RequiresNonNull("priorRawCounterValues")
+    private List<GaugePoint> collectGaugeValues(String mbeanObjectName,
+            List<MBeanAttribute> mbeanAttributes) throws InterruptedException {
         if (!mbeanObjectName.contains("*")) {
-            ObjectName objectName;
-            try {
-                objectName = ObjectName.getInstance(mbeanObjectName);
-            } catch (MalformedObjectNameException e) {
-                logger.debug(e.getMessage(), e);
-                // using toString() instead of getMessage() in order to capture exception class name
-                logFirstTimeMBeanException(mbeanObjectName, e.toString());
-                return ImmutableList.of();
+            ObjectName objectName = parsedObjectNames.get(mbeanObjectName);
+            if (objectName == null) {
+                try {
+                    objectName = ObjectName.getInstance(mbeanObjectName);
+                } catch (MalformedObjectNameException e) {
+                    logger.debug(e.getMessage(), e);
+                    // using toString() instead of getMessage() in order to capture exception
+                    // class name
+                    logFirstTimeMBeanException(mbeanObjectName, e.toString());
+                    return ImmutableList.of();
+                }
+                parsedObjectNames.put(mbeanObjectName, objectName);
             }
-            return collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(), mbeanObjectName);
+            return collectGaugeValues(objectName, mbeanAttributes, mbeanObjectName);
         }
-        Set<ObjectName> objectNames = lazyPlatformMBeanServer.queryNames(null,
-                new PatternObjectNameQueryExp(mbeanObjectName));
+        Set<ObjectName> objectNames = queryNames(mbeanObjectName);
         if (objectNames.isEmpty()) {
             logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
             return ImmutableList.of();
         }
         List<GaugePoint> gaugeValues = Lists.newArrayList();
         for (ObjectName objectName : objectNames) {
-            gaugeValues.addAll(collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(),
+            gaugeValues.addAll(collectGaugeValues(objectName, mbeanAttributes,
                     objectName.getDomain() + ":" + objectName.getKeyPropertyListString()));
         }
         return gaugeValues;
     }
 
+    private Set<ObjectName> queryNames(String mbeanObjectName) throws InterruptedException {
+        Set<ObjectName> objectNames = patternObjectNames.get(mbeanObjectName);
+        if (objectNames != null) {
+            return objectNames;
+        }
+        int priorMBeanRegistrationCount = mbeanRegistrationCount.get();
+        objectNames = lazyPlatformMBeanServer.queryNames(null,
+                new PatternObjectNameQueryExp(mbeanObjectName));
+        if (mbeanRegistrationListenerServer != null
+                && mbeanRegistrationCount.get() == priorMBeanRegistrationCount) {
+            patternObjectNames.put(mbeanObjectName, objectNames);
+        }
+        return objectNames;
+    }
+
     @RequiresNonNull("priorRawCounterValues")
     private List<GaugePoint> collectGaugeValues(ObjectName objectName,
-            List<MBeanAttribute> mbeanAttributes, String mbeanObjectName) {
+            List<MBeanAttribute> mbeanAttributes, String mbeanObjectName)
+            throws InterruptedException {
         long captureTime = clock.currentTimeMillis();
+        Map<String, /*@Nullable*/Object> attributeValues;
+        try {
+            attributeValues = getAttributeValues(objectName, mbeanAttributes);
+        } catch (InstanceNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
+            return ImmutableList.of();
+        } catch (InterruptedException e) {
+            // e.g. the gauge collector is being closed, so don't fall back to reading the
+            // attributes individually
+            throw e;
+        } catch (Exception e) {
+            logger.debug(e.getMessage(), e);
+            // fall back to reading the attributes individually below
+            attributeValues = Maps.newHashMap();
+        }
         List<GaugePoint> gaugeValues = Lists.newArrayList();
         for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
             String mbeanAttributeName = mbeanAttribute.name();
             Object attributeValue;
             try {
-                if (mbeanAttributeName.contains("/")) {
-                    String[] path = mbeanAttributeName.split("\\/");
+                String[] path = mbeanAttributeName.split("\\/");
+                if (attributeValues.containsKey(path[0])) {
+                    attributeValue = attributeValues.get(path[0]);
+                } else {
+                    // getAttributes() silently omits attributes that could not be read, so read
+                    // it individually in order to find out why
                     attributeValue = lazyPlatformMBeanServer.getAttribute(objectName, path[0]);
+                }
+                if (path.length > 1) {
                     CompositeData compositeData = (CompositeData) attributeValue;
                     attributeValue = compositeData.get(path[1]);
-                } else {
-                    attributeValue =
-                            lazyPlatformMBeanServer.getAttribute(objectName, mbeanAttributeName);
                 }
             } catch (InstanceNotFoundException e) {
                 logger.debug(e.getMessage(), e);
@@ -217,6 +316,8 @@ class GaugeCollector extends ScheduledRunnable {
                 logger.debug(e.getMessage(), e);
                 logFirstTimeMBeanAttributeNotFound(mbeanObjectName, mbeanAttributeName);
                 continue;
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
                 logger.debug(e.getMessage(), e);
                 // using toString() instead of getMessage() in order to capture exception class name
@@ -268,6 +369,27 @@ class GaugeCollector extends ScheduledRunnable {
         return gaugeValues;
     }
 
+    private Map<String, /*@Nullable*/Object> getAttributeValues(ObjectName objectName,
+            List<MBeanAttribute> mbeanAttributes) throws Exception {
+        Set<String> attributeNames = Sets.newLinkedHashSet();
+        for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
+            String mbeanAttributeName = mbeanAttribute.name();
+            int index = mbeanAttributeName.indexOf('/');
+            if (index == -1) {
+                attributeNames.add(mbeanAttributeName);
+            } else {
+                attributeNames.add(mbeanAttributeName.substring(0, index));
+            }
+        }
+        AttributeList attributeList = lazyPlatformMBeanServer.getAttributes(objectName,
+                attributeNames.toArray(new String[attributeNames.size()]));
+        Map<String, /*@Nullable*/Object> attributeValues = Maps.newHashMap();
+        for (Attribute attribute : attributeList.asList()) {
+            attributeValues.put(attribute.getName(), attribute.getValue());
+        }
+        return attributeValues;
+    }
+
     // relatively common, so nice message
     private void logFirstTimeMBeanNotMatchedOrFound(String mbeanObjectName) {
         int delaySeconds = configService.getAdvancedConfig().mbeanGaugeNotFoundDelaySeconds();
@@ -308,4 +430,29 @@ class GaugeCollector extends ScheduledRunnable {
                     mbeanAttributeName, message);
         }
     }
+
+    private void removeMBeanRegistrationListener() {
+        MBeanServer mbeanServer = mbeanRegistrationListenerServer;
+        if (mbeanServer == null) {
+            return;
+        }
+        mbeanRegistrationListenerServer = null;
+        try {
+            mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                    mbeanRegistrationListener);
+        } catch (Exception e) {
+            // InstanceNotFoundException or ListenerNotFoundException (e.g. if removed concurrently
+            // by close() and the init listener)
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    private class MBeanRegistrationListener implements NotificationListener {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            // the mbean server delegate only emits registration and unregistration notifications
+            mbeanRegistrationCount.getAndIncrement();
+            patternObjectNames.clear();
+        }
+    }
 }
@@ -17,6 +17,7 @@ package org.glowroot.agent.advicegen;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import javax.annotation.Nullable;
@@ -30,6 +31,8 @@ class Accessor {
     private final AccessorType accessorType;
     private final @Nullable Method method;
     private final @Nullable Field field;
+    // non-null when a direct accessor has been generated for the method or field
+    private final @Nullable DirectAccessor directAccessor;
 
     static Accessor fromMethod(Method method) {
         return new Accessor(method);
@@ -44,21 +47,46 @@ class Accessor {
     }
 
     private Accessor(Method method) {
-        accessorType = AccessorType.METHOD;
-        this.method = method;
-        this.field = null;
+        this(AccessorType.METHOD, method, null, null);
     }
 
     private Accessor(Field field) {
-        accessorType = AccessorType.FIELD;
-        this.method = null;
-        this.field = field;
+        this(AccessorType.FIELD, null, field, null);
     }
 
     private Accessor() {
-        accessorType = AccessorType.ARRAY_LENGTH;
-        this.method = null;
-        this.field = null;
+        this(AccessorType.ARRAY_LENGTH, null, null, null);
+    }
+
+    private Accessor(AccessorType accessorType, @Nullable Method method, @Nullable Field field,
+            @Nullable DirectAccessor directAccessor) {
+        this.accessorType = accessorType;
+        this.method = method;
+        this.field = field;
+        this.directAccessor = directAccessor;
+    }
+
+    // generating a class per accessor is only worth it for accessors that are long lived, e.g.
+    // those of PathEvaluator (as opposed to the weakly cached accessors of Beans)
+    Accessor withDirectAccessor() {
+        DirectAccessor directAccessor;
+        switch (accessorType) {
+            case METHOD:
+                checkNotNull(method);
+                directAccessor = DirectAccessorGenerator.create(method);
+                break;
+            case FIELD:
+                checkNotNull(field);
+                directAccessor = DirectAccessorGenerator.create(field);
+                break;
+            default:
+                directAccessor = null;
+                break;
+        }
+        if (directAccessor == null) {
+            return this;
+        }
+        return new Accessor(accessorType, method, field, directAccessor);
     }
 
     Class<?> getValueType() {
@@ -81,6 +109,14 @@ class Accessor {
         if (isArrayEvaluation(object)) {
             return evaluateArray((/*@Nullable*/Object[]) object);
         }
+        if (directAccessor != null) {
+            try {
+                return directAccessor.evaluate(object);
+            } catch (Throwable t) {
+                // wrap the same as Method.invoke() so that it is handled the same by the caller
+                throw new InvocationTargetException(t);
+            }
+        }
         switch (accessorType) {
             case METHOD:
                 checkNotNull(method);
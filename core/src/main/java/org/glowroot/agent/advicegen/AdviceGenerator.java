@@ -89,7 +89,9 @@ public class AdviceGenerator {
             try {
                 LazyDefinedClass lazyAdviceClass = new AdviceGenerator(config, pluginId).generate();
                 boolean reweavable = pluginId == null;
-                Advice advice = new AdviceBuilder(lazyAdviceClass, reweavable).build();
+                Advice advice = new AdviceBuilder(lazyAdviceClass, reweavable)
+                        .pluginId(pluginId)
+                        .build();
                 advisors.put(advice, lazyAdviceClass);
             } catch (Exception e) {
                 logger.error("error creating advice for advice config: {}", config, e);
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.advicegen;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.MapMaker;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.weaving.ClassLoaders;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.GETFIELD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_5;
+
+// generates DirectAccessor classes that call a public getter method (or read a public field)
+// directly instead of going through reflection
+//
+// generated classes are defined in the class loader of the class whose member is accessed, so that
+// they are retained (and collected) along with that class, and the member is only called directly
+// when it is accessible from there, otherwise null is returned and reflection is used
+class DirectAccessorGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectAccessorGenerator.class);
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // accessors are shared by all PathEvaluators for the same member, instead of defining a new
+    // class for each one
+    //
+    // weak keys in loading cache to prevent Class retention (see Beans)
+    private static final LoadingCache<Class<?>, ConcurrentMap<String, DirectAccessor>> accessors =
+            CacheBuilder.newBuilder().weakKeys()
+                    .build(new CacheLoader<Class<?>, ConcurrentMap<String, DirectAccessor>>() {
+                        @Override
+                        public ConcurrentMap<String, DirectAccessor> load(Class<?> clazz) {
+                            // weak values since the generated class is defined in the class
+                            // loader of the Class which is used as the key in the outer loading
+                            // cache
+                            return new MapMaker().weakValues().makeMap();
+                        }
+                    });
+
+    private DirectAccessorGenerator() {}
+
+    static @Nullable DirectAccessor create(Method method) {
+        Class<?> ownerClass = method.getDeclaringClass();
+        if (!isAccessible(ownerClass, method) || Modifier.isStatic(method.getModifiers())
+                || method.getParameterTypes().length != 0) {
+            return null;
+        }
+        int opcode = ownerClass.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL;
+        return create(ownerClass, new MemberInsn(opcode, Type.getType(ownerClass),
+                method.getName(), Type.getMethodDescriptor(method), Type.getReturnType(method)));
+    }
+
+    static @Nullable DirectAccessor create(Field field) {
+        Class<?> ownerClass = field.getDeclaringClass();
+        if (!isAccessible(ownerClass, field) || Modifier.isStatic(field.getModifiers())) {
+            return null;
+        }
+        Type fieldType = Type.getType(field.getType());
+        return create(ownerClass, new MemberInsn(GETFIELD, Type.getType(ownerClass),
+                field.getName(), fieldType.getDescriptor(), fieldType));
+    }
+
+    private static @Nullable DirectAccessor create(Class<?> ownerClass, MemberInsn memberInsn) {
+        ConcurrentMap<String, DirectAccessor> accessorsForClass =
+                accessors.getUnchecked(ownerClass);
+        // method descriptors start with '(' so these cannot collide with field names
+        String key = memberInsn.opcode == GETFIELD ? memberInsn.name
+                : memberInsn.name + memberInsn.desc;
+        DirectAccessor accessor = accessorsForClass.get(key);
+        if (accessor != null) {
+            return accessor;
+        }
+        accessor = define(ownerClass, memberInsn);
+        if (accessor == null) {
+            return null;
+        }
+        DirectAccessor existingAccessor = accessorsForClass.putIfAbsent(key, accessor);
+        return existingAccessor == null ? accessor : existingAccessor;
+    }
+
+    private static @Nullable DirectAccessor define(Class<?> ownerClass, MemberInsn memberInsn) {
+        ClassLoader loader = ownerClass.getClassLoader();
+        if (loader == null) {
+            // classes in the bootstrap class loader are visible from every class loader
+            loader = DirectAccessor.class.getClassLoader();
+        }
+        if (loader == null || !isDirectAccessorVisible(loader)) {
+            return null;
+        }
+        String internalName =
+                "org/glowroot/agent/advicegen/GeneratedAccessor" + counter.incrementAndGet();
+        byte[] bytes = generate(internalName, memberInsn);
+        try {
+            Class<?> accessorClass =
+                    ClassLoaders.defineClass(internalName.replace('/', '.'), bytes, loader);
+            return (DirectAccessor) accessorClass.newInstance();
+        } catch (Throwable t) {
+            // fall back to reflection
+            logger.debug("unable to generate accessor for {}.{}: {}", ownerClass.getName(),
+                    memberInsn.name, t.getMessage(), t);
+            return null;
+        }
+    }
+
+    private static byte[] generate(String internalName, MemberInsn memberInsn) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS + ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, internalName, null, "java/lang/Object",
+                new String[] {Type.getInternalName(DirectAccessor.class)});
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        GeneratorAdapter mg = new GeneratorAdapter(cw.visitMethod(ACC_PUBLIC, "evaluate",
+                "(Ljava/lang/Object;)Ljava/lang/Object;", null, null), ACC_PUBLIC, "evaluate",
+                "(Ljava/lang/Object;)Ljava/lang/Object;");
+        mg.visitCode();
+        mg.visitVarInsn(ALOAD, 1);
+        mg.visitTypeInsn(CHECKCAST, memberInsn.owner.getInternalName());
+        if (memberInsn.opcode == GETFIELD) {
+            mg.visitFieldInsn(GETFIELD, memberInsn.owner.getInternalName(), memberInsn.name,
+                    memberInsn.desc);
+        } else {
+            mg.visitMethodInsn(memberInsn.opcode, memberInsn.owner.getInternalName(),
+                    memberInsn.name, memberInsn.desc, memberInsn.opcode == INVOKEINTERFACE);
+        }
+        // primitive values are boxed (and void is returned as null) the same as Method.invoke()
+        // and Field.get()
+        mg.valueOf(memberInsn.valueType);
+        mg.visitInsn(ARETURN);
+        mg.endMethod();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // the generated class is in a different runtime package than the owner class (even when
+    // defined in the same class loader), so both the owner class and the member need to be public
+    private static boolean isAccessible(Class<?> ownerClass, Member member) {
+        return Modifier.isPublic(ownerClass.getModifiers())
+                && Modifier.isPublic(member.getModifiers());
+    }
+
+    private static boolean isDirectAccessorVisible(ClassLoader loader) {
+        try {
+            return Class.forName(DirectAccessor.class.getName(), false, loader)
+                    == DirectAccessor.class;
+        } catch (ClassNotFoundException e) {
+            // log exception at trace level
+            logger.trace(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static class MemberInsn {
+
+        private final int opcode;
+        private final Type owner;
+        private final String name;
+        private final String desc;
+        private final Type valueType;
+
+        private MemberInsn(int opcode, Type owner, String name, String desc, Type valueType) {
+            this.opcode = opcode;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            this.valueType = valueType;
+        }
+    }
+}
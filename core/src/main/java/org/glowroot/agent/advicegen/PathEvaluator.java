@@ -40,7 +40,7 @@ class PathEvaluator {
                 parts.add(0, currPart);
                 break;
             }
-            accessors.add(accessor);
+            accessors.add(accessor.withDirectAccessor());
             currClass = accessor.getValueType();
         }
         this.accessors = accessors.toArray(new Accessor[accessors.size()]);
@@ -91,11 +91,16 @@ public class AdviceCache {
             pluginJarURLs[i] = pluginJars.get(i).toURI().toURL();
         }
         ClassLoader tempIsolatedClassLoader = new IsolatedClassLoader(pluginJarURLs);
+        // all plugin advisors are built up front, even for plugins whose target classes may never
+        // be loaded, since deferring this until a target class is seen would mean loading aspect
+        // classes and defining generated advice from inside ClassFileTransformer.transform(), and
+        // target classes that are loaded before activation cannot get their mixins or shims (or
+        // timer wrapper methods) later via retransformation
         for (PluginDescriptor pluginDescriptor : pluginDescriptors) {
             for (String aspect : pluginDescriptor.aspects()) {
                 try {
                     Class<?> aspectClass = Class.forName(aspect, false, tempIsolatedClassLoader);
-                    pluginAdvisors.addAll(getAdvisors(aspectClass));
+                    pluginAdvisors.addAll(getAdvisors(aspectClass, pluginDescriptor.id()));
                     shimTypes.addAll(getShimTypes(aspectClass));
                     mixinTypes.addAll(getMixinTypes(aspectClass));
                 } catch (ClassNotFoundException e) {
@@ -190,12 +195,12 @@ public class AdviceCache {
         return !versions.equals(this.reweavableConfigVersions);
     }
 
-    private static List<Advice> getAdvisors(Class<?> aspectClass) {
+    private static List<Advice> getAdvisors(Class<?> aspectClass, String pluginId) {
         List<Advice> advisors = Lists.newArrayList();
         for (Class<?> memberClass : aspectClass.getClasses()) {
             if (memberClass.isAnnotationPresent(Pointcut.class)) {
                 try {
-                    advisors.add(new AdviceBuilder(memberClass, false).build());
+                    advisors.add(new AdviceBuilder(memberClass, false).pluginId(pluginId).build());
                 } catch (Exception e) {
                     logger.error("error creating advice: {}", memberClass.getName(), e);
                 }
@@ -15,6 +15,7 @@
  */
 package org.glowroot.agent.impl;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
@@ -40,6 +41,10 @@ public class Aggregator {
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionProcessor.class);
 
+    // live views wait on the aggregation thread to publish snapshots of the active interval, so
+    // the aggregation thread wakes up at least this often to service their requests when idle
+    private static final long LIVE_SNAPSHOT_POLL_MILLIS = 100;
+
     private volatile AggregateIntervalCollector activeIntervalCollector;
     private final List<AggregateIntervalCollector> pendingIntervalCollectors =
             Lists.newCopyOnWriteArrayList();
@@ -143,13 +148,19 @@ public class Aggregator {
             }
         }
 
-        private void processOne() throws InterruptedException {
+        private void processOne() throws InterruptedException, IOException {
             long timeToActiveIntervalEndTime = Math.max(0,
                     activeIntervalCollector.getCaptureTime() - clock.currentTimeMillis());
-            PendingTransaction pendingTransaction =
-                    pendingTransactionQueue.poll(timeToActiveIntervalEndTime + 1000, MILLISECONDS);
+            PendingTransaction pendingTransaction = pendingTransactionQueue.poll(
+                    Math.min(timeToActiveIntervalEndTime + 1000, LIVE_SNAPSHOT_POLL_MILLIS),
+                    MILLISECONDS);
             if (pendingTransaction == null) {
                 maybeEndOfInterval();
+                AggregateIntervalCollector activeIntervalCollector =
+                        Aggregator.this.activeIntervalCollector;
+                synchronized (activeIntervalCollector) {
+                    activeIntervalCollector.publishRequestedLiveSnapshots();
+                }
                 return;
             }
             if (pendingTransaction.captureTime() > activeIntervalCollector.getCaptureTime()) {
@@ -165,6 +176,9 @@ public class Aggregator {
             // activeIntervalCollector
             synchronized (activeIntervalCollector) {
                 activeIntervalCollector.add(pendingTransaction.transaction());
+                // live view requests are serviced between transactions, so that they are not held
+                // up by a steady stream of transactions
+                activeIntervalCollector.publishRequestedLiveSnapshots();
             }
         }
 
@@ -200,6 +214,7 @@ public class Aggregator {
 
         private IntervalFlusher(AggregateIntervalCollector intervalCollector) {
             this.intervalCollector = intervalCollector;
+            intervalCollector.retire();
             pendingIntervalCollectors.add(intervalCollector);
         }
 
@@ -209,6 +224,8 @@ public class Aggregator {
             // activeIntervalCollector
             synchronized (intervalCollector) {
                 try {
+                    // service any live view requests that were made before the interval was retired
+                    intervalCollector.publishRequestedLiveSnapshots();
                     intervalCollector.flush(collector);
                 } catch (Throwable t) {
                     // log and terminate successfully
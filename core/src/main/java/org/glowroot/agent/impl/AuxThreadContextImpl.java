@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.lang.ref.WeakReference;
+
+import com.google.common.base.Ticker;
+
+import org.glowroot.agent.model.AuxThreadComponent;
+import org.glowroot.agent.model.Transaction;
+import org.glowroot.plugin.api.internal.NopTransactionService.NopTimer;
+import org.glowroot.plugin.api.transaction.AuxThreadContext;
+import org.glowroot.plugin.api.transaction.Timer;
+import org.glowroot.plugin.api.transaction.TimerName;
+
+// created by the transaction thread (or by an auxiliary thread of the same transaction) when work
+// is handed off to another thread, and started by the other thread when it performs the work
+//
+// the other thread captures its timers and query data into its own AuxThreadComponent, which is
+// only handed to the transaction after the work is done, so there is no contention with the
+// transaction thread
+//
+// the transaction is only weakly referenced, since the context can be held much longer than the
+// transaction itself, e.g. by a task that is scheduled with a long delay, or that is queued behind
+// many other tasks
+class AuxThreadContextImpl implements AuxThreadContext {
+
+    private final WeakReference<Transaction> transactionRef;
+    private final TransactionRegistry transactionRegistry;
+    private final TimerName auxThreadTimerName;
+    private final Ticker ticker;
+
+    AuxThreadContextImpl(Transaction transaction, TransactionRegistry transactionRegistry,
+            TimerName auxThreadTimerName, Ticker ticker) {
+        transactionRef = new WeakReference<Transaction>(transaction);
+        this.transactionRegistry = transactionRegistry;
+        this.auxThreadTimerName = auxThreadTimerName;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public Timer start() {
+        if (transactionRegistry.getCurrentTransaction() != null
+                || transactionRegistry.getCurrentAuxThreadComponent() != null) {
+            // e.g. the work is being performed synchronously by the transaction thread (e.g.
+            // ThreadPoolExecutor.CallerRunsPolicy), or this is a nested task
+            return NopTimer.INSTANCE;
+        }
+        Transaction transaction = transactionRef.get();
+        if (transaction == null || transaction.isCompleted()) {
+            // the auxiliary thread data would not be aggregated anyways
+            return NopTimer.INSTANCE;
+        }
+        AuxThreadComponent auxThreadComponent =
+                transaction.createAuxThreadComponent(auxThreadTimerName, ticker.read());
+        transactionRegistry.setCurrentAuxThreadComponent(auxThreadComponent);
+        return new AuxThreadTimer(auxThreadComponent);
+    }
+
+    private class AuxThreadTimer implements Timer {
+
+        private final AuxThreadComponent auxThreadComponent;
+
+        private AuxThreadTimer(AuxThreadComponent auxThreadComponent) {
+            this.auxThreadComponent = auxThreadComponent;
+        }
+
+        @Override
+        public void stop() {
+            transactionRegistry.setCurrentAuxThreadComponent(null);
+            auxThreadComponent.complete(ticker.read());
+        }
+
+        // sampling doesn't make sense for the auxiliary thread root timer
+        @Override
+        public void stopSampled(int executions) {
+            stop();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import javax.annotation.Nullable;
 
 import com.google.common.collect.Sets;
 
+import org.glowroot.agent.model.AuxThreadComponent;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.plugin.api.util.FastThreadLocal;
 
@@ -33,11 +34,25 @@ public class TransactionRegistry {
     private final FastThreadLocal</*@Nullable*/Transaction> currentTransaction =
             new FastThreadLocal</*@Nullable*/Transaction>();
 
+    // auxiliary thread component being captured by the current thread on behalf of a transaction
+    // that is running in another thread (see AuxThreadContextImpl)
+    private final FastThreadLocal</*@Nullable*/AuxThreadComponent> currentAuxThreadComponent =
+            new FastThreadLocal</*@Nullable*/AuxThreadComponent>();
+
     @Nullable
     Transaction getCurrentTransaction() {
         return currentTransaction.get();
     }
 
+    @Nullable
+    AuxThreadComponent getCurrentAuxThreadComponent() {
+        return currentAuxThreadComponent.get();
+    }
+
+    void setCurrentAuxThreadComponent(@Nullable AuxThreadComponent auxThreadComponent) {
+        currentAuxThreadComponent.set(auxThreadComponent);
+    }
+
     void addTransaction(Transaction transaction) {
         currentTransaction.set(transaction);
         transactions.add(transaction);
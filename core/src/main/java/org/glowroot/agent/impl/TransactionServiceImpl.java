@@ -28,10 +28,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.model.AsyncQueryEntryImpl;
+import org.glowroot.agent.model.AuxThreadComponent;
 import org.glowroot.agent.model.ErrorMessage;
 import org.glowroot.agent.model.QueryData;
+import org.glowroot.agent.model.TimerContext;
 import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.model.TimerNameImpl;
+import org.glowroot.agent.model.TraceEntryImpl;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.agent.model.Transaction.CompletionCallback;
 import org.glowroot.agent.model.Transaction.OverrideSource;
@@ -40,15 +44,19 @@ import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.config.PluginConfig;
 import org.glowroot.common.util.Clock;
 import org.glowroot.plugin.api.config.ConfigListener;
+import org.glowroot.plugin.api.internal.NopTransactionService.NopAsyncQueryEntry;
 import org.glowroot.plugin.api.internal.NopTransactionService.NopQueryEntry;
 import org.glowroot.plugin.api.internal.NopTransactionService.NopTimer;
 import org.glowroot.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
+import org.glowroot.plugin.api.transaction.AuxThreadContext;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
 import org.glowroot.plugin.api.transaction.QueryEntry;
 import org.glowroot.plugin.api.transaction.Timer;
 import org.glowroot.plugin.api.transaction.TimerName;
 import org.glowroot.plugin.api.transaction.TraceEntry;
 import org.glowroot.plugin.api.transaction.TransactionService;
+import org.glowroot.plugin.api.weaving.Pointcut;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -68,6 +76,8 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
     private final TransactionCompletionCallback transactionCompletionCallback =
             new TransactionCompletionCallback();
 
+    private final TimerName auxThreadTimerName;
+
     // cache for fast read access
     // visibility is provided by memoryBarrier below
     private boolean captureThreadInfo;
@@ -99,6 +109,7 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         this.userProfileScheduler = userProfileScheduler;
         this.clock = clock;
         this.ticker = ticker;
+        auxThreadTimerName = timerNameCache.getName(AuxThreadTimerMarker.class);
     }
 
     @Override
@@ -143,9 +154,14 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         }
         Transaction transaction = transactionRegistry.getCurrentTransaction();
         if (transaction == null) {
-            return NopTraceEntry.INSTANCE;
+            AuxThreadComponent auxThreadComponent =
+                    transactionRegistry.getCurrentAuxThreadComponent();
+            if (auxThreadComponent == null) {
+                return NopTraceEntry.INSTANCE;
+            }
+            return startAuxThreadEntry(auxThreadComponent, messageSupplier, null, 0, timerName);
         }
-        return startTraceEntryInternal(transaction, messageSupplier, null, null, 0, timerName);
+        return startTraceEntryInternal(transaction, messageSupplier, null, 0, timerName);
     }
 
     @Override
@@ -157,6 +173,14 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
     @Override
     public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
             MessageSupplier messageSupplier, TimerName timerName) {
+        return startQueryEntry(queryType, queryText, queryExecutionCount, null, messageSupplier,
+                timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            @Nullable QueryEntry priorQueryEntry, MessageSupplier messageSupplier,
+            TimerName timerName) {
         if (queryType == null) {
             logger.error("startQuery(): argument 'queryType' must be non-null");
             return NopQueryEntry.INSTANCE;
@@ -175,29 +199,138 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         }
         Transaction transaction = transactionRegistry.getCurrentTransaction();
         if (transaction == null) {
-            return NopQueryEntry.INSTANCE;
+            AuxThreadComponent auxThreadComponent =
+                    transactionRegistry.getCurrentAuxThreadComponent();
+            if (auxThreadComponent == null) {
+                return NopQueryEntry.INSTANCE;
+            }
+            QueryData queryData = auxThreadComponent.getQueryDataIfCached(
+                    getQueryData(priorQueryEntry), queryType, queryText);
+            if (queryData == null) {
+                queryData = auxThreadComponent.getOrCreateQueryDataIfPossible(queryType, queryText);
+            }
+            return startAuxThreadEntry(auxThreadComponent, messageSupplier, queryData,
+                    queryExecutionCount, timerName);
+        }
+        QueryData queryData = transaction.getQueryDataIfCached(getQueryData(priorQueryEntry),
+                queryType, queryText);
+        if (queryData == null) {
+            queryData = transaction.getOrCreateQueryDataIfPossible(queryType, queryText);
         }
-        return startTraceEntryInternal(transaction, messageSupplier, queryType, queryText,
+        return startTraceEntryInternal(transaction, messageSupplier, queryData,
                 queryExecutionCount, timerName);
     }
 
     @Override
-    public Timer startTimer(TimerName timerName) {
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        if (queryType == null) {
+            logger.error("startAsyncQuery(): argument 'queryType' must be non-null");
+            return NopAsyncQueryEntry.INSTANCE;
+        }
+        if (queryText == null) {
+            logger.error("startAsyncQuery(): argument 'queryText' must be non-null");
+            return NopAsyncQueryEntry.INSTANCE;
+        }
+        if (messageSupplier == null) {
+            logger.error("startAsyncQuery(): argument 'messageSupplier' must be non-null");
+            return NopAsyncQueryEntry.INSTANCE;
+        }
         if (timerName == null) {
-            logger.error("startTimer(): argument 'timerName' must be non-null");
+            logger.error("startAsyncQuery(): argument 'timerName' must be non-null");
+            return NopAsyncQueryEntry.INSTANCE;
+        }
+        Transaction transaction = transactionRegistry.getCurrentTransaction();
+        if (transaction == null) {
+            // async query entries are not supported in auxiliary threads since they are ended by
+            // yet another thread, which could be after the auxiliary thread component is completed
+            return NopAsyncQueryEntry.INSTANCE;
+        }
+        long startTick = ticker.read();
+        TimerImpl syncTimer = startTimer(timerName, startTick, transaction);
+        QueryData queryData = transaction.getOrCreateQueryDataIfPossible(queryType, queryText);
+        TraceEntryImpl traceEntry;
+        if (transaction.getEntryCount() < maxTraceEntriesPerTransaction) {
+            traceEntry = transaction.addAsyncEntry(startTick, messageSupplier, queryData);
+        } else {
+            transaction.setEntryLimitExceeded();
+            traceEntry = null;
+        }
+        return new AsyncQueryEntryImpl(transaction, traceEntry, messageSupplier, syncTimer,
+                queryData, startTick);
+    }
+
+    @Override
+    public Timer startQueryTimer(String queryType, String queryText, TimerName timerName) {
+        if (queryType == null) {
+            logger.error("startQueryTimer(): argument 'queryType' must be non-null");
+            return NopTimer.INSTANCE;
+        }
+        if (queryText == null) {
+            logger.error("startQueryTimer(): argument 'queryText' must be non-null");
+            return NopTimer.INSTANCE;
+        }
+        if (timerName == null) {
+            logger.error("startQueryTimer(): argument 'timerName' must be non-null");
             return NopTimer.INSTANCE;
         }
         Transaction transaction = transactionRegistry.getCurrentTransaction();
         if (transaction == null) {
+            AuxThreadComponent auxThreadComponent =
+                    transactionRegistry.getCurrentAuxThreadComponent();
+            if (auxThreadComponent == null) {
+                return NopTimer.INSTANCE;
+            }
+            TimerImpl currentTimer = auxThreadComponent.getCurrentTimer();
+            if (currentTimer == null) {
+                return NopTimer.INSTANCE;
+            }
+            long startTick = ticker.read();
+            return new QueryTimer(currentTimer.startNestedTimer(timerName, startTick),
+                    auxThreadComponent.getOrCreateQueryDataIfPossible(queryType, queryText),
+                    startTick);
+        }
+        long startTick = ticker.read();
+        return new QueryTimer(startTimer(timerName, startTick, transaction),
+                transaction.getOrCreateQueryDataIfPossible(queryType, queryText), startTick);
+    }
+
+    @Override
+    public Timer startTimer(TimerName timerName) {
+        if (timerName == null) {
+            logger.error("startTimer(): argument 'timerName' must be non-null");
             return NopTimer.INSTANCE;
         }
-        TimerImpl currentTimer = transaction.getCurrentTimer();
+        TimerContext timerContext = transactionRegistry.getCurrentTransaction();
+        if (timerContext == null) {
+            timerContext = transactionRegistry.getCurrentAuxThreadComponent();
+            if (timerContext == null) {
+                return NopTimer.INSTANCE;
+            }
+        }
+        TimerImpl currentTimer = timerContext.getCurrentTimer();
         if (currentTimer == null) {
             return NopTimer.INSTANCE;
         }
         return currentTimer.startNestedTimer(timerName);
     }
 
+    @Override
+    public @Nullable AuxThreadContext createAuxThreadContext() {
+        Transaction transaction = transactionRegistry.getCurrentTransaction();
+        if (transaction == null) {
+            // work handed off by an auxiliary thread is also attributed to the transaction
+            AuxThreadComponent auxThreadComponent =
+                    transactionRegistry.getCurrentAuxThreadComponent();
+            if (auxThreadComponent == null) {
+                return null;
+            }
+            transaction = auxThreadComponent.getTransaction();
+        }
+        return new AuxThreadContextImpl(transaction, transactionRegistry, auxThreadTimerName,
+                ticker);
+    }
+
     @Override
     public void addErrorEntry(Throwable t) {
         addErrorEntryInternal(ErrorMessage.from(t));
@@ -219,7 +352,7 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         if (transaction != null
                 && transaction.getEntryCount() < 2 * maxTraceEntriesPerTransaction) {
             long currTick = ticker.read();
-            org.glowroot.agent.model.TraceEntryImpl entry =
+            TraceEntryImpl entry =
                     transaction.addEntry(currTick, currTick, null, errorMessage, true);
             if (errorMessage.throwable() == null) {
                 StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
@@ -349,38 +482,63 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
             transactionRegistry.addTransaction(transaction);
             return transaction.getRootEntry();
         } else {
-            return startTraceEntryInternal(transaction, messageSupplier, null, null, 0, timerName);
+            return startTraceEntryInternal(transaction, messageSupplier, null, 0, timerName);
         }
     }
 
     private QueryEntry startTraceEntryInternal(Transaction transaction,
-            MessageSupplier messageSupplier, @Nullable String queryType, @Nullable String queryText,
+            MessageSupplier messageSupplier, @Nullable QueryData queryData,
             long queryExecutionCount, TimerName timerName) {
         long startTick = ticker.read();
         if (transaction.getEntryCount() < maxTraceEntriesPerTransaction) {
             TimerImpl timer = startTimer(timerName, startTick, transaction);
-            return transaction.pushEntry(startTick, messageSupplier, queryType, queryText,
+            return transaction.pushEntry(startTick, messageSupplier, queryData,
                     queryExecutionCount, timer);
         }
         // split out to separate method so as not to affect inlining budget of common path
-        return startDummyTraceEntry(transaction, timerName, messageSupplier, queryType, queryText,
+        return startDummyTraceEntry(transaction, timerName, messageSupplier, queryData,
                 queryExecutionCount, startTick);
     }
 
     private QueryEntry startDummyTraceEntry(Transaction transaction, TimerName timerName,
-            MessageSupplier messageSupplier, @Nullable String queryType, @Nullable String queryText,
+            MessageSupplier messageSupplier, @Nullable QueryData queryData,
             long queryExecutionCount, long startTick) {
         // the entry limit has been exceeded for this trace
-        QueryData queryData = null;
-        if (queryType != null && queryText != null) {
-            queryData = transaction.getOrCreateQueryDataIfPossible(queryType, queryText);
-        }
         transaction.setEntryLimitExceeded();
         TimerImpl timer = startTimer(timerName, startTick, transaction);
         return new DummyTraceEntryOrQuery(timer, startTick, transaction, messageSupplier, queryData,
                 queryExecutionCount);
     }
 
+    // auxiliary threads only capture timers and query data, see AuxThreadContext
+    private QueryEntry startAuxThreadEntry(AuxThreadComponent auxThreadComponent,
+            MessageSupplier messageSupplier, @Nullable QueryData queryData,
+            long queryExecutionCount, TimerName timerName) {
+        TimerImpl currentTimer = auxThreadComponent.getCurrentTimer();
+        if (currentTimer == null) {
+            // this really shouldn't happen as the auxiliary thread root timer is active until the
+            // auxiliary thread component is completed
+            return NopQueryEntry.INSTANCE;
+        }
+        long startTick = ticker.read();
+        TimerImpl timer = currentTimer.startNestedTimer(timerName, startTick);
+        return new DummyTraceEntryOrQuery(timer, startTick, null, messageSupplier, queryData,
+                queryExecutionCount);
+    }
+
+    // the prior query entry is typically the last entry returned for the same prepared statement,
+    // in which case its query data can be reused without a lookup (see
+    // Transaction.getQueryDataIfCached())
+    private static @Nullable QueryData getQueryData(@Nullable QueryEntry priorQueryEntry) {
+        if (priorQueryEntry instanceof TraceEntryImpl) {
+            return ((TraceEntryImpl) priorQueryEntry).getQueryData();
+        }
+        if (priorQueryEntry instanceof DummyTraceEntryOrQuery) {
+            return ((DummyTraceEntryOrQuery) priorQueryEntry).queryData;
+        }
+        return null;
+    }
+
     private TimerImpl startTimer(TimerName timerName, long startTick, Transaction transaction) {
         TimerImpl currentTimer = transaction.getCurrentTimer();
         if (currentTimer == null) {
@@ -417,7 +575,8 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
 
         private final TimerImpl timer;
         private final long startTick;
-        private final Transaction transaction;
+        // null for auxiliary threads, which do not capture trace entries
+        private final @Nullable Transaction transaction;
         private final MessageSupplier messageSupplier;
 
         // not volatile, so depends on memory barrier in Transaction for visibility
@@ -431,9 +590,9 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         private long currRow = -1;
         private long maxRow;
 
-        public DummyTraceEntryOrQuery(TimerImpl timer, long startTick, Transaction transaction,
-                MessageSupplier messageSupplier, @Nullable QueryData queryData,
-                long queryExecutionCount) {
+        public DummyTraceEntryOrQuery(TimerImpl timer, long startTick,
+                @Nullable Transaction transaction, MessageSupplier messageSupplier,
+                @Nullable QueryData queryData, long queryExecutionCount) {
             this.timer = timer;
             this.startTick = startTick;
             this.transaction = transaction;
@@ -474,11 +633,18 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
             endWithErrorInternal(ErrorMessage.from(message, t));
         }
 
+        @Override
+        public void endWithDeferredError(MessageSupplier errorMessageSupplier,
+                @Nullable Throwable t) {
+            endWithErrorInternal(ErrorMessage.fromDeferred(errorMessageSupplier, t));
+        }
+
         private void endWithErrorInternal(ErrorMessage errorMessage) {
             long endTick = ticker.read();
             endInternal(endTick);
             // use higher entry limit when adding errors, but still need some kind of cap
-            if (transaction.getEntryCount() < 2 * maxTraceEntriesPerTransaction) {
+            if (transaction != null
+                    && transaction.getEntryCount() < 2 * maxTraceEntriesPerTransaction) {
                 // entry won't be nested properly, but at least the error will get captured
                 org.glowroot.agent.model.TraceEntryImpl entry = transaction.addEntry(startTick,
                         endTick, messageSupplier, errorMessage, true);
@@ -518,12 +684,18 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
         @Override
         public void stop() {
             // the timer interface for this class is only expose through return value of extend()
+            stopSampled(1);
+        }
+
+        // this is called for stopping a sampled extension
+        @Override
+        public void stopSampled(int executions) {
             if (--selfNestingLevel == 0) {
                 long stopTick = ticker.read();
                 checkNotNull(extendedTimer);
-                extendedTimer.end(stopTick);
+                extendedTimer.end(stopTick, executions);
                 if (queryData != null) {
-                    queryData.end(stopTick);
+                    queryData.end(stopTick, executions);
                 }
             }
         }
@@ -569,4 +741,40 @@ public class TransactionServiceImpl implements TransactionService, ConfigListene
             currRow = row;
         }
     }
+
+    // only captures the timer and the query aggregation, see startQueryTimer()
+    private class QueryTimer implements Timer {
+
+        private final TimerImpl timer;
+        // null if the aggregated query limit is exceeded
+        private final @Nullable QueryData queryData;
+
+        private QueryTimer(TimerImpl timer, @Nullable QueryData queryData, long startTick) {
+            this.timer = timer;
+            this.queryData = queryData;
+            if (queryData != null) {
+                queryData.start(startTick, 1);
+            }
+        }
+
+        @Override
+        public void stop() {
+            stopSampled(1);
+        }
+
+        @Override
+        public void stopSampled(int executions) {
+            long endTick = ticker.read();
+            timer.end(endTick, executions);
+            if (queryData != null) {
+                queryData.end(endTick, executions);
+            }
+        }
+    }
+
+    @Pointcut(className = "", methodName = "", methodParameterTypes = {},
+            timerName = "auxiliary thread")
+    private static class AuxThreadTimerMarker {
+        private AuxThreadTimerMarker() {}
+    }
 }
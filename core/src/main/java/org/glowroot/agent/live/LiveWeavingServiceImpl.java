@@ -25,6 +25,7 @@ import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -34,25 +35,48 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.advicegen.AdviceGenerator;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.impl.AdviceCache;
 import org.glowroot.agent.live.ClasspathCache.UiAnalyzedMethod;
+import org.glowroot.agent.weaving.Advice;
 import org.glowroot.agent.weaving.AnalyzedWorld;
 import org.glowroot.common.config.InstrumentationConfig;
 import org.glowroot.live.ImmutableGlobalMeta;
 import org.glowroot.live.ImmutableMethodSignature;
+import org.glowroot.live.ImmutableReweavePreview;
+import org.glowroot.live.ImmutableReweaveProgress;
 import org.glowroot.live.LiveWeavingService;
+import org.glowroot.live.LiveWeavingService.PartialReweaveException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.objectweb.asm.Opcodes.ACC_FINAL;
 import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
 
 public class LiveWeavingServiceImpl implements LiveWeavingService {
 
+    private static final Logger logger = LoggerFactory.getLogger(LiveWeavingServiceImpl.class);
+
     private static final String THE_SINGLE_KEY = "THE_SINGLE_KEY";
+
+    // the jvm is paused for the duration of each Instrumentation.retransformClasses() call, so
+    // classes are retransformed in batches of at most this many classes (0 disables batching)
+    private static final int RETRANSFORM_BATCH_SIZE =
+            Integer.getInteger("glowroot.internal.weaving.retransformBatchSize", 100);
+
+    // the batch size is halved whenever a single batch pauses the jvm for longer than this, and
+    // doubled (up to the configured batch size) whenever a batch pauses the jvm for less than half
+    // of this
+    private static final long RETRANSFORM_PAUSE_BUDGET_MILLIS =
+            Long.getLong("glowroot.internal.weaving.retransformPauseBudgetMillis", 100);
     private static final Splitter splitter = Splitter.on(' ').omitEmptyStrings();
 
     private final AnalyzedWorld analyzedWorld;
@@ -62,6 +86,10 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
     private final boolean jvmRetransformClassesSupported;
     private final boolean timerWrapperMethods;
 
+    private volatile boolean reweaveInProgress;
+    private volatile int reweaveTotalClasses;
+    private volatile int reweaveRetransformedClasses;
+
     // hopefully can simplify someday https://github.com/google/guava/issues/872
     private final LoadingCache<String, ClasspathCache> classpathCache = CacheBuilder.newBuilder()
             .softValues()
@@ -164,6 +192,32 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return reweaveInternal();
     }
 
+    @Override
+    public ReweavePreview previewReweave() {
+        // this action is not displayed in the UI when instrumentation is null
+        // (which is only in dev mode anyways)
+        checkNotNull(instrumentation);
+        List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
+        Set<Class<?>> classes = Sets.newHashSet();
+        classes.addAll(analyzedWorld.getClassesWithReweavableAdvice(false));
+        classes.addAll(getExistingSubClasses(getClassNames(configs)));
+        // the generated advice classes are not defined, only their advisors are used for matching
+        List<Advice> advisors = AdviceGenerator.createAdvisors(configs, null).keySet().asList();
+        return ImmutableReweavePreview.builder()
+                .classes(classes.size())
+                .methods(AnalyzedWorld.getMatchingMethodCount(classes, advisors))
+                .build();
+    }
+
+    @Override
+    public ReweaveProgress getReweaveProgress() {
+        return ImmutableReweaveProgress.builder()
+                .inProgress(reweaveInProgress)
+                .totalClasses(reweaveTotalClasses)
+                .retransformedClasses(reweaveRetransformedClasses)
+                .build();
+    }
+
     @Override
     public Boolean isTimerWrapperMethodsActive() {
         return timerWrapperMethods;
@@ -187,26 +241,43 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
 
     @RequiresNonNull("instrumentation")
     private int reweaveInternal() throws Exception {
-        List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
-        adviceCache.updateAdvisors(configs, false);
-        Set<String> classNames = Sets.newHashSet();
-        for (InstrumentationConfig config : configs) {
-            classNames.add(config.className());
+        List<Class<?>> existingReweavableClasses;
+        List<Class<?>> possibleNewReweavableClasses;
+        List<Class<?>> orderedClasses;
+        // the lock is only held while preparing the reweave, and not while retransforming (which
+        // sleeps between batches), concurrent reweaves are rejected instead using
+        // reweaveInProgress
+        synchronized (this) {
+            checkState(!reweaveInProgress, "Reweave is already in progress");
+            List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
+            adviceCache.updateAdvisors(configs, false);
+            analyzedWorld.prebuildAdviceMatcherIndex();
+            Set<String> classNames = getClassNames(configs);
+            Set<Class<?>> classes = Sets.newHashSet();
+            possibleNewReweavableClasses = getExistingSubClasses(classNames);
+            // need to remove these classes from AnalyzedWorld, otherwise if a subclass and its
+            // parent class are both in the list and the subclass is re-transformed first, it will
+            // use the old cached AnalyzedClass for its parent which will have the old
+            // AnalyzedMethod advisors
+            existingReweavableClasses = analyzedWorld.getClassesWithReweavableAdvice(true);
+            analyzedWorld.removeClasses(possibleNewReweavableClasses);
+            classes.addAll(existingReweavableClasses);
+            classes.addAll(possibleNewReweavableClasses);
+            if (classes.isEmpty()) {
+                return 0;
+            }
+            // retransform super classes before their subclasses, so that subclasses are analyzed
+            // against super classes that have already been re-analyzed
+            orderedClasses = new HierarchyDepthOrdering().sortedCopy(classes);
+            reweaveTotalClasses = orderedClasses.size();
+            reweaveRetransformedClasses = 0;
+            reweaveInProgress = true;
         }
-        Set<Class<?>> classes = Sets.newHashSet();
-        List<Class<?>> possibleNewReweavableClasses = getExistingSubClasses(classNames);
-        // need to remove these classes from AnalyzedWorld, otherwise if a subclass and its parent
-        // class are both in the list and the subclass is re-transformed first, it will use the
-        // old cached AnalyzedClass for its parent which will have the old AnalyzedMethod advisors
-        List<Class<?>> existingReweavableClasses =
-                analyzedWorld.getClassesWithReweavableAdvice(true);
-        analyzedWorld.removeClasses(possibleNewReweavableClasses);
-        classes.addAll(existingReweavableClasses);
-        classes.addAll(possibleNewReweavableClasses);
-        if (classes.isEmpty()) {
-            return 0;
+        try {
+            retransformClasses(orderedClasses, RETRANSFORM_BATCH_SIZE);
+        } finally {
+            reweaveInProgress = false;
         }
-        instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
         List<Class<?>> updatedReweavableClasses =
                 analyzedWorld.getClassesWithReweavableAdvice(false);
         // all existing reweavable classes were woven
@@ -221,6 +292,44 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return count;
     }
 
+    @VisibleForTesting
+    @RequiresNonNull("instrumentation")
+    void retransformClasses(List<Class<?>> orderedClasses, int configuredBatchSize)
+            throws Exception {
+        int maxBatchSize = configuredBatchSize > 0 ? configuredBatchSize : orderedClasses.size();
+        int batchSize = maxBatchSize;
+        int index = 0;
+        while (index < orderedClasses.size()) {
+            int end = Math.min(index + batchSize, orderedClasses.size());
+            List<Class<?>> batch = orderedClasses.subList(index, end);
+            long startTick = System.nanoTime();
+            try {
+                instrumentation.retransformClasses(Iterables.toArray(batch, Class.class));
+            } catch (Throwable t) {
+                if (index > 0) {
+                    // earlier batches cannot be rolled back, so report how far the reweave got
+                    logger.warn("reweave failed after retransforming {} of {} classes: {}", index,
+                            orderedClasses.size(), t.getMessage(), t);
+                    throw new PartialReweaveException(index, orderedClasses.size(), t);
+                }
+                Throwables.propagateIfPossible(t, Exception.class);
+                throw new Exception(t);
+            }
+            long pauseMillis = NANOSECONDS.toMillis(System.nanoTime() - startTick);
+            index = end;
+            reweaveRetransformedClasses = index;
+            if (pauseMillis > RETRANSFORM_PAUSE_BUDGET_MILLIS) {
+                batchSize = Math.max(batchSize / 2, 1);
+            } else if (pauseMillis < RETRANSFORM_PAUSE_BUDGET_MILLIS / 2) {
+                batchSize = Math.min(batchSize * 2, maxBatchSize);
+            }
+            if (index < orderedClasses.size()) {
+                // give the application at least as much time to run as the last pause took
+                MILLISECONDS.sleep(pauseMillis);
+            }
+        }
+    }
+
     @RequiresNonNull("instrumentation")
     private List<Class<?>> getExistingSubClasses(Set<String> classNames) {
         List<Class<?>> classes = Lists.newArrayList();
@@ -232,6 +341,14 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return classes;
     }
 
+    private static Set<String> getClassNames(List<InstrumentationConfig> configs) {
+        Set<String> classNames = Sets.newHashSet();
+        for (InstrumentationConfig config : configs) {
+            classNames.add(config.className());
+        }
+        return classNames;
+    }
+
     private static boolean isSubClassOfOneOf(Class<?> clazz, Set<String> classNames) {
         if (classNames.contains(clazz.getName())) {
             return true;
@@ -248,6 +365,27 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return false;
     }
 
+    @VisibleForTesting
+    static class HierarchyDepthOrdering extends Ordering<Class<?>> {
+
+        @Override
+        public int compare(@Nullable Class<?> left, @Nullable Class<?> right) {
+            checkNotNull(left);
+            checkNotNull(right);
+            return Ints.compare(getDepth(left), getDepth(right));
+        }
+
+        private static int getDepth(Class<?> clazz) {
+            int depth = 0;
+            Class<?> superclass = clazz.getSuperclass();
+            while (superclass != null) {
+                depth++;
+                superclass = superclass.getSuperclass();
+            }
+            return depth;
+        }
+    }
+
     @VisibleForTesting
     static class UiAnalyzedMethodOrdering extends Ordering<UiAnalyzedMethod> {
 
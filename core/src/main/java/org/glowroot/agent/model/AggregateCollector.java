@@ -17,10 +17,13 @@ package org.glowroot.agent.model;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 
 import org.glowroot.agent.model.ThreadInfoComponent.ThreadInfoData;
 import org.glowroot.collector.spi.Constants;
@@ -49,43 +52,86 @@ import org.glowroot.live.LiveAggregateRepository.TransactionErrorSummary;
 import org.glowroot.live.LiveAggregateRepository.TransactionSummary;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
-// must be used under an appropriate lock
+// must be used under an appropriate lock, except for the live view methods which are documented
+// below
 @Styles.Private
 class AggregateCollector {
 
+    static final int LIVE_HISTOGRAM = 1;
+    static final int LIVE_ROOT_TIMERS = 2;
+    static final int LIVE_QUERIES = 4;
+    static final int LIVE_PROFILE = 8;
+
+    private static final int LIVE_ALL = LIVE_HISTOGRAM | LIVE_ROOT_TIMERS | LIVE_QUERIES
+            | LIVE_PROFILE;
+
     private final @Nullable String transactionName;
-    private long totalNanos;
-    private long transactionCount;
-    private long errorCount;
-    private long totalCpuNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
-    private long totalBlockedNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
-    private long totalWaitedNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
-    private long totalAllocatedBytes = Constants.THREAD_DATA_NOT_AVAILABLE;
+
+    // the scalar counters are only written by the aggregation thread, and are read by live views
+    // without locking, using counterWriteSeq as a seqlock (odd while a write is in progress)
+    private volatile int counterWriteSeq;
+    private volatile long totalNanos;
+    private volatile long transactionCount;
+    private volatile long errorCount;
+    private volatile long totalCpuNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
+    private volatile long totalBlockedNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
+    private volatile long totalWaitedNanos = Constants.THREAD_DATA_NOT_AVAILABLE;
+    private volatile long totalAllocatedBytes = Constants.THREAD_DATA_NOT_AVAILABLE;
+
+    // the non-scalar state below is only read by live views via snapshots that are published by
+    // the aggregation thread on request (see publishRequestedLiveSnapshot()), so that live views
+    // never need to hold the lock that the aggregation thread uses
+    private final AtomicInteger liveSnapshotRequests = new AtomicInteger();
+    private volatile @Nullable LiveSnapshot liveSnapshot;
+    private final Object liveSnapshotMonitor = new Object();
+
     // histogram values are in nanoseconds, but with microsecond precision to reduce the number of
     // buckets (and memory) required
     private final LazyHistogram lazyHistogram = new LazyHistogram();
     private final List<MutableTimer> rootTimers = Lists.newArrayList();
-    private final QueryCollector queries;
-    private final MutableProfileTree profileTree = new MutableProfileTree();
+    private final int maxAggregateQueriesPerQueryType;
+    private final int hardLimitMultiplierWhileBuilding;
+    // queries and profile are not converted by the aggregation thread for live views, since they
+    // can be large, instead the aggregation thread hands off what it has collected so far (and
+    // starts collecting into new instances), and the live view threads merge the handed off
+    // instances into their own copies below (see handOffLiveCopies())
+    private QueryCollector queries;
+    private MutableProfileTree profileTree = new MutableProfileTree();
+    private boolean handedOff;
+
+    private final Queue<QueryCollector> handedOffQueries = Queues.newConcurrentLinkedQueue();
+    private final Queue<MutableProfileTree> handedOffProfileTrees =
+            Queues.newConcurrentLinkedQueue();
+    // the live copies are guarded by liveCopyLock, which is never acquired by the aggregation
+    // thread
+    private final QueryCollector liveQueries;
+    private final MutableProfileTree liveProfileTree = new MutableProfileTree();
+    private final Object liveCopyLock = new Object();
 
     AggregateCollector(@Nullable String transactionName, int maxAggregateQueriesPerQueryType) {
-        int hardLimitMultiplierWhileBuilding = transactionName == null
+        hardLimitMultiplierWhileBuilding = transactionName == null
                 ? AdvancedConfig.OVERALL_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER
                 : AdvancedConfig.TRANSACTION_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER;
+        this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
         queries = new QueryCollector(maxAggregateQueriesPerQueryType,
                 hardLimitMultiplierWhileBuilding);
+        liveQueries = new QueryCollector(maxAggregateQueriesPerQueryType,
+                hardLimitMultiplierWhileBuilding);
         this.transactionName = transactionName;
     }
 
     void add(Transaction transaction) {
         long totalNanos = transaction.getDurationNanos();
+        ThreadInfoData threadInfo = transaction.getThreadInfo();
+        // single writer, so non-atomic increment of volatile is ok
+        counterWriteSeq++;
         this.totalNanos += totalNanos;
         transactionCount++;
         if (transaction.getErrorMessage() != null) {
             errorCount++;
         }
-        ThreadInfoData threadInfo = transaction.getThreadInfo();
         if (threadInfo != null) {
             totalCpuNanos = notAvailableAwareAdd(totalCpuNanos, threadInfo.threadCpuNanos());
             totalBlockedNanos =
@@ -95,6 +141,7 @@ class AggregateCollector {
             totalAllocatedBytes =
                     notAvailableAwareAdd(totalAllocatedBytes, threadInfo.threadAllocatedBytes());
         }
+        counterWriteSeq++;
         lazyHistogram.add(totalNanos);
     }
 
@@ -122,6 +169,21 @@ class AggregateCollector {
     }
 
     Aggregate build(long captureTime, ScratchBuffer scratchBuffer) throws IOException {
+        List<Aggregate.QueriesByType> queriesByType;
+        ProfileTree profile;
+        if (handedOff) {
+            handOffLiveCopies(LIVE_QUERIES | LIVE_PROFILE);
+            synchronized (liveCopyLock) {
+                mergeHandedOffQueries();
+                mergeHandedOffProfileTrees();
+                queriesByType = liveQueries.toProtobuf(true);
+                profile = liveProfileTree.toProtobuf();
+            }
+        } else {
+            // common case, no live view has requested queries or profile during this interval
+            queriesByType = queries.toProtobuf(true);
+            profile = profileTree.toProtobuf();
+        }
         return Aggregate.newBuilder()
                 .setCaptureTime(captureTime)
                 .setTotalNanos(totalNanos)
@@ -133,90 +195,217 @@ class AggregateCollector {
                 .setTotalAllocatedBytes(totalAllocatedBytes)
                 .setTotalNanosHistogram(lazyHistogram.toProtobuf(scratchBuffer))
                 .addAllRootTimer(getRootTimersProtobuf())
-                .addAllQueriesByType(queries.toProtobuf(true))
-                .setProfileTree(profileTree.toProtobuf())
+                .addAllQueriesByType(queriesByType)
+                .setProfileTree(profile)
                 .build();
     }
 
-    OverviewAggregate buildLiveOverviewAggregate(long captureTime) throws IOException {
-        return ImmutableOverviewAggregate.builder()
-                .captureTime(captureTime)
-                .totalNanos(totalNanos)
-                .transactionCount(transactionCount)
-                .totalCpuNanos(totalCpuNanos)
-                .totalBlockedNanos(totalBlockedNanos)
-                .totalWaitedNanos(totalWaitedNanos)
-                .totalAllocatedBytes(totalAllocatedBytes)
-                .rootTimers(getRootTimersProtobuf())
-                .build();
+    // called by the aggregation thread (under this collector's lock) between transactions, and
+    // periodically when idle, in order to service live view requests
+    void publishRequestedLiveSnapshot(ScratchBuffer scratchBuffer) throws IOException {
+        if (liveSnapshotRequests.get() == 0) {
+            // common case
+            return;
+        }
+        int requested = liveSnapshotRequests.getAndSet(0);
+        LiveSnapshot previous = liveSnapshot;
+        if (previous != null && previous.counterWriteSeq == counterWriteSeq) {
+            // keep previously requested components in the snapshot so that concurrent live views
+            // requesting different components do not keep evicting each other's
+            requested |= previous.components;
+        }
+        publishLiveSnapshot(buildLiveSnapshot(requested, scratchBuffer));
     }
 
-    PercentileAggregate buildLivePercentileAggregate(long captureTime)
-            throws IOException {
-        return ImmutablePercentileAggregate.builder()
-                .captureTime(captureTime)
-                .totalNanos(totalNanos)
-                .transactionCount(transactionCount)
-                .histogram(lazyHistogram.toProtobuf(new ScratchBuffer()))
-                .build();
+    // the live view methods below can be called without holding any lock
+
+    @Nullable
+    LiveSnapshot getFreshLiveSnapshot(int components) {
+        LiveSnapshot snapshot = liveSnapshot;
+        if (snapshot != null && snapshot.counterWriteSeq == counterWriteSeq
+                && snapshot.hasComponents(components)) {
+            return snapshot;
+        }
+        return null;
+    }
+
+    void requestLiveSnapshot(int components) {
+        int requested;
+        do {
+            requested = liveSnapshotRequests.get();
+        } while (!liveSnapshotRequests.compareAndSet(requested, requested | components));
+    }
+
+    @Nullable
+    LiveSnapshot awaitLiveSnapshot(int components, long timeoutMillis)
+            throws InterruptedException {
+        int requestedAtSeq = counterWriteSeq;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (liveSnapshotMonitor) {
+            while (true) {
+                LiveSnapshot snapshot = liveSnapshot;
+                if (snapshot != null && snapshot.counterWriteSeq - requestedAtSeq >= 0
+                        && snapshot.hasComponents(components)) {
+                    return snapshot;
+                }
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    return null;
+                }
+                liveSnapshotMonitor.wait(remainingMillis);
+            }
+        }
     }
 
     OverallSummary getLiveOverallSummary() {
+        Counters counters = readCounters();
         return ImmutableOverallSummary.builder()
-                .totalNanos(totalNanos)
-                .transactionCount(transactionCount)
+                .totalNanos(counters.totalNanos)
+                .transactionCount(counters.transactionCount)
                 .build();
     }
 
     TransactionSummary getLiveTransactionSummary() {
         // this method should not be called on overall aggregate
         checkNotNull(transactionName);
+        Counters counters = readCounters();
         return ImmutableTransactionSummary.builder()
                 .transactionName(transactionName)
-                .totalNanos(totalNanos)
-                .transactionCount(transactionCount)
+                .totalNanos(counters.totalNanos)
+                .transactionCount(counters.transactionCount)
                 .build();
     }
 
     OverallErrorSummary getLiveOverallErrorSummary() {
+        Counters counters = readCounters();
         return ImmutableOverallErrorSummary.builder()
-                .errorCount(errorCount)
-                .transactionCount(transactionCount)
+                .errorCount(counters.errorCount)
+                .transactionCount(counters.transactionCount)
                 .build();
     }
 
     TransactionErrorSummary getLiveTransactionErrorSummary() {
         // this method should not be called on overall aggregate
         checkNotNull(transactionName);
+        Counters counters = readCounters();
         return ImmutableTransactionErrorSummary.builder()
                 .transactionName(transactionName)
-                .errorCount(errorCount)
-                .transactionCount(transactionCount)
+                .errorCount(counters.errorCount)
+                .transactionCount(counters.transactionCount)
                 .build();
     }
 
-    // needs to return copy for thread safety
-    ProfileTree getLiveProfile() throws IOException {
-        return profileTree.toProtobuf();
-    }
-
-    // needs to return copy for thread safety
-    List<Aggregate.QueriesByType> getLiveQueries() {
-        return queries.toProtobuf(false);
-    }
-
     @Nullable
     ErrorPoint buildErrorPoint(long captureTime) {
-        if (errorCount == 0) {
+        Counters counters = readCounters();
+        if (counters.errorCount == 0) {
             return null;
         }
         return ImmutableErrorPoint.builder()
                 .captureTime(captureTime)
-                .errorCount(errorCount)
-                .transactionCount(transactionCount)
+                .errorCount(counters.errorCount)
+                .transactionCount(counters.transactionCount)
                 .build();
     }
 
+    // the snapshot must have been requested with LIVE_QUERIES, the returned queries may include
+    // transactions that completed after the snapshot was taken
+    List<Aggregate.QueriesByType> getLiveQueries(LiveSnapshot snapshot) {
+        checkState(snapshot.hasComponents(LIVE_QUERIES));
+        synchronized (liveCopyLock) {
+            List<Aggregate.QueriesByType> queries = snapshot.queries;
+            if (queries == null) {
+                mergeHandedOffQueries();
+                queries = liveQueries.toProtobuf(false);
+                snapshot.queries = queries;
+            }
+            return queries;
+        }
+    }
+
+    // the snapshot must have been requested with LIVE_PROFILE, the returned profile may include
+    // transactions that completed after the snapshot was taken
+    ProfileTree getLiveProfile(LiveSnapshot snapshot) {
+        checkState(snapshot.hasComponents(LIVE_PROFILE));
+        synchronized (liveCopyLock) {
+            ProfileTree profile = snapshot.profile;
+            if (profile == null) {
+                mergeHandedOffProfileTrees();
+                profile = liveProfileTree.toProtobuf();
+                snapshot.profile = profile;
+            }
+            return profile;
+        }
+    }
+
+    // must be called under this collector's lock
+    LiveSnapshot buildLiveSnapshot() throws IOException {
+        return buildLiveSnapshot(LIVE_ALL, new ScratchBuffer());
+    }
+
+    // must be called under this collector's lock
+    private LiveSnapshot buildLiveSnapshot(int components, ScratchBuffer scratchBuffer)
+            throws IOException {
+        handOffLiveCopies(components);
+        return new LiveSnapshot(components, counterWriteSeq, readCounters(),
+                (components & LIVE_HISTOGRAM) == 0 ? null
+                        : lazyHistogram.toProtobuf(scratchBuffer),
+                (components & LIVE_ROOT_TIMERS) == 0 ? null : getRootTimersProtobuf());
+    }
+
+    // must be called under this collector's lock, this is cheap since it does not copy or convert anything
+    private void handOffLiveCopies(int components) {
+        if ((components & LIVE_QUERIES) != 0) {
+            handedOffQueries.add(queries);
+            queries = new QueryCollector(maxAggregateQueriesPerQueryType,
+                    hardLimitMultiplierWhileBuilding);
+            handedOff = true;
+        }
+        if ((components & LIVE_PROFILE) != 0) {
+            handedOffProfileTrees.add(profileTree);
+            profileTree = new MutableProfileTree();
+            handedOff = true;
+        }
+    }
+
+    // must be called under liveCopyLock
+    private void mergeHandedOffQueries() {
+        QueryCollector queries;
+        while ((queries = handedOffQueries.poll()) != null) {
+            liveQueries.merge(queries);
+        }
+    }
+
+    // must be called under liveCopyLock
+    private void mergeHandedOffProfileTrees() {
+        MutableProfileTree profileTree;
+        while ((profileTree = handedOffProfileTrees.poll()) != null) {
+            liveProfileTree.merge(profileTree);
+        }
+    }
+
+    private void publishLiveSnapshot(LiveSnapshot snapshot) {
+        liveSnapshot = snapshot;
+        synchronized (liveSnapshotMonitor) {
+            liveSnapshotMonitor.notifyAll();
+        }
+    }
+
+    private Counters readCounters() {
+        while (true) {
+            int seq = counterWriteSeq;
+            if ((seq & 1) == 0) {
+                Counters counters = new Counters(totalNanos, transactionCount, errorCount,
+                        totalCpuNanos, totalBlockedNanos, totalWaitedNanos, totalAllocatedBytes);
+                if (seq == counterWriteSeq) {
+                    return counters;
+                }
+            }
+            // write in progress, which only takes a handful of instructions
+            Thread.yield();
+        }
+    }
+
     private List<Aggregate.Timer> getRootTimersProtobuf() {
         List<Aggregate.Timer> rootTimers = Lists.newArrayListWithCapacity(this.rootTimers.size());
         for (MutableTimer rootTimer : this.rootTimers) {
@@ -234,4 +423,77 @@ class AggregateCollector {
         }
         return x + y;
     }
+
+    // immutable snapshot of the aggregate state for use by live views
+    static class LiveSnapshot {
+
+        private final int components;
+        private final int counterWriteSeq;
+        private final Counters counters;
+        private final @Nullable Aggregate.Histogram histogram;
+        private final @Nullable List<Aggregate.Timer> rootTimers;
+        // queries and profile are converted lazily by the first live view that needs them (see
+        // AggregateCollector.getLiveQueries() and getLiveProfile()), guarded by liveCopyLock
+        private @Nullable List<Aggregate.QueriesByType> queries;
+        private @Nullable ProfileTree profile;
+
+        private LiveSnapshot(int components, int counterWriteSeq, Counters counters,
+                @Nullable Aggregate.Histogram histogram,
+                @Nullable List<Aggregate.Timer> rootTimers) {
+            this.components = components;
+            this.counterWriteSeq = counterWriteSeq;
+            this.counters = counters;
+            this.histogram = histogram;
+            this.rootTimers = rootTimers;
+        }
+
+        OverviewAggregate buildLiveOverviewAggregate(long captureTime) {
+            return ImmutableOverviewAggregate.builder()
+                    .captureTime(captureTime)
+                    .totalNanos(counters.totalNanos)
+                    .transactionCount(counters.transactionCount)
+                    .totalCpuNanos(counters.totalCpuNanos)
+                    .totalBlockedNanos(counters.totalBlockedNanos)
+                    .totalWaitedNanos(counters.totalWaitedNanos)
+                    .totalAllocatedBytes(counters.totalAllocatedBytes)
+                    .rootTimers(checkNotNull(rootTimers))
+                    .build();
+        }
+
+        PercentileAggregate buildLivePercentileAggregate(long captureTime) {
+            return ImmutablePercentileAggregate.builder()
+                    .captureTime(captureTime)
+                    .totalNanos(counters.totalNanos)
+                    .transactionCount(counters.transactionCount)
+                    .histogram(checkNotNull(histogram))
+                    .build();
+        }
+
+        private boolean hasComponents(int components) {
+            return (this.components & components) == components;
+        }
+    }
+
+    private static class Counters {
+
+        private final long totalNanos;
+        private final long transactionCount;
+        private final long errorCount;
+        private final long totalCpuNanos;
+        private final long totalBlockedNanos;
+        private final long totalWaitedNanos;
+        private final long totalAllocatedBytes;
+
+        private Counters(long totalNanos, long transactionCount, long errorCount,
+                long totalCpuNanos, long totalBlockedNanos, long totalWaitedNanos,
+                long totalAllocatedBytes) {
+            this.totalNanos = totalNanos;
+            this.transactionCount = transactionCount;
+            this.errorCount = errorCount;
+            this.totalCpuNanos = totalCpuNanos;
+            this.totalBlockedNanos = totalBlockedNanos;
+            this.totalWaitedNanos = totalWaitedNanos;
+            this.totalAllocatedBytes = totalAllocatedBytes;
+        }
+    }
 }
@@ -29,6 +29,7 @@ import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.model.AggregateCollector.LiveSnapshot;
 import org.glowroot.collector.spi.Collector;
 import org.glowroot.collector.spi.model.AggregateOuterClass.Aggregate;
 import org.glowroot.collector.spi.model.ProfileTreeOuterClass.ProfileTree;
@@ -47,11 +48,24 @@ public class AggregateIntervalCollector {
 
     private static final AtomicBoolean maxAggregateTransactionsWarnLogged = new AtomicBoolean();
 
+    // the aggregation thread services live snapshot requests between transactions, and at least
+    // every 100 milliseconds when idle (see Aggregator), so this is normally only reached if
+    // aggregating a single transaction takes this long, in which case the live view builds the
+    // snapshot itself under the aggregate collector's lock (see getLiveSnapshot()), so this only
+    // bounds how long a live view waits before contending with the aggregation thread
+    private static final long LIVE_SNAPSHOT_MAX_WAIT_MILLIS = 200;
+
     private final long captureTime;
     private final Map<String, IntervalTypeCollector> typeCollectors = Maps.newConcurrentMap();
     private final int maxAggregateTransactionsPerTransactionType;
     private final int maxAggregateQueriesPerQueryType;
 
+    // set by live views after requesting a snapshot, cleared by the aggregation thread when it
+    // services the requests
+    private final AtomicBoolean liveSnapshotsRequested = new AtomicBoolean();
+    // once retired, no more transactions will be added to this interval by the aggregation thread
+    private volatile boolean retired;
+
     public AggregateIntervalCollector(long currentTime, long aggregateIntervalMillis,
             int maxAggregateTransactionsPerTransactionType, int maxAggregateQueriesPerQueryType) {
         captureTime = (long) Math.ceil(currentTime / (double) aggregateIntervalMillis)
@@ -65,11 +79,34 @@ public class AggregateIntervalCollector {
         return captureTime;
     }
 
-    public void add(Transaction transaction) {
+    public void add(Transaction transaction) throws IOException {
         IntervalTypeCollector typeCollector = getTypeCollector(transaction.getTransactionType());
         typeCollector.add(transaction);
     }
 
+    // called by the aggregation thread when it is done adding transactions to this interval
+    public void retire() {
+        retired = true;
+    }
+
+    // called by the aggregation thread (under lock) after each transaction and periodically when
+    // idle, and by the flushing thread (under lock) after this interval is retired
+    public void publishRequestedLiveSnapshots() throws IOException {
+        // only write to the volatile in the uncommon case
+        if (!liveSnapshotsRequested.get() || !liveSnapshotsRequested.getAndSet(false)) {
+            // common case
+            return;
+        }
+        ScratchBuffer scratchBuffer = new ScratchBuffer();
+        for (IntervalTypeCollector typeCollector : typeCollectors.values()) {
+            publishRequestedLiveSnapshot(typeCollector.overallAggregateCollector, scratchBuffer);
+            for (AggregateCollector transactionAggregateCollector : typeCollector.transactionAggregateCollectors
+                    .values()) {
+                publishRequestedLiveSnapshot(transactionAggregateCollector, scratchBuffer);
+            }
+        }
+    }
+
     public void flush(Collector collector) throws Exception {
         Map<String, Aggregate> overallAggregates = Maps.newHashMap();
         Map<String, Map<String, Aggregate>> transactionAggregates = Maps.newHashMap();
@@ -96,10 +133,7 @@ public class AggregateIntervalCollector {
         if (intervalTypeCollector == null) {
             return null;
         }
-        AggregateCollector aggregateCollector = intervalTypeCollector.overallAggregateCollector;
-        synchronized (aggregateCollector) {
-            return aggregateCollector.getLiveOverallSummary();
-        }
+        return intervalTypeCollector.overallAggregateCollector.getLiveOverallSummary();
     }
 
     public List<TransactionSummary> getLiveTransactionSummaries(String transactionType) {
@@ -108,12 +142,9 @@ public class AggregateIntervalCollector {
             return ImmutableList.of();
         }
         List<TransactionSummary> transactionSummaries = Lists.newArrayList();
-        for (Entry<String, AggregateCollector> entry : intervalTypeCollector.transactionAggregateCollectors
-                .entrySet()) {
-            AggregateCollector aggregateCollector = entry.getValue();
-            synchronized (aggregateCollector) {
-                transactionSummaries.add(aggregateCollector.getLiveTransactionSummary());
-            }
+        for (AggregateCollector aggregateCollector : intervalTypeCollector.transactionAggregateCollectors
+                .values()) {
+            transactionSummaries.add(aggregateCollector.getLiveTransactionSummary());
         }
         return transactionSummaries;
     }
@@ -123,10 +154,7 @@ public class AggregateIntervalCollector {
         if (intervalTypeCollector == null) {
             return null;
         }
-        AggregateCollector aggregateCollector = intervalTypeCollector.overallAggregateCollector;
-        synchronized (aggregateCollector) {
-            return aggregateCollector.getLiveOverallErrorSummary();
-        }
+        return intervalTypeCollector.overallAggregateCollector.getLiveOverallErrorSummary();
     }
 
     public List<TransactionErrorSummary> getLiveTransactionErrorSummaries(String transactionType) {
@@ -135,12 +163,9 @@ public class AggregateIntervalCollector {
             return ImmutableList.of();
         }
         List<TransactionErrorSummary> errorSummaries = Lists.newArrayList();
-        for (Entry<String, AggregateCollector> entry : intervalTypeCollector.transactionAggregateCollectors
-                .entrySet()) {
-            AggregateCollector aggregateCollector = entry.getValue();
-            synchronized (aggregateCollector) {
-                errorSummaries.add(aggregateCollector.getLiveTransactionErrorSummary());
-            }
+        for (AggregateCollector aggregateCollector : intervalTypeCollector.transactionAggregateCollectors
+                .values()) {
+            errorSummaries.add(aggregateCollector.getLiveTransactionErrorSummary());
         }
         return errorSummaries;
     }
@@ -152,10 +177,9 @@ public class AggregateIntervalCollector {
         if (aggregateCollector == null) {
             return null;
         }
-        synchronized (aggregateCollector) {
-            long capturedAt = Math.min(liveCaptureTime, captureTime);
-            return aggregateCollector.buildLiveOverviewAggregate(capturedAt);
-        }
+        long capturedAt = Math.min(liveCaptureTime, captureTime);
+        return getLiveSnapshot(aggregateCollector, AggregateCollector.LIVE_ROOT_TIMERS)
+                .buildLiveOverviewAggregate(capturedAt);
     }
 
     public @Nullable PercentileAggregate getLivePercentileAggregate(String transactionType,
@@ -165,10 +189,9 @@ public class AggregateIntervalCollector {
         if (aggregateCollector == null) {
             return null;
         }
-        synchronized (aggregateCollector) {
-            long capturedAt = Math.min(liveCaptureTime, captureTime);
-            return aggregateCollector.buildLivePercentileAggregate(capturedAt);
-        }
+        long capturedAt = Math.min(liveCaptureTime, captureTime);
+        return getLiveSnapshot(aggregateCollector, AggregateCollector.LIVE_HISTOGRAM)
+                .buildLivePercentileAggregate(capturedAt);
     }
 
     public @Nullable ErrorPoint getLiveErrorPoint(String transactionType,
@@ -178,10 +201,8 @@ public class AggregateIntervalCollector {
         if (aggregateCollector == null) {
             return null;
         }
-        synchronized (aggregateCollector) {
-            long capturedAt = Math.min(liveCaptureTime, captureTime);
-            return aggregateCollector.buildErrorPoint(capturedAt);
-        }
+        long capturedAt = Math.min(liveCaptureTime, captureTime);
+        return aggregateCollector.buildErrorPoint(capturedAt);
     }
 
     public List<Aggregate.QueriesByType> getLiveQueries(String transactionType,
@@ -191,9 +212,8 @@ public class AggregateIntervalCollector {
         if (aggregateCollector == null) {
             return ImmutableList.of();
         }
-        synchronized (aggregateCollector) {
-            return aggregateCollector.getLiveQueries();
-        }
+        return aggregateCollector.getLiveQueries(
+                getLiveSnapshot(aggregateCollector, AggregateCollector.LIVE_QUERIES));
     }
 
     public @Nullable ProfileTree getLiveProfile(String transactionType,
@@ -203,9 +223,8 @@ public class AggregateIntervalCollector {
         if (aggregateCollector == null) {
             return null;
         }
-        synchronized (aggregateCollector) {
-            return aggregateCollector.getLiveProfile();
-        }
+        return aggregateCollector.getLiveProfile(
+                getLiveSnapshot(aggregateCollector, AggregateCollector.LIVE_PROFILE));
     }
 
     public void clear() {
@@ -229,6 +248,49 @@ public class AggregateIntervalCollector {
         }
     }
 
+    // the aggregate collector's lock guards all of its non-scalar state (which is also mutated when
+    // building a snapshot, see AggregateCollector.handOffLiveCopies()), regardless of which thread
+    // builds the snapshot
+    private static void publishRequestedLiveSnapshot(AggregateCollector aggregateCollector,
+            ScratchBuffer scratchBuffer) throws IOException {
+        synchronized (aggregateCollector) {
+            aggregateCollector.publishRequestedLiveSnapshot(scratchBuffer);
+        }
+    }
+
+    private LiveSnapshot getLiveSnapshot(AggregateCollector aggregateCollector, int components)
+            throws IOException {
+        if (!retired) {
+            LiveSnapshot snapshot = aggregateCollector.getFreshLiveSnapshot(components);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            aggregateCollector.requestLiveSnapshot(components);
+            liveSnapshotsRequested.set(true);
+            // checking retired again after the request is made, since requests made before the
+            // interval is retired are serviced by the flushing thread, but requests made after
+            // will not be serviced
+            if (!retired) {
+                try {
+                    snapshot = aggregateCollector.awaitLiveSnapshot(components,
+                            LIVE_SNAPSHOT_MAX_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            }
+        }
+        // the aggregation thread is no longer adding transactions to this interval (or did not
+        // respond in time, in which case this contends with it for the same lock that it uses
+        // for adding transactions and publishing snapshots)
+        synchronized (aggregateCollector) {
+            return aggregateCollector.buildLiveSnapshot();
+        }
+    }
+
     private @Nullable AggregateCollector getAggregateCollector(String transactionType,
             @Nullable String transactionName) {
         IntervalTypeCollector intervalTypeCollector = typeCollectors.get(transactionType);
@@ -247,18 +309,24 @@ public class AggregateIntervalCollector {
         private final AggregateCollector overallAggregateCollector;
         private final Map<String, AggregateCollector> transactionAggregateCollectors =
                 Maps.newConcurrentMap();
-
         private IntervalTypeCollector() {
             overallAggregateCollector =
                     new AggregateCollector(null, maxAggregateQueriesPerQueryType);
         }
 
-        private void add(Transaction transaction) {
+        private void add(Transaction transaction) throws IOException {
             Profile profile = transaction.getProfile();
+            // auxiliary threads that complete after this point are not included
+            Iterable<AuxThreadComponent> auxThreadComponents =
+                    transaction.getCompletedAuxThreadComponents();
             synchronized (overallAggregateCollector) {
                 overallAggregateCollector.add(transaction);
                 overallAggregateCollector.mergeRootTimer(transaction.getRootTimer());
                 overallAggregateCollector.mergeQueries(transaction.getQueries());
+                for (AuxThreadComponent auxThreadComponent : auxThreadComponents) {
+                    overallAggregateCollector.mergeRootTimer(auxThreadComponent.getRootTimer());
+                    overallAggregateCollector.mergeQueries(auxThreadComponent.getQueries());
+                }
                 if (profile != null) {
                     overallAggregateCollector.mergeProfile(profile);
                 }
@@ -286,8 +354,11 @@ public class AggregateIntervalCollector {
                 transactionAggregateCollector.add(transaction);
                 transactionAggregateCollector.mergeRootTimer(transaction.getRootTimer());
                 transactionAggregateCollector.mergeQueries(transaction.getQueries());
+                for (AuxThreadComponent auxThreadComponent : auxThreadComponents) {
+                    transactionAggregateCollector.mergeRootTimer(auxThreadComponent.getRootTimer());
+                    transactionAggregateCollector.mergeQueries(auxThreadComponent.getQueries());
+                }
                 if (profile != null) {
-                    overallAggregateCollector.mergeProfile(profile);
                     transactionAggregateCollector.mergeProfile(profile);
                 }
             }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+
+import org.glowroot.common.util.Tickers;
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+import org.glowroot.plugin.api.transaction.Timer;
+
+// the trace entry is not pushed onto the transaction's entry stack, and its end is recorded by
+// whichever thread ends it (typically a driver thread running a completion callback), so unlike
+// other trace entries it does not nest the transaction thread's timers or entries
+//
+// the query time is added to the query data atomically at the end (see QueryData.endAsync()), so
+// any number of async executions of the same query can be in flight at the same time
+//
+// the sync timer is a regular timer that is only used by the transaction thread
+public class AsyncQueryEntryImpl implements AsyncQueryEntry {
+
+    private static final Ticker ticker = Tickers.getTicker();
+
+    private static final AtomicIntegerFieldUpdater<AsyncQueryEntryImpl> endedUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(AsyncQueryEntryImpl.class, "ended");
+
+    private final Transaction transaction;
+    // null if the transaction's entry limit was exceeded, in which case the query execution and
+    // time are still aggregated, but the row count is not
+    private final @Nullable TraceEntryImpl traceEntry;
+    private final MessageSupplier messageSupplier;
+    private final TimerImpl syncTimer;
+    private final @Nullable QueryData queryData;
+    private final long startTick;
+
+    private volatile int ended;
+
+    public AsyncQueryEntryImpl(Transaction transaction, @Nullable TraceEntryImpl traceEntry,
+            MessageSupplier messageSupplier, TimerImpl syncTimer, @Nullable QueryData queryData,
+            long startTick) {
+        this.transaction = transaction;
+        this.traceEntry = traceEntry;
+        this.messageSupplier = messageSupplier;
+        this.syncTimer = syncTimer;
+        this.queryData = queryData;
+        this.startTick = startTick;
+        if (queryData != null) {
+            queryData.startAsync(1);
+        }
+    }
+
+    @Override
+    public void end() {
+        endInternal(null);
+    }
+
+    // the stack trace of the thread that ends an async query is typically a driver thread, which
+    // is not useful, so no stack trace is captured
+    @Override
+    public void endWithStackTrace(long threshold, TimeUnit unit) {
+        endInternal(null);
+    }
+
+    @Override
+    public void endWithError(Throwable t) {
+        endInternal(ErrorMessage.from(t));
+    }
+
+    @Override
+    public void endWithError(@Nullable String message) {
+        endInternal(ErrorMessage.from(message));
+    }
+
+    @Override
+    public void endWithError(@Nullable String message, Throwable t) {
+        endInternal(ErrorMessage.from(message, t));
+    }
+
+    @Override
+    public void endWithDeferredError(MessageSupplier errorMessageSupplier, @Nullable Throwable t) {
+        endInternal(ErrorMessage.fromDeferred(errorMessageSupplier, t));
+    }
+
+    // this is typically used while iterating over the result set in the transaction thread
+    @Override
+    public Timer extend() {
+        return extendSyncTimer();
+    }
+
+    @Override
+    public void stopSyncTimer() {
+        syncTimer.stop();
+    }
+
+    @Override
+    public Timer extendSyncTimer() {
+        return syncTimer.extend(ticker.read());
+    }
+
+    @Override
+    public MessageSupplier getMessageSupplier() {
+        return messageSupplier;
+    }
+
+    @Override
+    public void incrementCurrRow() {
+        if (traceEntry != null) {
+            traceEntry.incrementCurrRow();
+        }
+    }
+
+    @Override
+    public void setCurrRow(long row) {
+        if (traceEntry != null) {
+            traceEntry.setCurrRow(row);
+        }
+    }
+
+    private void endInternal(@Nullable ErrorMessage errorMessage) {
+        if (!endedUpdater.compareAndSet(this, 0, 1)) {
+            // already ended, e.g. by the completion callback before the transaction thread got
+            // around to ending it (or vice versa)
+            return;
+        }
+        if (transaction.isCompleted()) {
+            // the transaction's aggregates have already been collected, so the query time can no
+            // longer be recorded (this is best effort, since the ending thread is not synchronized
+            // with the transaction thread, and the entry is captured as still active in this case)
+            return;
+        }
+        long endTick = ticker.read();
+        if (queryData != null) {
+            queryData.endAsync(endTick - startTick);
+        }
+        if (traceEntry != null) {
+            traceEntry.setErrorMessage(errorMessage);
+            traceEntry.setEndTick(endTick);
+            transaction.writeMemoryBarrier();
+        }
+    }
+}
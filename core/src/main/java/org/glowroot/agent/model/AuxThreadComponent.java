@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import javax.annotation.Nullable;
+
+// contains the timers and query data that have been captured by an auxiliary thread, i.e. a thread
+// that performs work on behalf of a transaction (e.g. a task submitted to an executor)
+//
+// instances are only updated by the auxiliary thread, and are only read by other threads after the
+// auxiliary thread has completed and published it using compare-and-set (see
+// Transaction.addCompletedAuxThreadComponent()), so unlike Transaction there is no need for memory
+// barriers
+public class AuxThreadComponent implements TimerContext {
+
+    private final Transaction transaction;
+
+    private final TimerImpl rootTimer;
+    private @Nullable TimerImpl currentTimer;
+
+    private final QueryDataCollector queryDataCollector;
+
+    // these are only written prior to being published
+    private @Nullable AuxThreadComponent nextAuxThreadComponent;
+    private int count;
+
+    AuxThreadComponent(Transaction transaction, TimerNameImpl timerName, long startTick,
+            int maxAggregateQueriesPerQueryType) {
+        this.transaction = transaction;
+        // suppress warning for passing @UnderInitialization this
+        @SuppressWarnings("argument.type.incompatible")
+        TimerImpl rootTimer = TimerImpl.createAuxThreadRootTimer(transaction, this, timerName);
+        this.rootTimer = rootTimer;
+        rootTimer.start(startTick);
+        queryDataCollector = new QueryDataCollector(maxAggregateQueriesPerQueryType);
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    // only called after the auxiliary thread has completed
+    public TimerImpl getRootTimer() {
+        return rootTimer;
+    }
+
+    @Override
+    public @Nullable TimerImpl getCurrentTimer() {
+        return currentTimer;
+    }
+
+    @Override
+    public void setCurrentTimer(@Nullable TimerImpl currentTimer) {
+        this.currentTimer = currentTimer;
+    }
+
+    // only called after the auxiliary thread has completed
+    public Iterable<QueryData> getQueries() {
+        return queryDataCollector.getQueries();
+    }
+
+    // see QueryDataCollector.getQueryDataIfCached()
+    public @Nullable QueryData getQueryDataIfCached(@Nullable QueryData queryData,
+            String queryType, String queryText) {
+        return queryDataCollector.getQueryDataIfCached(queryData, queryType, queryText);
+    }
+
+    public @Nullable QueryData getOrCreateQueryDataIfPossible(String queryType, String queryText) {
+        return queryDataCollector.getOrCreateQueryDataIfPossible(queryType, queryText);
+    }
+
+    // called by the auxiliary thread when it is done, nothing should be updated after this
+    public void complete(long endTick) {
+        rootTimer.end(endTick);
+        transaction.addCompletedAuxThreadComponent(this);
+    }
+
+    @Nullable
+    AuxThreadComponent getNextAuxThreadComponent() {
+        return nextAuxThreadComponent;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    void setNextAuxThreadComponent(@Nullable AuxThreadComponent nextAuxThreadComponent,
+            int count) {
+        this.nextAuxThreadComponent = nextAuxThreadComponent;
+        this.count = count;
+    }
+}
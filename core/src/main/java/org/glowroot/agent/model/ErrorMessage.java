@@ -27,6 +27,8 @@ import org.immutables.value.Value;
 
 import org.glowroot.collector.spi.model.TraceOuterClass.Trace;
 import org.glowroot.common.util.Styles;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+import org.glowroot.plugin.api.transaction.internal.ReadableMessage;
 
 @Value.Immutable
 @Styles.AllParameters
@@ -56,6 +58,18 @@ public abstract class ErrorMessage {
         return ImmutableErrorMessage.of(msg, buildThrowableInfo(t, null));
     }
 
+    // the message text is only built from the message supplier if/when it is needed, but the
+    // throwable info is still captured eagerly, since the throwable's message, causes and
+    // toString() can change (or be unsafe to call from another thread) after it is thrown
+    public static ErrorMessage fromDeferred(MessageSupplier messageSupplier,
+            @Nullable Throwable t) {
+        if (t == null) {
+            return new DeferredErrorMessage(messageSupplier, null, null);
+        }
+        return new DeferredErrorMessage(messageSupplier, t.getMessage(),
+                buildThrowableInfo(t, null));
+    }
+
     private static Trace.Throwable buildThrowableInfo(Throwable t,
             @Nullable List<StackTraceElement> causedStackTrace) {
         int framesInCommon = 0;
@@ -100,4 +114,40 @@ public abstract class ErrorMessage {
                 .setLineNumber(ste.getLineNumber())
                 .build();
     }
+
+    private static class DeferredErrorMessage extends ErrorMessage {
+
+        private final MessageSupplier messageSupplier;
+        // used if the message supplier's text is empty
+        private final @Nullable String throwableMessage;
+        private final @Nullable Trace.Throwable throwable;
+
+        private volatile @Nullable String message;
+
+        private DeferredErrorMessage(MessageSupplier messageSupplier,
+                @Nullable String throwableMessage, @Nullable Trace.Throwable throwable) {
+            this.messageSupplier = messageSupplier;
+            this.throwableMessage = throwableMessage;
+            this.throwable = throwable;
+        }
+
+        @Override
+        public String message() {
+            String message = this.message;
+            if (message == null) {
+                ReadableMessage readableMessage = (ReadableMessage) messageSupplier.get();
+                message = Strings.nullToEmpty(readableMessage.getText());
+                if (message.isEmpty()) {
+                    message = Strings.nullToEmpty(throwableMessage);
+                }
+                this.message = message;
+            }
+            return message;
+        }
+
+        @Override
+        public @Nullable Trace.Throwable throwable() {
+            return throwable;
+        }
+    }
 }
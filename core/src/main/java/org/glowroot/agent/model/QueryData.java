@@ -15,6 +15,8 @@
  */
 package org.glowroot.agent.model;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import javax.annotation.Nullable;
 
 import com.google.common.base.Ticker;
@@ -45,6 +47,13 @@ public class QueryData implements Timer {
 
     private static final Ticker ticker = Tickers.getTicker();
 
+    private static final AtomicLongFieldUpdater<QueryData> asyncTotalNanosUpdater =
+            AtomicLongFieldUpdater.newUpdater(QueryData.class, "asyncTotalNanos");
+
+    // the collector that this query data is aggregated under, so that query data that is cached
+    // outside of the transaction (see QueryDataCollector.getQueryDataIfCached()) is not used for
+    // another transaction, or by another thread of the same transaction
+    private final QueryDataCollector queryDataCollector;
     private final String queryType;
     private final String queryText;
     private final @Nullable QueryData nextQueryData;
@@ -57,7 +66,14 @@ public class QueryData implements Timer {
     private long startTick;
     private int selfNestingLevel;
 
-    QueryData(String queryType, String queryText, @Nullable QueryData nextQueryData) {
+    // async query executions are ended by other threads, and there can be many of them in flight
+    // at the same time, so their time is accumulated separately from (and does not interfere with)
+    // the nesting based timing above which is only updated by the transaction thread
+    private volatile long asyncTotalNanos;
+
+    QueryData(QueryDataCollector queryDataCollector, String queryType, String queryText,
+            @Nullable QueryData nextQueryData) {
+        this.queryDataCollector = queryDataCollector;
         this.queryType = queryType;
         this.queryText = queryText;
         this.nextQueryData = nextQueryData;
@@ -71,6 +87,10 @@ public class QueryData implements Timer {
         return queryText;
     }
 
+    QueryDataCollector getQueryDataCollector() {
+        return queryDataCollector;
+    }
+
     @Nullable
     QueryData getNextQueryData() {
         return nextQueryData;
@@ -86,22 +106,45 @@ public class QueryData implements Timer {
     @Override
     public void stop() {
         if (--selfNestingLevel == 0) {
-            endInternal(ticker.read());
+            endInternal(ticker.read(), 1);
+        }
+    }
+
+    @Override
+    public void stopSampled(int executions) {
+        if (--selfNestingLevel == 0) {
+            endInternal(ticker.read(), executions);
         }
     }
 
     public void end(long endTick) {
         if (--selfNestingLevel == 0) {
-            endInternal(endTick);
+            endInternal(endTick, 1);
+        }
+    }
+
+    public void end(long endTick, int executions) {
+        if (--selfNestingLevel == 0) {
+            endInternal(endTick, executions);
         }
     }
 
+    // only called by transaction thread
+    public void startAsync(long batchSize) {
+        executionCount += batchSize;
+    }
+
+    // can be called by any thread
+    public void endAsync(long durationNanos) {
+        asyncTotalNanosUpdater.addAndGet(this, durationNanos);
+    }
+
     public void incrementRowCount(long inc) {
         totalRows += inc;
     }
 
     public double getTotalNanos() {
-        return totalNanos;
+        return totalNanos + asyncTotalNanos;
     }
 
     // only called after transaction completion
@@ -121,7 +164,7 @@ public class QueryData implements Timer {
         }
     }
 
-    private void endInternal(long endTick) {
-        totalNanos += endTick - startTick;
+    private void endInternal(long endTick, int executions) {
+        totalNanos += (endTick - startTick) * executions;
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+
+import org.glowroot.common.config.AdvancedConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+// collects the query data for a single thread of a transaction, either the transaction thread (see
+// Transaction) or an auxiliary thread (see AuxThreadComponent)
+//
+// this class is only updated by that single thread, visibility for other threads reading the
+// queries is provided by the owner
+class QueryDataCollector {
+
+    // linked list of QueryData instances for safe concurrent access
+    private @MonotonicNonNull QueryData headQueryData;
+    // these maps are only accessed by the updating thread
+    private @MonotonicNonNull Map<String, QueryData> firstQueryTypeQueries;
+    private @MonotonicNonNull Map<String, Map<String, QueryData>> allQueryTypesMap;
+    private final int maxAggregateQueriesPerQueryType;
+
+    QueryDataCollector(int maxAggregateQueriesPerQueryType) {
+        this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
+    }
+
+    Iterable<QueryData> getQueries() {
+        if (headQueryData == null) {
+            return ImmutableList.of();
+        }
+        return new Iterable<QueryData>() {
+            @Override
+            public Iterator<QueryData> iterator() {
+                return new Iterator<QueryData>() {
+                    private @Nullable QueryData next = headQueryData;
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+                    @Override
+                    public QueryData next() {
+                        QueryData curr = next;
+                        if (curr == null) {
+                            throw new NoSuchElementException();
+                        }
+                        next = curr.getNextQueryData();
+                        return curr;
+                    }
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    // returns the given query data if it was created by this collector and is for the same query,
+    // so that repeated executions of the same query (e.g. the same prepared statement) can skip the
+    // lookup in getOrCreateQueryDataIfPossible()
+    //
+    // the query text is compared by identity since the point is to avoid comparing (potentially
+    // long) query text strings
+    @Nullable
+    QueryData getQueryDataIfCached(@Nullable QueryData queryData, String queryType,
+            String queryText) {
+        if (queryData != null && queryData.getQueryDataCollector() == this
+                && queryData.getQueryText() == queryText
+                && queryData.getQueryType().equals(queryType)) {
+            return queryData;
+        }
+        return null;
+    }
+
+    @Nullable
+    QueryData getOrCreateQueryDataIfPossible(String queryType, String queryText) {
+        if (headQueryData == null) {
+            QueryData queryData = new QueryData(this, queryType, queryText, null);
+            // TODO build a micro-optimized query data map, e.g. NestedTimerMap
+            firstQueryTypeQueries = new HashMap<String, QueryData>(4);
+            firstQueryTypeQueries.put(queryText, queryData);
+            headQueryData = queryData;
+            return headQueryData;
+        }
+        Map<String, QueryData> currentQueryTypeQueries;
+        if (queryType.equals(headQueryData.getQueryType())) {
+            currentQueryTypeQueries = checkNotNull(firstQueryTypeQueries);
+        } else {
+            currentQueryTypeQueries = getOrCreateQueriesForQueryType(queryType);
+        }
+        QueryData queryData = currentQueryTypeQueries.get(queryText);
+        if (queryData == null && currentQueryTypeQueries.size() < maxAggregateQueriesPerQueryType
+                * AdvancedConfig.OVERALL_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER) {
+            queryData = new QueryData(this, queryType, queryText, headQueryData);
+            currentQueryTypeQueries.put(queryText, queryData);
+            headQueryData = queryData;
+        }
+        return queryData;
+    }
+
+    private Map<String, QueryData> getOrCreateQueriesForQueryType(String queryType) {
+        if (allQueryTypesMap == null) {
+            allQueryTypesMap = new HashMap<String, Map<String, QueryData>>(2);
+            Map<String, QueryData> currentQueryTypeQueries = new HashMap<String, QueryData>(4);
+            allQueryTypesMap.put(queryType, currentQueryTypeQueries);
+            return currentQueryTypeQueries;
+        }
+        Map<String, QueryData> currentQueryTypeQueries = allQueryTypesMap.get(queryType);
+        if (currentQueryTypeQueries == null) {
+            currentQueryTypeQueries = new HashMap<String, QueryData>(4);
+            allQueryTypesMap.put(queryType, currentQueryTypeQueries);
+        }
+        return currentQueryTypeQueries;
+    }
+}
@@ -61,6 +61,8 @@ public class TimerImpl implements Timer {
     private static final Ticker ticker = Tickers.getTicker();
 
     private final Transaction transaction;
+    // this is the transaction itself, except for timers captured by auxiliary threads
+    private final TimerContext timerContext;
     private final @Nullable TimerImpl parent;
     private final TimerNameImpl timerName;
 
@@ -83,15 +85,22 @@ public class TimerImpl implements Timer {
     private final @Nullable TimerImpl nextSibling;
 
     public static TimerImpl createRootTimer(Transaction transaction, TimerNameImpl timerName) {
-        return new TimerImpl(transaction, null, null, timerName);
+        return new TimerImpl(transaction, transaction, null, null, timerName);
     }
 
-    private TimerImpl(Transaction transaction, @Nullable TimerImpl parent,
-            @Nullable TimerImpl nextSibling, TimerNameImpl timerName) {
+    static TimerImpl createAuxThreadRootTimer(Transaction transaction, TimerContext timerContext,
+            TimerNameImpl timerName) {
+        return new TimerImpl(transaction, timerContext, null, null, timerName);
+    }
+
+    private TimerImpl(Transaction transaction, TimerContext timerContext,
+            @Nullable TimerImpl parent, @Nullable TimerImpl nextSibling,
+            TimerNameImpl timerName) {
         this.timerName = timerName;
         this.parent = parent;
         this.nextSibling = nextSibling;
         this.transaction = transaction;
+        this.timerContext = timerContext;
     }
 
     // safe to be called from another thread when transaction is still active transaction
@@ -144,13 +153,36 @@ public class TimerImpl implements Timer {
     @Override
     public void stop() {
         if (--selfNestingLevel == 0) {
-            endInternal(ticker.read());
+            endInternal(ticker.read(), 1);
+        }
+    }
+
+    @Override
+    public void stopSampled(int executions) {
+        if (--selfNestingLevel == 0) {
+            endInternal(ticker.read(), executions);
         }
     }
 
     public void end(long endTick) {
         if (--selfNestingLevel == 0) {
-            endInternal(endTick);
+            endInternal(endTick, 1);
+        }
+    }
+
+    public void end(long endTick, int executions) {
+        if (--selfNestingLevel == 0) {
+            endInternal(endTick, executions);
+        }
+    }
+
+    // ends an execution that was restarted by extend(), extrapolating the measured duration to the
+    // executions that it represents, but still only counting the original execution
+    public void endExtension(long endTick, int executions) {
+        if (--selfNestingLevel == 0) {
+            totalNanos += (endTick - startTick) * executions;
+            count++;
+            timerContext.setCurrentTimer(parent);
         }
     }
 
@@ -228,7 +260,7 @@ public class TimerImpl implements Timer {
     }
 
     public TimerImpl extend(long startTick) {
-        TimerImpl currentTimer = transaction.getCurrentTimer();
+        TimerImpl currentTimer = timerContext.getCurrentTimer();
         if (currentTimer == null) {
             logger.warn("extend() transaction currentTimer is null");
             return this;
@@ -256,17 +288,19 @@ public class TimerImpl implements Timer {
     void start(long startTick) {
         this.startTick = startTick;
         selfNestingLevel++;
-        transaction.setCurrentTimer(this);
+        timerContext.setCurrentTimer(this);
     }
 
     Transaction getTransaction() {
         return transaction;
     }
 
-    private void endInternal(long endTick) {
-        totalNanos += endTick - startTick;
-        count++;
-        transaction.setCurrentTimer(parent);
+    // executions is the number of executions that the measured duration represents (see
+    // Timer.stopSampled())
+    private void endInternal(long endTick, int executions) {
+        totalNanos += (endTick - startTick) * executions;
+        count += executions;
+        timerContext.setCurrentTimer(parent);
     }
 
     private TimerImpl startNestedTimerInternal(TimerName timerName, long nestedTimerStartTick) {
@@ -279,7 +313,7 @@ public class TimerImpl implements Timer {
             nestedTimer.start(nestedTimerStartTick);
             return nestedTimer;
         }
-        nestedTimer = new TimerImpl(transaction, this, headChild, timerNameImpl);
+        nestedTimer = new TimerImpl(transaction, timerContext, this, headChild, timerNameImpl);
         nestedTimer.start(nestedTimerStartTick);
         nestedTimers.put(timerNameImpl, nestedTimer);
         headChild = nestedTimer;
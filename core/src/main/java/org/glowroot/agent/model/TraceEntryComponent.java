@@ -155,6 +155,18 @@ class TraceEntryComponent {
         return entry;
     }
 
+    // the entry is not pushed onto the entry stack since it is ended by another thread, see
+    // AsyncQueryEntryImpl
+    TraceEntryImpl addAsyncEntry(long startTick, MessageSupplier messageSupplier,
+            @Nullable QueryData queryData) {
+        TraceEntryImpl entry =
+                createEntry(startTick, messageSupplier, queryData, 1, null, null, false);
+        tailEntry.setNextTraceEntry(entry);
+        tailEntry = entry;
+        entryCount++;
+        return entry;
+    }
+
     void setEntryLimitExceeded() {
         entryLimitExceeded = true;
     }
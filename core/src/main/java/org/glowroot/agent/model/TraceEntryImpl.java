@@ -55,6 +55,8 @@ public class TraceEntryImpl implements QueryEntry, Timer {
     private int selfNestingLevel;
     // not volatile, so depends on memory barrier in Transaction for visibility
     private long endTick;
+    // start of the current extension, only used by transaction thread
+    private long extendTick;
 
     // this is for maintaining linear list of trace entries
     private @Nullable TraceEntryImpl nextTraceEntry;
@@ -85,7 +87,9 @@ public class TraceEntryImpl implements QueryEntry, Timer {
         this.timer = timer;
         revisedStartTick = startTick;
         selfNestingLevel = 1;
-        if (queryData != null) {
+        // async query entries (which have no timer) track their query data separately, see
+        // AsyncQueryEntryImpl
+        if (queryData != null && timer != null) {
             queryData.start(startTick, queryExecutionCount);
         }
     }
@@ -95,6 +99,10 @@ public class TraceEntryImpl implements QueryEntry, Timer {
         return messageSupplier;
     }
 
+    public @Nullable QueryData getQueryData() {
+        return queryData;
+    }
+
     @Nullable
     ErrorMessage getErrorMessage() {
         return errorMessage;
@@ -202,6 +210,11 @@ public class TraceEntryImpl implements QueryEntry, Timer {
         endWithErrorInternal(ErrorMessage.from(message, t));
     }
 
+    @Override
+    public void endWithDeferredError(MessageSupplier errorMessageSupplier, @Nullable Throwable t) {
+        endWithErrorInternal(ErrorMessage.fromDeferred(errorMessageSupplier, t));
+    }
+
     @Override
     public Timer extend() {
         // timer is only null for trace entries added using addEntryEntry(), and these trace entries
@@ -211,6 +224,7 @@ public class TraceEntryImpl implements QueryEntry, Timer {
             long priorDurationNanos = endTick - revisedStartTick;
             long currTick = ticker.read();
             revisedStartTick = currTick - priorDurationNanos;
+            extendTick = currTick;
             extendedTimer = timer.extend(currTick);
             if (queryData != null) {
                 queryData.extend(currTick);
@@ -224,22 +238,50 @@ public class TraceEntryImpl implements QueryEntry, Timer {
     public void stop() {
         // the timer interface for this class is only expose through return value of extend()
         if (--selfNestingLevel == 0) {
-            endTick = ticker.read();
-            checkNotNull(extendedTimer);
-            extendedTimer.end(endTick);
-            if (queryData != null) {
-                queryData.end(endTick);
-            }
-            if (stackTrace == null && stackTraceThreshold != 0
-                    && endTick - revisedStartTick >= stackTraceThreshold) {
-                StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-                // need to strip back a few stack calls:
-                // skip i=0 which is "java.lang.Thread.getStackTrace()"
-                // skip i=1 which is "...Timer.stop()"
-                // skip i=2 which is the plugin advice
-                this.stackTrace = ImmutableList.copyOf(stackTrace).subList(3, stackTrace.length);
+            endExtension(1);
+        }
+    }
+
+    // this is called for stopping a sampled extension
+    @Override
+    public void stopSampled(int executions) {
+        if (--selfNestingLevel == 0) {
+            endExtension(executions);
+        }
+    }
+
+    private void endExtension(int executions) {
+        endTick = ticker.read();
+        if (executions > 1) {
+            // extrapolate the measured duration to the executions that were not timed, but never
+            // past the original start tick, since the extrapolated duration of the entry cannot
+            // exceed the time that has elapsed since the entry started
+            revisedStartTick -= (endTick - extendTick) * (executions - 1);
+            if (Tickers.lessThanOrEqual(revisedStartTick, startTick)) {
+                revisedStartTick = startTick;
             }
         }
+        checkNotNull(extendedTimer);
+        if (extendedTimer == timer) {
+            // the entry's own timer was restarted (see TimerImpl.extend()), so the extension is
+            // not another execution of that timer
+            extendedTimer.endExtension(endTick, executions);
+        } else {
+            extendedTimer.end(endTick, executions);
+        }
+        if (queryData != null) {
+            queryData.end(endTick, executions);
+        }
+        if (stackTrace == null && stackTraceThreshold != 0
+                && endTick - revisedStartTick >= stackTraceThreshold) {
+            StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+            // need to strip back a few stack calls:
+            // skip i=0 which is "java.lang.Thread.getStackTrace()"
+            // skip i=1 which is "...TraceEntryImpl.endExtension()"
+            // skip i=2 which is "...Timer.stop()" or "...Timer.stopSampled()"
+            // skip i=3 which is the plugin advice
+            this.stackTrace = ImmutableList.copyOf(stackTrace).subList(4, stackTrace.length);
+        }
     }
 
     // TODO deal with copy paste between here and DummyTraceEntryOrQuery
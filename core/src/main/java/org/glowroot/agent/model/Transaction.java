@@ -17,11 +17,9 @@ package org.glowroot.agent.model;
 
 import java.lang.management.ThreadInfo;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -31,6 +29,7 @@ import com.google.common.base.Ticker;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.TreeMultimap;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -41,7 +40,6 @@ import org.glowroot.agent.model.ThreadInfoComponent.ThreadInfoData;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.collector.spi.model.ProfileTreeOuterClass.ProfileTree;
 import org.glowroot.collector.spi.model.TraceOuterClass.Trace;
-import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.ScheduledRunnable;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
 import org.glowroot.plugin.api.transaction.TimerName;
@@ -53,7 +51,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 //
 // this class needs to be thread safe, only one thread updates it, but multiple threads can read it
 // at the same time as it is being updated
-public class Transaction {
+public class Transaction implements TimerContext {
 
     private static final Logger logger = LoggerFactory.getLogger(Transaction.class);
 
@@ -65,6 +63,15 @@ public class Transaction {
     // this is just to limit memory (and also to limit display size of trace)
     private static final long CUSTOM_ATTRIBUTE_VALUES_PER_KEY_LIMIT = 10000;
 
+    // this is just to limit memory, e.g. for transactions that submit a very large number of tasks
+    // to executors, the auxiliary thread data beyond this limit is not captured
+    private static final int MAX_AUX_THREAD_COMPONENTS =
+            Integer.getInteger("glowroot.internal.maxAuxThreadsPerTransaction", 1000);
+
+    private static final AtomicReferenceFieldUpdater<Transaction, AuxThreadComponent> headUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Transaction.class, AuxThreadComponent.class,
+                    "headAuxThreadComponent");
+
     // a unique identifier
     private final TraceUniqueId id;
 
@@ -99,11 +106,14 @@ public class Transaction {
     // root entry for this trace
     private final TraceEntryComponent traceEntryComponent;
 
-    // linked list of QueryData instances for safe concurrent access
-    private @MonotonicNonNull QueryData headQueryData;
-    // these maps are only accessed by the transaction thread
-    private @MonotonicNonNull Map<String, QueryData> firstQueryTypeQueries;
-    private @MonotonicNonNull Map<String, Map<String, QueryData>> allQueryTypesMap;
+    // only accessed by the transaction thread, visibility for other threads reading the queries is
+    // provided by memoryBarrier below
+    private final QueryDataCollector queryDataCollector;
+
+    // linked list of completed auxiliary thread components, each one is only updated by its own
+    // auxiliary thread and then pushed onto this list using compare-and-set, so that auxiliary
+    // threads never contend with the transaction thread (or take any locks)
+    private volatile @Nullable AuxThreadComponent headAuxThreadComponent;
     private final int maxAggregateQueriesPerQueryType;
 
     // stack trace data constructed from profiling
@@ -157,6 +167,7 @@ public class Transaction {
         threadInfoComponent =
                 captureThreadInfo ? new ThreadInfoComponent(threadAllocatedBytes) : null;
         gcActivityComponent = captureGcActivity ? new GcActivityComponent() : null;
+        queryDataCollector = new QueryDataCollector(maxAggregateQueriesPerQueryType);
         this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
         this.completionCallback = completionCallback;
     }
@@ -239,6 +250,7 @@ public class Transaction {
         return rootTimer;
     }
 
+    @Override
     public @Nullable TimerImpl getCurrentTimer() {
         return currentTimer;
     }
@@ -266,34 +278,23 @@ public class Transaction {
     public Iterable<QueryData> getQueries() {
         // read memory barrier is for QueryData values
         readMemoryBarrier();
-        if (headQueryData == null) {
+        return queryDataCollector.getQueries();
+    }
+
+    // the auxiliary thread components that have completed so far (more can complete after this is
+    // called, including after the transaction has completed)
+    public Iterable<AuxThreadComponent> getCompletedAuxThreadComponents() {
+        AuxThreadComponent head = headAuxThreadComponent;
+        if (head == null) {
             return ImmutableList.of();
         }
-        return new Iterable<QueryData>() {
-            @Override
-            public Iterator<QueryData> iterator() {
-                return new Iterator<QueryData>() {
-                    private @Nullable QueryData next = headQueryData;
-                    @Override
-                    public boolean hasNext() {
-                        return next != null;
-                    }
-                    @Override
-                    public QueryData next() {
-                        QueryData curr = next;
-                        if (curr == null) {
-                            throw new NoSuchElementException();
-                        }
-                        next = curr.getNextQueryData();
-                        return curr;
-                    }
-                    @Override
-                    public void remove() {
-                        throw new UnsupportedOperationException();
-                    }
-                };
-            }
-        };
+        List<AuxThreadComponent> auxThreadComponents = Lists.newArrayList();
+        AuxThreadComponent curr = head;
+        while (curr != null) {
+            auxThreadComponents.add(curr);
+            curr = curr.getNextAuxThreadComponent();
+        }
+        return auxThreadComponents;
     }
 
     public List<Trace.Entry> getEntriesProtobuf() {
@@ -422,40 +423,28 @@ public class Transaction {
     }
 
     public TraceEntryImpl pushEntry(long startTick, MessageSupplier messageSupplier,
-            @Nullable String queryType, @Nullable String queryText, long queryExecutionCount,
-            TimerImpl timer) {
-        QueryData queryData = null;
-        if (queryType != null && queryText != null) {
-            queryData = getOrCreateQueryDataIfPossible(queryType, queryText);
-        }
+            @Nullable QueryData queryData, long queryExecutionCount, TimerImpl timer) {
         return traceEntryComponent.pushEntry(startTick, messageSupplier, queryData,
                 queryExecutionCount, timer);
     }
 
+    // returns the given query data if it was created by the transaction thread for the same query,
+    // see QueryDataCollector.getQueryDataIfCached()
+    public @Nullable QueryData getQueryDataIfCached(@Nullable QueryData queryData,
+            String queryType, String queryText) {
+        return queryDataCollector.getQueryDataIfCached(queryData, queryType, queryText);
+    }
+
     // only called by transaction thread
     public @Nullable QueryData getOrCreateQueryDataIfPossible(String queryType, String queryText) {
-        if (headQueryData == null) {
-            QueryData queryData = new QueryData(queryType, queryText, null);
-            // TODO build a micro-optimized query data map, e.g. NestedTimerMap
-            firstQueryTypeQueries = new HashMap<String, QueryData>(4);
-            firstQueryTypeQueries.put(queryText, queryData);
-            headQueryData = queryData;
-            return headQueryData;
-        }
-        Map<String, QueryData> currentQueryTypeQueries;
-        if (queryType.equals(headQueryData.getQueryType())) {
-            currentQueryTypeQueries = checkNotNull(firstQueryTypeQueries);
-        } else {
-            currentQueryTypeQueries = getOrCreateQueriesForQueryType(queryType);
-        }
-        QueryData queryData = currentQueryTypeQueries.get(queryText);
-        if (queryData == null && currentQueryTypeQueries.size() < maxAggregateQueriesPerQueryType
-                * AdvancedConfig.OVERALL_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER) {
-            queryData = new QueryData(queryType, queryText, headQueryData);
-            currentQueryTypeQueries.put(queryText, queryData);
-            headQueryData = queryData;
-        }
-        return queryData;
+        return queryDataCollector.getOrCreateQueryDataIfPossible(queryType, queryText);
+    }
+
+    // called by the auxiliary thread
+    public AuxThreadComponent createAuxThreadComponent(TimerName auxThreadTimerName,
+            long startTick) {
+        return new AuxThreadComponent(this, (TimerNameImpl) auxThreadTimerName, startTick,
+                maxAggregateQueriesPerQueryType);
     }
 
     public TraceEntryImpl addEntry(long startTick, long endTick,
@@ -467,6 +456,20 @@ public class Transaction {
         return entry;
     }
 
+    public TraceEntryImpl addAsyncEntry(long startTick, MessageSupplier messageSupplier,
+            @Nullable QueryData queryData) {
+        TraceEntryImpl entry =
+                traceEntryComponent.addAsyncEntry(startTick, messageSupplier, queryData);
+        memoryBarrier = true;
+        return entry;
+    }
+
+    // called by the thread that ends an async query entry, so that the end of the entry is visible
+    // to threads reading the transaction
+    void writeMemoryBarrier() {
+        memoryBarrier = true;
+    }
+
     public void setEntryLimitExceeded() {
         traceEntryComponent.setEntryLimitExceeded();
         memoryBarrier = true;
@@ -542,23 +545,24 @@ public class Transaction {
         }
     }
 
-    void setCurrentTimer(@Nullable TimerImpl currentTimer) {
+    @Override
+    public void setCurrentTimer(@Nullable TimerImpl currentTimer) {
         this.currentTimer = currentTimer;
     }
 
-    private Map<String, QueryData> getOrCreateQueriesForQueryType(String queryType) {
-        if (allQueryTypesMap == null) {
-            allQueryTypesMap = new HashMap<String, Map<String, QueryData>>(2);
-            Map<String, QueryData> currentQueryTypeQueries = new HashMap<String, QueryData>(4);
-            allQueryTypesMap.put(queryType, currentQueryTypeQueries);
-            return currentQueryTypeQueries;
-        }
-        Map<String, QueryData> currentQueryTypeQueries = allQueryTypesMap.get(queryType);
-        if (currentQueryTypeQueries == null) {
-            currentQueryTypeQueries = new HashMap<String, QueryData>(4);
-            allQueryTypesMap.put(queryType, currentQueryTypeQueries);
+    // called by the auxiliary thread when it is done
+    void addCompletedAuxThreadComponent(AuxThreadComponent auxThreadComponent) {
+        while (true) {
+            AuxThreadComponent head = headAuxThreadComponent;
+            int count = head == null ? 1 : head.getCount() + 1;
+            if (count > MAX_AUX_THREAD_COMPONENTS) {
+                return;
+            }
+            auxThreadComponent.setNextAuxThreadComponent(head, count);
+            if (headUpdater.compareAndSet(this, head, auxThreadComponent)) {
+                return;
+            }
         }
-        return currentQueryTypeQueries;
     }
 
     private boolean readMemoryBarrier() {
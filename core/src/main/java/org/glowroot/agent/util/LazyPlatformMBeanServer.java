@@ -21,6 +21,7 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import javax.management.AttributeList;
 import javax.management.MBeanInfo;
 import javax.management.MBeanServer;
 import javax.management.ObjectInstance;
@@ -84,6 +85,11 @@ public class LazyPlatformMBeanServer {
         return mbeanServer.getAttribute(name, attribute);
     }
 
+    public AttributeList getAttributes(ObjectName name, String[] attributes) throws Exception {
+        ensureInit();
+        return mbeanServer.getAttributes(name, attributes);
+    }
+
     public void addInitListener(InitListener initListener) {
         synchronized (initListeners) {
             if (mbeanServer == null) {
@@ -58,6 +58,8 @@ public abstract class Advice {
     abstract ImmutableList<AdviceParameter> onThrowParameters();
     abstract ImmutableList<AdviceParameter> onAfterParameters();
     abstract boolean reweavable();
+    // the plugin that the advice belongs to, null for advice from instrumentation config
+    abstract @Nullable String pluginId();
 
     @Value.Derived
     ImmutableSet<Type> classMetaTypes() {
@@ -112,6 +112,13 @@ public class AdviceBuilder {
         builder.reweavable(reweavable);
     }
 
+    // when set, the advice's @IsEnabled method is skipped on java 7+ while the plugin is disabled
+    // (see PluginEnabledCallSites)
+    public AdviceBuilder pluginId(@Nullable String pluginId) {
+        builder.pluginId(pluginId);
+        return this;
+    }
+
     public Advice build() throws Exception {
         Class<?> adviceClass = this.adviceClass;
         if (adviceClass == null) {
@@ -17,10 +17,7 @@ package org.glowroot.agent.weaving;
 
 import java.lang.reflect.Modifier;
 import java.util.List;
-import java.util.regex.Pattern;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import org.immutables.value.Value;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
@@ -35,17 +32,8 @@ abstract class AdviceMatcher {
 
     private static final Logger logger = LoggerFactory.getLogger(AdviceMatcher.class);
 
-    static ImmutableList<AdviceMatcher> getAdviceMatchers(String className, List<Advice> advisors) {
-        List<AdviceMatcher> adviceMatchers = Lists.newArrayList();
-        for (Advice advice : advisors) {
-            if (AdviceMatcher.isDeclaringClassNameMatch(className, advice)) {
-                adviceMatchers.add(ImmutableAdviceMatcher.of(advice));
-            }
-        }
-        return ImmutableList.copyOf(adviceMatchers);
-    }
-
     abstract Advice advice();
+    abstract NameMatcher methodNameMatcher();
 
     boolean isMethodLevelMatch(String methodName, List<Type> parameterTypes, Type returnType,
             int modifiers) {
@@ -64,12 +52,7 @@ abstract class AdviceMatcher {
             // constructors only match by exact name (don't want patterns to match constructors)
             return advice().pointcut().methodName().equals("<init>");
         }
-        Pattern pointcutMethodNamePattern = advice().pointcutMethodNamePattern();
-        if (pointcutMethodNamePattern == null) {
-            return advice().pointcut().methodName().equals(methodName);
-        } else {
-            return pointcutMethodNamePattern.matcher(methodName).matches();
-        }
+        return methodNameMatcher().matches(methodName);
     }
 
     private boolean isMethodParameterTypesMatch(List<Type> parameterTypes) {
@@ -131,13 +114,4 @@ abstract class AdviceMatcher {
                 return false;
         }
     }
-
-    private static boolean isDeclaringClassNameMatch(String className, Advice advice) {
-        Pattern pointcutClassNamePattern = advice.pointcutDeclaringClassNamePattern();
-        if (pointcutClassNamePattern == null) {
-            return advice.pointcutDeclaringClassName().equals(className);
-        } else {
-            return pointcutClassNamePattern.matcher(className).matches();
-        }
-    }
 }
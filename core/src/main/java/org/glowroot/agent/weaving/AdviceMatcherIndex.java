@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import org.glowroot.plugin.api.weaving.Pointcut;
+
+// index of advisors by pointcut declaring class name, so that finding the advisors that match a
+// given class name does not require running every advisor's class name regex against every class
+//
+// exact class names are looked up in a hash map, trailing wildcards (e.g. "org.example.*") are
+// looked up in a prefix trie, and only full regexes (and wildcards that are not at the end) are
+// run per class
+//
+// each AnalyzedWorld owns the index for its advisors, and only rebuilds it when its advisors
+// change (see AnalyzedWorld.getAdviceMatchers())
+//
+// this class is used from inside ClassFileTransformer.transform(), so it intentionally does not
+// use any non-jdk collections (see PreInitializeWeavingClasses)
+class AdviceMatcherIndex {
+
+    private final List<Advice> advisors;
+
+    // adviceMatchers[i] is the matcher for advisors.get(i)
+    private final AdviceMatcher[] adviceMatchers;
+
+    private final Map<String, int[]> exactClassNames = new HashMap<String, int[]>();
+    private final PrefixNode prefixRoot = new PrefixNode();
+    private final int[] regexIndexes;
+
+    private AdviceMatcherIndex(List<Advice> advisors) {
+        this.advisors = advisors;
+        adviceMatchers = new AdviceMatcher[advisors.size()];
+        List<Integer> regexIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < advisors.size(); i++) {
+            Advice advice = advisors.get(i);
+            Pointcut pointcut = advice.pointcut();
+            adviceMatchers[i] = ImmutableAdviceMatcher.of(advice,
+                    NameMatcher.create(pointcut.methodName(), advice.pointcutMethodNamePattern()));
+            NameMatcher classNameMatcher = NameMatcher.create(advice.pointcutDeclaringClassName(),
+                    advice.pointcutDeclaringClassNamePattern());
+            if (classNameMatcher.pattern() != null) {
+                regexIndexes.add(i);
+                continue;
+            }
+            for (String exactName : classNameMatcher.exactNames()) {
+                exactClassNames.put(exactName, append(exactClassNames.get(exactName), i));
+            }
+            for (String prefix : classNameMatcher.prefixes()) {
+                PrefixNode node = prefixRoot;
+                for (int j = 0; j < prefix.length(); j++) {
+                    node = node.getOrCreateChild(prefix.charAt(j));
+                }
+                node.indexes = append(node.indexes, i);
+            }
+        }
+        this.regexIndexes = new int[regexIndexes.size()];
+        for (int i = 0; i < regexIndexes.size(); i++) {
+            this.regexIndexes[i] = regexIndexes.get(i);
+        }
+    }
+
+    static AdviceMatcherIndex create(List<Advice> advisors) {
+        return new AdviceMatcherIndex(advisors);
+    }
+
+    // the advisors lists are immutable, so identity is enough to tell whether they have changed
+    boolean isFor(List<Advice> advisors) {
+        return this.advisors == advisors;
+    }
+
+    // returned matchers are in the same order as the advisors
+    ImmutableList<AdviceMatcher> getAdviceMatchers(String className) {
+        BitSet matched = new BitSet(adviceMatchers.length);
+        set(matched, exactClassNames.get(className));
+        PrefixNode node = prefixRoot;
+        set(matched, node.indexes);
+        for (int i = 0; i < className.length(); i++) {
+            node = node.getChild(className.charAt(i));
+            if (node == null) {
+                break;
+            }
+            set(matched, node.indexes);
+        }
+        for (int regexIndex : regexIndexes) {
+            Pattern pattern = advisors.get(regexIndex).pointcutDeclaringClassNamePattern();
+            if (pattern != null && pattern.matcher(className).matches()) {
+                matched.set(regexIndex);
+            }
+        }
+        if (matched.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<AdviceMatcher> matchers = new ArrayList<AdviceMatcher>();
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            matchers.add(adviceMatchers[i]);
+        }
+        return ImmutableList.copyOf(matchers);
+    }
+
+    private static void set(BitSet bitSet, int /*@Nullable*/[] indexes) {
+        if (indexes != null) {
+            for (int index : indexes) {
+                bitSet.set(index);
+            }
+        }
+    }
+
+    private static int[] append(int /*@Nullable*/[] indexes, int index) {
+        if (indexes == null) {
+            return new int[] {index};
+        }
+        int[] newIndexes = new int[indexes.length + 1];
+        System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+        newIndexes[indexes.length] = index;
+        return newIndexes;
+    }
+
+    private static class PrefixNode {
+
+        private final Map<Character, PrefixNode> children = new HashMap<Character, PrefixNode>();
+
+        // indexes of advisors whose prefix ends at this node
+        private int /*@Nullable*/[] indexes;
+
+        private @Nullable PrefixNode getChild(char c) {
+            return children.get(c);
+        }
+
+        private PrefixNode getOrCreateChild(char c) {
+            PrefixNode child = children.get(c);
+            if (child == null) {
+                child = new PrefixNode();
+                children.put(c, child);
+            }
+            return child;
+        }
+    }
+}
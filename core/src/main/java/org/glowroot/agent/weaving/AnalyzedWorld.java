@@ -15,15 +15,27 @@
  */
 package org.glowroot.agent.weaving;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.security.CodeSource;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import javax.annotation.Nullable;
 
@@ -33,6 +45,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
 import org.immutables.value.Value;
 import org.objectweb.asm.ClassReader;
@@ -50,6 +63,11 @@ public class AnalyzedWorld {
 
     private static final Logger logger = LoggerFactory.getLogger(AnalyzedWorld.class);
 
+    // upper bound on waiting for class bytes that are being read in parallel, after which the class
+    // bytes are read inline instead (e.g. in case the analysis thread is blocked on a class loader
+    // lock that is held by the waiting thread)
+    private static final long PREFETCH_TIMEOUT_MILLIS = 100;
+
     private static final Method findLoadedClassMethod;
 
     static {
@@ -97,12 +115,40 @@ public class AnalyzedWorld {
 
     private final @Nullable ExtraBootResourceFinder extraBootResourceFinder;
 
+    // when non-null, the class bytes of a class's super types are read in parallel using this
+    // executor (see prefetchHierarchy())
+    private final @Nullable ExecutorService analysisExecutor;
+
+    // class resources that are currently being read in parallel, shared across threads so that
+    // concurrent analysis of classes with common super types does not read the same class twice
+    private final ConcurrentMap<PrefetchKey, Future</*@Nullable*/ClassResource>> inFlight =
+            new ConcurrentHashMap<PrefetchKey, Future</*@Nullable*/ClassResource>>();
+
+    private final ThreadLocal</*@Nullable*/Prefetch> currentPrefetch =
+            new ThreadLocal</*@Nullable*/Prefetch>();
+
+    // index for the current advisors, only rebuilt when the advisors change
+    private volatile @Nullable AdviceMatcherIndex adviceMatcherIndex;
+
     public AnalyzedWorld(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
-            List<MixinType> mixinTypes, @Nullable ExtraBootResourceFinder extraBootResourceFinder) {
+            List<MixinType> mixinTypes, @Nullable ExtraBootResourceFinder extraBootResourceFinder,
+            @Nullable ExecutorService analysisExecutor) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.extraBootResourceFinder = extraBootResourceFinder;
+        this.analysisExecutor = analysisExecutor;
+    }
+
+    // builds the advice matcher index for the current advisors ahead of time, so that it is not
+    // built during class loading, this should be called after the advisors change
+    public void prebuildAdviceMatcherIndex() {
+        getAdviceMatcherIndex(advisors.get());
+    }
+
+    // returned matchers are in the same order as the advisors
+    ImmutableList<AdviceMatcher> getAdviceMatchers(String className, List<Advice> advisors) {
+        return getAdviceMatcherIndex(advisors).getAdviceMatchers(className);
     }
 
     public List<Class<?>> getClassesWithReweavableAdvice(boolean remove) {
@@ -114,6 +160,29 @@ public class AnalyzedWorld {
         return classes;
     }
 
+    // returns the number of methods declared by the given classes that the given advisors match,
+    // either directly or through one of the class's super types, this is used to preview the
+    // effect of a reweave, so it does not account for methods that are only inherited
+    public static int getMatchingMethodCount(Collection<Class<?>> classes,
+            List<Advice> advisors) {
+        AdviceMatcherIndex index = AdviceMatcherIndex.create(advisors);
+        int count = 0;
+        for (Class<?> clazz : classes) {
+            Set<AdviceMatcher> adviceMatchers = Sets.newHashSet();
+            addAdviceMatchers(clazz, index, adviceMatchers, Sets.<Class<?>>newHashSet());
+            if (adviceMatchers.isEmpty()) {
+                continue;
+            }
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (!method.isSynthetic() && !method.isBridge()
+                        && isMethodLevelMatch(method, adviceMatchers)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     public void removeClasses(List<Class<?>> classes) {
         for (Map<String, AnalyzedClass> map : world.asMap().values()) {
             for (Class<?> clazz : classes) {
@@ -125,10 +194,29 @@ public class AnalyzedWorld {
         }
     }
 
+    // weak key entries are otherwise only cleaned up as a side effect of accessing the cache, which
+    // means the analyzed classes of a collected class loader (e.g. an undeployed webapp) can be
+    // retained until some other class loader happens to be accessed
+    public void evictCollectedClassLoaders() {
+        world.cleanUp();
+    }
+
     public ImmutableList<ClassLoader> getClassLoaders() {
         return ImmutableList.copyOf(world.asMap().keySet());
     }
 
+    // pre-analyzes the classes in the given jar files, so that their analysis is already available
+    // when they are first encountered as super types during class loading
+    public void warmUp(List<File> jarFiles, @Nullable ClassLoader loader) {
+        for (File jarFile : jarFiles) {
+            try {
+                warmUp(jarFile, loader);
+            } catch (IOException e) {
+                logger.debug(e.getMessage(), e);
+            }
+        }
+    }
+
     void add(AnalyzedClass analyzedClass, @Nullable ClassLoader loader) {
         ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
         loaderAnalyzedClasses.put(analyzedClass.name(), analyzedClass);
@@ -150,6 +238,35 @@ public class AnalyzedWorld {
         return getOrCreateAnalyzedClass(className, loader);
     }
 
+    // starts reading the class bytes for the not-yet-analyzed super types of a class (all the way
+    // up the hierarchy) in parallel, so that the subsequent (sequential) calls to
+    // getAnalyzedHierarchy() find the class bytes already read
+    //
+    // returns null if parallel analysis is not enabled, or if this is a nested call during the
+    // analysis of a class whose hierarchy is already being read, otherwise the returned prefetch
+    // must be passed to endPrefetch()
+    @Nullable
+    Prefetch startPrefetch(@Nullable String superClassName, List<String> interfaceNames,
+            @Nullable ClassLoader loader) {
+        if (analysisExecutor == null || currentPrefetch.get() != null) {
+            return null;
+        }
+        Prefetch prefetch = new Prefetch(analysisExecutor);
+        if (superClassName != null && !superClassName.equals("java.lang.Object")) {
+            prefetch.submit(superClassName, loader);
+        }
+        for (String interfaceName : interfaceNames) {
+            prefetch.submit(interfaceName, loader);
+        }
+        currentPrefetch.set(prefetch);
+        return prefetch;
+    }
+
+    void endPrefetch(Prefetch prefetch) {
+        currentPrefetch.remove();
+        prefetch.end();
+    }
+
     // it's ok if there are duplicates in the returned list (e.g. an interface that appears twice
     // in a type hierarchy), it's rare, dups don't cause an issue for callers, and so it doesn't
     // seem worth the (minor) performance hit to de-dup every time
@@ -200,7 +317,8 @@ public class AnalyzedWorld {
                     return analyzedClass;
                 }
             }
-            analyzedClass = createAnalyzedClass(className, analyzedClassLoader);
+            analyzedClass = createAnalyzedClass(className, analyzedClassLoader,
+                    getPrefetchedClassResource(className, loader, analyzedClassLoader));
             analyzedClass = putAnalyzedClass(loaderAnalyzedClasses, analyzedClass);
         }
         return analyzedClass;
@@ -218,6 +336,33 @@ public class AnalyzedWorld {
         return analyzedClass;
     }
 
+    private static boolean isMethodLevelMatch(Method method, Set<AdviceMatcher> adviceMatchers) {
+        List<Type> parameterTypes = ImmutableList.copyOf(Type.getArgumentTypes(method));
+        Type returnType = Type.getReturnType(method);
+        for (AdviceMatcher adviceMatcher : adviceMatchers) {
+            if (adviceMatcher.isMethodLevelMatch(method.getName(), parameterTypes, returnType,
+                    method.getModifiers())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addAdviceMatchers(Class<?> clazz, AdviceMatcherIndex index,
+            Set<AdviceMatcher> adviceMatchers, Set<Class<?>> visited) {
+        if (!visited.add(clazz)) {
+            return;
+        }
+        adviceMatchers.addAll(index.getAdviceMatchers(clazz.getName()));
+        Class<?> superclass = clazz.getSuperclass();
+        if (superclass != null) {
+            addAdviceMatchers(superclass, index, adviceMatchers, visited);
+        }
+        for (Class<?> iface : clazz.getInterfaces()) {
+            addAdviceMatchers(iface, index, adviceMatchers, visited);
+        }
+    }
+
     private List<Class<?>> getClassesWithReweavableAdvice(@Nullable ClassLoader loader,
             boolean remove) {
         List<Class<?>> classes = Lists.newArrayList();
@@ -265,8 +410,17 @@ public class AnalyzedWorld {
         return analyzedLoader;
     }
 
-    private AnalyzedClass createAnalyzedClass(String className, @Nullable ClassLoader loader)
+    private AnalyzedClass createAnalyzedClass(String className, @Nullable ClassLoader loader,
+            @Nullable ClassResource prefetchedClassResource)
             throws ClassNotFoundException, IOException {
+        if (prefetchedClassResource != null) {
+            AnalyzedClass parentLoaderAnalyzedClass = tryToReuseFromParentLoaders(className,
+                    prefetchedClassResource.sameUrlParentLoaders);
+            if (parentLoaderAnalyzedClass != null) {
+                return parentLoaderAnalyzedClass;
+            }
+            return analyzeClass(prefetchedClassResource.bytes, loader);
+        }
         String path = ClassNames.toInternalName(className) + ".class";
         URL url;
         if (loader == null) {
@@ -291,9 +445,12 @@ public class AnalyzedWorld {
             // org.codehaus.groovy.runtime.callsite.CallSiteClassLoader
             return createAnalyzedClassPlanB(className, loader);
         }
+        return analyzeClass(Resources.toByteArray(url), loader);
+    }
+
+    private AnalyzedClass analyzeClass(byte[] bytes, @Nullable ClassLoader loader) {
         AnalyzingClassVisitor cv = new AnalyzingClassVisitor(advisors.get(), shimTypes, mixinTypes,
                 loader, this, null);
-        byte[] bytes = Resources.toByteArray(url);
         ClassReader cr = new ClassReader(bytes);
         try {
             cr.accept(cv, ClassReader.SKIP_CODE);
@@ -310,16 +467,7 @@ public class AnalyzedWorld {
         ClassLoader loader = originalLoader;
         while (loader != null) {
             ClassLoader parentLoader = loader.getParent();
-            URL parentLoaderUrl;
-            if (parentLoader == null) {
-                parentLoaderUrl = ClassLoader.getSystemResource(path);
-            } else {
-                parentLoaderUrl = parentLoader.getResource(path);
-            }
-            // comparing results of URL.toExternalForm() since using URL.equals() directly
-            // performs name resolution and is a blocking operation (from the javadoc)
-            if (parentLoaderUrl != null
-                    && parentLoaderUrl.toExternalForm().equals(url.toExternalForm())) {
+            if (isSameUrl(parentLoader, path, url)) {
                 // reuse parent loader's AnalyzedClass if available
                 // this saves time here, and reduces memory footprint of AnalyzedWorld
                 // which can be very noticeable when lots of ClassLoaders, e.g. groovy
@@ -334,6 +482,156 @@ public class AnalyzedWorld {
         return null;
     }
 
+    private @Nullable AnalyzedClass tryToReuseFromParentLoaders(String className,
+            List</*@Nullable*/ClassLoader> sameUrlParentLoaders) {
+        for (ClassLoader parentLoader : sameUrlParentLoaders) {
+            // see comment in tryToReuseFromParentLoader() above
+            AnalyzedClass parentLoaderAnalyzedClass =
+                    getAnalyzedClasses(parentLoader).get(className);
+            if (parentLoaderAnalyzedClass != null) {
+                return parentLoaderAnalyzedClass;
+            }
+        }
+        return null;
+    }
+
+    private static List</*@Nullable*/ClassLoader> getSameUrlParentLoaders(
+            ClassLoader originalLoader, String path, URL url) {
+        List</*@Nullable*/ClassLoader> sameUrlParentLoaders = Lists.newArrayList();
+        ClassLoader loader = originalLoader;
+        while (loader != null) {
+            ClassLoader parentLoader = loader.getParent();
+            if (isSameUrl(parentLoader, path, url)) {
+                sameUrlParentLoaders.add(parentLoader);
+            }
+            loader = parentLoader;
+        }
+        return sameUrlParentLoaders;
+    }
+
+    private static boolean isSameUrl(@Nullable ClassLoader parentLoader, String path, URL url) {
+        URL parentLoaderUrl;
+        if (parentLoader == null) {
+            parentLoaderUrl = ClassLoader.getSystemResource(path);
+        } else {
+            parentLoaderUrl = parentLoader.getResource(path);
+        }
+        // comparing results of URL.toExternalForm() since using URL.equals() directly
+        // performs name resolution and is a blocking operation (from the javadoc)
+        return parentLoaderUrl != null
+                && parentLoaderUrl.toExternalForm().equals(url.toExternalForm());
+    }
+
+    private @Nullable ClassResource getPrefetchedClassResource(String className,
+            @Nullable ClassLoader loader, @Nullable ClassLoader analyzedClassLoader) {
+        if (analysisExecutor == null) {
+            return null;
+        }
+        Prefetch prefetch = currentPrefetch.get();
+        Future</*@Nullable*/ClassResource> future;
+        if (prefetch == null) {
+            // the class may be in the middle of being read for the analysis on another thread
+            future = inFlight.get(new PrefetchKey(className, loader));
+        } else {
+            future = prefetch.get(className, loader);
+        }
+        if (future == null) {
+            return null;
+        }
+        if (future instanceof FutureTask && !future.isDone()) {
+            // if the task hasn't been picked up by the analysis executor yet, then run it inline
+            // instead of waiting for it (this is a no-op if the task is already running)
+            ((FutureTask<?>) future).run();
+        }
+        ClassResource classResource;
+        try {
+            classResource = future.get(PREFETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // read the class bytes inline instead
+            logger.debug(e.getMessage(), e);
+            return null;
+        }
+        if (classResource == null || classResource.loader != analyzedClassLoader) {
+            // already analyzed at the time it was prefetched, or was loaded in the meantime by a
+            // different class loader
+            return null;
+        }
+        return classResource;
+    }
+
+    // executed on the analysis executor, this mirrors createAnalyzedClass() up to the point of
+    // reading the class bytes, and returns null if the class does not need to be (or cannot be)
+    // analyzed from class bytes
+    private @Nullable ClassResource readClassResource(String className,
+            @Nullable ClassLoader loader, Prefetch prefetch) throws IOException {
+        ClassLoader analyzedClassLoader = getAnalyzedLoader(className, loader);
+        if (getAnalyzedClasses(analyzedClassLoader).containsKey(className)) {
+            return null;
+        }
+        String path = ClassNames.toInternalName(className) + ".class";
+        URL url;
+        List</*@Nullable*/ClassLoader> sameUrlParentLoaders = ImmutableList.of();
+        if (analyzedClassLoader == null) {
+            url = ClassLoader.getSystemResource(path);
+        } else {
+            url = analyzedClassLoader.getResource(path);
+            if (url != null) {
+                sameUrlParentLoaders = getSameUrlParentLoaders(analyzedClassLoader, path, url);
+                if (tryToReuseFromParentLoaders(className, sameUrlParentLoaders) != null) {
+                    return null;
+                }
+            }
+        }
+        if (url == null && extraBootResourceFinder != null) {
+            url = extraBootResourceFinder.findResource(path);
+        }
+        if (url == null) {
+            return null;
+        }
+        byte[] bytes = Resources.toByteArray(url);
+        ClassHeader classHeader = ClassHeader.read(bytes);
+        if (classHeader != null) {
+            // continue up the hierarchy, using the same class loader that the sequential analysis
+            // will use (see getSuperClasses())
+            String superInternalName = classHeader.superInternalName();
+            if (superInternalName != null && !superInternalName.equals("java/lang/Object")) {
+                prefetch.submit(ClassNames.fromInternalName(superInternalName), loader);
+            }
+            for (String interfaceInternalName : classHeader.interfaceInternalNames()) {
+                prefetch.submit(ClassNames.fromInternalName(interfaceInternalName), loader);
+            }
+        }
+        return new ClassResource(analyzedClassLoader, bytes, sameUrlParentLoaders);
+    }
+
+    private void warmUp(File file, @Nullable ClassLoader loader) throws IOException {
+        JarFile jarFile = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class") || name.startsWith("META-INF/")
+                        || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                String className =
+                        ClassNames.fromInternalName(name.substring(0, name.length() - 6));
+                try {
+                    getOrCreateAnalyzedClass(className, loader);
+                } catch (ClassNotFoundException e) {
+                    logger.debug(e.getMessage(), e);
+                } catch (IOException e) {
+                    logger.debug(e.getMessage(), e);
+                } catch (RuntimeException e) {
+                    // e.g. malformed class file
+                    logger.debug(e.getMessage(), e);
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+    }
+
     // plan B covers some class loaders like
     // org.codehaus.groovy.runtime.callsite.CallSiteClassLoader that delegate loadClass() to some
     // other loader where the type may have already been loaded
@@ -374,19 +672,30 @@ public class AnalyzedWorld {
         }
     }
 
+    private AdviceMatcherIndex getAdviceMatcherIndex(List<Advice> advisors) {
+        AdviceMatcherIndex index = adviceMatcherIndex;
+        if (index == null || !index.isFor(advisors)) {
+            // races are benign, since concurrently built indexes for the same advisors are
+            // equivalent
+            index = AdviceMatcherIndex.create(advisors);
+            adviceMatcherIndex = index;
+        }
+        return index;
+    }
+
     // now that the type has been loaded anyways, build the analyzed class via reflection
-    private static AnalyzedClass createAnalyzedClassPlanC(Class<?> clazz, List<Advice> advisors) {
+    private AnalyzedClass createAnalyzedClassPlanC(Class<?> clazz, List<Advice> advisors) {
         ImmutableAnalyzedClass.Builder classBuilder = ImmutableAnalyzedClass.builder();
         classBuilder.modifiers(clazz.getModifiers());
-        classBuilder.name(clazz.getName());
+        // names are interned for the same reason as in AnalyzingClassVisitor
+        classBuilder.name(clazz.getName().intern());
         Class<?> superClass = clazz.getSuperclass();
-        String superName = superClass == null ? null : superClass.getName();
+        String superName = superClass == null ? null : superClass.getName().intern();
         classBuilder.superName(superName);
         for (Class<?> interfaceClass : clazz.getInterfaces()) {
-            classBuilder.addInterfaceNames(interfaceClass.getName());
+            classBuilder.addInterfaceNames(interfaceClass.getName().intern());
         }
-        List<AdviceMatcher> adviceMatchers =
-                AdviceMatcher.getAdviceMatchers(clazz.getName(), advisors);
+        List<AdviceMatcher> adviceMatchers = getAdviceMatchers(clazz.getName(), advisors);
         for (Method method : clazz.getDeclaredMethods()) {
             if (method.isSynthetic()) {
                 // don't add synthetic methods to the analyzed model
@@ -401,14 +710,14 @@ public class AnalyzedWorld {
                     method.getName(), parameterTypes, returnType, adviceMatchers);
             if (!matchingAdvisors.isEmpty()) {
                 ImmutableAnalyzedMethod.Builder methodBuilder = ImmutableAnalyzedMethod.builder();
-                methodBuilder.name(method.getName());
+                methodBuilder.name(method.getName().intern());
                 for (Type parameterType : parameterTypes) {
-                    methodBuilder.addParameterTypes(parameterType.getClassName());
+                    methodBuilder.addParameterTypes(parameterType.getClassName().intern());
                 }
-                methodBuilder.returnType(returnType.getClassName());
+                methodBuilder.returnType(returnType.getClassName().intern());
                 methodBuilder.modifiers(method.getModifiers());
                 for (Class<?> exceptionType : method.getExceptionTypes()) {
-                    methodBuilder.addExceptions(exceptionType.getName());
+                    methodBuilder.addExceptions(exceptionType.getName().intern());
                 }
                 methodBuilder.addAllAdvisors(matchingAdvisors);
                 classBuilder.addAnalyzedMethods(methodBuilder.build());
@@ -428,6 +737,136 @@ public class AnalyzedWorld {
         return matchingAdvisors;
     }
 
+    private static class ClassResource {
+
+        private final @Nullable ClassLoader loader;
+        private final byte[] bytes;
+        // parent loaders (in order) that return the same url, see tryToReuseFromParentLoader()
+        private final List</*@Nullable*/ClassLoader> sameUrlParentLoaders;
+
+        private ClassResource(@Nullable ClassLoader loader, byte[] bytes,
+                List</*@Nullable*/ClassLoader> sameUrlParentLoaders) {
+            this.loader = loader;
+            this.bytes = bytes;
+            this.sameUrlParentLoaders = sameUrlParentLoaders;
+        }
+    }
+
+    private static class PrefetchKey {
+
+        private final String className;
+        private final @Nullable ClassLoader loader;
+
+        private PrefetchKey(String className, @Nullable ClassLoader loader) {
+            this.className = className;
+            this.loader = loader;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (!(obj instanceof PrefetchKey)) {
+                return false;
+            }
+            PrefetchKey that = (PrefetchKey) obj;
+            return className.equals(that.className) && loader == that.loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * className.hashCode() + System.identityHashCode(loader);
+        }
+    }
+
+    // tracks the class resources read (or being read) during the analysis of a single class
+    // hierarchy, and removes them from inFlight at the end so that class loaders and class bytes
+    // are not retained
+    class Prefetch {
+
+        private final ExecutorService executor;
+
+        private final ConcurrentMap<PrefetchKey, Future</*@Nullable*/ClassResource>> futures =
+                new ConcurrentHashMap<PrefetchKey, Future</*@Nullable*/ClassResource>>();
+        private final ConcurrentLinkedQueue<PrefetchKey> ownedKeys =
+                new ConcurrentLinkedQueue<PrefetchKey>();
+
+        private volatile boolean ended;
+
+        private Prefetch(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        private void submit(String className, @Nullable ClassLoader loader) {
+            if (ended) {
+                return;
+            }
+            if (getAnalyzedClasses(loader).containsKey(className)) {
+                return;
+            }
+            PrefetchKey key = new PrefetchKey(className, loader);
+            if (futures.containsKey(key)) {
+                return;
+            }
+            Future</*@Nullable*/ClassResource> future = inFlight.get(key);
+            if (future == null) {
+                FutureTask</*@Nullable*/ClassResource> futureTask =
+                        new FutureTask</*@Nullable*/ClassResource>(
+                                new PrefetchTask(className, loader, this));
+                future = inFlight.putIfAbsent(key, futureTask);
+                if (future == null) {
+                    future = futureTask;
+                    ownedKeys.add(key);
+                    if (ended) {
+                        // end() may have already drained ownedKeys
+                        inFlight.remove(key);
+                        return;
+                    }
+                    executor.execute(futureTask);
+                }
+            }
+            futures.putIfAbsent(key, future);
+        }
+
+        private @Nullable Future</*@Nullable*/ClassResource> get(String className,
+                @Nullable ClassLoader loader) {
+            PrefetchKey key = new PrefetchKey(className, loader);
+            Future</*@Nullable*/ClassResource> future = futures.get(key);
+            if (future == null) {
+                // the class may be in the middle of being read for the analysis on another thread
+                future = inFlight.get(key);
+            }
+            return future;
+        }
+
+        private void end() {
+            ended = true;
+            PrefetchKey key;
+            while ((key = ownedKeys.poll()) != null) {
+                Future</*@Nullable*/ClassResource> future = inFlight.remove(key);
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private class PrefetchTask implements Callable</*@Nullable*/ClassResource> {
+
+        private final String className;
+        private final @Nullable ClassLoader loader;
+        private final Prefetch prefetch;
+
+        private PrefetchTask(String className, @Nullable ClassLoader loader, Prefetch prefetch) {
+            this.className = className;
+            this.loader = loader;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public @Nullable ClassResource call() throws Exception {
+            return readClassResource(className, loader, prefetch);
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     abstract static class ParseContext {
@@ -33,6 +33,7 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
 import org.glowroot.agent.weaving.AnalyzedWorld.ParseContext;
+import org.glowroot.agent.weaving.AnalyzedWorld.Prefetch;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.objectweb.asm.Opcodes.ASM5;
@@ -91,14 +92,17 @@ class AnalyzingClassVisitor extends ClassVisitor {
 
         ImmutableList<String> interfaceNames =
                 ClassNames.fromInternalNames(interfaceInternalNamesNullable);
-        className = ClassNames.fromInternalName(internalName);
-        String superClassName = ClassNames.fromInternalName(superInternalName);
+        // class and method names are interned since the same names (e.g. common super types and
+        // parameter types) are repeated across many analyzed classes and across class loaders
+        className = ClassNames.fromInternalName(internalName).intern();
+        String superClassName = superInternalName == null ? null
+                : ClassNames.fromInternalName(superInternalName).intern();
         analyzedClassBuilder = ImmutableAnalyzedClass.builder()
                 .modifiers(access)
                 .name(className)
                 .superName(superClassName)
                 .addAllInterfaceNames(interfaceNames);
-        adviceMatchers = AdviceMatcher.getAdviceMatchers(className, advisors);
+        adviceMatchers = analyzedWorld.getAdviceMatchers(className, advisors);
         if (Modifier.isInterface(access)) {
             superAnalyzedClasses = ImmutableList.of();
             matchedShimTypes = getMatchedShimTypes(className, ImmutableList.<AnalyzedClass>of(),
@@ -114,10 +118,18 @@ class AnalyzingClassVisitor extends ClassVisitor {
             }
         }
         ParseContext parseContext = ImmutableParseContext.of(className, codeSource);
-        List<AnalyzedClass> superAnalyzedHierarchy =
-                analyzedWorld.getAnalyzedHierarchy(superClassName, loader, parseContext);
-        List<AnalyzedClass> interfaceAnalyzedHierarchy =
-                getAnalyzedHierarchy(interfaceNames, parseContext);
+        Prefetch prefetch = analyzedWorld.startPrefetch(superClassName, interfaceNames, loader);
+        List<AnalyzedClass> superAnalyzedHierarchy;
+        List<AnalyzedClass> interfaceAnalyzedHierarchy;
+        try {
+            superAnalyzedHierarchy =
+                    analyzedWorld.getAnalyzedHierarchy(superClassName, loader, parseContext);
+            interfaceAnalyzedHierarchy = getAnalyzedHierarchy(interfaceNames, parseContext);
+        } finally {
+            if (prefetch != null) {
+                analyzedWorld.endPrefetch(prefetch);
+            }
+        }
         // it's ok if there are duplicates in the superAnalyzedClasses list (e.g. an interface that
         // appears twice in a type hierarchy), it's rare, dups don't cause an issue for callers, and
         // so it doesn't seem worth the (minor) performance hit to de-dup every time
@@ -159,16 +171,16 @@ class AnalyzingClassVisitor extends ClassVisitor {
         if (!matchingAdvisors.isEmpty()) {
             checkNotNull(analyzedClassBuilder, "Call to visit() is required");
             ImmutableAnalyzedMethod.Builder builder = ImmutableAnalyzedMethod.builder();
-            builder.name(name);
+            builder.name(name.intern());
             for (Type parameterType : parameterTypes) {
-                builder.addParameterTypes(parameterType.getClassName());
+                builder.addParameterTypes(parameterType.getClassName().intern());
             }
-            builder.returnType(returnType.getClassName())
+            builder.returnType(returnType.getClassName().intern())
                     .modifiers(access)
                     .signature(signature);
             if (exceptions != null) {
                 for (String exception : exceptions) {
-                    builder.addExceptions(ClassNames.fromInternalName(exception));
+                    builder.addExceptions(ClassNames.fromInternalName(exception).intern());
                 }
             }
             builder.addAllAdvisors(matchingAdvisors);
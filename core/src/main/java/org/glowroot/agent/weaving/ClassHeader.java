@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import javax.annotation.Nullable;
+
+// reads the access flags, class name, super class name and interface names directly from the raw
+// class bytes, which is enough to determine that the vast majority of classes have nothing to
+// weave without allocating a ClassReader, ClassWriter and visitors
+//
+// the constant pool is also scanned for the @Pointcut annotation descriptor, since classes
+// annotated with @Pointcut need to be handled by the full weaving path
+//
+// this class is used from inside ClassFileTransformer.transform(), so it intentionally does not
+// use any non-jdk classes (see PreInitializeWeavingClasses)
+class ClassHeader {
+
+    private static final byte[] POINTCUT_DESC =
+            "Lorg/glowroot/plugin/api/weaving/Pointcut;".getBytes();
+
+    private final int access;
+    private final String internalName;
+    private final @Nullable String superInternalName;
+    private final String[] interfaceInternalNames;
+    private final boolean pointcutDescPresent;
+
+    private ClassHeader(int access, String internalName, @Nullable String superInternalName,
+            String[] interfaceInternalNames, boolean pointcutDescPresent) {
+        this.access = access;
+        this.internalName = internalName;
+        this.superInternalName = superInternalName;
+        this.interfaceInternalNames = interfaceInternalNames;
+        this.pointcutDescPresent = pointcutDescPresent;
+    }
+
+    int access() {
+        return access;
+    }
+
+    String internalName() {
+        return internalName;
+    }
+
+    @Nullable
+    String superInternalName() {
+        return superInternalName;
+    }
+
+    String[] interfaceInternalNames() {
+        return interfaceInternalNames;
+    }
+
+    boolean pointcutDescPresent() {
+        return pointcutDescPresent;
+    }
+
+    // returns null if the class bytes cannot be read (e.g. unexpected constant pool tag from a
+    // newer class file version), in which case the caller should fall back to ClassReader
+    static @Nullable ClassHeader read(byte[] bytes) {
+        try {
+            return readInternal(bytes);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // malformed class bytes, let ClassReader report the problem
+            return null;
+        }
+    }
+
+    private static @Nullable ClassHeader readInternal(byte[] bytes) {
+        if (readInt(bytes, 0) != 0xCAFEBABE) {
+            return null;
+        }
+        int constantPoolCount = readUnsignedShort(bytes, 8);
+        // offsets[i] is the offset of the constant pool entry i (just past its tag byte)
+        int[] offsets = new int[constantPoolCount];
+        boolean pointcutDescPresent = false;
+        int index = 10;
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = bytes[index];
+            offsets[i] = index + 1;
+            switch (tag) {
+                case 1: // Utf8
+                    int length = readUnsignedShort(bytes, index + 1);
+                    if (!pointcutDescPresent && isPointcutDesc(bytes, index + 3, length)) {
+                        pointcutDescPresent = true;
+                    }
+                    index += 3 + length;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    index += 3;
+                    break;
+                case 15: // MethodHandle
+                    index += 4;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    index += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    index += 9;
+                    // 8-byte constants take up two entries in the constant pool
+                    i++;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        int access = readUnsignedShort(bytes, index);
+        String internalName = readClassName(bytes, offsets, readUnsignedShort(bytes, index + 2));
+        if (internalName == null) {
+            return null;
+        }
+        String superInternalName =
+                readClassName(bytes, offsets, readUnsignedShort(bytes, index + 4));
+        int interfacesCount = readUnsignedShort(bytes, index + 6);
+        String[] interfaceInternalNames = new String[interfacesCount];
+        for (int i = 0; i < interfacesCount; i++) {
+            String interfaceInternalName =
+                    readClassName(bytes, offsets, readUnsignedShort(bytes, index + 8 + i * 2));
+            if (interfaceInternalName == null) {
+                return null;
+            }
+            interfaceInternalNames[i] = interfaceInternalName;
+        }
+        return new ClassHeader(access, internalName, superInternalName, interfaceInternalNames,
+                pointcutDescPresent);
+    }
+
+    private static boolean isPointcutDesc(byte[] bytes, int offset, int length) {
+        if (length != POINTCUT_DESC.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != POINTCUT_DESC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // class index 0 is used for the super class of java.lang.Object (and module-info)
+    private static @Nullable String readClassName(byte[] bytes, int[] offsets, int classIndex) {
+        if (classIndex == 0) {
+            return null;
+        }
+        int utf8Index = readUnsignedShort(bytes, offsets[classIndex]);
+        return readUtf8(bytes, offsets[utf8Index]);
+    }
+
+    // decodes modified utf-8 (see java.io.DataInput)
+    private static String readUtf8(byte[] bytes, int offset) {
+        int length = readUnsignedShort(bytes, offset);
+        char[] chars = new char[length];
+        int charCount = 0;
+        int index = offset + 2;
+        int end = index + length;
+        while (index < end) {
+            int c = bytes[index++] & 0xff;
+            if (c < 0x80) {
+                chars[charCount++] = (char) c;
+            } else if (c < 0xe0) {
+                chars[charCount++] = (char) (((c & 0x1f) << 6) | (bytes[index++] & 0x3f));
+            } else {
+                chars[charCount++] = (char) (((c & 0x0f) << 12)
+                        | ((bytes[index++] & 0x3f) << 6) | (bytes[index++] & 0x3f));
+            }
+        }
+        return new String(chars, 0, charCount);
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+                | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -37,13 +37,14 @@ public class ClassNames {
         return className.replace('.', '/');
     }
 
+    // names are interned since they are retained in the analyzed world (see AnalyzingClassVisitor)
     static ImmutableList<String> fromInternalNames(String /*@Nullable*/[] internalNames) {
         if (internalNames == null) {
             return ImmutableList.of();
         }
         List<String> classNames = Lists.newArrayList();
         for (String internalName : internalNames) {
-            classNames.add(internalName.replace('/', '.'));
+            classNames.add(internalName.replace('/', '.').intern());
         }
         return ImmutableList.copyOf(classNames);
     }
@@ -72,7 +72,8 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
     private IsolatedWeavingClassLoader(@Nullable ClassLoader parentClassLoader,
             List<Advice> advisors, List<ShimType> shimTypes, List<MixinType> mixinTypes,
             WeavingTimerService weavingTimerService, List<Class<?>> bridgeClasses,
-            List<String> excludePackages, boolean timerWrapperMethods) {
+            List<String> excludePackages, boolean timerWrapperMethods,
+            int outlineAdviceThreshold, @Nullable Integer pluginEnabledCallSitesId) {
         super(parentClassLoader);
         this.bridgeClasses = ImmutableList.<Class<?>>builder()
                 .addAll(bridgeClasses)
@@ -82,9 +83,10 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
         Supplier<List<Advice>> advisorsSupplier =
                 Suppliers.<List<Advice>>ofInstance(ImmutableList.copyOf(advisors));
         AnalyzedWorld analyzedWorld =
-                new AnalyzedWorld(advisorsSupplier, shimTypes, mixinTypes, null);
+                new AnalyzedWorld(advisorsSupplier, shimTypes, mixinTypes, null, null);
         this.weaver = new Weaver(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld,
-                weavingTimerService, timerWrapperMethods);
+                weavingTimerService, timerWrapperMethods, outlineAdviceThreshold, null,
+                pluginEnabledCallSitesId);
     }
 
     public <S, T extends S> S newInstance(Class<T> implClass, Class<S> bridgeClass)
@@ -187,6 +189,11 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
                 || name.equals(AdviceFlowOuterHolder.AdviceFlowHolder.class.getName())) {
             return true;
         }
+        // the call sites are registered with the parent's copy of PluginEnabledCallSites (this is
+        // compared by name since PluginEnabledCallSites cannot be loaded in java 6 jvms)
+        if (name.startsWith("org.glowroot.agent.weaving.PluginEnabledCallSites")) {
+            return true;
+        }
         return false;
     }
 
@@ -209,6 +216,8 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
         private List<Advice> advisors = Lists.newArrayList();
         private @MonotonicNonNull WeavingTimerService weavingTimerService;
         private boolean timerWrapperMethods = true;
+        private int outlineAdviceThreshold;
+        private @Nullable Integer pluginEnabledCallSitesId;
         private final List<Class<?>> bridgeClasses = Lists.newArrayList();
         private final List<String> excludePackages = Lists.newArrayList();
 
@@ -239,6 +248,14 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
             this.timerWrapperMethods = timerWrapperMethods;
         }
 
+        public void setOutlineAdviceThreshold(int outlineAdviceThreshold) {
+            this.outlineAdviceThreshold = outlineAdviceThreshold;
+        }
+
+        public void setPluginEnabledCallSitesId(int pluginEnabledCallSitesId) {
+            this.pluginEnabledCallSitesId = pluginEnabledCallSitesId;
+        }
+
         public void addBridgeClasses(List<Class<?>> bridgeClasses) {
             this.bridgeClasses.addAll(bridgeClasses);
         }
@@ -263,7 +280,8 @@ public class IsolatedWeavingClassLoader extends ClassLoader {
                             checkNotNull(weavingTimerService);
                             return new IsolatedWeavingClassLoader(parentClassLoader, advisors,
                                     shimTypes, mixinTypes, weavingTimerService, bridgeClasses,
-                                    excludePackages, timerWrapperMethods);
+                                    excludePackages, timerWrapperMethods,
+                                    outlineAdviceThreshold, pluginEnabledCallSitesId);
                         }
                     });
         }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+// matches names against a pointcut class name or method name (see AdviceBuilder.buildPattern())
+// using string comparison for the common cases of exact names and trailing wildcards, and only
+// falling back to regex for full regex (/.../) and for wildcards that are not at the end
+class NameMatcher {
+
+    private final List<String> exactNames;
+    private final List<String> prefixes;
+    private final @Nullable Pattern pattern;
+
+    private NameMatcher(List<String> exactNames, List<String> prefixes,
+            @Nullable Pattern pattern) {
+        this.exactNames = exactNames;
+        this.prefixes = prefixes;
+        this.pattern = pattern;
+    }
+
+    // pattern is the pattern that was built from name by AdviceBuilder, and is used as fallback
+    static NameMatcher create(String name, @Nullable Pattern pattern) {
+        List<String> exactNames = new ArrayList<String>();
+        List<String> prefixes = new ArrayList<String>();
+        if (pattern == null) {
+            exactNames.add(name);
+            return new NameMatcher(exactNames, prefixes, null);
+        }
+        if (name.startsWith("/") && name.endsWith("/")) {
+            return new NameMatcher(exactNames, prefixes, pattern);
+        }
+        for (String part : name.split("\\|")) {
+            int index = part.indexOf('*');
+            if (index == -1) {
+                exactNames.add(part);
+            } else if (index == part.length() - 1) {
+                prefixes.add(part.substring(0, index));
+            } else {
+                // wildcard in the middle (or multiple wildcards)
+                return new NameMatcher(new ArrayList<String>(), new ArrayList<String>(), pattern);
+            }
+        }
+        return new NameMatcher(exactNames, prefixes, null);
+    }
+
+    boolean matches(String name) {
+        if (pattern != null) {
+            return pattern.matcher(name).matches();
+        }
+        for (int i = 0; i < exactNames.size(); i++) {
+            if (exactNames.get(i).equals(name)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (name.startsWith(prefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<String> exactNames() {
+        return exactNames;
+    }
+
+    List<String> prefixes() {
+        return prefixes;
+    }
+
+    // non-null only if name cannot be matched using exact names and prefixes
+    @Nullable
+    Pattern pattern() {
+        return pattern;
+    }
+}
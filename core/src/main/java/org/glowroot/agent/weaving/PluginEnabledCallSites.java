@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// woven code in java 7+ classes checks whether an advice's plugin is enabled (before calling the
+// advice's @IsEnabled method) using an invokedynamic instruction that is bootstrapped by this class
+// (see WeavingMethodVisitor)
+//
+// all call sites for a given plugin share a single MutableCallSite whose target is a constant
+// method handle, which the jit compiler treats as a constant, so the advice of a disabled plugin
+// is folded away in compiled code, and enabling/disabling the plugin replaces the target which
+// deoptimizes the compiled code that depends on it
+//
+// each agent has its own instance (with its own plugin configs), and woven code refers to the
+// instance of the agent that wove it by id (passed as a static bootstrap argument), since this
+// class itself is shared by all agents in the jvm (e.g. in tests)
+//
+// this class uses java.lang.invoke, so it must only be loaded in java 7+ jvms
+public class PluginEnabledCallSites {
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static final ConcurrentMap<Integer, PluginEnabledCallSites> instances =
+            new ConcurrentHashMap<Integer, PluginEnabledCallSites>();
+
+    private final int id;
+
+    private final ConcurrentMap<String, PluginEnabledCallSite> callSites =
+            new ConcurrentHashMap<String, PluginEnabledCallSite>();
+
+    private PluginEnabledCallSites(int id) {
+        this.id = id;
+    }
+
+    public static PluginEnabledCallSites create() {
+        PluginEnabledCallSites pluginEnabledCallSites =
+                new PluginEnabledCallSites(nextId.getAndIncrement());
+        instances.put(pluginEnabledCallSites.id, pluginEnabledCallSites);
+        return pluginEnabledCallSites;
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type,
+            int id, String pluginId) {
+        PluginEnabledCallSites pluginEnabledCallSites = instances.get(id);
+        if (pluginEnabledCallSites == null) {
+            // the agent that wove the class has been closed, so fall back to always calling the
+            // @IsEnabled method
+            return new ConstantCallSite(MethodHandles.constant(boolean.class, true));
+        }
+        return pluginEnabledCallSites.getCallSite(pluginId);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setEnabled(String pluginId, boolean enabled) {
+        setEnabled(getCallSite(pluginId), enabled);
+    }
+
+    public void close() {
+        instances.remove(id);
+        // call sites that are already linked keep their target, so re-enable them for the same
+        // reason as above
+        for (PluginEnabledCallSite callSite : callSites.values()) {
+            setEnabled(callSite, true);
+        }
+    }
+
+    private PluginEnabledCallSite getCallSite(String pluginId) {
+        PluginEnabledCallSite callSite = callSites.get(pluginId);
+        if (callSite == null) {
+            callSite = new PluginEnabledCallSite();
+            PluginEnabledCallSite existingCallSite = callSites.putIfAbsent(pluginId, callSite);
+            if (existingCallSite != null) {
+                callSite = existingCallSite;
+            }
+        }
+        return callSite;
+    }
+
+    private static void setEnabled(PluginEnabledCallSite callSite, boolean enabled) {
+        synchronized (callSite) {
+            if (callSite.enabled == enabled) {
+                // avoid needlessly deoptimizing code that depends on the call site
+                return;
+            }
+            callSite.setTarget(MethodHandles.constant(boolean.class, enabled));
+            callSite.enabled = enabled;
+            MutableCallSite.syncAll(new MutableCallSite[] {callSite});
+        }
+    }
+
+    private static class PluginEnabledCallSite extends MutableCallSite {
+
+        // plugins are treated as enabled until told otherwise, in which case the guard is
+        // equivalent to the previous behavior of calling the @IsEnabled method unconditionally
+        private volatile boolean enabled = true;
+
+        private PluginEnabledCallSite() {
+            super(MethodHandles.constant(boolean.class, true));
+        }
+    }
+}
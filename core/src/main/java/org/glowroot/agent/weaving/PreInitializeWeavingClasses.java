@@ -303,8 +303,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.impl.WeavingTimerServiceImpl");
         types.add("org.glowroot.agent.impl.WeavingTimerServiceImpl$2");
         types.add("org.glowroot.agent.impl.WeavingTimerServiceImpl$NopWeavingTimer");
+        types.add("org.glowroot.agent.model.AuxThreadComponent");
         types.add("org.glowroot.agent.model.NestedTimerMap");
         types.add("org.glowroot.agent.model.NestedTimerMap$Entry");
+        types.add("org.glowroot.agent.model.TimerContext");
         types.add("org.glowroot.agent.model.TimerImpl");
         types.add("org.glowroot.agent.model.TimerNameImpl");
         types.add("org.glowroot.agent.model.Transaction");
@@ -315,16 +317,24 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.AdviceFlowOuterHolder$1");
         types.add("org.glowroot.agent.weaving.AdviceFlowOuterHolder$AdviceFlowHolder");
         types.add("org.glowroot.agent.weaving.AdviceMatcher");
+        types.add("org.glowroot.agent.weaving.AdviceMatcherIndex");
+        types.add("org.glowroot.agent.weaving.AdviceMatcherIndex$1");
+        types.add("org.glowroot.agent.weaving.AdviceMatcherIndex$PrefixNode");
         types.add("org.glowroot.agent.weaving.AnalyzedClass");
         types.add("org.glowroot.agent.weaving.AnalyzedMethod");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld$1");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$ClassResource");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld$ParseContext");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$Prefetch");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$PrefetchKey");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$PrefetchTask");
         types.add("org.glowroot.agent.weaving.AnalyzingClassVisitor");
         types.add("org.glowroot.agent.weaving.AnalyzingClassVisitor$ShortCircuitException");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$ClassMetaHolder");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$MethodMetaHolder");
+        types.add("org.glowroot.agent.weaving.ClassHeader");
         types.add("org.glowroot.agent.weaving.ClassLoaders");
         types.add("org.glowroot.agent.weaving.ClassNames");
         types.add("org.glowroot.agent.weaving.ExtraBootResourceFinder");
@@ -342,17 +352,20 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.ImmutableMethodMetaGroup$Builder");
         types.add("org.glowroot.agent.weaving.ImmutableParseContext");
         types.add("org.glowroot.agent.weaving.MixinType");
+        types.add("org.glowroot.agent.weaving.NameMatcher");
         types.add("org.glowroot.agent.weaving.ParameterKind");
         types.add("org.glowroot.agent.weaving.PointcutClassVisitor");
         types.add("org.glowroot.agent.weaving.ShimType");
         types.add("org.glowroot.agent.weaving.Weaver");
         types.add("org.glowroot.agent.weaving.Weaver$ComputeFramesClassWriter");
         types.add("org.glowroot.agent.weaving.Weaver$JSRInlinerClassVisitor");
+        types.add("org.glowroot.agent.weaving.WeavingCache");
         types.add("org.glowroot.agent.weaving.WeavingClassFileTransformer");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$AnalyzedMethodKey");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$InitMixins");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$MethodMetaGroup");
+        types.add("org.glowroot.agent.weaving.WeavingClassVisitor$OutliningMethodNode");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$PointcutClassFoundException");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor");
         types.add("org.glowroot.agent.weaving.WeavingMethodVisitor$CatchHandler");
@@ -403,6 +416,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.objectweb.asm.Type");
         types.add("org.objectweb.asm.TypePath");
         types.add("org.objectweb.asm.commons.AdviceAdapter");
+        types.add("org.objectweb.asm.commons.CodeSizeEvaluator");
         types.add("org.objectweb.asm.commons.GeneratorAdapter");
         types.add("org.objectweb.asm.commons.JSRInlinerAdapter");
         types.add("org.objectweb.asm.commons.JSRInlinerAdapter$Instantiation");
@@ -49,16 +49,23 @@ class Weaver {
     private final AnalyzedWorld analyzedWorld;
     private final WeavingTimerService weavingTimerService;
     private final boolean timerWrapperMethods;
+    private final int outlineAdviceThreshold;
+    private final @Nullable WeavingCache weavingCache;
+    private final @Nullable Integer pluginEnabledCallSitesId;
 
     Weaver(Supplier<List<Advice>> advisors, List<ShimType> shimTypes, List<MixinType> mixinTypes,
             AnalyzedWorld analyzedWorld, WeavingTimerService weavingTimerService,
-            boolean timerWrapperMethods) {
+            boolean timerWrapperMethods, int outlineAdviceThreshold,
+            @Nullable WeavingCache weavingCache, @Nullable Integer pluginEnabledCallSitesId) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.analyzedWorld = analyzedWorld;
         this.weavingTimerService = weavingTimerService;
         this.timerWrapperMethods = timerWrapperMethods;
+        this.outlineAdviceThreshold = outlineAdviceThreshold;
+        this.weavingCache = weavingCache;
+        this.pluginEnabledCallSitesId = pluginEnabledCallSitesId;
     }
 
     byte /*@Nullable*/[] weave(byte[] classBytes, String className, @Nullable CodeSource codeSource,
@@ -81,14 +88,36 @@ class Weaver {
             @Nullable CodeSource codeSource, @Nullable ClassLoader loader) {
         WeavingTimer weavingTimer = weavingTimerService.start();
         try {
-            return weaveUnderTimer(classBytes, className, codeSource, loader);
+            if (weavingCache == null) {
+                return weaveUnderTimer(classBytes, className, codeSource, loader, null);
+            }
+            String weavingCacheKey = weavingCache.getKey(classBytes);
+            if (weavingCacheKey == null) {
+                return weaveUnderTimer(classBytes, className, codeSource, loader, null);
+            }
+            byte[] cachedBytes = weavingCache.get(weavingCacheKey);
+            if (cachedBytes == WeavingCache.NOTHING_TO_WEAVE) {
+                return null;
+            }
+            if (cachedBytes != null) {
+                return cachedBytes;
+            }
+            return weaveUnderTimer(classBytes, className, codeSource, loader, weavingCacheKey);
         } finally {
             weavingTimer.stop();
         }
     }
 
     private byte/*@Nullable*/[] weaveUnderTimer(byte[] classBytes, String className,
-            @Nullable CodeSource codeSource, @Nullable ClassLoader loader) {
+            @Nullable CodeSource codeSource, @Nullable ClassLoader loader,
+            @Nullable String weavingCacheKey) {
+        List<Advice> advisors = this.advisors.get();
+        if (isNonInterestingFromClassHeader(classBytes, advisors, loader, codeSource)) {
+            if (weavingCache != null && weavingCacheKey != null) {
+                weavingCache.put(weavingCacheKey, null);
+            }
+            return null;
+        }
         // from http://www.oracle.com/technetwork/java/javase/compatibility-417013.html:
         //
         // "Classfiles with version number 51 are exclusively verified using the type-checking
@@ -103,8 +132,9 @@ class Weaver {
         //
         ClassWriter cw = new ComputeFramesClassWriter(ClassWriter.COMPUTE_FRAMES, analyzedWorld,
                 loader, codeSource, className);
-        WeavingClassVisitor cv = new WeavingClassVisitor(cw, advisors.get(), shimTypes, mixinTypes,
-                loader, analyzedWorld, codeSource, timerWrapperMethods);
+        WeavingClassVisitor cv = new WeavingClassVisitor(cw, advisors, shimTypes, mixinTypes,
+                loader, analyzedWorld, codeSource, timerWrapperMethods, outlineAdviceThreshold,
+                pluginEnabledCallSitesId);
         ClassReader cr = new ClassReader(classBytes);
         boolean shortCircuitException = false;
         boolean pointcutClassFoundException = false;
@@ -115,18 +145,47 @@ class Weaver {
         } catch (PointcutClassFoundException e) {
             pointcutClassFoundException = true;
         }
+        byte[] wovenBytes;
+        boolean cacheable = true;
         if (shortCircuitException || cv.isInterfaceSoNothingToWeave()) {
-            return null;
+            wovenBytes = null;
         } else if (pointcutClassFoundException) {
             ClassWriter cw2 = new ComputeFramesClassWriter(ClassWriter.COMPUTE_FRAMES,
                     analyzedWorld, loader, codeSource, className);
             PointcutClassVisitor cv2 = new PointcutClassVisitor(cw2);
             ClassReader cr2 = new ClassReader(classBytes);
             cr2.accept(new JSRInlinerClassVisitor(cv2), ClassReader.SKIP_FRAMES);
-            return cw2.toByteArray();
+            wovenBytes = cw2.toByteArray();
         } else {
-            return cw.toByteArray();
+            wovenBytes = cw.toByteArray();
+            cacheable = cv.isWeavingCacheable();
+        }
+        if (weavingCache != null && weavingCacheKey != null && cacheable) {
+            weavingCache.put(weavingCacheKey, wovenBytes);
+        }
+        return wovenBytes;
+    }
+
+    // performance optimization, this reads just the class header directly from the class bytes,
+    // which is enough to short circuit the vast majority of classes without allocating the class
+    // reader, class writer and weaving visitor
+    private boolean isNonInterestingFromClassHeader(byte[] classBytes, List<Advice> advisors,
+            @Nullable ClassLoader loader, @Nullable CodeSource codeSource) {
+        ClassHeader classHeader = ClassHeader.read(classBytes);
+        if (classHeader == null || classHeader.pointcutDescPresent()) {
+            return false;
+        }
+        AnalyzingClassVisitor analyzingClassVisitor = new AnalyzingClassVisitor(advisors,
+                shimTypes, mixinTypes, loader, analyzedWorld, codeSource);
+        AnalyzedClass nonInterestingAnalyzedClass =
+                analyzingClassVisitor.visitAndSometimesReturnNonInterestingAnalyzedClass(
+                        classHeader.access(), classHeader.internalName(),
+                        classHeader.superInternalName(), classHeader.interfaceInternalNames());
+        if (nonInterestingAnalyzedClass == null) {
+            return false;
         }
+        analyzedWorld.add(nonInterestingAnalyzedClass, loader);
+        return true;
     }
 
     private static class JSRInlinerClassVisitor extends ClassVisitor {
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// persists the result of weaving each class across jvm restarts, so that classes that were already
+// woven (or found to have nothing to weave) during a prior jvm run do not need to be parsed and
+// re-written again during startup
+//
+// entries are keyed by the hash of the original class bytes, and are stored under a directory
+// named by the fingerprint of everything else that goes into the weaving result (advisors, shim
+// types, mixin types, timer wrapper methods and the glowroot build itself), so any change to the
+// instrumentation config results in a new (empty) directory and the prior directory is deleted
+//
+// the weaving result also depends on the class's super types, which are not part of the key, so
+// this assumes that the super types of a class do not change across jvm restarts without the class
+// bytes themselves also changing (which is why this is not enabled by default)
+//
+// this class is used from inside ClassFileTransformer.transform(), so it intentionally does not
+// use any non-jdk classes other than those already used by weaving (see
+// PreInitializeWeavingClasses)
+public class WeavingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(WeavingCache.class);
+
+    // marker returned from get() for classes that have nothing to weave
+    static final byte[] NOTHING_TO_WEAVE = new byte[0];
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File cacheDir;
+    private final Supplier<List<Advice>> advisors;
+    // fingerprint of everything other than the advisors (which can change at runtime)
+    private final byte[] staticFingerprint;
+
+    private @Nullable List<Advice> currAdvisors;
+    private @Nullable File currDir;
+
+    public WeavingCache(File cacheDir, Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
+            List<MixinType> mixinTypes, boolean timerWrapperMethods, int outlineAdviceThreshold)
+                    throws NoSuchAlgorithmException {
+        this.cacheDir = cacheDir;
+        this.advisors = advisors;
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        updateDigest(digest, String.valueOf(timerWrapperMethods));
+        updateDigest(digest, String.valueOf(outlineAdviceThreshold));
+        updateDigest(digest, getBuildFingerprint());
+        for (ShimType shimType : shimTypes) {
+            updateDigest(digest, shimType.toString());
+        }
+        for (MixinType mixinType : mixinTypes) {
+            updateDigest(digest, mixinType.implementation().getInternalName());
+            updateDigest(digest, mixinType.targets().toString());
+            updateDigest(digest, mixinType.interfaces().toString());
+            updateDigest(digest, String.valueOf(mixinType.initMethodName()));
+            // mixin implementation bytes are copied into woven classes
+            digest.update(mixinType.implementationBytes());
+        }
+        staticFingerprint = digest.digest();
+    }
+
+    @Nullable
+    String getKey(byte[] classBytes) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(classBytes));
+        } catch (NoSuchAlgorithmException e) {
+            // already checked in constructor
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // returns NOTHING_TO_WEAVE if the class was previously found to have nothing to weave, and
+    // returns null if the class is not in the cache
+    byte /*@Nullable*/[] get(String key) {
+        try {
+            File file = getFile(key);
+            if (!file.exists()) {
+                return null;
+            }
+            byte[] bytes = readFully(file);
+            if (bytes.length == 0) {
+                return NOTHING_TO_WEAVE;
+            }
+            return bytes;
+        } catch (Exception e) {
+            // fall back to weaving
+            logger.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // wovenBytes is null if the class has nothing to weave
+    void put(String key, byte /*@Nullable*/[] wovenBytes) {
+        try {
+            File file = getFile(key);
+            File parentDir = file.getParentFile();
+            if (!parentDir.exists() && !parentDir.mkdirs()) {
+                throw new IOException("Could not create directory: " + parentDir);
+            }
+            // write to temp file and rename so that concurrent jvms sharing the same cache
+            // directory never see a partially written entry
+            File tempFile = File.createTempFile(key, ".tmp", parentDir);
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                if (wovenBytes != null) {
+                    out.write(wovenBytes);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file) && !tempFile.delete()) {
+                logger.debug("could not delete temp file: {}", tempFile);
+            }
+        } catch (Exception e) {
+            // the class will just be woven again next time
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    private File getFile(String key) throws NoSuchAlgorithmException {
+        return new File(new File(getDir(), key.substring(0, 2)), key.substring(2));
+    }
+
+    private synchronized File getDir() throws NoSuchAlgorithmException {
+        List<Advice> advisors = this.advisors.get();
+        if (advisors == currAdvisors && currDir != null) {
+            return currDir;
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(staticFingerprint);
+        for (Advice advice : advisors) {
+            updateDigest(digest, advice.toString());
+        }
+        String fingerprint = toHex(digest.digest());
+        File[] priorDirs = cacheDir.listFiles();
+        if (priorDirs != null) {
+            for (File priorDir : priorDirs) {
+                if (!priorDir.getName().equals(fingerprint)) {
+                    // instrumentation config (or glowroot itself) has changed since these
+                    // entries were stored
+                    deleteRecursively(priorDir);
+                }
+            }
+        }
+        File dir = new File(cacheDir, fingerprint);
+        currAdvisors = advisors;
+        currDir = dir;
+        return dir;
+    }
+
+    private static String getBuildFingerprint() {
+        CodeSource codeSource = WeavingCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            return "";
+        }
+        URL location = codeSource.getLocation();
+        if (location == null) {
+            return "";
+        }
+        String buildFingerprint = location.toExternalForm();
+        if (location.getProtocol().equals("file")) {
+            File file = new File(location.getPath());
+            buildFingerprint += ":" + file.length() + ":" + file.lastModified();
+        }
+        return buildFingerprint;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = in.read(bytes, offset, bytes.length - offset);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of file: " + file);
+                }
+                offset += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        if (!file.delete()) {
+            logger.debug("could not delete file: {}", file);
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            digest.update((byte) (c >> 8));
+            digest.update((byte) c);
+        }
+        // separator so that adjacent values cannot run together
+        digest.update((byte) 0);
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
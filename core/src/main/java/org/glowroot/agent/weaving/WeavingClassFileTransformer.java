@@ -43,9 +43,12 @@ public class WeavingClassFileTransformer implements ClassFileTransformer {
     // explanation
     public WeavingClassFileTransformer(List<ShimType> shimTypes, List<MixinType> mixinTypes,
             Supplier<List<Advice>> advisors, AnalyzedWorld analyzedWorld,
-            WeavingTimerService weavingTimerService, boolean timerWrapperMethods) {
+            WeavingTimerService weavingTimerService, boolean timerWrapperMethods,
+            int outlineAdviceThreshold, @Nullable WeavingCache weavingCache,
+            @Nullable Integer pluginEnabledCallSitesId) {
         weaver = new Weaver(advisors, shimTypes, mixinTypes, analyzedWorld, weavingTimerService,
-                timerWrapperMethods);
+                timerWrapperMethods, outlineAdviceThreshold, weavingCache,
+                pluginEnabledCallSitesId);
         // can only weave classes in bootstrap class loader if glowroot is in bootstrap class
         // loader, otherwise woven bootstrap classes will generate NoClassDefFoundError since
         // the woven code will not be able to see glowroot classes
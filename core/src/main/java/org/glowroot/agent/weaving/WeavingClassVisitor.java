@@ -31,6 +31,7 @@ import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -45,6 +46,7 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 import org.objectweb.asm.commons.RemappingMethodAdapter;
@@ -87,6 +89,7 @@ import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.PUTSTATIC;
 import static org.objectweb.asm.Opcodes.RETURN;
 import static org.objectweb.asm.Opcodes.V1_5;
+import static org.objectweb.asm.Opcodes.V1_7;
 
 class WeavingClassVisitor extends ClassVisitor {
 
@@ -107,11 +110,21 @@ class WeavingClassVisitor extends ClassVisitor {
     private final AnalyzedWorld analyzedWorld;
 
     private final boolean timerWrapperMethods;
+    // when greater than zero, advice is outlined into a static helper method whenever weaving
+    // pushes a method's bytecode size over this threshold (see OutliningMethodNode)
+    private final int outlineAdviceThreshold;
 
     private @MonotonicNonNull Type type;
 
+    // null when not running in a java 7+ jvm (see PluginEnabledCallSites)
+    private final @Nullable Integer configuredPluginEnabledCallSitesId;
+
+    // invokedynamic can only be used in java 7+ class files, so this is null for older class files
+    private @Nullable Integer pluginEnabledCallSitesId;
+
     private boolean throwShortCircuitException;
     private boolean interfaceSoNothingToWeave;
+    private boolean hasReweavableAdvice;
 
     private int innerMethodCounter;
 
@@ -123,7 +136,8 @@ class WeavingClassVisitor extends ClassVisitor {
 
     public WeavingClassVisitor(ClassVisitor cv, List<Advice> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes, @Nullable ClassLoader loader, AnalyzedWorld analyzedWorld,
-            @Nullable CodeSource codeSource, boolean timerWrapperMethods) {
+            @Nullable CodeSource codeSource, boolean timerWrapperMethods,
+            int outlineAdviceThreshold, @Nullable Integer pluginEnabledCallSitesId) {
         super(ASM5, cv);
         this.cv = cv;
         this.loader = loader;
@@ -131,6 +145,8 @@ class WeavingClassVisitor extends ClassVisitor {
                 analyzedWorld, codeSource);
         this.analyzedWorld = analyzedWorld;
         this.timerWrapperMethods = timerWrapperMethods;
+        this.outlineAdviceThreshold = outlineAdviceThreshold;
+        configuredPluginEnabledCallSitesId = pluginEnabledCallSitesId;
     }
 
     @Override
@@ -152,6 +168,9 @@ class WeavingClassVisitor extends ClassVisitor {
             return;
         }
         type = Type.getObjectType(internalName);
+        if ((version & 0xFFFF) >= V1_7) {
+            pluginEnabledCallSitesId = configuredPluginEnabledCallSitesId;
+        }
         String /*@Nullable*/[] interfacesIncludingMixins = getInterfacesIncludingShimsAndMixins(
                 interfaceInternalNamesNullable, analyzingClassVisitor.getMatchedShimTypes(),
                 analyzingClassVisitor.getMatchedMixinTypes());
@@ -203,6 +222,7 @@ class WeavingClassVisitor extends ClassVisitor {
         AnalyzedClass analyzedClass = analyzingClassVisitor.getAnalyzedClass();
         checkNotNull(analyzedClass); // analyzedClass is non-null after visiting the class
         analyzedWorld.add(analyzedClass, loader);
+        hasReweavableAdvice = analyzedClass.hasReweavableAdvice();
         if (interfaceSoNothingToWeave) {
             return;
         }
@@ -224,6 +244,13 @@ class WeavingClassVisitor extends ClassVisitor {
         return interfaceSoNothingToWeave;
     }
 
+    // woven bytes that reference a generated meta holder cannot be reused by another jvm run, and
+    // classes with reweavable advice need to be tracked in the analyzed world (which is bypassed
+    // when the woven bytes are retrieved from the weaving cache)
+    boolean isWeavingCacheable() {
+        return metaHolderInternalName == null && !hasReweavableAdvice;
+    }
+
     @RequiresNonNull("type")
     private void handleMetaHolders() {
         if (metaHolderInternalName != null) {
@@ -439,7 +466,8 @@ class WeavingClassVisitor extends ClassVisitor {
             }
         }
         return new WeavingMethodVisitor(mv, access, name, desc, type, matchingAdvisors,
-                metaHolderInternalName, methodMetaUniqueNum, loader == null, null);
+                metaHolderInternalName, methodMetaUniqueNum, loader == null,
+                pluginEnabledCallSitesId, null, null);
     }
 
     @RequiresNonNull("type")
@@ -450,11 +478,17 @@ class WeavingClassVisitor extends ClassVisitor {
         if (timerWrapperMethods && !name.equals("<init>")) {
             return wrapWithSyntheticTimerMarkerMethods(access, name, desc, signature, exceptions,
                     matchingAdvisors, methodMetaUniqueNum);
+        } else if (outlineAdviceThreshold > 0 && !name.equals("<init>") && loader != null) {
+            // outlining is not performed on bootstrap classes since the woven method is visited
+            // more than once, and bootstrap meta holder indexes are reserved when visited
+            return new OutliningMethodNode(access, name, desc, signature, exceptions,
+                    ImmutableList.copyOf(matchingAdvisors), methodMetaUniqueNum);
         } else {
             MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
             checkNotNull(mv);
             return new WeavingMethodVisitor(mv, access, name, desc, type, matchingAdvisors,
-                    metaHolderInternalName, methodMetaUniqueNum, loader == null, null);
+                    metaHolderInternalName, methodMetaUniqueNum, loader == null,
+                    pluginEnabledCallSitesId, null, null);
         }
     }
 
@@ -530,7 +564,7 @@ class WeavingClassVisitor extends ClassVisitor {
         checkNotNull(mv);
         return new WeavingMethodVisitor(mv, currMethodAccess, currMethodName, desc, type,
                 matchingAdvisors, metaHolderInternalName, methodMetaUniqueNum, loader == null,
-                outerMethodVisitor);
+                pluginEnabledCallSitesId, null, outerMethodVisitor);
     }
 
     @RequiresNonNull("type")
@@ -683,6 +717,108 @@ class WeavingClassVisitor extends ClassVisitor {
         }
     }
 
+    // buffers the method so that it can be woven and measured before deciding whether to outline
+    // the advice into a private static helper method, in which case the original method is left
+    // with just the @IsEnabled guard(s) in front of its original body, and the helper method
+    // (which is woven with the full advice) is only called when advice is enabled
+    //
+    // the decision is based only on the non-reweavable (plugin) advice so that the set of methods
+    // in the class does not change when the class is retransformed to add/remove reweavable
+    // advice (retransformation cannot add or remove methods)
+    private class OutliningMethodNode extends MethodNode {
+
+        private final String /*@Nullable*/[] exceptionsArray;
+        private final ImmutableList<Advice> matchingAdvisors;
+        private final @Nullable Integer methodMetaUniqueNum;
+
+        private OutliningMethodNode(int access, String name, String desc,
+                @Nullable String signature, String /*@Nullable*/[] exceptions,
+                ImmutableList<Advice> matchingAdvisors, @Nullable Integer methodMetaUniqueNum) {
+            super(ASM5, access, name, desc, signature, exceptions);
+            this.exceptionsArray = exceptions;
+            this.matchingAdvisors = matchingAdvisors;
+            this.methodMetaUniqueNum = methodMetaUniqueNum;
+        }
+
+        @Override
+        public void visitEnd() {
+            checkNotNull(type);
+            MethodNode wovenMethod = weave(matchingAdvisors);
+            if (!shouldOutline(wovenMethod)) {
+                wovenMethod.accept(cv);
+                return;
+            }
+            String helperDesc;
+            if (Modifier.isStatic(access)) {
+                helperDesc = desc;
+            } else {
+                Type[] argumentTypes = Type.getArgumentTypes(desc);
+                Type[] helperArgumentTypes = new Type[argumentTypes.length + 1];
+                helperArgumentTypes[0] = type;
+                System.arraycopy(argumentTypes, 0, helperArgumentTypes, 1, argumentTypes.length);
+                helperDesc = Type.getMethodDescriptor(Type.getReturnType(desc),
+                        helperArgumentTypes);
+            }
+            Method outlinedHelper =
+                    new Method(name + "$glowroot$outlined$" + innerMethodCounter++, helperDesc);
+            MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptionsArray);
+            checkNotNull(mv);
+            accept(new WeavingMethodVisitor(mv, access, name, desc, type, matchingAdvisors,
+                    metaHolderInternalName, methodMetaUniqueNum, loader == null,
+                    pluginEnabledCallSitesId, outlinedHelper, null));
+            // the helper method has the same local variable layout as the original method (with
+            // the receiver, if any, passed as the first argument), so the woven method can be
+            // copied over as is, minus the annotations and attributes of the original method
+            wovenMethod.visibleAnnotations = null;
+            wovenMethod.invisibleAnnotations = null;
+            wovenMethod.visibleParameterAnnotations = null;
+            wovenMethod.invisibleParameterAnnotations = null;
+            wovenMethod.visibleTypeAnnotations = null;
+            wovenMethod.invisibleTypeAnnotations = null;
+            wovenMethod.annotationDefault = null;
+            wovenMethod.parameters = null;
+            wovenMethod.attrs = null;
+            MethodVisitor helperMv = cv.visitMethod(ACC_PRIVATE + ACC_STATIC + ACC_SYNTHETIC,
+                    outlinedHelper.getName(), helperDesc, null, exceptionsArray);
+            checkNotNull(helperMv);
+            wovenMethod.accept(helperMv);
+        }
+
+        private boolean shouldOutline(MethodNode wovenMethod) {
+            List<Advice> nonReweavableAdvisors = Lists.newArrayList();
+            for (Advice advice : matchingAdvisors) {
+                if (advice.reweavable()) {
+                    continue;
+                }
+                if (advice.isEnabledAdvice() == null) {
+                    // outlining would not help since the advice is always enabled
+                    return false;
+                }
+                nonReweavableAdvisors.add(advice);
+            }
+            if (nonReweavableAdvisors.isEmpty()) {
+                return false;
+            }
+            MethodNode measuredMethod = wovenMethod;
+            if (nonReweavableAdvisors.size() < matchingAdvisors.size()) {
+                measuredMethod = weave(nonReweavableAdvisors);
+            }
+            CodeSizeEvaluator codeSizeEvaluator = new CodeSizeEvaluator(null);
+            measuredMethod.instructions.accept(codeSizeEvaluator);
+            return codeSizeEvaluator.getMaxSize() > outlineAdviceThreshold;
+        }
+
+        @RequiresNonNull("type")
+        private MethodNode weave(List<Advice> advisors) {
+            MethodNode wovenMethod = new MethodNode(ASM5, access, name, desc, signature,
+                    exceptionsArray);
+            accept(new WeavingMethodVisitor(wovenMethod, access, name, desc, type, advisors,
+                    metaHolderInternalName, methodMetaUniqueNum, loader == null,
+                    pluginEnabledCallSitesId, null, null));
+            return wovenMethod;
+        }
+    }
+
     @SuppressWarnings("serial")
     static class PointcutClassFoundException extends RuntimeException {
         private static final PointcutClassFoundException INSTANCE =
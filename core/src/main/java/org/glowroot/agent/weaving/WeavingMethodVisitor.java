@@ -29,6 +29,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.immutables.value.Value;
 import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
@@ -57,6 +58,14 @@ class WeavingMethodVisitor extends AdviceAdapter {
     private static final Type adviceFlowOuterHolderType = Type.getType(AdviceFlowOuterHolder.class);
     private static final Type adviceFlowHolderType = Type.getType(AdviceFlowHolder.class);
 
+    // PluginEnabledCallSites is intentionally referenced by name only, since it uses
+    // java.lang.invoke and so cannot be loaded in java 6 jvms
+    private static final Handle pluginEnabledBootstrapHandle =
+            new Handle(H_INVOKESTATIC, "org/glowroot/agent/weaving/PluginEnabledCallSites",
+                    "bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+                            + "Ljava/lang/invoke/MethodType;ILjava/lang/String;)"
+                            + "Ljava/lang/invoke/CallSite;");
+
     private static final Type objectType = Type.getObjectType("java/lang/Object");
 
     private final int access;
@@ -68,6 +77,11 @@ class WeavingMethodVisitor extends AdviceAdapter {
     private final @Nullable String metaHolderInternalName;
     private final @Nullable Integer methodMetaGroupUniqueNum;
     private final boolean bootstrapClassLoader;
+    // null when the plugin enabled guard cannot be woven (see WeavingClassVisitor)
+    private final @Nullable Integer pluginEnabledCallSitesId;
+    // non-null when the advice has been outlined into a static helper method (see
+    // WeavingClassVisitor.OutliningMethodNode), in which case only the @IsEnabled guard is woven
+    private final @Nullable Method outlinedHelper;
     private final boolean needsOnReturn;
     private final boolean needsOnThrow;
     private final @Nullable MethodVisitor outerMethodVisitor;
@@ -93,6 +107,7 @@ class WeavingMethodVisitor extends AdviceAdapter {
     WeavingMethodVisitor(MethodVisitor mv, int access, String name, String desc, Type owner,
             Iterable<Advice> advisors, @Nullable String metaHolderInternalName,
             @Nullable Integer methodMetaGroupUniqueNum, boolean bootstrapClassLoader,
+            @Nullable Integer pluginEnabledCallSitesId, @Nullable Method outlinedHelper,
             @Nullable MethodVisitor outerMethodVisitor) {
         super(ASM5, mv, access, name, desc);
         this.access = access;
@@ -104,9 +119,15 @@ class WeavingMethodVisitor extends AdviceAdapter {
         this.metaHolderInternalName = metaHolderInternalName;
         this.methodMetaGroupUniqueNum = methodMetaGroupUniqueNum;
         this.bootstrapClassLoader = bootstrapClassLoader;
+        this.pluginEnabledCallSitesId = pluginEnabledCallSitesId;
+        this.outlinedHelper = outlinedHelper;
         boolean needsOnReturn = false;
         boolean needsOnThrow = false;
         for (Advice advice : advisors) {
+            if (outlinedHelper != null) {
+                // the outlined helper method handles all of the advice
+                break;
+            }
             if (advice.pointcut().ignoreSelfNested() || advice.onAfterAdvice() != null) {
                 needsOnReturn = true;
                 needsOnThrow = true;
@@ -136,6 +157,10 @@ class WeavingMethodVisitor extends AdviceAdapter {
     protected void onMethodEnter() {
         methodStartLabel = new Label();
         visitLabel(methodStartLabel);
+        if (outlinedHelper != null) {
+            visitOutlinedAdviceGuard(outlinedHelper);
+            return;
+        }
         // enabled and traveler locals must be defined outside of the try block so they will be
         // accessible in the catch block
         for (Advice advice : advisors) {
@@ -293,14 +318,40 @@ class WeavingMethodVisitor extends AdviceAdapter {
         }
     }
 
+    // the method body is only executed directly (without any advice) when all of the @IsEnabled
+    // methods return false, otherwise the outlined helper method is called, which is woven with the
+    // full advice (and so evaluates the @IsEnabled methods again)
+    private void visitOutlinedAdviceGuard(Method outlinedHelper) {
+        Label helperLabel = new Label();
+        Label bodyLabel = new Label();
+        for (Advice advice : advisors) {
+            Method isEnabledAdvice = advice.isEnabledAdvice();
+            if (isEnabledAdvice == null) {
+                // advice is always enabled (this only happens when reweavable advice is added to
+                // a method that was outlined due to its plugin advice)
+                visitJumpInsn(GOTO, helperLabel);
+                break;
+            }
+            invokeIsEnabled(advice, isEnabledAdvice);
+            visitJumpInsn(IFNE, helperLabel);
+        }
+        visitJumpInsn(GOTO, bodyLabel);
+        visitLabel(helperLabel);
+        if (!Modifier.isStatic(access)) {
+            loadThis();
+        }
+        loadArgs();
+        visitMethodInsn(INVOKESTATIC, owner.getInternalName(), outlinedHelper.getName(),
+                outlinedHelper.getDescriptor(), false);
+        returnValue();
+        visitLabel(bodyLabel);
+    }
+
     private void defineAndEvaluateEnabledLocalVar(Advice advice) {
         Integer enabledLocal = null;
         Method isEnabledAdvice = advice.isEnabledAdvice();
         if (isEnabledAdvice != null) {
-            loadMethodParameters(advice.isEnabledParameters(), 0, -1, advice.adviceType(),
-                    IsEnabled.class, false);
-            visitMethodInsn(INVOKESTATIC, advice.adviceType().getInternalName(),
-                    isEnabledAdvice.getName(), isEnabledAdvice.getDescriptor(), false);
+            invokeIsEnabled(advice, isEnabledAdvice);
             enabledLocal = newLocal(Type.BOOLEAN_TYPE);
             enabledLocals.put(advice, enabledLocal);
             storeLocal(enabledLocal);
@@ -359,6 +410,32 @@ class WeavingMethodVisitor extends AdviceAdapter {
         }
     }
 
+    private void invokeIsEnabled(Advice advice, Method isEnabledAdvice) {
+        String pluginId = advice.pluginId();
+        Label pluginDisabledLabel = null;
+        Label isEnabledBlockEnd = null;
+        if (pluginId != null && pluginEnabledCallSitesId != null) {
+            // the call site target is a constant (see PluginEnabledCallSites), so when the plugin
+            // is disabled the jit compiler folds away the @IsEnabled call (and the rest of the
+            // advice which is guarded by the enabled local var)
+            pluginDisabledLabel = new Label();
+            isEnabledBlockEnd = new Label();
+            visitInvokeDynamicInsn("isPluginEnabled", "()Z", pluginEnabledBootstrapHandle,
+                    pluginEnabledCallSitesId, pluginId);
+            visitJumpInsn(IFEQ, pluginDisabledLabel);
+        }
+        loadMethodParameters(advice.isEnabledParameters(), 0, -1, advice.adviceType(),
+                IsEnabled.class, false);
+        visitMethodInsn(INVOKESTATIC, advice.adviceType().getInternalName(),
+                isEnabledAdvice.getName(), isEnabledAdvice.getDescriptor(), false);
+        if (pluginDisabledLabel != null && isEnabledBlockEnd != null) {
+            visitJumpInsn(GOTO, isEnabledBlockEnd);
+            visitLabel(pluginDisabledLabel);
+            visitInsn(ICONST_0);
+            visitLabel(isEnabledBlockEnd);
+        }
+    }
+
     private void defineTravelerLocalVar(Advice advice) {
         Method onBeforeAdvice = advice.onBeforeAdvice();
         if (onBeforeAdvice == null) {
@@ -17,11 +17,15 @@ package org.glowroot.common.model;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.zip.DataFormatException;
 
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.ByteString;
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
@@ -32,15 +36,39 @@ public class LazyHistogram {
     private static final int HISTOGRAM_SIGNIFICANT_DIGITS = 5;
     private static final int MAX_VALUES = 1024;
 
+    // when non-zero, values beyond MAX_VALUES are tracked using a fixed size log-bucketed sketch
+    // with this relative accuracy (e.g. 0.01 for 1%) instead of HdrHistogram
+    private static final double DEFAULT_SKETCH_RELATIVE_ACCURACY =
+            getSketchRelativeAccuracy("glowroot.internal.histogram.sketchRelativeAccuracy");
+
+    private final double sketchRelativeAccuracy;
+
     private long[] values = new long[8];
     private int size;
     private boolean sorted;
 
-    private @MonotonicNonNull Histogram histogram;
+    // at most one of histogram and sketch is non-null
+    private @Nullable Histogram histogram;
+    private @Nullable LogBucketSketch sketch;
+
+    public LazyHistogram() {
+        this(DEFAULT_SKETCH_RELATIVE_ACCURACY);
+    }
+
+    public LazyHistogram(double sketchRelativeAccuracy) {
+        this.sketchRelativeAccuracy = sketchRelativeAccuracy;
+    }
 
     public Aggregate.Histogram toProtobuf(ScratchBuffer scratchBuffer) {
         Aggregate.Histogram.Builder builder = Aggregate.Histogram.newBuilder();
-        if (histogram == null) {
+        if (sketch != null) {
+            ByteBuffer buffer = scratchBuffer.getBuffer(sketch.getNeededByteBufferCapacity());
+            buffer.clear();
+            sketch.encodeIntoByteBuffer(buffer);
+            int size = buffer.position();
+            buffer.flip();
+            builder.setEncodedBytes(ByteString.copyFrom(buffer, size));
+        } else if (histogram == null) {
             if (!sorted) {
                 // sort values before storing so don't have to sort each time later when calculating
                 // percentiles
@@ -66,15 +94,72 @@ public class LazyHistogram {
             for (long rawValue : toBeMergedHistogram.getOrderedRawValueList()) {
                 add(rawValue);
             }
+        } else {
+            ByteBuffer buffer = encodedBytes.asReadOnlyByteBuffer();
+            if (LogBucketSketch.isSketchEncoded(buffer)) {
+                LogBucketSketch toBeMergedSketch = LogBucketSketch.decodeFromByteBuffer(buffer);
+                if (sketch == null) {
+                    convertToSketch(toBeMergedSketch.getRelativeAccuracy());
+                }
+                sketch.merge(toBeMergedSketch);
+            } else if (sketch != null) {
+                Histogram decoded = Histogram.decodeFromByteBuffer(buffer, 0);
+                recordHistogramIntoSketch(decoded, sketch);
+            } else {
+                if (histogram == null) {
+                    convertValuesToHistogram();
+                }
+                histogram.add(Histogram.decodeFromByteBuffer(buffer, 0));
+            }
+        }
+    }
+
+    // the histogram being subtracted must have been previously merged into this histogram, this
+    // is used to evict intervals from a sliding window
+    public void subtract(Aggregate.Histogram toBeSubtractedHistogram) throws DataFormatException {
+        ByteString encodedBytes = toBeSubtractedHistogram.getEncodedBytes();
+        if (encodedBytes.isEmpty()) {
+            List<Long> rawValues = toBeSubtractedHistogram.getOrderedRawValueList();
+            if (sketch != null) {
+                for (long rawValue : rawValues) {
+                    sketch.recordValue(rawValue, -1);
+                }
+            } else if (histogram != null) {
+                Histogram toBeSubtracted = newHistogram();
+                for (long rawValue : rawValues) {
+                    toBeSubtracted.recordValue(rawValue);
+                }
+                histogram.subtract(toBeSubtracted);
+            } else {
+                removeOrderedValues(rawValues);
+            }
+            return;
+        }
+        ByteBuffer buffer = encodedBytes.asReadOnlyByteBuffer();
+        if (LogBucketSketch.isSketchEncoded(buffer)) {
+            LogBucketSketch toBeSubtractedSketch = LogBucketSketch.decodeFromByteBuffer(buffer);
+            if (sketch == null) {
+                convertToSketch(toBeSubtractedSketch.getRelativeAccuracy());
+            }
+            sketch.subtract(toBeSubtractedSketch);
+        } else if (sketch != null) {
+            Histogram toBeSubtracted = Histogram.decodeFromByteBuffer(buffer, 0);
+            for (HistogramIterationValue value : toBeSubtracted.recordedValues()) {
+                sketch.recordValue(value.getValueIteratedTo(),
+                        -value.getCountAtValueIteratedTo());
+            }
         } else {
             if (histogram == null) {
                 convertValuesToHistogram();
             }
-            histogram.add(Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+            histogram.subtract(Histogram.decodeFromByteBuffer(buffer, 0));
         }
     }
 
     public long getValueAtPercentile(double percentile) {
+        if (sketch != null) {
+            return sketch.getValueAtPercentile(percentile);
+        }
         if (histogram == null) {
             if (size == 0) {
                 // this is consisten with HdrHistogram behavior
@@ -89,6 +174,11 @@ public class LazyHistogram {
     }
 
     public int getNeededByteBufferCapacity() {
+        if (sketch != null) {
+            // unlike the HdrHistogram case below, the sketch capacity already accounts for its
+            // leading encoding cookie, so no additional space is needed
+            return sketch.getNeededByteBufferCapacity();
+        }
         if (histogram == null) {
             return 8 + size * 8;
         } else {
@@ -99,7 +189,9 @@ public class LazyHistogram {
     @VisibleForTesting
     public void add(long value) {
         ensureCapacity(size + 1);
-        if (histogram != null) {
+        if (sketch != null) {
+            sketch.recordValue(value);
+        } else if (histogram != null) {
             histogram.recordValue(value);
         } else {
             values[size++] = value;
@@ -108,11 +200,15 @@ public class LazyHistogram {
     }
 
     private void ensureCapacity(int capacity) {
-        if (histogram != null) {
+        if (histogram != null || sketch != null) {
             return;
         }
         if (capacity > MAX_VALUES) {
-            convertValuesToHistogram();
+            if (sketchRelativeAccuracy == 0) {
+                convertValuesToHistogram();
+            } else {
+                convertToSketch(sketchRelativeAccuracy);
+            }
             return;
         }
         if (capacity > values.length) {
@@ -125,20 +221,83 @@ public class LazyHistogram {
 
     @EnsuresNonNull("histogram")
     private void convertValuesToHistogram() {
-        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
-        histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
-        histogram.setAutoResize(true);
+        histogram = newHistogram();
         for (int i = 0; i < size; i++) {
             histogram.recordValue(values[i]);
         }
         values = new long[0];
     }
 
+    @EnsuresNonNull("sketch")
+    private void convertToSketch(double relativeAccuracy) {
+        LogBucketSketch sketch = new LogBucketSketch(relativeAccuracy);
+        if (histogram == null) {
+            for (int i = 0; i < size; i++) {
+                sketch.recordValue(values[i]);
+            }
+            values = new long[0];
+        } else {
+            recordHistogramIntoSketch(histogram, sketch);
+            histogram = null;
+        }
+        this.sketch = sketch;
+    }
+
     private void sortValues() {
         Arrays.sort(values, 0, size);
         sorted = true;
     }
 
+    private void removeOrderedValues(List<Long> orderedValues) {
+        if (!sorted) {
+            sortValues();
+        }
+        int from = 0;
+        int to = 0;
+        for (long value : orderedValues) {
+            while (from < size && values[from] < value) {
+                values[to++] = values[from++];
+            }
+            if (from < size && values[from] == value) {
+                // skip (remove) this value
+                from++;
+            }
+        }
+        while (from < size) {
+            values[to++] = values[from++];
+        }
+        size = to;
+    }
+
+    private static Histogram newHistogram() {
+        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
+        Histogram histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
+    private static void recordHistogramIntoSketch(Histogram histogram, LogBucketSketch sketch) {
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            sketch.recordValue(value.getValueIteratedTo(), value.getCountAtValueIteratedTo());
+        }
+    }
+
+    private static double getSketchRelativeAccuracy(String propertyName) {
+        String value = System.getProperty(propertyName);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            double relativeAccuracy = Double.parseDouble(value);
+            if (relativeAccuracy > 0 && relativeAccuracy < 1) {
+                return relativeAccuracy;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to return 0
+        }
+        return 0;
+    }
+
     public static class ScratchBuffer {
 
         private @MonotonicNonNull ByteBuffer buffer;
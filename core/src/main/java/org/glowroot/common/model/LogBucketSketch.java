@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// log-bucketed histogram where every value recorded into a bucket is within relativeAccuracy of
+// the bucket's representative value
+//
+// the number of buckets is bounded by the (clamped) range of trackable values, so memory is fixed
+// regardless of the number of values recorded, recording is a single log computation plus array
+// increment, and merging two sketches with the same relative accuracy is element-wise addition
+class LogBucketSketch {
+
+    // this is used to distinguish sketch encoding from HdrHistogram encoding (which always starts
+    // with one of the HdrHistogram encoding cookies)
+    static final int ENCODING_COOKIE = 0x676c7231;
+
+    // values at or below this (i.e. 0 and 1 nanosecond) are recorded in bucket 0, which reports a
+    // value of 0, so relative accuracy holds for every value of at least 1 nanosecond
+    //
+    // tracking down to nanosecond precision does not cost anything for typical data since buckets
+    // are only allocated for the range of values actually recorded
+    private static final long MIN_VALUE = 1;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final int minIndex;
+    private final int maxIndex;
+
+    // counts[i] is the count for bucket index (offset + i)
+    private long[] counts = new long[0];
+    private int offset;
+    private long totalCount;
+
+    LogBucketSketch(double relativeAccuracy) {
+        checkArgument(relativeAccuracy > 0 && relativeAccuracy < 1,
+                "Relative accuracy must be between 0 and 1 (exclusive)");
+        this.relativeAccuracy = relativeAccuracy;
+        gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        logGamma = Math.log(gamma);
+        minIndex = (int) Math.ceil(Math.log(MIN_VALUE) / logGamma);
+        maxIndex = (int) Math.ceil(Math.log(Long.MAX_VALUE) / logGamma);
+    }
+
+    double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    void recordValue(long value) {
+        recordValue(value, 1);
+    }
+
+    void recordValue(long value, long count) {
+        int index = getIndex(value);
+        ensureIndex(index);
+        counts[index - offset] += count;
+        totalCount += count;
+    }
+
+    void merge(LogBucketSketch sketch) {
+        if (sketch.totalCount == 0) {
+            return;
+        }
+        if (sketch.relativeAccuracy != relativeAccuracy) {
+            for (int i = 0; i < sketch.counts.length; i++) {
+                long count = sketch.counts[i];
+                if (count != 0) {
+                    recordValue(sketch.getRepresentativeValue(sketch.offset + i), count);
+                }
+            }
+            return;
+        }
+        ensureIndex(sketch.offset);
+        ensureIndex(sketch.offset + sketch.counts.length - 1);
+        int shift = sketch.offset - offset;
+        for (int i = 0; i < sketch.counts.length; i++) {
+            counts[shift + i] += sketch.counts[i];
+        }
+        totalCount += sketch.totalCount;
+    }
+
+    // the sketch being subtracted must have been previously merged into this sketch
+    void subtract(LogBucketSketch sketch) {
+        if (sketch.relativeAccuracy != relativeAccuracy) {
+            for (int i = 0; i < sketch.counts.length; i++) {
+                long count = sketch.counts[i];
+                if (count != 0) {
+                    recordValue(sketch.getRepresentativeValue(sketch.offset + i), -count);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < sketch.counts.length; i++) {
+            long count = sketch.counts[i];
+            if (count != 0) {
+                int index = sketch.offset + i;
+                ensureIndex(index);
+                counts[index - offset] -= count;
+                totalCount -= count;
+            }
+        }
+    }
+
+    long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            // this is consistent with HdrHistogram behavior
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(totalCount * percentile / 100));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= rank) {
+                return getRepresentativeValue(offset + i);
+            }
+        }
+        return getRepresentativeValue(offset + counts.length - 1);
+    }
+
+    int getNeededByteBufferCapacity() {
+        // cookie, relative accuracy, offset, number of buckets, then the counts
+        return 4 + 8 + 4 + 4 + counts.length * 8;
+    }
+
+    void encodeIntoByteBuffer(ByteBuffer buffer) {
+        // trim leading and trailing empty buckets
+        int from = 0;
+        while (from < counts.length && counts[from] == 0) {
+            from++;
+        }
+        int to = counts.length;
+        while (to > from && counts[to - 1] == 0) {
+            to--;
+        }
+        buffer.putInt(ENCODING_COOKIE);
+        buffer.putDouble(relativeAccuracy);
+        buffer.putInt(offset + from);
+        buffer.putInt(to - from);
+        for (int i = from; i < to; i++) {
+            buffer.putLong(counts[i]);
+        }
+    }
+
+    static LogBucketSketch decodeFromByteBuffer(ByteBuffer buffer) throws DataFormatException {
+        if (buffer.getInt() != ENCODING_COOKIE) {
+            throw new DataFormatException("Unexpected sketch encoding cookie");
+        }
+        double relativeAccuracy = buffer.getDouble();
+        // negated so that NaN is also rejected
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new DataFormatException("Invalid sketch relative accuracy: " + relativeAccuracy);
+        }
+        LogBucketSketch sketch = new LogBucketSketch(relativeAccuracy);
+        int offset = buffer.getInt();
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / 8) {
+            throw new DataFormatException("Invalid sketch bucket count: " + length);
+        }
+        long[] counts = new long[length];
+        long totalCount = 0;
+        for (int i = 0; i < length; i++) {
+            counts[i] = buffer.getLong();
+            totalCount += counts[i];
+        }
+        sketch.counts = counts;
+        sketch.offset = offset;
+        sketch.totalCount = totalCount;
+        return sketch;
+    }
+
+    static boolean isSketchEncoded(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == ENCODING_COOKIE;
+    }
+
+    private int getIndex(long value) {
+        if (value <= MIN_VALUE) {
+            return minIndex;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        return Math.min(index, maxIndex);
+    }
+
+    private long getRepresentativeValue(int index) {
+        // mid-point (in relative terms) of the bucket (gamma^(index-1), gamma^index], which for
+        // bucket 0 truncates to 0
+        return (long) (2 * Math.pow(gamma, index) / (gamma + 1));
+    }
+
+    private void ensureIndex(int index) {
+        if (counts.length == 0) {
+            counts = new long[8];
+            offset = index;
+            return;
+        }
+        if (index < offset) {
+            // grow downwards, at least doubling in size (bounded by minIndex)
+            int newOffset = Math.max(minIndex, Math.min(index, offset - counts.length));
+            long[] temp = new long[counts.length + offset - newOffset];
+            System.arraycopy(counts, 0, temp, offset - newOffset, counts.length);
+            counts = temp;
+            offset = newOffset;
+        } else if (index >= offset + counts.length) {
+            // grow upwards, at least doubling in size (bounded by maxIndex)
+            int newLength = Math.min(Math.max(index - offset + 1, counts.length * 2),
+                    maxIndex - offset + 1);
+            long[] temp = new long[newLength];
+            System.arraycopy(counts, 0, temp, 0, counts.length);
+            counts = temp;
+        }
+    }
+}
@@ -91,6 +91,19 @@ public class QueryCollector {
         }
     }
 
+    public void merge(QueryCollector toBeMerged) {
+        for (Entry<String, Map<String, MutableQuery>> entry : toBeMerged.queries.entrySet()) {
+            Map<String, MutableQuery> queriesForQueryType = queries.get(entry.getKey());
+            if (queriesForQueryType == null) {
+                queriesForQueryType = Maps.newHashMap();
+                queries.put(entry.getKey(), queriesForQueryType);
+            }
+            for (MutableQuery query : entry.getValue().values()) {
+                mergeQuery(query, queriesForQueryType);
+            }
+        }
+    }
+
     public void mergeQuery(String queryType, QueryData query) {
         Map<String, MutableQuery> queriesForQueryType = queries.get(queryType);
         if (queriesForQueryType == null) {
@@ -130,6 +143,21 @@ public class QueryCollector {
         aggregateQuery.addToTotalRows(query.getTotalRows());
     }
 
+    private void mergeQuery(MutableQuery query, Map<String, MutableQuery> queriesForQueryType) {
+        MutableQuery aggregateQuery = queriesForQueryType.get(query.getQueryText());
+        if (aggregateQuery == null) {
+            if (maxMultiplierWhileBuilding != 0
+                    && queriesForQueryType.size() >= limit * maxMultiplierWhileBuilding) {
+                return;
+            }
+            aggregateQuery = new MutableQuery(query.getQueryText());
+            queriesForQueryType.put(query.getQueryText(), aggregateQuery);
+        }
+        aggregateQuery.addToTotalNanos(query.getTotalNanos());
+        aggregateQuery.addToExecutionCount(query.getExecutionCount());
+        aggregateQuery.addToTotalRows(query.getTotalRows());
+    }
+
     private void order(List<Query> queries) {
         // reverse sort by total
         Collections.sort(queries, new Comparator<Query>() {
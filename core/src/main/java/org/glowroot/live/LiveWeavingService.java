@@ -36,6 +36,11 @@ public interface LiveWeavingService {
 
     int reweave() throws Exception;
 
+    // reports how many classes and methods a reweave would touch, without reweaving
+    ReweavePreview previewReweave();
+
+    ReweaveProgress getReweaveProgress();
+
     // null means unknown
     @Nullable
     Boolean isTimerWrapperMethodsActive();
@@ -46,6 +51,19 @@ public interface LiveWeavingService {
         boolean jvmRetransformClassesSupported();
     }
 
+    @Value.Immutable
+    public interface ReweavePreview {
+        int classes();
+        int methods();
+    }
+
+    @Value.Immutable
+    public interface ReweaveProgress {
+        boolean inProgress();
+        int totalClasses();
+        int retransformedClasses();
+    }
+
     @Value.Immutable
     public interface MethodSignature {
         String name();
@@ -54,6 +72,32 @@ public interface LiveWeavingService {
         ImmutableList<String> modifiers();
     }
 
+    // thrown when retransforming a batch of classes fails after earlier batches have already been
+    // retransformed, in which case the reweave is only partially applied
+    @SuppressWarnings("serial")
+    public static class PartialReweaveException extends Exception {
+
+        private final int retransformedClasses;
+        private final int totalClasses;
+
+        public PartialReweaveException(int retransformedClasses, int totalClasses,
+                Throwable cause) {
+            super("Reweave failed after retransforming " + retransformedClasses + " of "
+                    + totalClasses + " classes (the remaining classes still have their previous"
+                    + " instrumentation): " + cause.getMessage(), cause);
+            this.retransformedClasses = retransformedClasses;
+            this.totalClasses = totalClasses;
+        }
+
+        public int getRetransformedClasses() {
+            return retransformedClasses;
+        }
+
+        public int getTotalClasses() {
+            return totalClasses;
+        }
+    }
+
     public class LiveWeavingServiceNop implements LiveWeavingService {
 
         @Override
@@ -88,6 +132,23 @@ public interface LiveWeavingService {
             return 0;
         }
 
+        @Override
+        public ReweavePreview previewReweave() {
+            return ImmutableReweavePreview.builder()
+                    .classes(0)
+                    .methods(0)
+                    .build();
+        }
+
+        @Override
+        public ReweaveProgress getReweaveProgress() {
+            return ImmutableReweaveProgress.builder()
+                    .inProgress(false)
+                    .totalClasses(0)
+                    .retransformedClasses(0)
+                    .build();
+        }
+
         @Override
         public @Nullable Boolean isTimerWrapperMethodsActive() {
             return null;
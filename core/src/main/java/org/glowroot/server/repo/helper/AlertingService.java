@@ -16,9 +16,14 @@
 package org.glowroot.server.repo.helper;
 
 import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.crypto.SecretKey;
 import javax.mail.Address;
@@ -30,9 +35,12 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.collector.spi.model.AggregateOuterClass.Aggregate;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.live.LiveAggregateRepository.PercentileAggregate;
 import org.glowroot.server.repo.AggregateRepository;
@@ -56,6 +64,9 @@ public class AlertingService {
     private final AggregateRepository aggregateRepository;
     private final MailService mailService;
 
+    // keyed by alert config version, so that a changed alert config starts a new window
+    private final Map<String, AlertWindow> alertWindows = Maps.newHashMap();
+
     public AlertingService(ConfigRepository configRepository,
             TriggeredAlertRepository triggeredAlertRepository,
             AggregateRepository aggregateRepository, MailService mailService) {
@@ -65,30 +76,46 @@ public class AlertingService {
         this.mailService = mailService;
     }
 
-    public void checkAlerts(long endTime) {
-        for (AlertConfig alertConfig : configRepository.getAlertConfigs()) {
+    // overallAggregates are the aggregates (keyed by transaction type) that were just stored for
+    // the interval ending at endTime
+    public synchronized void checkAlerts(long endTime,
+            Map<String, ? extends Aggregate> overallAggregates) {
+        List<AlertConfig> alertConfigs = configRepository.getAlertConfigs();
+        Set<String> alertConfigVersions = Sets.newHashSet();
+        for (AlertConfig alertConfig : alertConfigs) {
+            alertConfigVersions.add(alertConfig.version());
+        }
+        // remove windows of alert configs that have since been deleted or updated
+        alertWindows.keySet().retainAll(alertConfigVersions);
+        for (AlertConfig alertConfig : alertConfigs) {
             try {
-                checkAlert(alertConfig, endTime);
+                checkAlert(alertConfig, endTime, overallAggregates);
             } catch (Exception e) {
+                // drop the window so that it is re-built from stored aggregates next time
+                alertWindows.remove(alertConfig.version());
                 logger.error(e.getMessage(), e);
             }
         }
     }
 
-    private void checkAlert(AlertConfig alertConfig, long endTime) throws Exception {
-        long startTime = endTime - MINUTES.toMillis(alertConfig.timePeriodMinutes());
-        // don't want to include the aggregate at startTime, so add 1
-        startTime++;
-        int rollupLevel = aggregateRepository.getRollupLevelForView(startTime, endTime);
-        ImmutableList<PercentileAggregate> percentileAggregates =
-                aggregateRepository.readOverallPercentileAggregates(alertConfig.transactionType(),
-                        startTime, endTime, rollupLevel);
-        long transactionCount = 0;
-        LazyHistogram histogram = new LazyHistogram();
-        for (PercentileAggregate aggregate : percentileAggregates) {
-            transactionCount += aggregate.transactionCount();
-            histogram.merge(aggregate.histogram());
+    private void checkAlert(AlertConfig alertConfig, long endTime,
+            Map<String, ? extends Aggregate> overallAggregates) throws Exception {
+        AlertWindow alertWindow = alertWindows.get(alertConfig.version());
+        if (alertWindow == null) {
+            // the aggregates for the interval ending at endTime have already been stored, so they
+            // are included in the initial window
+            alertWindow = readAlertWindow(alertConfig, endTime);
+            alertWindows.put(alertConfig.version(), alertWindow);
+        } else {
+            Aggregate aggregate = overallAggregates.get(alertConfig.transactionType());
+            if (aggregate != null) {
+                alertWindow.add(endTime, aggregate.getTransactionCount(),
+                        aggregate.getTotalNanosHistogram());
+            }
         }
+        alertWindow.evict(endTime - MINUTES.toMillis(alertConfig.timePeriodMinutes()));
+        long transactionCount = alertWindow.transactionCount;
+        LazyHistogram histogram = alertWindow.histogram;
         if (transactionCount < alertConfig.minTransactionCount()) {
             // don't clear existing triggered alert
             return;
@@ -106,6 +133,22 @@ public class AlertingService {
         }
     }
 
+    private AlertWindow readAlertWindow(AlertConfig alertConfig, long endTime) throws Exception {
+        long startTime = endTime - MINUTES.toMillis(alertConfig.timePeriodMinutes());
+        // don't want to include the aggregate at startTime, so add 1
+        startTime++;
+        int rollupLevel = aggregateRepository.getRollupLevelForView(startTime, endTime);
+        ImmutableList<PercentileAggregate> percentileAggregates =
+                aggregateRepository.readOverallPercentileAggregates(alertConfig.transactionType(),
+                        startTime, endTime, rollupLevel);
+        AlertWindow alertWindow = new AlertWindow();
+        for (PercentileAggregate aggregate : percentileAggregates) {
+            alertWindow.add(aggregate.captureTime(), aggregate.transactionCount(),
+                    aggregate.histogram());
+        }
+        return alertWindow;
+    }
+
     private void sendAlert(AlertConfig alertConfig, long valueAtPercentile, long transactionCount,
             boolean ok) throws Exception {
         SmtpConfig smtpConfig = configRepository.getSmtpConfig();
@@ -182,4 +225,49 @@ public class AlertingService {
         }
         return Session.getInstance(props, authenticator);
     }
+
+    // sliding window over the interval histograms for a single alert config, so that each check
+    // only needs to merge in the newest interval and subtract out the expired intervals
+    private static class AlertWindow {
+
+        private final Deque<AlertWindowEntry> entries = new ArrayDeque<AlertWindowEntry>();
+        private final LazyHistogram histogram = new LazyHistogram();
+        private long transactionCount;
+
+        private void add(long captureTime, long transactionCount, Aggregate.Histogram histogram)
+                throws Exception {
+            this.histogram.merge(histogram);
+            this.transactionCount += transactionCount;
+            entries.addLast(new AlertWindowEntry(captureTime, transactionCount, histogram));
+        }
+
+        // evicts entries with capture time less than or equal to startTime
+        private void evict(long startTime) throws Exception {
+            Iterator<AlertWindowEntry> i = entries.iterator();
+            while (i.hasNext()) {
+                AlertWindowEntry entry = i.next();
+                if (entry.captureTime > startTime) {
+                    // entries are added in capture time order
+                    return;
+                }
+                histogram.subtract(entry.histogram);
+                transactionCount -= entry.transactionCount;
+                i.remove();
+            }
+        }
+    }
+
+    private static class AlertWindowEntry {
+
+        private final long captureTime;
+        private final long transactionCount;
+        private final Aggregate.Histogram histogram;
+
+        private AlertWindowEntry(long captureTime, long transactionCount,
+                Aggregate.Histogram histogram) {
+            this.captureTime = captureTime;
+            this.transactionCount = transactionCount;
+            this.histogram = histogram;
+        }
+    }
 }
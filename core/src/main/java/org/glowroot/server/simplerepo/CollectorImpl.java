@@ -44,7 +44,7 @@ class CollectorImpl implements Collector {
             Map<String, ? extends Map<String, ? extends Aggregate>> transactionAggregates,
             long captureTime) throws Exception {
         aggregateDao.store(overallAggregates, transactionAggregates, captureTime);
-        alertingService.checkAlerts(captureTime);
+        alertingService.checkAlerts(captureTime, overallAggregates);
     }
 
     @Override
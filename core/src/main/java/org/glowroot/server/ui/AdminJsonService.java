@@ -21,6 +21,8 @@ import java.sql.SQLException;
 import org.glowroot.live.LiveAggregateRepository;
 import org.glowroot.live.LiveTraceRepository;
 import org.glowroot.live.LiveWeavingService;
+import org.glowroot.live.LiveWeavingService.ReweavePreview;
+import org.glowroot.live.LiveWeavingService.ReweaveProgress;
 import org.glowroot.markers.OnlyUsedByTests;
 import org.glowroot.server.repo.AggregateRepository;
 import org.glowroot.server.repo.ConfigRepository;
@@ -74,6 +76,20 @@ class AdminJsonService {
         return "{\"classes\":" + count + "}";
     }
 
+    @POST("/backend/admin/reweave-preview")
+    String previewReweave() {
+        ReweavePreview preview = liveWeavingService.previewReweave();
+        return "{\"classes\":" + preview.classes() + ",\"methods\":" + preview.methods() + "}";
+    }
+
+    @GET("/backend/admin/reweave-progress")
+    String getReweaveProgress() {
+        ReweaveProgress progress = liveWeavingService.getReweaveProgress();
+        return "{\"inProgress\":" + progress.inProgress() + ",\"totalClasses\":"
+                + progress.totalClasses() + ",\"retransformedClasses\":"
+                + progress.retransformedClasses() + "}";
+    }
+
     @POST("/backend/admin/defrag-data")
     void defragData() throws SQLException {
         repoAdmin.defrag();
@@ -18,17 +18,25 @@ package org.glowroot.agent;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.agent.util.LazyPlatformMBeanServer.InitListener;
 import org.glowroot.collector.spi.Collector;
 import org.glowroot.collector.spi.GaugePoint;
 import org.glowroot.common.config.AdvancedConfig;
@@ -42,8 +50,11 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -57,7 +68,7 @@ public class GaugeCollectorTest {
     private Logger logger;
 
     @Before
-    public void beforeEachTest() {
+    public void beforeEachTest() throws Exception {
         ConfigService configService = mock(ConfigService.class);
         AdvancedConfig advancedConfig =
                 ImmutableAdvancedConfig.builder().mbeanGaugeNotFoundDelaySeconds(60).build();
@@ -67,6 +78,9 @@ public class GaugeCollectorTest {
         lazyPlatformMBeanServer = mock(LazyPlatformMBeanServer.class);
         clock = mock(Clock.class);
         logger = mock(Logger.class);
+        // getAttributes() omits attributes that could not be read
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(new AttributeList());
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
                 mock(ScheduledExecutorService.class), clock, logger);
     }
@@ -76,6 +90,27 @@ public class GaugeCollectorTest {
         verifyNoMoreInteractions(logger);
     }
 
+    @Test
+    public void shouldRemoveMBeanRegistrationListenerOnClose() throws Exception {
+        // given
+        ArgumentCaptor<InitListener> initListenerCaptor =
+                ArgumentCaptor.forClass(InitListener.class);
+        verify(lazyPlatformMBeanServer).addInitListener(initListenerCaptor.capture());
+        MBeanServer mbeanServer = mock(MBeanServer.class);
+        initListenerCaptor.getValue().postInit(mbeanServer);
+        ArgumentCaptor<NotificationListener> listenerCaptor =
+                ArgumentCaptor.forClass(NotificationListener.class);
+        verify(mbeanServer).addNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME),
+                listenerCaptor.capture(), isNull(NotificationFilter.class), isNull());
+        // when
+        gaugeCollector.close();
+        // then
+        verify(mbeanServer).removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                listenerCaptor.getValue());
+        // registering internal mbeans is best effort and may be logged depending on the jvm
+        verify(logger, atMost(1)).debug(anyString(), any(Exception.class));
+    }
+
     @Test
     public void shouldHandleInvalidMBeanObjectName() throws InterruptedException {
         // given
@@ -101,7 +136,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(59999L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString()))
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
                 .thenThrow(InstanceNotFoundException.class);
         // when
         List<GaugePoint> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfigs);
@@ -120,7 +155,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(60000L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString()))
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
                 .thenThrow(InstanceNotFoundException.class);
         // when
         List<GaugePoint> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
@@ -140,7 +175,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(0L).thenReturn(30000L).thenReturn(60000L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString()))
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
                 .thenThrow(InstanceNotFoundException.class);
         // when
         gaugeCollector.collectGaugeValues(gaugeConfig);
@@ -156,6 +191,55 @@ public class GaugeCollectorTest {
                 "found", "xyz:aaa=bbb", 60);
     }
 
+    @Test
+    public void shouldReadMBeanAttributesUsingSingleCall() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
+                .build();
+        AttributeList attributeList = new AttributeList();
+        attributeList.add(new Attribute("ccc", 1));
+        attributeList.add(new Attribute("ddd", "2.5"));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenReturn(attributeList);
+        // when
+        List<GaugePoint> gaugeValues = gaugeCollector.collectGaugeValues(gaugeConfig);
+        // then
+        assertThat(gaugeValues).hasSize(2);
+        assertThat(gaugeValues.get(0).gaugeName()).isEqualTo("xyz:aaa=bbb,ccc");
+        assertThat(gaugeValues.get(0).value()).isEqualTo(1);
+        assertThat(gaugeValues.get(1).gaugeName()).isEqualTo("xyz:aaa=bbb,ddd");
+        assertThat(gaugeValues.get(1).value()).isEqualTo(2.5);
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class),
+                anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldPropagateInterruptionWhileReadingMBeanAttributes() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("xyz:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
+                .build();
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class)))
+                .thenThrow(InterruptedException.class);
+        // when
+        boolean interrupted = false;
+        try {
+            gaugeCollector.collectGaugeValues(gaugeConfig);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        // then
+        assertThat(interrupted).isTrue();
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class),
+                anyString());
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void shouldHandleMBeanAttributeNotFound() throws Exception {
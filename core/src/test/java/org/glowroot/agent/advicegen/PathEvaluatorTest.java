@@ -119,6 +119,41 @@ public class PathEvaluatorTest {
         assertThat(value).isEqualTo("eeeeee");
     }
 
+    @Test
+    public void shouldCallPublicGetterMethodsDirectly() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(Order.class, "customer.id");
+        // when
+        long value = (Long) pathEvaluator.evaluateOnBase(new Order());
+        // then
+        assertThat(value).isEqualTo(123);
+    }
+
+    @Test
+    public void shouldCallPublicGetterMethodsDirectlyOnArray() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(Order[].class, "customer.id");
+        // when
+        Object[] value = (Object[]) pathEvaluator.evaluateOnBase(new Order[] {new Order(), null});
+        // then
+        assertThat(value).containsExactly(123L, null);
+    }
+
+    @Test
+    public void shouldShareDirectAccessorsAcrossPathEvaluators() throws Exception {
+        // when
+        DirectAccessor directAccessor =
+                DirectAccessorGenerator.create(Order.class.getMethod("getCustomer"));
+        DirectAccessor directAccessor2 =
+                DirectAccessorGenerator.create(Order.class.getMethod("getCustomer"));
+        DirectAccessor otherDirectAccessor =
+                DirectAccessorGenerator.create(Customer.class.getMethod("getId"));
+        // then
+        assertThat(directAccessor).isNotNull();
+        assertThat(directAccessor2).isSameAs(directAccessor);
+        assertThat(otherDirectAccessor).isNotSameAs(directAccessor);
+    }
+
     @SuppressWarnings("unused")
     private static class SomeObject {
 
@@ -178,4 +213,16 @@ public class PathEvaluatorTest {
     private static class E extends B {
         private final String eee = "eeeeee";
     }
+
+    public static class Order {
+        public Customer getCustomer() {
+            return new Customer();
+        }
+    }
+
+    public static class Customer {
+        public long getId() {
+            return 123;
+        }
+    }
 }
@@ -16,8 +16,10 @@
 package org.glowroot.agent.impl;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
@@ -25,17 +27,24 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.model.AggregateIntervalCollector;
+import org.glowroot.agent.model.AuxThreadComponent;
 import org.glowroot.agent.model.QueryData;
 import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.collector.spi.Collector;
 import org.glowroot.collector.spi.GaugePoint;
 import org.glowroot.collector.spi.model.AggregateOuterClass.Aggregate;
+import org.glowroot.collector.spi.model.ProfileTreeOuterClass.ProfileTree;
 import org.glowroot.collector.spi.model.TraceOuterClass.Trace;
 import org.glowroot.common.config.ImmutableAdvancedConfig;
 import org.glowroot.common.util.Clock;
+import org.glowroot.live.LiveAggregateRepository.OverallSummary;
+import org.glowroot.live.LiveAggregateRepository.OverviewAggregate;
+import org.glowroot.live.LiveAggregateRepository.PercentileAggregate;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
@@ -72,6 +81,8 @@ public class AggregatorTest {
         when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(123));
         when(transaction.getRootTimer()).thenReturn(timer);
         when(transaction.getQueries()).thenReturn(ImmutableList.<QueryData>of());
+        when(transaction.getCompletedAuxThreadComponents())
+                .thenReturn(ImmutableList.<AuxThreadComponent>of());
         // when
         int count = 0;
         long firstCaptureTime = aggregator.add(transaction);
@@ -96,6 +107,130 @@ public class AggregatorTest {
         aggregator.close();
     }
 
+    @Test
+    public void shouldReadLiveAggregatesWithoutLocking() throws Exception {
+        // given
+        ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        // long interval so that the active interval collector stays active during the test
+        Aggregator aggregator = new Aggregator(scheduledExecutorService, new MockCollector(),
+                configService, 3600000, Clock.systemClock());
+
+        Transaction transaction = mock(Transaction.class);
+        TimerImpl timer = mock(TimerImpl.class);
+        when(timer.getName()).thenReturn("test 123");
+        when(timer.getChildTimers()).thenReturn(ImmutableList.<TimerImpl>of());
+        when(transaction.getTransactionType()).thenReturn("a type");
+        when(transaction.getTransactionName()).thenReturn("a name");
+        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(123));
+        when(transaction.getRootTimer()).thenReturn(timer);
+        when(transaction.getQueries()).thenReturn(ImmutableList.<QueryData>of());
+        when(transaction.getCompletedAuxThreadComponents())
+                .thenReturn(ImmutableList.<AuxThreadComponent>of());
+        // when
+        for (int i = 0; i < 10; i++) {
+            aggregator.add(transaction);
+        }
+        // then
+        AggregateIntervalCollector intervalCollector =
+                aggregator.getOrderedIntervalCollectorsInRange(0, Long.MAX_VALUE).get(0);
+        // aggregation is done in a separate thread, so give it a little time to complete
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000) {
+            OverallSummary overallSummary = intervalCollector.getLiveOverallSummary("a type");
+            if (overallSummary != null && overallSummary.transactionCount() == 10) {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        PercentileAggregate percentileAggregate =
+                intervalCollector.getLivePercentileAggregate("a type", null, Long.MAX_VALUE);
+        assertThat(percentileAggregate.transactionCount()).isEqualTo(10);
+        assertThat(percentileAggregate.histogram().getOrderedRawValueCount()).isEqualTo(10);
+        OverviewAggregate overviewAggregate = intervalCollector
+                .getLiveOverviewAggregate("a type", "a name", Long.MAX_VALUE);
+        assertThat(overviewAggregate.transactionCount()).isEqualTo(10);
+        assertThat(overviewAggregate.rootTimers()).hasSize(1);
+        aggregator.close();
+    }
+
+    @Test
+    public void shouldReadLiveAggregatesWhileAggregationThreadIsBusy() throws Exception {
+        // given
+        ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        // long interval so that the active interval collector stays active during the test
+        final Aggregator aggregator = new Aggregator(scheduledExecutorService,
+                new MockCollector(), configService, 3600000, Clock.systemClock());
+
+        final Transaction transaction = mock(Transaction.class);
+        TimerImpl timer = mock(TimerImpl.class);
+        when(timer.getName()).thenReturn("test 123");
+        when(timer.getChildTimers()).thenReturn(ImmutableList.<TimerImpl>of());
+        when(transaction.getTransactionType()).thenReturn("a type");
+        when(transaction.getTransactionName()).thenReturn("a name");
+        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(123));
+        when(transaction.getRootTimer()).thenReturn(timer);
+        when(transaction.getQueries()).thenReturn(ImmutableList.<QueryData>of());
+        when(transaction.getCompletedAuxThreadComponents())
+                .thenReturn(ImmutableList.<AuxThreadComponent>of());
+        aggregator.add(transaction);
+        AggregateIntervalCollector intervalCollector =
+                aggregator.getOrderedIntervalCollectorsInRange(0, Long.MAX_VALUE).get(0);
+        // aggregation is done in a separate thread, so give it a little time to complete
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000
+                && intervalCollector.getLiveOverallSummary("a type") == null) {
+            Thread.sleep(1);
+        }
+        // keep the pending transaction queue from ever going idle long enough for the
+        // aggregation thread's idle poll to time out
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stop.get()) {
+                    aggregator.add(transaction);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        producer.start();
+        try {
+            // when
+            for (int i = 0; i < 5; i++) {
+                long startTick = System.nanoTime();
+                OverviewAggregate overviewAggregate = intervalCollector
+                        .getLiveOverviewAggregate("a type", null, Long.MAX_VALUE);
+                List<Aggregate.QueriesByType> queries =
+                        intervalCollector.getLiveQueries("a type", "a name");
+                ProfileTree profile = intervalCollector.getLiveProfile("a type", null);
+                long elapsedMillis = MILLISECONDS.convert(System.nanoTime() - startTick,
+                        NANOSECONDS);
+                // then
+                // the fallback to building the snapshot under lock is only reached after waiting
+                // 2 seconds for the aggregation thread
+                assertThat(elapsedMillis).isLessThan(1000);
+                assertThat(overviewAggregate.transactionCount()).isGreaterThan(0);
+                assertThat(queries).isEmpty();
+                assertThat(profile.getNodeCount()).isEqualTo(0);
+                Thread.sleep(10);
+            }
+        } finally {
+            stop.set(true);
+            producer.join();
+            aggregator.close();
+        }
+    }
+
     private static class MockCollector implements Collector {
 
         // volatile needed for visibility from other thread
@@ -47,6 +47,7 @@ public class TransactionServiceImplDefensiveCheckTest {
     private TransactionServiceImpl transactionService;
     private List<Object> mocks;
     private ConfigService mockConfigService;
+    private TimerNameCache mockTimerNameCache;
 
     @Before
     public void beforeEachTest() {
@@ -69,11 +70,14 @@ public class TransactionServiceImplDefensiveCheckTest {
         mocks = ImmutableList.of(transactionRegistry, transactionCollector, configService,
                 timerNameCache, threadAllocatedBytes, userProfileScheduler, ticker, clock);
         mockConfigService = configService;
+        mockTimerNameCache = timerNameCache;
     }
 
     @After
     public void afterEachTest() {
         verify(mockConfigService).addConfigListener(any(ConfigListener.class));
+        // the auxiliary thread timer name is resolved once up front
+        verify(mockTimerNameCache).getName(any(Class.class));
         verifyNoMoreInteractions(mocks.toArray());
     }
 
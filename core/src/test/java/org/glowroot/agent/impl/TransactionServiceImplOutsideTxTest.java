@@ -73,6 +73,18 @@ public class TransactionServiceImplOutsideTxTest {
                 .isEqualTo("NopTimer");
     }
 
+    @Test
+    public void testStartQueryTimer() {
+        TimerName timerName = mock(TimerName.class);
+        assertThat(transactionService.startQueryTimer("qt", "qx", timerName).getClass()
+                .getSimpleName()).isEqualTo("NopTimer");
+    }
+
+    @Test
+    public void testCreateAuxThreadContext() {
+        assertThat(transactionService.createAuxThreadContext()).isNull();
+    }
+
     @Test
     public void testAddErrorEntry() {
         transactionService.addErrorEntry("z");
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.agent.live.LiveWeavingServiceImpl.HierarchyDepthOrdering;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HierarchyDepthOrderingTest {
+
+    @Test
+    public void shouldOrderSuperClassesFirst() {
+        // given
+        List<Class<?>> classes = ImmutableList.<Class<?>>of(C.class, A.class, B.class);
+        // when
+        List<Class<?>> orderedClasses = new HierarchyDepthOrdering().sortedCopy(classes);
+        // then
+        assertThat(orderedClasses).containsExactly(A.class, B.class, C.class);
+    }
+
+    public static class A {}
+
+    public static class B extends A {}
+
+    public static class C extends B {}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.impl.AdviceCache;
+import org.glowroot.agent.weaving.AnalyzedWorld;
+import org.glowroot.common.config.ImmutableAdvancedConfig;
+import org.glowroot.live.LiveWeavingService.PartialReweaveException;
+import org.glowroot.live.LiveWeavingService.ReweaveProgress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class LiveWeavingServiceImplTest {
+
+    private static final List<Class<?>> CLASSES = ImmutableList.<Class<?>>of(A.class, B.class,
+            C.class, D.class, E.class);
+
+    private Instrumentation instrumentation;
+    private LiveWeavingServiceImpl liveWeavingService;
+
+    @Before
+    public void beforeEachTest() {
+        instrumentation = mock(Instrumentation.class);
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        liveWeavingService = new LiveWeavingServiceImpl(mock(AnalyzedWorld.class),
+                instrumentation, configService, mock(AdviceCache.class), true);
+    }
+
+    @Test
+    public void shouldRetransformInBatches() throws Exception {
+        // when
+        liveWeavingService.retransformClasses(CLASSES, 2);
+        // then
+        InOrder inOrder = inOrder(instrumentation);
+        inOrder.verify(instrumentation).retransformClasses(A.class, B.class);
+        inOrder.verify(instrumentation).retransformClasses(C.class, D.class);
+        inOrder.verify(instrumentation).retransformClasses(E.class);
+        verifyNoMoreInteractions(instrumentation);
+        assertThat(liveWeavingService.getReweaveProgress().retransformedClasses()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldRetransformInSingleBatchWhenBatchingIsDisabled() throws Exception {
+        // when
+        liveWeavingService.retransformClasses(CLASSES, 0);
+        // then
+        verify(instrumentation).retransformClasses(A.class, B.class, C.class, D.class, E.class);
+        verifyNoMoreInteractions(instrumentation);
+    }
+
+    @Test
+    public void shouldReportPartialReweave() throws Exception {
+        // given
+        UnmodifiableClassException cause = new UnmodifiableClassException("C");
+        doThrow(cause).when(instrumentation).retransformClasses(C.class, D.class);
+        // when
+        PartialReweaveException exception = null;
+        try {
+            liveWeavingService.retransformClasses(CLASSES, 2);
+        } catch (PartialReweaveException e) {
+            exception = e;
+        }
+        // then
+        assertThat(exception).isNotNull();
+        assertThat(exception.getRetransformedClasses()).isEqualTo(2);
+        assertThat(exception.getTotalClasses()).isEqualTo(5);
+        assertThat(exception.getCause()).isSameAs(cause);
+        ReweaveProgress progress = liveWeavingService.getReweaveProgress();
+        assertThat(progress.retransformedClasses()).isEqualTo(2);
+        verify(instrumentation).retransformClasses(A.class, B.class);
+        verify(instrumentation).retransformClasses(C.class, D.class);
+        verify(instrumentation, never()).retransformClasses(E.class);
+    }
+
+    @Test
+    public void shouldPropagateFailureOfFirstBatch() throws Exception {
+        // given
+        UnmodifiableClassException cause = new UnmodifiableClassException("A");
+        doThrow(cause).when(instrumentation).retransformClasses(A.class, B.class);
+        // when
+        Exception exception = null;
+        try {
+            liveWeavingService.retransformClasses(CLASSES, 2);
+        } catch (Exception e) {
+            exception = e;
+        }
+        // then
+        // nothing was retransformed, so this is not reported as a partial reweave
+        assertThat(exception).isSameAs(cause);
+        assertThat(liveWeavingService.getReweaveProgress().retransformedClasses()).isEqualTo(0);
+    }
+
+    public static class A {}
+
+    public static class B extends A {}
+
+    public static class C extends B {}
+
+    public static class D {}
+
+    public static class E extends D {}
+}
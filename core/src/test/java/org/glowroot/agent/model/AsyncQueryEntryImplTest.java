@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.collector.spi.model.TraceOuterClass.Trace;
+import org.glowroot.common.util.Tickers;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncQueryEntryImplTest {
+
+    private static final Ticker ticker = Tickers.getTicker();
+
+    private Transaction transaction;
+    private QueryData queryData;
+    private TraceEntryImpl traceEntry;
+    private long startTick;
+
+    @Before
+    public void beforeEachTest() {
+        transaction = mock(Transaction.class);
+        queryData = new QueryData(mock(QueryDataCollector.class), "SQL", "select 1", null);
+        // start tick is in the past so that the measured duration is never zero
+        startTick = ticker.read() - 1000;
+        traceEntry = new TraceEntryImpl(null, mock(MessageSupplier.class), queryData, 1, startTick,
+                null);
+    }
+
+    @Test
+    public void shouldEndFromAnotherThread() throws Exception {
+        // given
+        final AsyncQueryEntryImpl asyncQueryEntry = newAsyncQueryEntry();
+        // when
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                asyncQueryEntry.end();
+            }
+        });
+        thread.start();
+        thread.join();
+        // then
+        assertThat(queryData.getExecutionCount()).isEqualTo(1);
+        assertThat(queryData.getTotalNanos()).isGreaterThanOrEqualTo(1000);
+        assertThat(toProtobuf(traceEntry).getActive()).isFalse();
+        verify(transaction).writeMemoryBarrier();
+    }
+
+    @Test
+    public void shouldEndOnlyOnceWhenEndedConcurrently() throws Exception {
+        // given
+        final AsyncQueryEntryImpl asyncQueryEntry = newAsyncQueryEntry();
+        // when
+        runConcurrently(10, new Runnable() {
+            @Override
+            public void run() {
+                asyncQueryEntry.end();
+            }
+        });
+        // then
+        assertThat(queryData.getExecutionCount()).isEqualTo(1);
+        assertThat(toProtobuf(traceEntry).getActive()).isFalse();
+        verify(transaction, times(1)).writeMemoryBarrier();
+    }
+
+    @Test
+    public void shouldIgnoreSecondEnd() {
+        // given
+        AsyncQueryEntryImpl asyncQueryEntry = newAsyncQueryEntry();
+        asyncQueryEntry.end();
+        double totalNanos = queryData.getTotalNanos();
+        // when
+        asyncQueryEntry.endWithError("second end");
+        // then
+        assertThat(queryData.getTotalNanos()).isEqualTo(totalNanos);
+        assertThat(toProtobuf(traceEntry).hasError()).isFalse();
+        verify(transaction, times(1)).writeMemoryBarrier();
+    }
+
+    @Test
+    public void shouldIgnoreEndAfterTransactionCompletes() {
+        // given
+        AsyncQueryEntryImpl asyncQueryEntry = newAsyncQueryEntry();
+        when(transaction.isCompleted()).thenReturn(true);
+        // when
+        asyncQueryEntry.end();
+        // then
+        assertThat(queryData.getExecutionCount()).isEqualTo(1);
+        assertThat(queryData.getTotalNanos()).isEqualTo(0);
+        assertThat(toProtobuf(traceEntry).getActive()).isTrue();
+        verify(transaction, never()).writeMemoryBarrier();
+    }
+
+    @Test
+    public void shouldAccumulateAsyncTimeFromConcurrentThreads() throws Exception {
+        // given
+        for (int i = 0; i < 10; i++) {
+            queryData.startAsync(1);
+        }
+        // when
+        runConcurrently(10, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    queryData.endAsync(1);
+                }
+            }
+        });
+        // then
+        assertThat(queryData.getExecutionCount()).isEqualTo(10);
+        assertThat(queryData.getTotalNanos()).isEqualTo(10000);
+    }
+
+    private AsyncQueryEntryImpl newAsyncQueryEntry() {
+        return new AsyncQueryEntryImpl(transaction, traceEntry, mock(MessageSupplier.class),
+                mock(TimerImpl.class), queryData, startTick);
+    }
+
+    private Trace.Entry toProtobuf(TraceEntryImpl traceEntry) {
+        return traceEntry.toProtobuf(startTick, ticker.read(), ImmutableList.<Trace.Entry>of());
+    }
+
+    private static void runConcurrently(int threadCount, final Runnable runnable)
+            throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    runnable.run();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
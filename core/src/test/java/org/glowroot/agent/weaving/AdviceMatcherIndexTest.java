@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.agent.weaving.SomeAspect.BasicAdvice;
+import org.glowroot.agent.weaving.SomeAspect.ClassNamePatternAdvice;
+import org.glowroot.agent.weaving.SomeAspect.ThrowableToStringAdvice;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdviceMatcherIndexTest {
+
+    @Test
+    public void shouldMatchExactAndPrefixClassNames() throws Exception {
+        // given
+        Advice basicAdvice = new AdviceBuilder(BasicAdvice.class, false).build();
+        Advice classNamePatternAdvice =
+                new AdviceBuilder(ClassNamePatternAdvice.class, false).build();
+        Advice throwableAdvice = new AdviceBuilder(ThrowableToStringAdvice.class, false).build();
+        List<Advice> advisors =
+                ImmutableList.of(basicAdvice, classNamePatternAdvice, throwableAdvice);
+        AdviceMatcherIndex index = AdviceMatcherIndex.create(advisors);
+        // when
+        List<AdviceMatcher> miscMatchers =
+                index.getAdviceMatchers("org.glowroot.agent.weaving.Misc");
+        List<AdviceMatcher> misc2Matchers =
+                index.getAdviceMatchers("org.glowroot.agent.weaving.Misc2");
+        List<AdviceMatcher> throwableMatchers =
+                index.getAdviceMatchers("java.lang.Throwable");
+        List<AdviceMatcher> otherMatchers =
+                index.getAdviceMatchers("org.glowroot.agent.weaving.Mi");
+        // then
+        assertThat(miscMatchers).hasSize(2);
+        assertThat(miscMatchers.get(0).advice()).isEqualTo(basicAdvice);
+        assertThat(miscMatchers.get(1).advice()).isEqualTo(classNamePatternAdvice);
+        assertThat(misc2Matchers).hasSize(1);
+        assertThat(misc2Matchers.get(0).advice()).isEqualTo(classNamePatternAdvice);
+        assertThat(throwableMatchers).hasSize(1);
+        assertThat(throwableMatchers.get(0).advice()).isEqualTo(throwableAdvice);
+        assertThat(otherMatchers).isEmpty();
+    }
+
+    @Test
+    public void shouldNotShareIndexAcrossAnalyzedWorlds() throws Exception {
+        // given
+        Advice basicAdvice = new AdviceBuilder(BasicAdvice.class, false).build();
+        Advice classNamePatternAdvice =
+                new AdviceBuilder(ClassNamePatternAdvice.class, false).build();
+        List<Advice> advisors1 = ImmutableList.of(basicAdvice);
+        List<Advice> advisors2 = ImmutableList.of(classNamePatternAdvice);
+        AnalyzedWorld analyzedWorld1 = createAnalyzedWorld(advisors1);
+        AnalyzedWorld analyzedWorld2 = createAnalyzedWorld(advisors2);
+        analyzedWorld1.prebuildAdviceMatcherIndex();
+        analyzedWorld2.prebuildAdviceMatcherIndex();
+        // when
+        List<AdviceMatcher> matchers1 =
+                analyzedWorld1.getAdviceMatchers("org.glowroot.agent.weaving.Misc", advisors1);
+        List<AdviceMatcher> matchers2 =
+                analyzedWorld2.getAdviceMatchers("org.glowroot.agent.weaving.Misc", advisors2);
+        List<AdviceMatcher> matchers1Again =
+                analyzedWorld1.getAdviceMatchers("org.glowroot.agent.weaving.Misc", advisors1);
+        // then
+        assertThat(matchers1).hasSize(1);
+        assertThat(matchers1.get(0).advice()).isEqualTo(basicAdvice);
+        assertThat(matchers2).hasSize(1);
+        assertThat(matchers2.get(0).advice()).isEqualTo(classNamePatternAdvice);
+        assertThat(matchers1Again).isEqualTo(matchers1);
+    }
+
+    @Test
+    public void shouldMatchNamesWithoutPattern() {
+        // when
+        NameMatcher nameMatcher = NameMatcher.create("execute1|exec*", Pattern.compile("unused"));
+        // then
+        assertThat(nameMatcher.pattern()).isNull();
+        assertThat(nameMatcher.matches("execute1")).isTrue();
+        assertThat(nameMatcher.matches("exec")).isTrue();
+        assertThat(nameMatcher.matches("executeX")).isTrue();
+        assertThat(nameMatcher.matches("exe")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchExactName() {
+        // when
+        NameMatcher nameMatcher = NameMatcher.create("execute1", null);
+        // then
+        assertThat(nameMatcher.matches("execute1")).isTrue();
+        assertThat(nameMatcher.matches("execute12")).isFalse();
+    }
+
+    @Test
+    public void shouldFallBackToPattern() {
+        // given
+        Pattern pattern = Pattern.compile("\\Qexe\\E.*\\Q1\\E");
+        // when
+        NameMatcher nameMatcher = NameMatcher.create("exe*1", pattern);
+        NameMatcher regexNameMatcher = NameMatcher.create("/exe.*1/", Pattern.compile("exe.*1"));
+        // then
+        assertThat(nameMatcher.pattern()).isEqualTo(pattern);
+        assertThat(nameMatcher.matches("execute1")).isTrue();
+        assertThat(nameMatcher.matches("execute2")).isFalse();
+        assertThat(regexNameMatcher.pattern()).isNotNull();
+        assertThat(regexNameMatcher.matches("execute1")).isTrue();
+    }
+
+    private static AnalyzedWorld createAnalyzedWorld(List<Advice> advisors) {
+        return new AnalyzedWorld(Suppliers.ofInstance(advisors), ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null, null);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.weaving.AnalyzedWorld.ParseContext;
+import org.glowroot.agent.weaving.AnalyzedWorld.Prefetch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalyzedWorldTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void beforeEachTest() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void afterEachTest() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldAnalyzeHierarchyInParallel() {
+        // given
+        AnalyzedWorld sequentialWorld = newAnalyzedWorld(null);
+        AnalyzedWorld parallelWorld = newAnalyzedWorld(executor);
+        ClassLoader loader = new IsolatedClassLoader(getClass().getClassLoader());
+        List<String> interfaceNames = ImmutableList.of(Misc.class.getName(),
+                Misc2.class.getName(), Misc3.class.getName());
+        // when
+        List<String> sequentialNames =
+                getHierarchyNames(sequentialWorld, interfaceNames, loader, false);
+        List<String> parallelNames =
+                getHierarchyNames(parallelWorld, interfaceNames, loader, true);
+        // then
+        assertThat(sequentialNames).isNotEmpty();
+        assertThat(parallelNames).isEqualTo(sequentialNames);
+    }
+
+    @Test
+    public void shouldNotStartNestedPrefetch() {
+        // given
+        AnalyzedWorld analyzedWorld = newAnalyzedWorld(executor);
+        ClassLoader loader = new IsolatedClassLoader(getClass().getClassLoader());
+        // when
+        Prefetch prefetch = analyzedWorld.startPrefetch(SuperBasicMisc.class.getName(),
+                ImmutableList.<String>of(), loader);
+        Prefetch nestedPrefetch = analyzedWorld.startPrefetch(SuperBasicMisc.class.getName(),
+                ImmutableList.<String>of(), loader);
+        analyzedWorld.endPrefetch(prefetch);
+        // then
+        assertThat(prefetch).isNotNull();
+        assertThat(nestedPrefetch).isNull();
+    }
+
+    @Test
+    public void shouldInternAnalyzedNames() throws Exception {
+        // given
+        AnalyzedWorld analyzedWorld = newAnalyzedWorld(null);
+        ClassLoader loader = new IsolatedClassLoader(getClass().getClassLoader());
+        // when
+        AnalyzedClass analyzedClass =
+                analyzedWorld.getAnalyzedClass(BasicMisc.class.getName(), loader);
+        // then
+        assertThat(analyzedClass.name())
+                .isSameAs(new String(BasicMisc.class.getName()).intern());
+        assertThat(analyzedClass.superName())
+                .isSameAs(new String(SuperBasicMisc.class.getName()).intern());
+        assertThat(analyzedClass.interfaceNames().get(0))
+                .isSameAs(new String(Misc.class.getName()).intern());
+    }
+
+    private static List<String> getHierarchyNames(AnalyzedWorld analyzedWorld,
+            List<String> interfaceNames, ClassLoader loader, boolean prefetch) {
+        ParseContext parseContext = ImmutableParseContext.of("BasicMisc", null);
+        Prefetch currPrefetch = null;
+        if (prefetch) {
+            currPrefetch = analyzedWorld.startPrefetch(SuperBasicMisc.class.getName(),
+                    interfaceNames, loader);
+            assertThat(currPrefetch).isNotNull();
+        }
+        List<AnalyzedClass> analyzedClasses = Lists.newArrayList();
+        try {
+            analyzedClasses.addAll(analyzedWorld.getAnalyzedHierarchy(
+                    SuperBasicMisc.class.getName(), loader, parseContext));
+            for (String interfaceName : interfaceNames) {
+                analyzedClasses.addAll(
+                        analyzedWorld.getAnalyzedHierarchy(interfaceName, loader, parseContext));
+            }
+        } finally {
+            if (currPrefetch != null) {
+                analyzedWorld.endPrefetch(currPrefetch);
+            }
+        }
+        List<String> names = Lists.newArrayList();
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            names.add(analyzedClass.name());
+        }
+        return names;
+    }
+
+    private static AnalyzedWorld newAnalyzedWorld(@Nullable ExecutorService executor) {
+        Supplier<List<Advice>> advisors =
+                Suppliers.<List<Advice>>ofInstance(ImmutableList.<Advice>of());
+        return new AnalyzedWorld(advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null, executor);
+    }
+
+    // class loader that has not loaded any of the classes, so that they are analyzed from their
+    // class bytes
+    private static class IsolatedClassLoader extends ClassLoader {
+        private IsolatedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.IOException;
+
+import com.google.common.io.Resources;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClassHeaderTest {
+
+    @Test
+    public void shouldReadClassHeader() throws Exception {
+        // given
+        byte[] bytes = getBytes(BasicMisc.class);
+        // when
+        ClassHeader classHeader = ClassHeader.read(bytes);
+        // then
+        ClassReader cr = new ClassReader(bytes);
+        assertThat(classHeader.access()).isEqualTo(cr.getAccess());
+        assertThat(classHeader.internalName()).isEqualTo(cr.getClassName());
+        assertThat(classHeader.superInternalName()).isEqualTo(cr.getSuperName());
+        assertThat(classHeader.interfaceInternalNames()).isEqualTo(cr.getInterfaces());
+        assertThat(classHeader.pointcutDescPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldReadClassHeaderWithLongAndDoubleConstants() throws Exception {
+        // given
+        byte[] bytes = getBytes(Math.class);
+        // when
+        ClassHeader classHeader = ClassHeader.read(bytes);
+        // then
+        ClassReader cr = new ClassReader(bytes);
+        assertThat(classHeader.internalName()).isEqualTo(cr.getClassName());
+        assertThat(classHeader.superInternalName()).isEqualTo(cr.getSuperName());
+        assertThat(classHeader.interfaceInternalNames()).isEqualTo(cr.getInterfaces());
+    }
+
+    @Test
+    public void shouldReadObjectClassHeader() throws Exception {
+        // when
+        ClassHeader classHeader = ClassHeader.read(getBytes(Object.class));
+        // then
+        assertThat(classHeader.internalName()).isEqualTo("java/lang/Object");
+        assertThat(classHeader.superInternalName()).isNull();
+    }
+
+    @Test
+    public void shouldDetectPointcutAnnotation() throws Exception {
+        // when
+        ClassHeader classHeader = ClassHeader.read(getBytes(SomeAspect.BasicAdvice.class));
+        // then
+        assertThat(classHeader.pointcutDescPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldReturnNullForInvalidBytes() {
+        // when
+        ClassHeader classHeader = ClassHeader.read(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        // then
+        assertThat(classHeader).isNull();
+    }
+
+    @Test
+    public void shouldReturnNullForTruncatedBytes() throws Exception {
+        // given
+        byte[] bytes = getBytes(BasicMisc.class);
+        byte[] truncatedBytes = new byte[100];
+        System.arraycopy(bytes, 0, truncatedBytes, 0, truncatedBytes.length);
+        // when
+        ClassHeader classHeader = ClassHeader.read(truncatedBytes);
+        // then
+        assertThat(classHeader).isNull();
+    }
+
+    private static byte[] getBytes(Class<?> clazz) throws IOException {
+        return Resources.toByteArray(
+                Resources.getResource(clazz, "/" + clazz.getName().replace('.', '/') + ".class"));
+    }
+}
@@ -36,7 +36,7 @@ public class ComputeFramesClassWriterTest {
         Supplier<List<Advice>> advisors =
                 Suppliers.<List<Advice>>ofInstance(ImmutableList.<Advice>of());
         AnalyzedWorld analyzedWorld = new AnalyzedWorld(advisors, ImmutableList.<ShimType>of(),
-                ImmutableList.<MixinType>of(), null);
+                ImmutableList.<MixinType>of(), null, null);
         cw = new ComputeFramesClassWriter(0, analyzedWorld, getClass().getClassLoader(), null,
                 ComputeFramesClassWriterTest.class.getName());
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PluginEnabledCallSitesTest {
+
+    private PluginEnabledCallSites pluginEnabledCallSites;
+
+    @Before
+    public void before() {
+        pluginEnabledCallSites = PluginEnabledCallSites.create();
+    }
+
+    @After
+    public void after() {
+        pluginEnabledCallSites.close();
+    }
+
+    @Test
+    public void shouldBeEnabledByDefault() throws Throwable {
+        // when
+        CallSite callSite = bootstrap(pluginEnabledCallSites, "plugin-enabled-by-default");
+        // then
+        assertThat(callSite.getTarget().invokeWithArguments()).isEqualTo(true);
+    }
+
+    @Test
+    public void shouldUpdateCallSiteTarget() throws Throwable {
+        // given
+        CallSite callSite = bootstrap(pluginEnabledCallSites, "plugin-enabled-updated");
+        // when
+        pluginEnabledCallSites.setEnabled("plugin-enabled-updated", false);
+        Object disabled = callSite.getTarget().invokeWithArguments();
+        pluginEnabledCallSites.setEnabled("plugin-enabled-updated", true);
+        Object enabled = callSite.getTarget().invokeWithArguments();
+        // then
+        assertThat(disabled).isEqualTo(false);
+        assertThat(enabled).isEqualTo(true);
+    }
+
+    @Test
+    public void shouldShareCallSiteAcrossBootstraps() throws Throwable {
+        // given
+        pluginEnabledCallSites.setEnabled("plugin-enabled-shared", false);
+        // when
+        CallSite callSite = bootstrap(pluginEnabledCallSites, "plugin-enabled-shared");
+        CallSite callSite2 = bootstrap(pluginEnabledCallSites, "plugin-enabled-shared");
+        // then
+        assertThat(callSite).isSameAs(callSite2);
+        assertThat(callSite.getTarget().invokeWithArguments()).isEqualTo(false);
+    }
+
+    @Test
+    public void shouldNotShareCallSiteAcrossInstances() throws Throwable {
+        // given
+        PluginEnabledCallSites otherPluginEnabledCallSites = PluginEnabledCallSites.create();
+        try {
+            otherPluginEnabledCallSites.setEnabled("plugin-enabled-scoped", false);
+            // when
+            CallSite callSite = bootstrap(pluginEnabledCallSites, "plugin-enabled-scoped");
+            CallSite otherCallSite =
+                    bootstrap(otherPluginEnabledCallSites, "plugin-enabled-scoped");
+            // then
+            assertThat(callSite).isNotSameAs(otherCallSite);
+            assertThat(callSite.getTarget().invokeWithArguments()).isEqualTo(true);
+            assertThat(otherCallSite.getTarget().invokeWithArguments()).isEqualTo(false);
+        } finally {
+            otherPluginEnabledCallSites.close();
+        }
+    }
+
+    @Test
+    public void shouldReenableCallSitesOnClose() throws Throwable {
+        // given
+        PluginEnabledCallSites otherPluginEnabledCallSites = PluginEnabledCallSites.create();
+        otherPluginEnabledCallSites.setEnabled("plugin-enabled-closed", false);
+        CallSite callSite = bootstrap(otherPluginEnabledCallSites, "plugin-enabled-closed");
+        // when
+        otherPluginEnabledCallSites.close();
+        CallSite callSiteAfterClose =
+                bootstrap(otherPluginEnabledCallSites, "plugin-enabled-closed");
+        // then
+        assertThat(callSite.getTarget().invokeWithArguments()).isEqualTo(true);
+        assertThat(callSiteAfterClose.getTarget().invokeWithArguments()).isEqualTo(true);
+    }
+
+    private static CallSite bootstrap(PluginEnabledCallSites pluginEnabledCallSites,
+            String pluginId) {
+        return PluginEnabledCallSites.bootstrap(MethodHandles.lookup(), "isPluginEnabled",
+                MethodType.methodType(boolean.class), pluginEnabledCallSites.getId(), pluginId);
+    }
+}
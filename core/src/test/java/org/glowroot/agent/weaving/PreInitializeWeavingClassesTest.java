@@ -41,13 +41,15 @@ public class PreInitializeWeavingClassesTest {
         globalCollector.processMethodFailIfNotFound(
                 ReferencedMethod.from("org/glowroot/agent/weaving/AnalyzedWorld", "<init>",
                         "(Lcom/google/common/base/Supplier;Ljava/util/List;Ljava/util/List;"
-                                + "Lorg/glowroot/agent/weaving/ExtraBootResourceFinder;)V"));
+                                + "Lorg/glowroot/agent/weaving/ExtraBootResourceFinder;"
+                                + "Ljava/util/concurrent/ExecutorService;)V"));
         // "call" WeavingClassFileTransformer constructor
         globalCollector.processMethodFailIfNotFound(ReferencedMethod.from(
                 "org/glowroot/agent/weaving/WeavingClassFileTransformer", "<init>",
                 "(Ljava/util/List;Ljava/util/List;Lcom/google/common/base/Supplier;"
                         + "Lorg/glowroot/agent/weaving/AnalyzedWorld;"
-                        + "Lorg/glowroot/agent/weaving/WeavingTimerService;Z)V"));
+                        + "Lorg/glowroot/agent/weaving/WeavingTimerService;ZI"
+                        + "Lorg/glowroot/agent/weaving/WeavingCache;Ljava/lang/Integer;)V"));
         // "call" WeavingClassFileTransformer.transform()
         globalCollector.processMethodFailIfNotFound(
                 ReferencedMethod.from("org/glowroot/agent/weaving/WeavingClassFileTransformer",
@@ -850,6 +850,27 @@ public class SomeAspect {
             methodParameterTypes = {}, methodModifiers = MethodModifier.STATIC)
     public static class NonMatchingStaticAdvice extends BasicAdvice {}
 
+    // advice is only outlined when it has an @IsEnabled method
+    @Pointcut(className = "org.glowroot.agent.weaving.PrimitiveMisc",
+            methodName = "executeWithIntReturn", methodParameterTypes = {})
+    public static class BindPrimitiveReturnWithIsEnabledAdvice extends BindPrimitiveReturnAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            SomeAspectThreadLocals.enabledCount.increment();
+            return SomeAspectThreadLocals.enabled.get();
+        }
+    }
+
+    @Pointcut(className = "org.glowroot.agent.weaving.Misc", methodName = "execute1",
+            methodParameterTypes = {})
+    public static class BindTravelerWithIsEnabledAdvice extends BindTravelerAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            SomeAspectThreadLocals.enabledCount.increment();
+            return SomeAspectThreadLocals.enabled.get();
+        }
+    }
+
     @Pointcut(className = "org.glowroot.agent.weaving.Misc", methodName = "execute1",
             methodParameterTypes = {},
             methodModifiers = {MethodModifier.PUBLIC, MethodModifier.NOT_STATIC})
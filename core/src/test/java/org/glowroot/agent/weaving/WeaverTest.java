@@ -16,9 +16,14 @@
 package org.glowroot.agent.weaving;
 
 import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
 
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
@@ -44,11 +49,13 @@ import org.glowroot.agent.weaving.SomeAspect.BindParameterAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindParameterArrayAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindPrimitiveBooleanTravelerAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindPrimitiveReturnAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BindPrimitiveReturnWithIsEnabledAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindPrimitiveTravelerAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindReceiverAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindReturnAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindThrowableAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BindTravelerAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BindTravelerWithIsEnabledAdvice;
 import org.glowroot.agent.weaving.SomeAspect.BrokenAdvice;
 import org.glowroot.agent.weaving.SomeAspect.ChangeReturnAdvice;
 import org.glowroot.agent.weaving.SomeAspect.CircularClassDependencyAdvice;
@@ -188,6 +195,69 @@ public class WeaverTest {
         assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(0);
     }
 
+    @Test
+    public void shouldSkipAdviceWhilePluginIsDisabled() throws Exception {
+        // the plugin enabled guard is only woven into java 7+ class files
+        assumeJdk7();
+        PluginEnabledCallSites pluginEnabledCallSites = PluginEnabledCallSites.create();
+        try {
+            // given
+            Misc test = newWovenJava7Object(BasicMisc.class, Misc.class, BasicAdvice.class,
+                    "test-plugin", pluginEnabledCallSites.getId());
+            // when
+            test.execute1();
+            pluginEnabledCallSites.setEnabled("test-plugin", false);
+            test.execute1();
+            pluginEnabledCallSites.setEnabled("test-plugin", true);
+            test.execute1();
+            // then
+            assertThat(SomeAspectThreadLocals.enabledCount.get()).isEqualTo(2);
+            assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(2);
+            assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(2);
+            assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(2);
+        } finally {
+            pluginEnabledCallSites.close();
+        }
+    }
+
+    @Test
+    public void shouldNotSkipAdviceWhenPluginIsDisabledByAnotherAgent() throws Exception {
+        assumeJdk7();
+        PluginEnabledCallSites pluginEnabledCallSites = PluginEnabledCallSites.create();
+        PluginEnabledCallSites otherPluginEnabledCallSites = PluginEnabledCallSites.create();
+        try {
+            // given
+            Misc test = newWovenJava7Object(BasicMisc.class, Misc.class, BasicAdvice.class,
+                    "test-plugin", pluginEnabledCallSites.getId());
+            // when
+            otherPluginEnabledCallSites.setEnabled("test-plugin", false);
+            test.execute1();
+            // then
+            assertThat(SomeAspectThreadLocals.enabledCount.get()).isEqualTo(1);
+            assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(1);
+        } finally {
+            pluginEnabledCallSites.close();
+            otherPluginEnabledCallSites.close();
+        }
+    }
+
+    @Test
+    public void shouldExecuteAdviceAfterAgentIsClosed() throws Exception {
+        assumeJdk7();
+        // given
+        PluginEnabledCallSites pluginEnabledCallSites = PluginEnabledCallSites.create();
+        Misc test = newWovenJava7Object(BasicMisc.class, Misc.class, BasicAdvice.class,
+                "test-plugin", pluginEnabledCallSites.getId());
+        pluginEnabledCallSites.setEnabled("test-plugin", false);
+        test.execute1();
+        // when
+        pluginEnabledCallSites.close();
+        test.execute1();
+        // then
+        assertThat(SomeAspectThreadLocals.enabledCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(1);
+    }
+
     // ===================== @BindReceiver =====================
 
     @Test
@@ -1034,6 +1104,125 @@ public class WeaverTest {
         assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(0);
     }
 
+    // ===================== outlined advice =====================
+
+    @Test
+    public void shouldOutlineAdvice() throws Exception {
+        // given
+        Misc test = newOutlinedWovenObject(BasicMisc.class, Misc.class,
+                new AdviceBuilder(BasicAdvice.class, false).build());
+        // when
+        test.execute1();
+        // then
+        assertThat(getOutlinedMethodNames(test.getClass())).hasSize(1);
+        assertThat(getOutlinedMethodNames(test.getClass()).get(0)).startsWith("execute1$");
+        // @IsEnabled is evaluated once by the guard and again by the outlined helper
+        assertThat(SomeAspectThreadLocals.enabledCount.get()).isEqualTo(2);
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onThrowCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotExecuteDisabledOutlinedAdvice() throws Exception {
+        // given
+        BasicAdvice.disable();
+        Misc test = newOutlinedWovenObject(BasicMisc.class, Misc.class,
+                new AdviceBuilder(BasicAdvice.class, false).build());
+        // when
+        test.execute1();
+        // then
+        assertThat(SomeAspectThreadLocals.enabledCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onThrowCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldOutlineAdviceOnThrow() throws Exception {
+        // given
+        Misc test = newOutlinedWovenObject(ThrowingMisc.class, Misc.class,
+                new AdviceBuilder(BasicAdvice.class, false).build());
+        // when
+        Throwable throwable = null;
+        try {
+            test.execute1();
+        } catch (Throwable t) {
+            throwable = t;
+        }
+        // then
+        assertThat(getOutlinedMethodNames(test.getClass())).hasSize(1);
+        assertThat(throwable).isExactlyInstanceOf(Error.class);
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onThrowCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOutlineAdviceOnStaticMethod() throws Exception {
+        // given
+        Misc test = newOutlinedWovenObject(StaticMisc.class, Misc.class,
+                new AdviceBuilder(StaticAdvice.class, false).build());
+        // when
+        test.execute1();
+        // then
+        assertThat(getOutlinedMethodNames(test.getClass())).hasSize(1);
+        assertThat(getOutlinedMethodNames(test.getClass()).get(0)).startsWith("executeStatic$");
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onReturnCount.get()).isEqualTo(1);
+        assertThat(SomeAspectThreadLocals.onThrowCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOutlineAdviceOnPrimitiveReturn() throws Exception {
+        // given
+        Misc test = newOutlinedWovenObject(PrimitiveMisc.class, Misc.class,
+                new AdviceBuilder(BindPrimitiveReturnWithIsEnabledAdvice.class, false).build());
+        // when
+        test.execute1();
+        // then
+        assertThat(getOutlinedMethodNames(test.getClass())).hasSize(1);
+        assertThat(SomeAspectThreadLocals.returnValue.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldOutlineAdviceWithTraveler() throws Exception {
+        // given
+        Misc test = newOutlinedWovenObject(BasicMisc.class, Misc.class,
+                new AdviceBuilder(BindTravelerWithIsEnabledAdvice.class, false).build());
+        // when
+        test.execute1();
+        // then
+        assertThat(getOutlinedMethodNames(test.getClass())).hasSize(1);
+        assertThat(SomeAspectThreadLocals.onReturnTraveler.get()).isEqualTo("a traveler");
+        assertThat(SomeAspectThreadLocals.onThrowTraveler.get()).isNull();
+        assertThat(SomeAspectThreadLocals.onAfterTraveler.get()).isEqualTo("a traveler");
+    }
+
+    @Test
+    public void shouldNotChangeOutlinedMethodsWhenReweaving() throws Exception {
+        // given
+        Advice pluginAdvice = new AdviceBuilder(BasicAdvice.class, false).build();
+        // reweavable advice without @IsEnabled, which means the outlined helper is always called
+        Advice reweavableAdvice = new AdviceBuilder(BindTravelerAdvice.class, true).build();
+        Misc test = newOutlinedWovenObject(BasicMisc.class, Misc.class, pluginAdvice);
+        // when
+        BasicAdvice.disable();
+        Misc rewovenTest =
+                newOutlinedWovenObject(BasicMisc.class, Misc.class, pluginAdvice, reweavableAdvice);
+        rewovenTest.execute1();
+        // then
+        // retransformation cannot add or remove methods
+        assertThat(getOutlinedMethodNames(rewovenTest.getClass()))
+                .isEqualTo(getOutlinedMethodNames(test.getClass()));
+        assertThat(SomeAspectThreadLocals.onBeforeCount.get()).isEqualTo(0);
+        assertThat(SomeAspectThreadLocals.onReturnTraveler.get()).isEqualTo("a traveler");
+    }
+
     // ===================== constructor =====================
 
     @Test
@@ -1387,6 +1576,52 @@ public class WeaverTest {
         return loader.build().newInstance(implClass, bridgeClass);
     }
 
+    private static <S, T extends S> S newOutlinedWovenObject(Class<T> implClass,
+            Class<S> bridgeClass, Advice... advisors) throws Exception {
+        IsolatedWeavingClassLoader.Builder loader = IsolatedWeavingClassLoader.builder();
+        loader.setAdvisors(ImmutableList.copyOf(advisors));
+        // advice is not outlined when methods are wrapped with synthetic timer marker methods
+        loader.setTimerWrapperMethods(false);
+        // outline advice regardless of method size
+        loader.setOutlineAdviceThreshold(1);
+        loader.setWeavingTimerService(NopWeavingTimerService.INSTANCE);
+        loader.addBridgeClasses(bridgeClass, SomeAspectThreadLocals.class,
+                IntegerThreadLocal.class);
+        return loader.build().newInstance(implClass, bridgeClass);
+    }
+
+    private static List<String> getOutlinedMethodNames(Class<?> clazz) {
+        List<String> outlinedMethodNames = Lists.newArrayList();
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (method.getName().contains("$glowroot$outlined$")) {
+                outlinedMethodNames.add(method.getName());
+            }
+        }
+        Collections.sort(outlinedMethodNames);
+        return outlinedMethodNames;
+    }
+
+    // weaves the class as a java 7 class file, since test classes are compiled with -target 1.6
+    // (the woven class file gets new stack frames computed, see Weaver)
+    private static <S, T extends S> S newWovenJava7Object(Class<T> implClass,
+            Class<S> bridgeClass, Class<?> adviceClass, String pluginId,
+            int pluginEnabledCallSitesId) throws Exception {
+        IsolatedWeavingClassLoader.Builder loader = IsolatedWeavingClassLoader.builder();
+        loader.setAdvisors(ImmutableList.of(
+                new AdviceBuilder(adviceClass, false).pluginId(pluginId).build()));
+        loader.setPluginEnabledCallSitesId(pluginEnabledCallSitesId);
+        loader.setWeavingTimerService(NopWeavingTimerService.INSTANCE);
+        loader.addBridgeClasses(bridgeClass, SomeAspectThreadLocals.class,
+                IntegerThreadLocal.class);
+        byte[] bytes = Resources.toByteArray(
+                Resources.getResource(ClassNames.toInternalName(implClass.getName()) + ".class"));
+        // major version is stored in bytes 6 and 7 of the class file
+        bytes[6] = 0;
+        bytes[7] = 51;
+        Class<?> wovenClass = loader.build().weaveAndDefineClass(implClass.getName(), bytes);
+        return bridgeClass.cast(wovenClass.newInstance());
+    }
+
     private static void assumeJdk7() {
         Assume.assumeFalse(StandardSystemProperty.JAVA_VERSION.value().startsWith("1.6"));
     }
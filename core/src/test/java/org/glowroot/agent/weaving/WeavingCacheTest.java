@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WeavingCacheTest {
+
+    private File cacheDir;
+    private Supplier<List<Advice>> advisors;
+
+    @Before
+    public void beforeEachTest() {
+        cacheDir = Files.createTempDir();
+        advisors = Suppliers.<List<Advice>>ofInstance(ImmutableList.<Advice>of());
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        deleteRecursively(cacheDir);
+    }
+
+    @Test
+    public void shouldReturnWovenBytes() throws Exception {
+        // given
+        WeavingCache weavingCache = newWeavingCache(false);
+        String key = weavingCache.getKey(new byte[] {1, 2, 3});
+        // when
+        weavingCache.put(key, new byte[] {4, 5, 6});
+        // then
+        assertThat(newWeavingCache(false).get(key)).isEqualTo(new byte[] {4, 5, 6});
+    }
+
+    @Test
+    public void shouldReturnNothingToWeave() throws Exception {
+        // given
+        WeavingCache weavingCache = newWeavingCache(false);
+        String key = weavingCache.getKey(new byte[] {1, 2, 3});
+        // when
+        weavingCache.put(key, null);
+        // then
+        assertThat(newWeavingCache(false).get(key)).isSameAs(WeavingCache.NOTHING_TO_WEAVE);
+    }
+
+    @Test
+    public void shouldNotReturnBytesForDifferentClassBytes() throws Exception {
+        // given
+        WeavingCache weavingCache = newWeavingCache(false);
+        weavingCache.put(weavingCache.getKey(new byte[] {1, 2, 3}), new byte[] {4, 5, 6});
+        // when
+        byte[] bytes = weavingCache.get(weavingCache.getKey(new byte[] {1, 2, 4}));
+        // then
+        assertThat(bytes).isNull();
+    }
+
+    @Test
+    public void shouldInvalidateOnWeavingChange() throws Exception {
+        // given
+        WeavingCache weavingCache = newWeavingCache(false);
+        String key = weavingCache.getKey(new byte[] {1, 2, 3});
+        weavingCache.put(key, new byte[] {4, 5, 6});
+        // when
+        byte[] bytes = newWeavingCache(true).get(key);
+        // then
+        assertThat(bytes).isNull();
+        assertThat(cacheDir.list()).isEmpty();
+        assertThat(newWeavingCache(false).get(key)).isNull();
+    }
+
+    private WeavingCache newWeavingCache(boolean timerWrapperMethods) throws Exception {
+        return new WeavingCache(cacheDir, advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), timerWrapperMethods, 0);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -24,6 +24,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class LazyHistogramTest {
 
+    private static final double SKETCH_RELATIVE_ACCURACY = 0.005;
+
     @Test
     public void shouldTestPercentiles() {
         // test smaller numbers in more detail since that is where laziness occurs
@@ -78,6 +80,115 @@ public class LazyHistogramTest {
         shouldDecodeOnTopOfExisting(100000000, 200000000);
     }
 
+    @Test
+    public void shouldTestSubtract() throws Exception {
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 10000; i < 2000000; i += 10000) {
+            shouldTestSubtract(i, 0);
+        }
+        shouldTestSubtract(10000000, 0);
+        shouldTestSubtract(100000000, 0);
+    }
+
+    @Test
+    public void shouldTestSketchSubtract() throws Exception {
+        for (int i = 10000; i < 2000000; i += 10000) {
+            shouldTestSubtract(i, SKETCH_RELATIVE_ACCURACY);
+        }
+        shouldTestSubtract(10000000, SKETCH_RELATIVE_ACCURACY);
+        shouldTestSubtract(100000000, SKETCH_RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void shouldTestSketchPercentiles() {
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestSketchPercentiles(i);
+        }
+        shouldTestSketchPercentiles(10000000);
+        shouldTestSketchPercentiles(100000000);
+    }
+
+    @Test
+    public void shouldTestSketchEncodeDecode() throws Exception {
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestSketchEncodeDecode(i);
+        }
+        shouldTestSketchEncodeDecode(10000000);
+        shouldTestSketchEncodeDecode(100000000);
+    }
+
+    @Test
+    public void shouldMergeSketchOnTopOfHdrHistogram() throws Exception {
+        // given
+        LazyHistogram sketchHistogram = new LazyHistogram(SKETCH_RELATIVE_ACCURACY);
+        for (int i = 20000000; i > 10000000; i -= 1000) {
+            sketchHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = sketchHistogram.toProtobuf(new ScratchBuffer());
+        LazyHistogram lazyHistogram = new LazyHistogram(0);
+        for (int i = 10000000; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // when
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, 20000000, 50);
+        assertPercentile(lazyHistogram, 20000000, 95);
+        assertPercentile(lazyHistogram, 20000000, 99);
+    }
+
+    @Test
+    public void shouldMergeHdrHistogramOnTopOfSketch() throws Exception {
+        // given
+        LazyHistogram hdrHistogram = new LazyHistogram(0);
+        for (int i = 20000000; i > 10000000; i -= 1000) {
+            hdrHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = hdrHistogram.toProtobuf(new ScratchBuffer());
+        LazyHistogram lazyHistogram = new LazyHistogram(SKETCH_RELATIVE_ACCURACY);
+        for (int i = 10000000; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // when
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, 20000000, 50);
+        assertPercentile(lazyHistogram, 20000000, 95);
+        assertPercentile(lazyHistogram, 20000000, 99);
+    }
+
+    private void shouldTestSketchPercentiles(int num) {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(SKETCH_RELATIVE_ACCURACY);
+        // when
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        // then
+        assertPercentile(lazyHistogram, num, 50);
+        assertPercentile(lazyHistogram, num, 95);
+        assertPercentile(lazyHistogram, num, 99);
+        assertPercentile(lazyHistogram, num, 99.9);
+    }
+
+    private void shouldTestSketchEncodeDecode(int num) throws Exception {
+        // given
+        LazyHistogram lazyHistogram = new LazyHistogram(SKETCH_RELATIVE_ACCURACY);
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        Aggregate.Histogram histogram = lazyHistogram.toProtobuf(new ScratchBuffer());
+        // decoding into default LazyHistogram should pick up the sketch encoding
+        lazyHistogram = new LazyHistogram(0);
+        // when
+        lazyHistogram.merge(histogram);
+        // then
+        assertPercentile(lazyHistogram, num, 50);
+        assertPercentile(lazyHistogram, num, 95);
+        assertPercentile(lazyHistogram, num, 99);
+        assertPercentile(lazyHistogram, num, 99.9);
+    }
+
     private void shouldTestPercentiles(int num) {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
@@ -152,6 +263,26 @@ public class LazyHistogramTest {
         assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.99);
     }
 
+    private void shouldTestSubtract(int num, double sketchRelativeAccuracy) throws Exception {
+        // given
+        LazyHistogram toBeSubtracted = new LazyHistogram(sketchRelativeAccuracy);
+        for (int i = 2 * num; i > num; i -= 1000) {
+            toBeSubtracted.add(i);
+        }
+        Aggregate.Histogram histogram = toBeSubtracted.toProtobuf(new ScratchBuffer());
+        LazyHistogram lazyHistogram = new LazyHistogram(sketchRelativeAccuracy);
+        for (int i = num; i > 0; i -= 1000) {
+            lazyHistogram.add(i);
+        }
+        lazyHistogram.merge(histogram);
+        // when
+        lazyHistogram.subtract(histogram);
+        // then
+        assertPercentile(lazyHistogram, num, 50);
+        assertPercentile(lazyHistogram, num, 95);
+        assertPercentile(lazyHistogram, num, 99);
+    }
+
     private void assertPercentile(LazyHistogram lazyHistogram, int num, double percentile) {
         long low = (long) Math.floor(num * percentile * 0.99 / (100 * 1000)) * 1000;
         long high = (long) Math.ceil(num * percentile * 1.01 / (100 * 1000)) * 1000;
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.common.model;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogBucketSketchTest {
+
+    @Test
+    public void shouldBeWithinRelativeAccuracy() {
+        // given
+        LogBucketSketch sketch = new LogBucketSketch(0.01);
+        // when
+        for (int i = 1; i <= 100000; i++) {
+            sketch.recordValue(i * 1000L);
+        }
+        // then
+        assertThat(sketch.getTotalCount()).isEqualTo(100000);
+        assertThat(sketch.getValueAtPercentile(50)).isBetween(49500000L, 50500000L);
+        assertThat(sketch.getValueAtPercentile(99)).isBetween(98010000L, 99990000L);
+    }
+
+    @Test
+    public void shouldEncodeDecode() throws Exception {
+        // given
+        LogBucketSketch sketch = new LogBucketSketch(0.01);
+        for (int i = 1; i <= 10000; i++) {
+            sketch.recordValue(i * 1000L);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(sketch.getNeededByteBufferCapacity());
+        sketch.encodeIntoByteBuffer(buffer);
+        buffer.flip();
+        // when
+        assertThat(LogBucketSketch.isSketchEncoded(buffer)).isTrue();
+        LogBucketSketch decoded = LogBucketSketch.decodeFromByteBuffer(buffer);
+        // then
+        assertThat(decoded.getTotalCount()).isEqualTo(10000);
+        assertThat(decoded.getValueAtPercentile(95)).isEqualTo(sketch.getValueAtPercentile(95));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void shouldRejectCorruptRelativeAccuracy() throws Exception {
+        // given
+        LogBucketSketch sketch = new LogBucketSketch(0.01);
+        sketch.recordValue(1000);
+        ByteBuffer buffer = ByteBuffer.allocate(sketch.getNeededByteBufferCapacity());
+        sketch.encodeIntoByteBuffer(buffer);
+        // relative accuracy is encoded right after the 4 byte cookie
+        buffer.putDouble(4, 1.5);
+        buffer.flip();
+        // when
+        LogBucketSketch.decodeFromByteBuffer(buffer);
+    }
+
+    @Test
+    public void shouldMergeDifferentRelativeAccuracy() {
+        // given
+        LogBucketSketch sketch = new LogBucketSketch(0.01);
+        LogBucketSketch other = new LogBucketSketch(0.02);
+        for (int i = 1; i <= 1000; i++) {
+            sketch.recordValue(i * 1000L);
+            other.recordValue((i + 1000) * 1000L);
+        }
+        // when
+        sketch.merge(other);
+        // then
+        assertThat(sketch.getTotalCount()).isEqualTo(2000);
+        assertThat(sketch.getValueAtPercentile(50)).isBetween(970000L, 1030000L);
+    }
+
+    @Test
+    public void shouldTrackSmallValues() {
+        // given
+        LogBucketSketch sketch = new LogBucketSketch(0.01);
+        // when
+        sketch.recordValue(0);
+        sketch.recordValue(500);
+        sketch.recordValue(Long.MAX_VALUE);
+        // then
+        assertThat(sketch.getValueAtPercentile(0)).isEqualTo(0);
+        assertThat(sketch.getValueAtPercentile(50)).isBetween(495L, 505L);
+        assertThat(sketch.getValueAtPercentile(100)).isGreaterThan(Long.MAX_VALUE / 2);
+    }
+}
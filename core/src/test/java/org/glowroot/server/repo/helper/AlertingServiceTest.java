@@ -19,9 +19,11 @@ import javax.crypto.SecretKey;
 import javax.mail.Message;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Test;
 
+import org.glowroot.collector.spi.model.AggregateOuterClass.Aggregate;
 import org.glowroot.common.model.LazyHistogram;
 import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
 import org.glowroot.live.ImmutablePercentileAggregate;
@@ -38,7 +40,12 @@ import org.glowroot.server.util.Encryption;
 import org.glowroot.server.util.MailService;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AlertingServiceTest {
@@ -75,7 +82,7 @@ public class AlertingServiceTest {
         AlertingService alertingService = new AlertingService(configRepository,
                 triggeredAlertRepository, aggregateRepository, mailService);
         // when
-        alertingService.checkAlerts(120000);
+        alertingService.checkAlerts(120000, ImmutableMap.<String, Aggregate>of());
         // then
         assertThat(mailService.getMessage()).isNotNull();
     }
@@ -87,11 +94,54 @@ public class AlertingServiceTest {
         AlertingService alertingService = new AlertingService(configRepository,
                 triggeredAlertRepository, aggregateRepository, mailService);
         // when
-        alertingService.checkAlerts(120000);
+        alertingService.checkAlerts(120000, ImmutableMap.<String, Aggregate>of());
         // then
         assertThat(mailService.getMessage()).isNull();
     }
 
+    @Test
+    public void shouldSendMailFromSlidingWindow() throws Exception {
+        // given
+        setup(999000);
+        AlertingService alertingService = new AlertingService(configRepository,
+                triggeredAlertRepository, aggregateRepository, mailService);
+        alertingService.checkAlerts(120000, ImmutableMap.<String, Aggregate>of());
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.add(1000000);
+        Aggregate aggregate = Aggregate.newBuilder()
+                .setTransactionCount(1)
+                .setTotalNanosHistogram(lazyHistogram.toProtobuf(new ScratchBuffer()))
+                .build();
+        // when
+        alertingService.checkAlerts(180000, ImmutableMap.of("tt", aggregate));
+        // then
+        assertThat(mailService.getMessage()).isNotNull();
+        verify(aggregateRepository, times(1)).readOverallPercentileAggregates(anyString(),
+                anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void shouldEvictFromSlidingWindow() throws Exception {
+        // given
+        setup(1000000);
+        AlertingService alertingService = new AlertingService(configRepository,
+                triggeredAlertRepository, aggregateRepository, mailService);
+        alertingService.checkAlerts(120000, ImmutableMap.<String, Aggregate>of());
+        mailService.clear();
+        when(triggeredAlertRepository.exists(anyString())).thenReturn(true);
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.add(999000);
+        Aggregate aggregate = Aggregate.newBuilder()
+                .setTransactionCount(1)
+                .setTotalNanosHistogram(lazyHistogram.toProtobuf(new ScratchBuffer()))
+                .build();
+        // when
+        alertingService.checkAlerts(180000, ImmutableMap.of("tt", aggregate));
+        // then
+        assertThat(mailService.getMessage()).isNotNull();
+        assertThat(mailService.getMessage().getSubject()).endsWith(" - OK");
+    }
+
     @Test
     public void shouldReturnCorrectPercentileName() {
         assertThat(Utils.getPercentileWithSuffix(0)).isEqualTo("0th");
@@ -164,5 +214,9 @@ public class AlertingServiceTest {
         public Message getMessage() {
             return msg;
         }
+
+        public void clear() {
+            msg = null;
+        }
     }
 }
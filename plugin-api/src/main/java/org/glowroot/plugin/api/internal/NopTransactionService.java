@@ -19,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
+import org.glowroot.plugin.api.transaction.AuxThreadContext;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
 import org.glowroot.plugin.api.transaction.QueryEntry;
 import org.glowroot.plugin.api.transaction.Timer;
@@ -58,6 +60,29 @@ public class NopTransactionService implements TransactionService {
         return NopQueryEntry.INSTANCE;
     }
 
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            @Nullable QueryEntry priorQueryEntry, MessageSupplier messageSupplier,
+            TimerName timerName) {
+        return NopQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public Timer startQueryTimer(String queryType, String queryText, TimerName timerName) {
+        return NopTimer.INSTANCE;
+    }
+
+    @Override
+    public @Nullable AuxThreadContext createAuxThreadContext() {
+        return null;
+    }
+
     @Override
     public Timer startTimer(TimerName timerName) {
         return NopTimer.INSTANCE;
@@ -122,6 +147,10 @@ public class NopTransactionService implements TransactionService {
         @Override
         public void endWithError(@Nullable String message, Throwable t) {}
 
+        @Override
+        public void endWithDeferredError(MessageSupplier errorMessageSupplier,
+                @Nullable Throwable t) {}
+
         @Override
         public Timer extend() {
             return NopTimer.INSTANCE;
@@ -146,12 +175,30 @@ public class NopTransactionService implements TransactionService {
         public void setCurrRow(long row) {}
     }
 
+    public static class NopAsyncQueryEntry extends NopQueryEntry implements AsyncQueryEntry {
+
+        public static final NopAsyncQueryEntry INSTANCE = new NopAsyncQueryEntry();
+
+        private NopAsyncQueryEntry() {}
+
+        @Override
+        public void stopSyncTimer() {}
+
+        @Override
+        public Timer extendSyncTimer() {
+            return NopTimer.INSTANCE;
+        }
+    }
+
     public static class NopTimer implements Timer {
 
         public static final NopTimer INSTANCE = new NopTimer();
 
         @Override
         public void stop() {}
+
+        @Override
+        public void stopSampled(int executions) {}
     }
 
     private static class NopTimerName implements TimerName {
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.api.transaction;
+
+/**
+ * A {@link QueryEntry} for a query that is executed asynchronously.
+ * 
+ * The entry (and the query aggregation) measures the query from when it is started until
+ * {@link #end()} (or one of the {@code endWith...()} methods) is called, which can be called from
+ * any thread, e.g. from a completion callback, and which can be called more than once, in which
+ * case only the first call has any effect.
+ * 
+ * The time spent by the transaction thread (e.g. submitting the query and later waiting on its
+ * result) is measured separately by the "sync" timer, which is started along with the entry, and
+ * which must be stopped by the transaction thread using {@link #stopSyncTimer()}.
+ */
+public interface AsyncQueryEntry extends QueryEntry {
+
+    /**
+     * Stops the timer that was started along with the entry. This must be called by the
+     * transaction thread.
+     */
+    void stopSyncTimer();
+
+    /**
+     * Restarts the timer that was started along with the entry, e.g. while the transaction thread
+     * is waiting on the query result. This must be called by the transaction thread.
+     */
+    Timer extendSyncTimer();
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.api.transaction;
+
+/**
+ * Captures the current transaction so that work that is performed on its behalf by another thread
+ * (e.g. a {@link Runnable} submitted to an executor) can be attributed to it.
+ * 
+ * The timers and query aggregations captured by the other thread are collected separately (so they
+ * do not contend with the transaction thread), and are merged into the transaction's aggregates
+ * under a separate "auxiliary thread" root timer. Trace entries are not captured by the other
+ * thread.
+ */
+public interface AuxThreadContext {
+
+    /**
+     * Binds the captured transaction to the current thread. The returned {@link Timer} must be
+     * stopped by the current thread when the work is done, which also unbinds the transaction from
+     * the current thread.
+     * 
+     * If the current thread is already bound to a transaction (e.g. the work is being performed by
+     * the transaction thread itself), or if the captured transaction has already completed, this
+     * method does nothing, and returns a no-op instance of {@link Timer}.
+     */
+    Timer start();
+}
@@ -25,4 +25,17 @@ public interface Timer {
      * Stop the {@code Timer}.
      */
     void stop();
+
+    /**
+     * Stop the {@code Timer}, extrapolating the measured duration to {@code executions} executions.
+     * 
+     * This is for operations that are too frequent and too short to time every execution (e.g.
+     * {@code ResultSet.next()}), so that only some of the executions are timed. Each timed
+     * execution is stopped with the number of executions that it represents, which is the timed
+     * execution itself plus the executions that were not timed since the prior timed execution.
+     * 
+     * @param executions
+     *            the number of executions that the measured duration represents, at least 1
+     */
+    void stopSampled(int executions);
 }
@@ -89,6 +89,19 @@ public interface TraceEntry {
      */
     void endWithError(@Nullable String message, Throwable t);
 
+    /**
+     * Same as {@link #endWithError(String, Throwable)}, except that the error message text is
+     * supplied by {@code errorMessageSupplier} (the text of its {@link Message}), and {@code t}
+     * can be null.
+     * 
+     * The error message text (and the throwable's stack trace) is only built if/when it is needed,
+     * e.g. when the trace is stored, so this is useful when building the error message text is not
+     * cheap (e.g. formatting a log message) and most traces are not stored.
+     * 
+     * The {@code errorMessageSupplier} needs to be thread safe, see {@link MessageSupplier}.
+     */
+    void endWithDeferredError(MessageSupplier errorMessageSupplier, @Nullable Throwable t);
+
     /**
      * Example of query and subsequent iterating over results which goes back to database and pulls
      * more results.
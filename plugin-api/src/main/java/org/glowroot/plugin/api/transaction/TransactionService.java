@@ -94,6 +94,47 @@ public interface TransactionService {
     QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
             MessageSupplier messageSupplier, TimerName timerName);
 
+    /**
+     * Same as {@link #startQueryEntry(String, String, long, MessageSupplier, TimerName)}, except
+     * that {@code priorQueryEntry} (e.g. the query entry from the prior execution of the same
+     * prepared statement) is used to skip looking up the query aggregation by its query text, when
+     * it was started in the current transaction with the same query type and the same query text
+     * instance.
+     */
+    QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            @Nullable QueryEntry priorQueryEntry, MessageSupplier messageSupplier,
+            TimerName timerName);
+
+    /**
+     * {@link AsyncQueryEntry} is a specialized type of {@link QueryEntry} for queries that are
+     * executed asynchronously, and which can be ended from a different thread, e.g. from a
+     * completion callback.
+     */
+    AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName);
+
+    /**
+     * Same as {@link #startQueryEntry(String, String, MessageSupplier, TimerName)}, except that no
+     * trace entry is captured, only the timer and the query aggregation (execution count and total
+     * time). This is intended for high frequency operations where capturing a trace entry for each
+     * execution would be too costly, and it is not subject to the trace entry limit.
+     * 
+     * If there is no current transaction, this method does nothing, and returns a no-op instance of
+     * {@link Timer}.
+     */
+    Timer startQueryTimer(String queryType, String queryText, TimerName timerName);
+
+    /**
+     * Captures the current transaction so that work performed on its behalf by another thread can
+     * be attributed to it, see {@link AuxThreadContext}.
+     * 
+     * If there is no current transaction (and the current thread is not itself performing work
+     * on behalf of one), this method returns {@code null}, so that callers do not need to retain a
+     * context that would do nothing.
+     */
+    @Nullable
+    AuxThreadContext createAuxThreadContext();
+
     /**
      * Starts a timer for the specified timer name. If a timer is already running for the specified
      * timer name, it will keep an internal counter of the number of starts, and it will only end
@@ -15,15 +15,17 @@
  */
 package org.glowroot.plugin.cassandra;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nullable;
 
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.BooleanProperty;
 import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
 import org.glowroot.plugin.api.transaction.QueryEntry;
 import org.glowroot.plugin.api.transaction.Timer;
 import org.glowroot.plugin.api.transaction.TimerName;
-import org.glowroot.plugin.api.transaction.TraceEntry;
 import org.glowroot.plugin.api.transaction.TransactionService;
 import org.glowroot.plugin.api.weaving.BindReceiver;
 import org.glowroot.plugin.api.weaving.BindReturn;
@@ -34,6 +36,7 @@ import org.glowroot.plugin.api.weaving.OnAfter;
 import org.glowroot.plugin.api.weaving.OnBefore;
 import org.glowroot.plugin.api.weaving.OnReturn;
 import org.glowroot.plugin.api.weaving.Pointcut;
+import org.glowroot.plugin.api.weaving.Shim;
 
 public class ResultSetAspect {
 
@@ -71,16 +74,18 @@ public class ResultSetAspect {
     @Mixin("com.datastax.driver.core.ResultSetFuture")
     public static class ResultSetFutureImpl implements ResultSetFuture {
 
-        private @Nullable QueryEntry glowroot$queryEntry;
+        // does not need to be volatile, app/framework must provide visibility of ResultSetFutures
+        // if used across threads and this can piggyback
+        private @Nullable AsyncQueryEntry glowroot$queryEntry;
 
         @Override
         @Nullable
-        public QueryEntry glowroot$getQueryEntry() {
+        public AsyncQueryEntry glowroot$getQueryEntry() {
             return glowroot$queryEntry;
         }
 
         @Override
-        public void glowroot$setQueryEntry(@Nullable QueryEntry queryEntry) {
+        public void glowroot$setQueryEntry(@Nullable AsyncQueryEntry queryEntry) {
             this.glowroot$queryEntry = queryEntry;
         }
 
@@ -107,13 +112,21 @@ public class ResultSetAspect {
     public interface ResultSetFuture {
 
         @Nullable
-        QueryEntry glowroot$getQueryEntry();
+        AsyncQueryEntry glowroot$getQueryEntry();
 
-        void glowroot$setQueryEntry(@Nullable QueryEntry queryEntry);
+        void glowroot$setQueryEntry(@Nullable AsyncQueryEntry queryEntry);
 
         boolean glowroot$hasQueryEntry();
     }
 
+    // ResultSetFuture extends guava's ListenableFuture
+    @Shim("com.datastax.driver.core.ResultSetFuture")
+    public interface ListenableResultSetFuture {
+
+        @Shim("void addListener(java.lang.Runnable, java.util.concurrent.Executor)")
+        void glowrootShimAddListener(Runnable listener, Executor executor);
+    }
+
     @Pointcut(className = "com.datastax.driver.core.ResultSet", methodName = "one",
             methodParameterTypes = {}, timerName = "cql resultset navigate")
     public static class OneAdvice {
@@ -165,16 +178,24 @@ public class ResultSetAspect {
     public static class FutureGetAdvice {
         @OnBefore
         public static @Nullable Timer onBefore(@BindReceiver ResultSetFuture resultSetFuture) {
-            TraceEntry traceEntry = resultSetFuture.glowroot$getQueryEntry();
-            if (traceEntry != null) {
-                return traceEntry.extend();
+            AsyncQueryEntry queryEntry = resultSetFuture.glowroot$getQueryEntry();
+            if (queryEntry != null) {
+                // only the time the transaction thread spends blocked is captured here, the query
+                // time itself is captured by the async query entry
+                return queryEntry.extendSyncTimer();
             }
             return null;
         }
         @OnReturn
         public static void onReturn(@BindReturn @Nullable ResultSet resultSet,
                 @BindReceiver ResultSetFuture resultSetFuture) {
-            QueryEntry queryEntry = resultSetFuture.glowroot$getQueryEntry();
+            AsyncQueryEntry queryEntry = resultSetFuture.glowroot$getQueryEntry();
+            if (queryEntry == null) {
+                return;
+            }
+            // the completion listener may not have run yet even though the result is available,
+            // ending here is harmless if it has already run since only the first end takes effect
+            queryEntry.end();
             if (resultSet != null) {
                 // pass the query entry to the return value so it can be used when iterating over
                 // the result set
@@ -195,11 +216,16 @@ public class ResultSetAspect {
         @OnReturn
         public static void onReturn(@BindReturn @Nullable ResultSet resultSet,
                 @BindReceiver ResultSetFuture resultSetFuture) {
-            QueryEntry lastQueryEntry = resultSetFuture.glowroot$getQueryEntry();
+            AsyncQueryEntry queryEntry = resultSetFuture.glowroot$getQueryEntry();
+            if (queryEntry == null) {
+                return;
+            }
+            // see comment in FutureGetAdvice.onReturn()
+            queryEntry.end();
             if (resultSet != null) {
                 // pass the query entry to the return value so it can be used when iterating over
                 // the result set
-                resultSet.glowroot$setLastQueryEntry(lastQueryEntry);
+                resultSet.glowroot$setLastQueryEntry(queryEntry);
             }
         }
     }
@@ -17,12 +17,14 @@ package org.glowroot.plugin.cassandra;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.ConfigListener;
 import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
 import org.glowroot.plugin.api.transaction.QueryEntry;
 import org.glowroot.plugin.api.transaction.TimerName;
@@ -39,6 +41,7 @@ import org.glowroot.plugin.api.weaving.OnReturn;
 import org.glowroot.plugin.api.weaving.OnThrow;
 import org.glowroot.plugin.api.weaving.Pointcut;
 import org.glowroot.plugin.api.weaving.Shim;
+import org.glowroot.plugin.cassandra.ResultSetAspect.ListenableResultSetFuture;
 import org.glowroot.plugin.cassandra.ResultSetAspect.ResultSet;
 import org.glowroot.plugin.cassandra.ResultSetAspect.ResultSetFuture;
 
@@ -153,24 +156,46 @@ public class SessionAspect {
             return !inAdvice.get() && configService.isEnabled();
         }
         @OnBefore
-        public static @Nullable QueryEntry onBefore(@BindParameter @Nullable Object arg) {
+        public static @Nullable AsyncQueryEntry onBefore(@BindParameter @Nullable Object arg) {
             inAdvice.set(true);
-            return commonBefore(arg, timerName);
+            if (arg == null) {
+                // seems nothing sensible to do here other than ignore
+                return null;
+            }
+            String queryText = getQueryText(arg);
+            if (queryText == null) {
+                return null;
+            }
+            return transactionService.startAsyncQueryEntry(QUERY_TYPE, queryText,
+                    getMessageSupplier(arg, queryText), timerName);
         }
         @OnReturn
         public static void onReturn(@BindReturn @Nullable ResultSetFuture resultSetFuture,
-                @BindTraveler @Nullable QueryEntry queryEntry) {
-            if (queryEntry != null) {
-                if (resultSetFuture != null) {
-                    resultSetFuture.glowroot$setQueryEntry(queryEntry);
-                }
-                queryEntry.endWithStackTrace(stackTraceThresholdMillis, MILLISECONDS);
+                @BindTraveler @Nullable AsyncQueryEntry queryEntry) {
+            if (queryEntry == null) {
+                return;
+            }
+            // the sync timer only covers the time spent in executeAsync() itself, the query entry
+            // is ended when the future completes
+            queryEntry.stopSyncTimer();
+            if (resultSetFuture == null) {
+                queryEntry.end();
+                return;
             }
+            resultSetFuture.glowroot$setQueryEntry(queryEntry);
+            if (resultSetFuture instanceof ListenableResultSetFuture) {
+                // the listener runs on the driver's i/o thread that completes the future (or
+                // immediately if already complete), so no additional threads are needed
+                ((ListenableResultSetFuture) resultSetFuture).glowrootShimAddListener(
+                        new QueryEntryEndingListener(queryEntry), DirectExecutor.INSTANCE);
+            }
+            // otherwise the query entry is ended when the application calls get() on the future
         }
         @OnThrow
         public static void onThrow(@BindThrowable Throwable t,
-                @BindTraveler @Nullable QueryEntry queryEntry) {
+                @BindTraveler @Nullable AsyncQueryEntry queryEntry) {
             if (queryEntry != null) {
+                queryEntry.stopSyncTimer();
                 queryEntry.endWithError(t);
             }
         }
@@ -185,34 +210,68 @@ public class SessionAspect {
             // seems nothing sensible to do here other than ignore
             return null;
         }
-        String queryText;
-        MessageSupplier messageSupplier;
+        String queryText = getQueryText(arg);
+        if (queryText == null) {
+            return null;
+        }
+        return transactionService.startQueryEntry(QUERY_TYPE, queryText,
+                getMessageSupplier(arg, queryText), timerName);
+    }
+
+    private static @Nullable String getQueryText(Object arg) {
         if (arg instanceof String) {
-            queryText = (String) arg;
-            messageSupplier = new QueryMessageSupplier(queryText);
+            return (String) arg;
         } else if (arg instanceof RegularStatement) {
-            queryText = nullToEmpty(((RegularStatement) arg).getQueryString());
-            messageSupplier = new QueryMessageSupplier(queryText);
+            return nullToEmpty(((RegularStatement) arg).getQueryString());
         } else if (arg instanceof BoundStatement) {
             PreparedStatement preparedStatement = ((BoundStatement) arg).preparedStatement();
-            queryText = preparedStatement == null ? ""
+            return preparedStatement == null ? ""
                     : nullToEmpty(preparedStatement.getQueryString());
-            messageSupplier = new QueryMessageSupplier(queryText);
         } else if (arg instanceof BatchStatement) {
+            return "<batch cql>";
+        } else {
+            return null;
+        }
+    }
+
+    private static MessageSupplier getMessageSupplier(Object arg, String queryText) {
+        if (arg instanceof BatchStatement) {
             Collection<Statement> statements = ((BatchStatement) arg).getStatements();
             if (statements == null) {
                 statements = new ArrayList<Statement>();
             }
-            queryText = "<batch cql>";
-            messageSupplier = BatchQueryMessageSupplier.from(statements);
-        } else {
-            return null;
+            return BatchQueryMessageSupplier.from(statements);
         }
-        return transactionService.startQueryEntry(QUERY_TYPE, queryText, messageSupplier,
-                timerName);
+        return new QueryMessageSupplier(queryText);
     }
 
     private static String nullToEmpty(@Nullable String string) {
         return string == null ? "" : string;
     }
+
+    private static class QueryEntryEndingListener implements Runnable {
+
+        private final AsyncQueryEntry queryEntry;
+
+        private QueryEntryEndingListener(AsyncQueryEntry queryEntry) {
+            this.queryEntry = queryEntry;
+        }
+
+        // failures are not captured here since that would require calling get() on the future,
+        // which is not worth the extra exception handling on every completion
+        @Override
+        public void run() {
+            queryEntry.end();
+        }
+    }
+
+    private static class DirectExecutor implements Executor {
+
+        private static final DirectExecutor INSTANCE = new DirectExecutor();
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
 }
@@ -16,11 +16,14 @@
 package org.glowroot.plugin.cassandra;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SimpleStatement;
@@ -124,6 +127,25 @@ public class CassandraAsyncTest {
                 + " INSERT INTO test.users (id,  fname, lname) VALUES (300, 'f300', 'l300')");
     }
 
+    @Test
+    public void shouldAsyncExecuteStatementWithListenerAndWithoutGet() throws Exception {
+        container.executeAppUnderTest(AsyncExecuteStatementWithListenerAndWithoutGet.class);
+        Trace.Header header = container.getTraceService().getLastTrace();
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryText()).isEqualTo("SELECT * FROM test.users");
+        assertThat(query.getExecutionCount()).isEqualTo(1);
+        assertThat(query.getTotalRows()).isEqualTo(0);
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(1);
+        Trace.Entry entry = entries.get(0);
+        assertThat(entry.message()).isEqualTo("cql execution: SELECT * FROM test.users");
+        // the entry is ended by the plugin's listener on the driver thread, even though the
+        // application never calls get() on the future
+        assertThat(entry.active().or(false)).isFalse();
+    }
+
     public static class ExecuteAsyncStatement implements AppUnderTest, TraceMarker {
 
         private Session session;
@@ -216,4 +238,37 @@ public class CassandraAsyncTest {
             session.executeAsync(batchStatement).get();
         }
     }
+
+    public static class AsyncExecuteStatementWithListenerAndWithoutGet
+            implements AppUnderTest, TraceMarker {
+
+        private Session session;
+
+        @Override
+        public void executeApp() throws Exception {
+            session = Sessions.createSession();
+            traceMarker();
+            Sessions.closeSession(session);
+        }
+
+        @Override
+        public void traceMarker() throws Exception {
+            ResultSetFuture future = session.executeAsync("SELECT * FROM test.users");
+            final CountDownLatch latch = new CountDownLatch(1);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+            // wait for completion without calling get(), so that the transaction does not complete
+            // before the query
+            latch.await();
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.executor;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.plugin.api.Agent;
+import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.AuxThreadContext;
+import org.glowroot.plugin.api.transaction.Timer;
+import org.glowroot.plugin.api.transaction.TransactionService;
+import org.glowroot.plugin.api.weaving.BindParameter;
+import org.glowroot.plugin.api.weaving.BindReceiver;
+import org.glowroot.plugin.api.weaving.BindTraveler;
+import org.glowroot.plugin.api.weaving.IsEnabled;
+import org.glowroot.plugin.api.weaving.Mixin;
+import org.glowroot.plugin.api.weaving.OnAfter;
+import org.glowroot.plugin.api.weaving.OnBefore;
+import org.glowroot.plugin.api.weaving.Pointcut;
+
+// the transaction is captured when a task is submitted to an executor, and the task's thread is
+// bound to the transaction while the task runs (see AuxThreadContext)
+//
+// instead of wrapping the submitted task (which would change the object that the executor and the
+// application see, e.g. breaking identity based task tracking and the return type of
+// ScheduledExecutorService.schedule()), the captured context is mixed in to the task itself
+//
+// since the mixin is only applied to classes that are woven, tasks whose classes never pass through
+// weaving are not propagated, most notably lambdas (their classes are spun at runtime without
+// going through the ClassFileTransformer) and JDK-internal tasks that were loaded before weaving
+// started, e.g. the tasks that CompletableFuture.*Async() submits for its async stages
+public class ExecutorAspect {
+
+    private static final TransactionService transactionService = Agent.getTransactionService();
+    private static final ConfigService configService = Agent.getConfigService("executor");
+
+    // the field and method names are verbose to avoid conflict since they will become fields
+    // and methods in all classes that implement java.lang.Runnable or
+    // java.util.concurrent.Callable
+    @Mixin({"java.lang.Runnable", "java.util.concurrent.Callable"})
+    public static class RunnableCallableImpl implements RunnableCallable {
+
+        // does not need to be volatile, executors must provide visibility of tasks that are handed
+        // off to another thread and this can piggyback
+        private @Nullable AuxThreadContext glowroot$auxThreadContext;
+
+        @Override
+        @Nullable
+        public AuxThreadContext glowroot$getAuxThreadContext() {
+            return glowroot$auxThreadContext;
+        }
+
+        @Override
+        public void glowroot$setAuxThreadContext(@Nullable AuxThreadContext auxThreadContext) {
+            this.glowroot$auxThreadContext = auxThreadContext;
+        }
+    }
+
+    // the method names are verbose to avoid conflict since they will become methods in all classes
+    // that implement java.lang.Runnable or java.util.concurrent.Callable
+    public interface RunnableCallable {
+
+        @Nullable
+        AuxThreadContext glowroot$getAuxThreadContext();
+
+        void glowroot$setAuxThreadContext(@Nullable AuxThreadContext auxThreadContext);
+    }
+
+    @Pointcut(className = "java.util.concurrent.Executor", methodName = "execute",
+            methodParameterTypes = {"java.lang.Runnable"})
+    public static class ExecuteAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return configService.isEnabled();
+        }
+        @OnBefore
+        public static void onBefore(@BindParameter @Nullable Object runnable) {
+            captureAuxThreadContext(runnable);
+        }
+    }
+
+    @Pointcut(className = "java.util.concurrent.ExecutorService", methodName = "submit|schedule",
+            methodParameterTypes = {"java.lang.Runnable", ".."})
+    public static class SubmitRunnableAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return configService.isEnabled();
+        }
+        @OnBefore
+        public static void onBefore(@BindParameter @Nullable Object runnable) {
+            captureAuxThreadContext(runnable);
+        }
+    }
+
+    @Pointcut(className = "java.util.concurrent.ExecutorService", methodName = "submit|schedule",
+            methodParameterTypes = {"java.util.concurrent.Callable", ".."})
+    public static class SubmitCallableAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return configService.isEnabled();
+        }
+        @OnBefore
+        public static void onBefore(@BindParameter @Nullable Object callable) {
+            captureAuxThreadContext(callable);
+        }
+    }
+
+    @Pointcut(className = "java.lang.Runnable", methodName = "run", methodParameterTypes = {})
+    public static class RunAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object runnable) {
+            return hasAuxThreadContext(runnable);
+        }
+        @OnBefore
+        public static @Nullable Timer onBefore(@BindReceiver Object runnable) {
+            return startAuxThreadContext((RunnableCallable) runnable);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    @Pointcut(className = "java.util.concurrent.Callable", methodName = "call",
+            methodParameterTypes = {})
+    public static class CallAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object callable) {
+            return hasAuxThreadContext(callable);
+        }
+        @OnBefore
+        public static @Nullable Timer onBefore(@BindReceiver Object callable) {
+            return startAuxThreadContext((RunnableCallable) callable);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    private static void captureAuxThreadContext(@Nullable Object task) {
+        // the task may not have the mixin, e.g. if its class was loaded before weaving started
+        if (!(task instanceof RunnableCallable)) {
+            return;
+        }
+        // this also captures the transaction when the task is submitted by a task that is itself
+        // running on behalf of a transaction
+        AuxThreadContext auxThreadContext = transactionService.createAuxThreadContext();
+        // the field is only set when there is a transaction to propagate, so that tasks submitted
+        // outside of a transaction do not pay for the run/call advice
+        if (auxThreadContext != null) {
+            ((RunnableCallable) task).glowroot$setAuxThreadContext(auxThreadContext);
+        }
+    }
+
+    private static boolean hasAuxThreadContext(Object task) {
+        // the task may not have the mixin even though its run()/call() method is woven, e.g.
+        // subclasses of java.lang.Thread, since the mixin is added to the top-most class that
+        // implements the interface (java.lang.Thread in this case), which is loaded before
+        // weaving starts
+        return task instanceof RunnableCallable
+                && ((RunnableCallable) task).glowroot$getAuxThreadContext() != null;
+    }
+
+    private static @Nullable Timer startAuxThreadContext(RunnableCallable task) {
+        AuxThreadContext auxThreadContext = task.glowroot$getAuxThreadContext();
+        if (auxThreadContext == null) {
+            return null;
+        }
+        // the context is only used once, so that re-running the task (e.g. a periodic task) is not
+        // attributed to the transaction, and so that the task does not retain the transaction
+        task.glowroot$setAuxThreadContext(null);
+        return auxThreadContext.start();
+    }
+}
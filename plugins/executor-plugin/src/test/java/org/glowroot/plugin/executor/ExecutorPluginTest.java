@@ -0,0 +1,280 @@
+/**
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.executor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.Containers;
+import org.glowroot.container.AppUnderTest;
+import org.glowroot.container.Container;
+import org.glowroot.container.TraceMarker;
+import org.glowroot.container.aggregate.Query;
+import org.glowroot.container.trace.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExecutorPluginTest {
+
+    private static final String QUERY = "select count(*) from information_schema.system_users";
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // javaagent container is used since the local container cannot weave java.util.concurrent
+        // executors (which are loaded by the bootstrap class loader)
+        container = Containers.getSharedJavaagentContainer();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        container.close();
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureExecuteRunnable() throws Exception {
+        // when
+        container.executeAppUnderTest(DoExecuteRunnable.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        assertThat(header.transactionName()).isEqualTo("trace marker / DoExecuteRunnable");
+        // trace entries are not captured by auxiliary threads
+        assertThat(header.entryCount()).isZero();
+        assertQueryExecutionCount(1);
+    }
+
+    @Test
+    public void shouldCaptureSubmitCallable() throws Exception {
+        // when
+        container.executeAppUnderTest(DoSubmitCallable.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        assertThat(header.transactionName()).isEqualTo("trace marker / DoSubmitCallable");
+        // trace entries are not captured by auxiliary threads
+        assertThat(header.entryCount()).isZero();
+        assertQueryExecutionCount(1);
+    }
+
+    @Test
+    public void shouldCaptureNestedSubmit() throws Exception {
+        // when
+        container.executeAppUnderTest(DoNestedSubmit.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        assertThat(header.transactionName()).isEqualTo("trace marker / DoNestedSubmit");
+        assertQueryExecutionCount(2);
+    }
+
+    @Test
+    public void shouldCaptureCallerRunsPolicy() throws Exception {
+        // when
+        container.executeAppUnderTest(DoCallerRunsPolicy.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        assertThat(header.transactionName()).isEqualTo("trace marker / DoCallerRunsPolicy");
+        // the task that is run by the transaction thread captures its query entry as usual
+        assertThat(header.entryCount()).isEqualTo(1);
+        assertQueryExecutionCount(2);
+    }
+
+    private static void assertQueryExecutionCount(int executionCount) throws Exception {
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryText()).isEqualTo(QUERY);
+        assertThat(query.getExecutionCount()).isEqualTo(executionCount);
+    }
+
+    private static Connection createConnection() throws SQLException {
+        return JDBCDriver.getConnection("jdbc:hsqldb:mem:test", null);
+    }
+
+    private static void executeQuery(Connection connection) {
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(QUERY);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class DoExecuteRunnable implements AppUnderTest, TraceMarker {
+        private ExecutorService executor;
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            executor = Executors.newSingleThreadExecutor();
+            connection = createConnection();
+            try {
+                traceMarker();
+            } finally {
+                connection.close();
+                executor.shutdown();
+                executor.awaitTermination(10, SECONDS);
+            }
+        }
+        @Override
+        public void traceMarker() throws Exception {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executeQuery(connection);
+                }
+            });
+            // wait for the task to complete
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {}
+            }).get();
+        }
+    }
+
+    public static class DoSubmitCallable implements AppUnderTest, TraceMarker {
+        private ExecutorService executor;
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            executor = Executors.newSingleThreadExecutor();
+            connection = createConnection();
+            try {
+                traceMarker();
+            } finally {
+                connection.close();
+                executor.shutdown();
+                executor.awaitTermination(10, SECONDS);
+            }
+        }
+        @Override
+        public void traceMarker() throws Exception {
+            Future<Void> future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    executeQuery(connection);
+                    return null;
+                }
+            });
+            future.get();
+        }
+    }
+
+    public static class DoNestedSubmit implements AppUnderTest, TraceMarker {
+        private ExecutorService outerExecutor;
+        private ExecutorService innerExecutor;
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            outerExecutor = Executors.newSingleThreadExecutor();
+            innerExecutor = Executors.newSingleThreadExecutor();
+            connection = createConnection();
+            try {
+                traceMarker();
+            } finally {
+                connection.close();
+                outerExecutor.shutdown();
+                innerExecutor.shutdown();
+                outerExecutor.awaitTermination(10, SECONDS);
+                innerExecutor.awaitTermination(10, SECONDS);
+            }
+        }
+        @Override
+        public void traceMarker() throws Exception {
+            Future<Void> future = outerExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    executeQuery(connection);
+                    // the inner task is submitted by an auxiliary thread of the transaction
+                    innerExecutor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            executeQuery(connection);
+                            return null;
+                        }
+                    }).get();
+                    return null;
+                }
+            });
+            future.get();
+        }
+    }
+
+    public static class DoCallerRunsPolicy implements AppUnderTest, TraceMarker {
+        private ThreadPoolExecutor executor;
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            // there is no queue, so while the single thread is busy, tasks are rejected and run
+            // by the submitting thread
+            executor = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+            connection = createConnection();
+            try {
+                traceMarker();
+            } finally {
+                connection.close();
+                executor.shutdown();
+                executor.awaitTermination(10, SECONDS);
+            }
+        }
+        @Override
+        public void traceMarker() throws Exception {
+            final CountDownLatch latch = new CountDownLatch(1);
+            Future<Void> future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    latch.await();
+                    executeQuery(connection);
+                    return null;
+                }
+            });
+            // the only thread is busy, so this is run by the transaction thread
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executeQuery(connection);
+                    latch.countDown();
+                }
+            });
+            future.get();
+        }
+    }
+}
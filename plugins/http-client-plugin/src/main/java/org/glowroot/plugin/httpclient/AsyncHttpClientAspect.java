@@ -16,16 +16,17 @@
 package org.glowroot.plugin.httpclient;
 
 import java.net.URI;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nullable;
 
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.AsyncQueryEntry;
 import org.glowroot.plugin.api.transaction.Message;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
 import org.glowroot.plugin.api.transaction.Timer;
 import org.glowroot.plugin.api.transaction.TimerName;
-import org.glowroot.plugin.api.transaction.TraceEntry;
 import org.glowroot.plugin.api.transaction.TransactionService;
 import org.glowroot.plugin.api.weaving.BindClassMeta;
 import org.glowroot.plugin.api.weaving.BindParameter;
@@ -40,9 +41,18 @@ import org.glowroot.plugin.api.weaving.OnBefore;
 import org.glowroot.plugin.api.weaving.OnReturn;
 import org.glowroot.plugin.api.weaving.OnThrow;
 import org.glowroot.plugin.api.weaving.Pointcut;
-
+import org.glowroot.plugin.api.weaving.Shim;
+
+// requests are captured as async query entries that are ended when the response future completes,
+// so that the entry captures the request latency regardless of whether (and when) the application
+// calls get() on the future, e.g. when using callbacks
+//
+// the query text is the scheme, host and port of the request, so that outbound request count and
+// latency are aggregated per host
 public class AsyncHttpClientAspect {
 
+    private static final String QUERY_TYPE = "HTTP";
+
     private static final TransactionService transactionService = Agent.getTransactionService();
     private static final ConfigService configService = Agent.getConfigService("http-client");
 
@@ -51,17 +61,18 @@ public class AsyncHttpClientAspect {
     @Mixin("com.ning.http.client.ListenableFuture")
     public static class ListenableFutureImpl implements ListenableFuture {
 
-        // only accessed by transaction thread
-        private @Nullable TraceEntry glowroot$traceEntry;
+        // does not need to be volatile, app/framework must provide visibility of ListenableFutures
+        // if used across threads and this can piggyback
+        private @Nullable AsyncQueryEntry glowroot$queryEntry;
 
         @Override
-        public @Nullable TraceEntry glowroot$getTraceEntry() {
-            return glowroot$traceEntry;
+        public @Nullable AsyncQueryEntry glowroot$getQueryEntry() {
+            return glowroot$queryEntry;
         }
 
         @Override
-        public void glowroot$setTraceEntry(@Nullable TraceEntry traceEntry) {
-            this.glowroot$traceEntry = traceEntry;
+        public void glowroot$setQueryEntry(@Nullable AsyncQueryEntry queryEntry) {
+            this.glowroot$queryEntry = queryEntry;
         }
     }
 
@@ -70,9 +81,17 @@ public class AsyncHttpClientAspect {
     public interface ListenableFuture {
 
         @Nullable
-        TraceEntry glowroot$getTraceEntry();
+        AsyncQueryEntry glowroot$getQueryEntry();
 
-        void glowroot$setTraceEntry(@Nullable TraceEntry traceEntry);
+        void glowroot$setQueryEntry(@Nullable AsyncQueryEntry queryEntry);
+    }
+
+    @Shim("com.ning.http.client.ListenableFuture")
+    public interface ListenableFutureShim {
+
+        @Shim("com.ning.http.client.ListenableFuture addListener(java.lang.Runnable,"
+                + " java.util.concurrent.Executor)")
+        void glowrootShimAddListener(Runnable listener, Executor executor);
     }
 
     @Pointcut(className = "com.ning.http.client.AsyncHttpClient", methodName = "executeRequest",
@@ -83,28 +102,44 @@ public class AsyncHttpClientAspect {
                 transactionService.getTimerName(ExecuteRequestAdvice.class);
         @IsEnabled
         public static boolean isEnabled() {
-            return configService.isEnabled();
+            // outside of a transaction there is nothing to capture, and this avoids registering a
+            // completion listener on every request
+            return configService.isEnabled() && transactionService.isInTransaction();
         }
         @OnBefore
-        public static TraceEntry onBefore(@BindParameter Object request,
+        public static AsyncQueryEntry onBefore(@BindParameter Object request,
                 @BindClassMeta RequestInvoker requestInvoker) {
             // need to start trace entry @OnBefore in case it is executed in a "same thread
             // executor" in which case will be over in @OnReturn
             String method = requestInvoker.getMethod(request);
             URI originalURI = requestInvoker.getOriginalURI(request);
-            return transactionService
-                    .startTraceEntry(new RequestMessageSupplier(method, originalURI), timerName);
+            return transactionService.startAsyncQueryEntry(QUERY_TYPE, getHost(originalURI),
+                    new RequestMessageSupplier(method, originalURI), timerName);
         }
         @OnReturn
-        public static void onReturn(@BindReturn ListenableFuture future,
-                @BindTraveler TraceEntry traceEntry) {
-            traceEntry.end();
-            future.glowroot$setTraceEntry(traceEntry);
+        public static void onReturn(@BindReturn @Nullable ListenableFuture future,
+                @BindTraveler AsyncQueryEntry queryEntry) {
+            // the sync timer only covers the time spent in executeRequest() itself, the entry is
+            // ended when the future completes
+            queryEntry.stopSyncTimer();
+            if (future == null) {
+                queryEntry.end();
+                return;
+            }
+            future.glowroot$setQueryEntry(queryEntry);
+            if (future instanceof ListenableFutureShim) {
+                // the listener runs on the i/o thread that completes the future (or immediately if
+                // already complete), so no additional threads are needed
+                ((ListenableFutureShim) future).glowrootShimAddListener(
+                        new QueryEntryEndingListener(queryEntry), DirectExecutor.INSTANCE);
+            }
+            // otherwise the entry is ended when the application calls get() on the future
         }
         @OnThrow
         public static void onThrow(@BindThrowable Throwable throwable,
-                @BindTraveler TraceEntry traceEntry) {
-            traceEntry.endWithError(throwable);
+                @BindTraveler AsyncQueryEntry queryEntry) {
+            queryEntry.stopSyncTimer();
+            queryEntry.endWithError(throwable);
         }
     }
 
@@ -113,16 +148,25 @@ public class AsyncHttpClientAspect {
             methodParameterTypes = {".."})
     public static class FutureGetAdvice {
         @OnBefore
-        public static Timer onBefore(@BindReceiver ListenableFuture future) {
-            TraceEntry traceEntry = future.glowroot$getTraceEntry();
-            if (traceEntry != null) {
-                return traceEntry.extend();
+        public static @Nullable Timer onBefore(@BindReceiver ListenableFuture future) {
+            AsyncQueryEntry queryEntry = future.glowroot$getQueryEntry();
+            if (queryEntry != null) {
+                // only the time the transaction thread spends blocked is captured here, the request
+                // latency itself is captured by the async query entry
+                return queryEntry.extendSyncTimer();
             }
             return null;
         }
         @OnReturn
         public static void onReturn(@BindReceiver ListenableFuture future) {
-            future.glowroot$setTraceEntry(null);
+            AsyncQueryEntry queryEntry = future.glowroot$getQueryEntry();
+            if (queryEntry != null) {
+                // the completion listener may not have run yet even though the response is
+                // available, ending here is harmless if it has already run since only the first
+                // end takes effect
+                queryEntry.end();
+                future.glowroot$setQueryEntry(null);
+            }
         }
         @OnAfter
         public static void onAfter(@BindTraveler @Nullable Timer timer) {
@@ -132,6 +176,28 @@ public class AsyncHttpClientAspect {
         }
     }
 
+    private static String getHost(@Nullable URI uri) {
+        if (uri == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        String scheme = uri.getScheme();
+        if (scheme != null) {
+            sb.append(scheme);
+            sb.append("://");
+        }
+        String host = uri.getHost();
+        if (host != null) {
+            sb.append(host);
+        }
+        int port = uri.getPort();
+        if (port != -1) {
+            sb.append(':');
+            sb.append(port);
+        }
+        return sb.toString();
+    }
+
     private static class RequestMessageSupplier extends MessageSupplier {
 
         private final String method;
@@ -148,4 +214,30 @@ public class AsyncHttpClientAspect {
             return Message.from("http client request: {} {}", method, uri);
         }
     }
+
+    private static class QueryEntryEndingListener implements Runnable {
+
+        private final AsyncQueryEntry queryEntry;
+
+        private QueryEntryEndingListener(AsyncQueryEntry queryEntry) {
+            this.queryEntry = queryEntry;
+        }
+
+        // failures are not captured here since that would require calling get() on the future,
+        // which is not worth the extra exception handling on every completion
+        @Override
+        public void run() {
+            queryEntry.end();
+        }
+    }
+
+    private static class DirectExecutor implements Executor {
+
+        private static final DirectExecutor INSTANCE = new DirectExecutor();
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
 }
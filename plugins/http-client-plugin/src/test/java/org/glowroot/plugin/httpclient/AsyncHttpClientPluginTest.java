@@ -16,8 +16,13 @@
 package org.glowroot.plugin.httpclient;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
+import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.Response;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -28,6 +33,7 @@ import org.glowroot.container.trace.Trace;
 import org.glowroot.container.AppUnderTest;
 import org.glowroot.container.Container;
 import org.glowroot.container.TraceMarker;
+import org.glowroot.container.aggregate.Query;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -58,6 +64,12 @@ public class AsyncHttpClientPluginTest {
         assertThat(entries).hasSize(1);
         assertThat(entries.get(0).message())
                 .isEqualTo("http client request: GET http://www.example.com/hello1");
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryType()).isEqualTo("HTTP");
+        assertThat(query.getQueryText()).isEqualTo("http://www.example.com");
+        assertThat(query.getExecutionCount()).isEqualTo(1);
     }
 
     @Test
@@ -70,6 +82,26 @@ public class AsyncHttpClientPluginTest {
                 .isEqualTo("http client request: POST http://www.example.com/hello2");
     }
 
+    @Test
+    public void shouldCaptureHttpGetWithCompletionHandlerAndWithoutGet() throws Exception {
+        container.executeAppUnderTest(ExecuteHttpGetWithCompletionHandler.class);
+        Trace.Header header = container.getTraceService().getLastTrace();
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(1);
+        Trace.Entry entry = entries.get(0);
+        assertThat(entry.message())
+                .isEqualTo("http client request: GET http://www.example.com/hello3");
+        // the entry is ended by the plugin's completion listener, even though the application
+        // never calls get() on the future
+        assertThat(entry.active().or(false)).isFalse();
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryType()).isEqualTo("HTTP");
+        assertThat(query.getQueryText()).isEqualTo("http://www.example.com");
+        assertThat(query.getExecutionCount()).isEqualTo(1);
+    }
+
     public static class ExecuteHttpGet implements AppUnderTest, TraceMarker {
         @Override
         public void executeApp() throws Exception {
@@ -95,4 +127,39 @@ public class AsyncHttpClientPluginTest {
             asyncHttpClient.close();
         }
     }
+
+    public static class ExecuteHttpGetWithCompletionHandler implements AppUnderTest, TraceMarker {
+        @Override
+        public void executeApp() throws Exception {
+            traceMarker();
+        }
+        @Override
+        public void traceMarker() throws Exception {
+            AsyncHttpClient asyncHttpClient = new AsyncHttpClient();
+            ListenableFuture<Response> future = asyncHttpClient
+                    .prepareGet("http://www.example.com/hello3")
+                    .execute(new AsyncCompletionHandler<Response>() {
+                        @Override
+                        public Response onCompleted(Response response) {
+                            return response;
+                        }
+                    });
+            // listeners run in the order they are added, so the plugin's listener has already
+            // ended the entry by the time this one runs
+            final CountDownLatch latch = new CountDownLatch(1);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+            latch.await();
+            asyncHttpClient.close();
+        }
+    }
 }
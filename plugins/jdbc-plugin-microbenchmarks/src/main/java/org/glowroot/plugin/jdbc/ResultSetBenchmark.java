@@ -42,6 +42,11 @@ import org.glowroot.plugin.api.transaction.TransactionService;
 import org.glowroot.plugin.api.weaving.Pointcut;
 import org.glowroot.plugin.jdbc.support.MockConnection;
 
+// measures the per-row overhead of the result set instrumentation
+//
+// run once with the jdbc plugin's resultSetTimingSampleInterval property empty (every execution is
+// timed exactly) and once with it set (e.g. to 100), and compare, "nextAndGet" also requires the
+// captureResultSetGet property to be enabled
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 @State(Scope.Thread)
@@ -99,6 +104,20 @@ public class ResultSetBenchmark {
         traceEntry.end();
     }
 
+    @Benchmark
+    @OperationsPerInvocation(10000)
+    public void nextAndGet() throws Exception {
+        TraceEntry traceEntry = transactionService.startTransaction("Microbenchmark",
+                "micro transaction", MessageSupplier.from("micro transaction"), timerName);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        for (int i = 0; i < 10000; i++) {
+            resultSet.next();
+            resultSet.getString(1);
+        }
+        resultSet.close();
+        traceEntry.end();
+    }
+
     public enum Database {
         HSQLDB, MOCK
     }
@@ -30,6 +30,12 @@ public class JdbcPluginProperties {
     // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
     private static int stackTraceThresholdMillis;
 
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int bindParameterBatchLimit;
+
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static int resultSetTimingSampleInterval;
+
     private static volatile ImmutableMultimap<String, Integer> displayBinaryParameterAsHex =
             ImmutableMultimap.of();
 
@@ -39,6 +45,14 @@ public class JdbcPluginProperties {
             public void onChange() {
                 Double value = configService.getDoubleProperty("stackTraceThresholdMillis").value();
                 stackTraceThresholdMillis = value == null ? Integer.MAX_VALUE : value.intValue();
+                Double limit = configService.getDoubleProperty("bindParameterBatchLimit").value();
+                // negative values are treated the same as zero (no bind parameters are captured
+                // for batches) instead of failing inside the advice
+                bindParameterBatchLimit =
+                        limit == null ? Integer.MAX_VALUE : Math.max(limit.intValue(), 0);
+                Double interval =
+                        configService.getDoubleProperty("resultSetTimingSampleInterval").value();
+                resultSetTimingSampleInterval = interval == null ? 1 : interval.intValue();
             }
         });
     }
@@ -60,6 +74,15 @@ public class JdbcPluginProperties {
         return stackTraceThresholdMillis;
     }
 
+    static int bindParameterBatchLimit() {
+        return bindParameterBatchLimit;
+    }
+
+    // 1 (or less) means every ResultSet execution is timed
+    static int resultSetTimingSampleInterval() {
+        return resultSetTimingSampleInterval;
+    }
+
     static boolean displayBinaryParameterAsHex(String sql, int parameterIndex) {
         return displayBinaryParameterAsHex.containsEntry(sql, parameterIndex);
     }
@@ -15,14 +15,12 @@
  */
 package org.glowroot.plugin.jdbc;
 
-import java.util.Collection;
-
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Queues;
 import com.google.common.hash.HashCode;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 
+import org.glowroot.plugin.jdbc.message.BatchedBindParameters;
 import org.glowroot.plugin.jdbc.message.BindParameterList;
 
 // used to capture and mirror the state of prepared statements since the underlying
@@ -32,35 +30,44 @@ class PreparedStatementMirror extends StatementMirror {
     private static final int PARAMETERS_INITIAL_CAPACITY = 20;
 
     private final String sql;
+    // normalized sql is computed lazily and then retained for the life of the prepared statement
+    // so that repeated executions do not re-normalize (or re-hash) the sql
+    private @Nullable String normalizedSql;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private BindParameterList parameters;
+    //
+    // this is created lazily on the first captured bind parameter, so it is never created when
+    // bind parameter capture is disabled
+    private @Nullable BindParameterList parameters;
     private boolean parametersCopied;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private @Nullable Collection<BindParameterList> batchedParameters;
+    private @Nullable BatchedBindParameters batchedParameters;
+    private int batchSize;
 
     public PreparedStatementMirror(String sql) {
         this.sql = sql;
-        // TODO delay creation to optimize case when bind parameter capture is disabled
-        parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
     public void addBatch() {
         // synchronization isn't an issue here as this method is called only by the monitored thread
+        batchSize++;
+        if (parameters == null) {
+            // bind parameter capture is disabled (or the statement has no bind parameters)
+            return;
+        }
         if (batchedParameters == null) {
-            batchedParameters = Queues.newConcurrentLinkedQueue();
+            // this is still created when the limit is 0, so that the message can indicate that
+            // bind parameters were dropped
+            batchedParameters = new BatchedBindParameters(
+                    JdbcPluginProperties.bindParameterBatchLimit(), parameters.size());
         }
+        // the parameter values are copied, so the parameters list can keep being updated in place
         batchedParameters.add(parameters);
-        parametersCopied = true;
     }
 
-    public Collection<BindParameterList> getBatchedParameters() {
-        if (batchedParameters == null) {
-            return ImmutableList.of();
-        } else {
-            return batchedParameters;
-        }
+    public @Nullable BatchedBindParameters getBatchedParameters() {
+        return batchedParameters;
     }
 
     public @Nullable BindParameterList getParametersCopy() {
@@ -72,25 +79,41 @@ class PreparedStatementMirror extends StatementMirror {
         return sql;
     }
 
+    String getQueryText(boolean normalize) {
+        if (!normalize) {
+            return sql;
+        }
+        if (normalizedSql == null) {
+            normalizedSql = SqlNormalizer.normalize(sql);
+        }
+        return normalizedSql;
+    }
+
     int getBatchSize() {
-        return batchedParameters == null ? 0 : batchedParameters.size();
+        return batchSize;
     }
 
     // remember parameterIndex starts at 1 not 0
     public void setParameterValue(int parameterIndex, @Nullable Object object) {
-        if (parametersCopied) {
+        if (parameters == null) {
+            parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
+        } else if (parametersCopied) {
             // separate method for less common path to not impact inlining budget of fast(er) path
             copyParameters();
         }
         parameters.set(parameterIndex - 1, object);
     }
 
+    @RequiresNonNull("parameters")
     private void copyParameters() {
         parameters = BindParameterList.copyOf(parameters);
         parametersCopied = false;
     }
 
     public void clearParameters() {
+        if (parameters == null) {
+            return;
+        }
         if (parametersCopied) {
             parameters = new BindParameterList(parameters.size());
             parametersCopied = false;
@@ -101,13 +124,9 @@ class PreparedStatementMirror extends StatementMirror {
 
     @Override
     public void clearBatch() {
-        if (parametersCopied) {
-            parameters = new BindParameterList(parameters.size());
-            parametersCopied = false;
-        } else {
-            parameters.clear();
-        }
+        clearParameters();
         batchedParameters = null;
+        batchSize = 0;
     }
 
     static class ByteArrayParameterValue {
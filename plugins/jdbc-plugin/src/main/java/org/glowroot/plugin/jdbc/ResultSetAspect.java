@@ -35,6 +35,7 @@ import org.glowroot.plugin.api.weaving.IsEnabled;
 import org.glowroot.plugin.api.weaving.OnAfter;
 import org.glowroot.plugin.api.weaving.OnBefore;
 import org.glowroot.plugin.api.weaving.OnReturn;
+import org.glowroot.plugin.api.weaving.OnThrow;
 import org.glowroot.plugin.api.weaving.Pointcut;
 import org.glowroot.plugin.jdbc.StatementAspect.HasStatementMirror;
 
@@ -59,14 +60,19 @@ public class ResultSetAspect {
         @OnBefore
         public static @Nullable Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
             if (timerEnabled.value()) {
-                return onBeforeCommon(resultSet, timerName);
+                return onBeforeSampled(resultSet, timerName, false);
             } else {
                 return null;
             }
         }
+        // the timer is stopped here instead of in @OnAfter, so that it is no longer running when
+        // the executions that were not timed are credited below
         @OnReturn
         public static void onReturn(@BindReturn boolean currentRowValid,
-                @BindReceiver HasStatementMirror resultSet) {
+                @BindReceiver HasStatementMirror resultSet, @BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
             StatementMirror mirror = resultSet.glowroot$getStatementMirror();
             if (mirror == null) {
                 // this shouldn't happen since just checked above in isEnabled(), unless some
@@ -84,10 +90,11 @@ public class ResultSetAspect {
                 lastQueryEntry.incrementCurrRow();
             } else {
                 lastQueryEntry.setCurrRow(0);
+                mirror.creditSkippedResultSetExecutions();
             }
         }
-        @OnAfter
-        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+        @OnThrow
+        public static void onThrow(@BindTraveler @Nullable Timer timer) {
             if (timer != null) {
                 timer.stop();
             }
@@ -155,12 +162,14 @@ public class ResultSetAspect {
             return timerEnabled.value() && resultSet.glowroot$hasStatementMirror();
         }
         @OnBefore
-        public static Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
-            return onBeforeCommon(resultSet, timerName);
+        public static @Nullable Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
+            return onBeforeSampled(resultSet, timerName, true);
         }
         @OnAfter
-        public static void onAfter(@BindTraveler Timer timer) {
-            timer.stop();
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
         }
     }
 
@@ -177,15 +186,61 @@ public class ResultSetAspect {
             return timerEnabled.value() && resultSet.glowroot$hasStatementMirror();
         }
         @OnBefore
-        public static Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
-            return onBeforeCommon(resultSet, timerName);
+        public static @Nullable Timer onBefore(@BindReceiver HasStatementMirror resultSet) {
+            return onBeforeSampled(resultSet, timerName, true);
         }
         @OnAfter
-        public static void onAfter(@BindTraveler Timer timer) {
-            timer.stop();
+        public static void onAfter(@BindTraveler @Nullable Timer timer) {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.ResultSet", methodName = "close", methodParameterTypes = {})
+    public static class CloseAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver HasStatementMirror resultSet) {
+            // don't capture if implementation detail of a DatabaseMetaData method
+            return resultSet.glowroot$hasStatementMirror() && configService.isEnabled();
+        }
+        @OnBefore
+        public static void onBefore(@BindReceiver HasStatementMirror resultSet) {
+            StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+            if (mirror != null) {
+                // this should always be true since just checked hasStatementMirror() above
+                mirror.creditSkippedResultSetExecutions();
+            }
         }
     }
 
+    // returns null for the executions that are not timed when sampling result set timings
+    //
+    // the sample interval is only read here, so that the executions credited when stopping the
+    // timer are always consistent with the executions that were skipped
+    private static @Nullable Timer onBeforeSampled(HasStatementMirror resultSet,
+            TimerName timerName, boolean value) {
+        int sampleInterval = JdbcPluginProperties.resultSetTimingSampleInterval();
+        if (sampleInterval <= 1) {
+            return onBeforeCommon(resultSet, timerName);
+        }
+        StatementMirror mirror = resultSet.glowroot$getStatementMirror();
+        if (mirror == null) {
+            // this shouldn't happen since just checked above in isEnabled(), unless some
+            // bizarre concurrent mis-usage of ResultSet
+            return onBeforeCommon(resultSet, timerName);
+        }
+        int executions = mirror.sampleResultSetTiming(sampleInterval, value);
+        if (executions == 0) {
+            return null;
+        }
+        Timer timer = onBeforeCommon(resultSet, timerName);
+        if (executions == 1) {
+            return timer;
+        }
+        return new SampledTimer(timer, executions);
+    }
+
     private static Timer onBeforeCommon(HasStatementMirror resultSet, TimerName timerName) {
         StatementMirror mirror = resultSet.glowroot$getStatementMirror();
         if (mirror == null) {
@@ -200,4 +255,26 @@ public class ResultSetAspect {
         }
         return lastQueryEntry.extend();
     }
+
+    // credits the executions that were not timed since the prior timed execution when stopping
+    private static class SampledTimer implements Timer {
+
+        private final Timer timer;
+        private final int executions;
+
+        private SampledTimer(Timer timer, int executions) {
+            this.timer = timer;
+            this.executions = executions;
+        }
+
+        @Override
+        public void stop() {
+            timer.stopSampled(executions);
+        }
+
+        @Override
+        public void stopSampled(int executions) {
+            timer.stopSampled(executions);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.jdbc;
+
+// replaces string and numeric literals with '?' and collapses IN lists of literals/bind markers
+// down to a single '?', so that sql built by concatenating literals aggregates under a single
+// query text
+//
+// this is a single pass over the sql without any allocation other than the resulting string, and
+// the original string instance is returned when there is nothing to normalize (which is the
+// common case for prepared statements) so that its cached hash code is retained
+class SqlNormalizer {
+
+    private SqlNormalizer() {}
+
+    static String normalize(String sql) {
+        int length = sql.length();
+        StringBuilder sb = null;
+        // index in sql up to which characters have already been appended to sb
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                int end = skipStringLiteral(sql, i);
+                if (sb == null) {
+                    sb = new StringBuilder(length);
+                }
+                sb.append(sql, copied, i);
+                sb.append('?');
+                i = end;
+                copied = i;
+            } else if (c == '"' || c == '`') {
+                // quoted identifier, retain as is
+                i = skipQuoted(sql, i, c);
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                i = skipLineComment(sql, i);
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                i = skipBlockComment(sql, i);
+            } else if (isDigit(c) && !isIdentifierPart(sql, i - 1)) {
+                int end = skipNumericLiteral(sql, i);
+                if (sb == null) {
+                    sb = new StringBuilder(length);
+                }
+                sb.append(sql, copied, i);
+                sb.append('?');
+                i = end;
+                copied = i;
+            } else if (c == '(' && isPrecededByInKeyword(sql, i)) {
+                int end = skipLiteralList(sql, i);
+                if (end == -1) {
+                    i++;
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(length);
+                    }
+                    sb.append(sql, copied, i);
+                    sb.append("(?)");
+                    i = end;
+                    copied = i;
+                }
+            } else {
+                i++;
+            }
+        }
+        if (sb == null) {
+            return sql;
+        }
+        sb.append(sql, copied, length);
+        return sb.toString();
+    }
+
+    // returns index just past the closing quote (or length if unterminated)
+    private static int skipStringLiteral(String sql, int start) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                    // escaped quote
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    private static int skipQuoted(String sql, int start, char quote) {
+        int end = sql.indexOf(quote, start + 1);
+        return end == -1 ? sql.length() : end + 1;
+    }
+
+    private static int skipLineComment(String sql, int start) {
+        int end = sql.indexOf('\n', start + 2);
+        return end == -1 ? sql.length() : end + 1;
+    }
+
+    private static int skipBlockComment(String sql, int start) {
+        int end = sql.indexOf("*/", start + 2);
+        return end == -1 ? sql.length() : end + 2;
+    }
+
+    private static int skipNumericLiteral(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        if (sql.charAt(i) == '0' && i + 1 < length
+                && (sql.charAt(i + 1) == 'x' || sql.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < length && isHexDigit(sql.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+        while (i < length && (isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+            i++;
+        }
+        if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int j = i + 1;
+            if (j < length && (sql.charAt(j) == '+' || sql.charAt(j) == '-')) {
+                j++;
+            }
+            if (j < length && isDigit(sql.charAt(j))) {
+                i = j;
+                while (i < length && isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    // returns index just past the closing paren if the parenthesized list (starting at the open
+    // paren) contains only literals and bind markers, otherwise returns -1
+    private static int skipLiteralList(String sql, int start) {
+        int length = sql.length();
+        int i = start + 1;
+        boolean expectItem = true;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (expectItem) {
+                if (c == '?') {
+                    i++;
+                } else if (c == '\'') {
+                    i = skipStringLiteral(sql, i);
+                } else if (c == '-' || c == '+') {
+                    if (i + 1 < length && isDigit(sql.charAt(i + 1))) {
+                        i = skipNumericLiteral(sql, i + 1);
+                    } else {
+                        return -1;
+                    }
+                } else if (isDigit(c)) {
+                    i = skipNumericLiteral(sql, i);
+                } else {
+                    return -1;
+                }
+                expectItem = false;
+            } else if (c == ',') {
+                expectItem = true;
+                i++;
+            } else if (c == ')') {
+                return i + 1;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isPrecededByInKeyword(String sql, int parenIndex) {
+        int i = parenIndex - 1;
+        while (i >= 0 && Character.isWhitespace(sql.charAt(i))) {
+            i--;
+        }
+        if (i < 1) {
+            return false;
+        }
+        char n = sql.charAt(i);
+        char in = sql.charAt(i - 1);
+        return (n == 'n' || n == 'N') && (in == 'i' || in == 'I')
+                && !isIdentifierPart(sql, i - 2);
+    }
+
+    private static boolean isIdentifierPart(String sql, int index) {
+        if (index < 0) {
+            return false;
+        }
+        char c = sql.charAt(index);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == '@'
+                || c == ':';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -62,6 +62,8 @@ public class StatementAspect {
             configService.getEnabledProperty("captureBindParameters");
     private static final BooleanProperty captureStatementClose =
             configService.getEnabledProperty("captureStatementClose");
+    private static final BooleanProperty normalizeQueryText =
+            configService.getEnabledProperty("normalizeQueryText");
 
     // ===================== Mixin =====================
 
@@ -302,7 +304,9 @@ public class StatementAspect {
             }
             if (configService.isEnabled()) {
                 MessageSupplier messageSupplier = new StatementMessageSupplier(sql);
-                QueryEntry query = transactionService.startQueryEntry(QUERY_TYPE, sql,
+                String queryText =
+                        normalizeQueryText.value() ? SqlNormalizer.normalize(sql) : sql;
+                QueryEntry query = transactionService.startQueryEntry(QUERY_TYPE, queryText,
                         messageSupplier, timerName);
                 mirror.setLastQuery(query);
                 return query;
@@ -419,15 +423,18 @@ public class StatementAspect {
             }
             if (configService.isEnabled()) {
                 MessageSupplier messageSupplier;
-                String queryText = mirror.getSql();
+                String sql = mirror.getSql();
                 if (captureBindParameters.value()) {
-                    messageSupplier = new PreparedStatementMessageSupplier(queryText,
+                    messageSupplier = new PreparedStatementMessageSupplier(sql,
                             mirror.getParametersCopy());
                 } else {
-                    messageSupplier = new StatementMessageSupplier(queryText);
+                    messageSupplier = new StatementMessageSupplier(sql);
                 }
+                String queryText = mirror.getQueryText(normalizeQueryText.value());
+                // passing the last query entry lets the query data from the prior execution of
+                // this prepared statement be reused without looking it up again
                 QueryEntry queryEntry = transactionService.startQueryEntry(QUERY_TYPE, queryText,
-                        messageSupplier, timerName);
+                        1, mirror.getLastQueryEntry(), messageSupplier, timerName);
                 mirror.setLastQuery(queryEntry);
                 return queryEntry;
             } else {
@@ -575,17 +582,17 @@ public class StatementAspect {
                 PreparedStatementMirror mirror) {
             if (configService.isEnabled()) {
                 MessageSupplier messageSupplier;
-                String queryText = mirror.getSql();
+                String sql = mirror.getSql();
                 int batchSize = mirror.getBatchSize();
                 if (captureBindParameters.value()) {
-                    messageSupplier = new BatchPreparedStatementMessageSupplier(queryText,
-                            mirror.getBatchedParameters());
+                    messageSupplier = new BatchPreparedStatementMessageSupplier(sql,
+                            mirror.getBatchedParameters(), batchSize);
                 } else {
-                    messageSupplier =
-                            new BatchPreparedStatementMessageSupplier2(queryText, batchSize);
+                    messageSupplier = new BatchPreparedStatementMessageSupplier2(sql, batchSize);
                 }
+                String queryText = mirror.getQueryText(normalizeQueryText.value());
                 QueryEntry queryEntry = transactionService.startQueryEntry(QUERY_TYPE, queryText,
-                        batchSize, messageSupplier, timerName);
+                        batchSize, mirror.getLastQueryEntry(), messageSupplier, timerName);
                 mirror.setLastQuery(queryEntry);
                 mirror.clearBatch();
                 return queryEntry;
@@ -601,7 +608,7 @@ public class StatementAspect {
                 MessageSupplier messageSupplier =
                         new BatchStatementMessageSupplier(mirror.getBatchedSql());
                 QueryEntry queryEntry = transactionService.startQueryEntry(QUERY_TYPE,
-                        "<batch sql>", messageSupplier, timerName);
+                        "<batch sql>", 1, mirror.getLastQueryEntry(), messageSupplier, timerName);
                 mirror.setLastQuery(queryEntry);
                 mirror.clearBatch();
                 return queryEntry;
@@ -38,6 +38,16 @@ class StatementMirror {
     // while that thread is adding batches into the statement and executing it
     private @Nullable QueryEntry lastQueryEntry;
 
+    // these count down the ResultSet executions until the next one that is timed, when sampling
+    // result set timings (separately for navigation and value retrieval, so that the samples are
+    // not biased towards one or the other when they alternate at a fixed ratio)
+    private int navigateCountdown;
+    private int valueCountdown;
+    // these count the ResultSet executions that were not timed since the last one that was timed,
+    // so that the next timed execution can be credited with them
+    private int navigateSkipped;
+    private int valueSkipped;
+
     void addBatch(String sql) {
         // synchronization isn't an issue here as this method is called only by
         // the monitored thread
@@ -66,9 +76,66 @@ class StatementMirror {
 
     void setLastQuery(QueryEntry lastQueryEntry) {
         this.lastQueryEntry = lastQueryEntry;
+        resetResultSetTimingSampling();
     }
 
     void clearLastQuery() {
         lastQueryEntry = null;
+        resetResultSetTimingSampling();
+    }
+
+    // returns 0 for the calls that are not timed, and otherwise returns the number of calls that
+    // the timed call represents, which is the timed call itself plus the calls that were not timed
+    // since the prior timed call (one out of every sampleInterval calls is timed, starting with the
+    // first call)
+    int sampleResultSetTiming(int sampleInterval, boolean value) {
+        int executions;
+        if (value) {
+            if (valueCountdown-- > 0) {
+                valueSkipped++;
+                return 0;
+            }
+            valueCountdown = sampleInterval - 1;
+            executions = valueSkipped + 1;
+            valueSkipped = 0;
+        } else {
+            if (navigateCountdown-- > 0) {
+                navigateSkipped++;
+                return 0;
+            }
+            navigateCountdown = sampleInterval - 1;
+            executions = navigateSkipped + 1;
+            navigateSkipped = 0;
+        }
+        return executions;
+    }
+
+    // credits the ResultSet executions that were not timed since the last timed execution, which
+    // is called when the result set is exhausted or closed, since there will be no further timed
+    // execution to credit them to
+    //
+    // the credited executions have (close to) zero duration since they were not timed, which
+    // understates the total time by less than one sample interval's worth of executions, while
+    // keeping the number of executions exact
+    void creditSkippedResultSetExecutions() {
+        int skipped = navigateSkipped + valueSkipped;
+        if (skipped == 0) {
+            return;
+        }
+        navigateSkipped = 0;
+        valueSkipped = 0;
+        if (lastQueryEntry != null) {
+            lastQueryEntry.extend().stopSampled(skipped);
+        }
+    }
+
+    // executions that were not timed belong to the prior query (which may even belong to a
+    // transaction that has since completed), so they are not credited to the new query, and the
+    // first execution of the new query is timed
+    private void resetResultSetTimingSampling() {
+        navigateCountdown = 0;
+        valueCountdown = 0;
+        navigateSkipped = 0;
+        valueSkipped = 0;
     }
 }
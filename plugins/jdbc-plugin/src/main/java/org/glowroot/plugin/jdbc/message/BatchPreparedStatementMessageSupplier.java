@@ -15,7 +15,7 @@
  */
 package org.glowroot.plugin.jdbc.message;
 
-import java.util.Collection;
+import javax.annotation.Nullable;
 
 import org.glowroot.plugin.api.transaction.Message;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
@@ -24,27 +24,38 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
 
     private final String sql;
 
-    private final Collection<BindParameterList> batchedParameters;
+    // null when no bind parameters were captured
+    private final @Nullable BatchedBindParameters batchedParameters;
+
+    private final int batchSize;
 
     public BatchPreparedStatementMessageSupplier(String sql,
-            Collection<BindParameterList> batchedParameters) {
+            @Nullable BatchedBindParameters batchedParameters, int batchSize) {
         this.sql = sql;
         this.batchedParameters = batchedParameters;
+        this.batchSize = batchSize;
     }
 
     @Override
     public Message get() {
         StringBuilder sb = new StringBuilder();
         sb.append("jdbc execution: ");
-        int batchSize = batchedParameters.size();
         if (batchSize > 1) {
             // print out number of batches to make it easy to identify
             sb.append(batchSize);
             sb.append(" x ");
         }
         sb.append(sql);
-        for (BindParameterList oneParameters : batchedParameters) {
-            PreparedStatementMessageSupplier.appendParameters(sb, oneParameters);
+        if (batchedParameters != null) {
+            int capturedSize = batchedParameters.size();
+            for (int i = 0; i < capturedSize; i++) {
+                PreparedStatementMessageSupplier.appendParameters(sb,
+                        batchedParameters.getRow(i));
+            }
+            if (capturedSize < batchSize) {
+                // rows beyond the bind parameter batch limit
+                sb.append(" ...");
+            }
         }
         return Message.from(sb.toString());
     }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.jdbc.message;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+// micro-optimized storage for the bind parameters of batched prepared statement executions
+//
+// the parameters of all rows are stored in a single array (instead of one BindParameterList per
+// row), and rows beyond the limit are only counted
+public class BatchedBindParameters {
+
+    private static final int INITIAL_ROW_CAPACITY = 16;
+
+    private final int limit;
+
+    private @Nullable Object[] values;
+    private int valuesSize;
+
+    // rowEnds[i] is the index into values just past the end of row i
+    private int[] rowEnds;
+    private int rowCount;
+
+    public BatchedBindParameters(int limit, int parametersPerRow) {
+        this.limit = limit;
+        int rowCapacity = Math.min(limit, INITIAL_ROW_CAPACITY);
+        values = new Object[rowCapacity * parametersPerRow];
+        rowEnds = new int[rowCapacity];
+    }
+
+    public void add(BindParameterList parameters) {
+        if (rowCount == limit) {
+            return;
+        }
+        int size = parameters.size();
+        int newValuesSize = valuesSize + size;
+        if (newValuesSize > values.length) {
+            // using same capacity increase formula as ArrayList
+            values = Arrays.copyOf(values,
+                    Math.max(newValuesSize, values.length + (values.length >> 1)));
+        }
+        parameters.copyTo(values, valuesSize);
+        valuesSize = newValuesSize;
+        if (rowCount == rowEnds.length) {
+            rowEnds = Arrays.copyOf(rowEnds, rowEnds.length + (rowEnds.length >> 1) + 1);
+        }
+        rowEnds[rowCount++] = valuesSize;
+    }
+
+    // number of rows captured, which is at most the limit
+    public int size() {
+        return rowCount;
+    }
+
+    List</*@Nullable*/Object> getRow(int i) {
+        int rowStart = i == 0 ? 0 : rowEnds[i - 1];
+        return Arrays.asList(values).subList(rowStart, rowEnds[i]);
+    }
+}
@@ -43,7 +43,7 @@ public class PreparedStatementMessageSupplier extends MessageSupplier {
         return Message.from(sb.toString());
     }
 
-    static void appendParameters(StringBuilder sb, BindParameterList parameters) {
+    static void appendParameters(StringBuilder sb, Iterable</*@Nullable*/Object> parameters) {
         sb.append(" [");
         boolean first = true;
         for (Object parameter : parameters) {
@@ -102,6 +102,54 @@ public class BatchTest {
                 "jdbc execution: 2 x" + " insert into employee (name) values (?) => 2 rows");
     }
 
+    @Test
+    public void testBatchPreparedStatementWithBindParameterBatchLimit() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "bindParameterBatchLimit", 2);
+        // when
+        container.executeAppUnderTest(ExecuteBatchPreparedStatement.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).message()).isEqualTo("jdbc execution: 3 x"
+                + " insert into employee (name) values (?) ['huckle'] ['sally'] ... => 3 rows");
+        assertThat(entries.get(1).message()).isEqualTo("jdbc execution: 2 x"
+                + " insert into employee (name) values (?) ['lowly'] ['pig will'] => 2 rows");
+    }
+
+    @Test
+    public void testBatchPreparedStatementWithZeroBindParameterBatchLimit() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "bindParameterBatchLimit", 0);
+        // when
+        container.executeAppUnderTest(ExecuteBatchPreparedStatement.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).message()).isEqualTo(
+                "jdbc execution: 3 x" + " insert into employee (name) values (?) ... => 3 rows");
+        assertThat(entries.get(1).message()).isEqualTo(
+                "jdbc execution: 2 x" + " insert into employee (name) values (?) ... => 2 rows");
+    }
+
+    @Test
+    public void testBatchPreparedStatementWithNegativeBindParameterBatchLimit() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "bindParameterBatchLimit", -1);
+        // when
+        container.executeAppUnderTest(ExecuteBatchPreparedStatement.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).message()).isEqualTo(
+                "jdbc execution: 3 x" + " insert into employee (name) values (?) ... => 3 rows");
+        assertThat(entries.get(1).message()).isEqualTo(
+                "jdbc execution: 2 x" + " insert into employee (name) values (?) ... => 2 rows");
+    }
+
     @Test
     public void testBatchPreparedStatementWithoutClear() throws Exception {
         // given
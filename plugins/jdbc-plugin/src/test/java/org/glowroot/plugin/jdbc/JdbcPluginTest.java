@@ -24,6 +24,8 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -190,6 +192,54 @@ public class JdbcPluginTest {
         assertThat(found).isFalse();
     }
 
+    @Test
+    public void testWithResultSetTimingSampled() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "resultSetTimingSampleInterval", 2);
+        // when
+        container.executeAppUnderTest(IterateOverResultsUnderSeparateTraceEntry.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        boolean found = findExtendedTimerName(header.rootTimer(), "jdbc execute");
+        assertThat(found).isTrue();
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        assertThat(queries.get(0).getTotalRows()).isEqualTo(3);
+    }
+
+    @Test
+    public void testWithResultSetTimingSampleIntervalLargerThanRowCount() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID,
+                "resultSetTimingSampleInterval", 100);
+        // when
+        container.executeAppUnderTest(IterateOverResultsUnderSeparateTraceEntry.class);
+        // then
+        Trace.Header header = container.getTraceService().getLastTrace();
+        Trace.Timer extendedTimer = findExtendedTimer(header.rootTimer(), "jdbc execute");
+        assertThat(extendedTimer).isNotNull();
+        // only the first of the 4 calls to next() is timed, and the remaining calls are credited
+        // when the result set is exhausted
+        assertThat(extendedTimer.count()).isEqualTo(4);
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        assertThat(queries.get(0).getExecutionCount()).isEqualTo(1);
+        assertThat(queries.get(0).getTotalRows()).isEqualTo(3);
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        Trace.Entry jdbcEntry = null;
+        for (Trace.Entry entry : entries) {
+            if (entry.message().startsWith("jdbc execution: ")) {
+                jdbcEntry = entry;
+                break;
+            }
+        }
+        assertThat(jdbcEntry).isNotNull();
+        assertThat(jdbcEntry.startOffsetNanos()).isGreaterThanOrEqualTo(0);
+        assertThat(jdbcEntry.startOffsetNanos() + jdbcEntry.durationNanos())
+                .isLessThanOrEqualTo(header.durationNanos());
+    }
+
     // this test validates that lastRecordCountObject is cleared so that its numRows won't be
     // updated if the plugin is re-enabled in the middle of iterating over a different result set
     // (see related comments in StatementAspect)
@@ -303,15 +353,20 @@ public class JdbcPluginTest {
     }
 
     private boolean findExtendedTimerName(Trace.Timer timer, String timerName) {
+        return findExtendedTimer(timer, timerName) != null;
+    }
+
+    private @Nullable Trace.Timer findExtendedTimer(Trace.Timer timer, String timerName) {
         if (timer.name().equals(timerName) && timer.extended().or(false)) {
-            return true;
+            return timer;
         }
         for (Trace.Timer nestedTimer : timer.childTimers()) {
-            if (findExtendedTimerName(nestedTimer, timerName)) {
-                return true;
+            Trace.Timer extendedTimer = findExtendedTimer(nestedTimer, timerName);
+            if (extendedTimer != null) {
+                return extendedTimer;
             }
         }
-        return false;
+        return null;
     }
 
     public static class ExecuteStatementAndIterateOverResults implements AppUnderTest, TraceMarker {
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.jdbc;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+
+    @Test
+    public void shouldReturnSameInstanceWhenNothingToNormalize() {
+        String sql = "select * from employee where name = ?";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldReplaceStringLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from employee where name = 'o''brien'"))
+                .isEqualTo("select * from employee where name = ?");
+    }
+
+    @Test
+    public void shouldReplaceNumericLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from t1 where a = 12.5e3 and b = 0xFF"))
+                .isEqualTo("select * from t1 where a = ? and b = ?");
+    }
+
+    @Test
+    public void shouldCollapseInLists() {
+        assertThat(SqlNormalizer.normalize("select * from t where a in (1, 2, 'x') or b IN(?,?)"))
+                .isEqualTo("select * from t where a in (?) or b IN(?)");
+    }
+
+    @Test
+    public void shouldNotCollapseSubquery() {
+        String sql = "select * from t where a in (select b from u)";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldNotReplaceInsideQuotedIdentifiersOrComments() {
+        String sql = "select \"col 1\" from t /* 42 */ where x = ? -- 'y'";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+}
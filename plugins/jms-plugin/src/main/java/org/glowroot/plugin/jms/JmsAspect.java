@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.jms;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.plugin.api.Agent;
+import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+import org.glowroot.plugin.api.transaction.QueryEntry;
+import org.glowroot.plugin.api.transaction.Timer;
+import org.glowroot.plugin.api.transaction.TimerName;
+import org.glowroot.plugin.api.transaction.TraceEntry;
+import org.glowroot.plugin.api.transaction.TransactionService;
+import org.glowroot.plugin.api.util.FastThreadLocal;
+import org.glowroot.plugin.api.weaving.BindParameter;
+import org.glowroot.plugin.api.weaving.BindReceiver;
+import org.glowroot.plugin.api.weaving.BindThrowable;
+import org.glowroot.plugin.api.weaving.BindTraveler;
+import org.glowroot.plugin.api.weaving.IsEnabled;
+import org.glowroot.plugin.api.weaving.Mixin;
+import org.glowroot.plugin.api.weaving.OnAfter;
+import org.glowroot.plugin.api.weaving.OnBefore;
+import org.glowroot.plugin.api.weaving.OnReturn;
+import org.glowroot.plugin.api.weaving.OnThrow;
+import org.glowroot.plugin.api.weaving.Pointcut;
+import org.glowroot.plugin.api.weaving.Shim;
+
+// received and sent messages are also aggregated per destination as "JMS" queries, so that
+// throughput and latency per destination are available from the aggregates
+//
+// received messages are only aggregated under their destination (using a query timer, which does
+// not capture a trace entry), since each received message is already its own transaction, and
+// high rate consumers can receive many thousands of messages per second
+public class JmsAspect {
+
+    private static final String QUERY_TYPE = "JMS";
+
+    private static final TransactionService transactionService = Agent.getTransactionService();
+    private static final ConfigService configService = Agent.getConfigService("jms");
+
+    // send overloads commonly delegate to each other (e.g. send(Message) calling
+    // send(Destination, Message, ...)), which would otherwise result in nested entries
+    @SuppressWarnings("nullness:type.argument.type.incompatible")
+    private static final FastThreadLocal<Boolean> inSendAdvice = new FastThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    // the field and method names are verbose to avoid conflict since they will become fields
+    // and methods in all classes that implement javax.jms.Destination
+    @Mixin("javax.jms.Destination")
+    public static class DestinationImpl implements Destination {
+
+        // the query texts are cached on the destination to avoid building them for every message,
+        // races are benign since the query texts are immutable and always equal
+        private @Nullable String glowroot$sendQueryText;
+        private @Nullable String glowroot$receiveQueryText;
+
+        @Override
+        public String glowroot$getSendQueryText() {
+            String sendQueryText = glowroot$sendQueryText;
+            if (sendQueryText == null) {
+                sendQueryText = "send " + toString();
+                glowroot$sendQueryText = sendQueryText;
+            }
+            return sendQueryText;
+        }
+
+        @Override
+        public String glowroot$getReceiveQueryText() {
+            String receiveQueryText = glowroot$receiveQueryText;
+            if (receiveQueryText == null) {
+                receiveQueryText = "receive " + toString();
+                glowroot$receiveQueryText = receiveQueryText;
+            }
+            return receiveQueryText;
+        }
+    }
+
+    // the method names are verbose to avoid conflict since they will become methods in all classes
+    // that implement javax.jms.Destination
+    public interface Destination {
+
+        String glowroot$getSendQueryText();
+
+        String glowroot$getReceiveQueryText();
+    }
+
+    @Shim("javax.jms.Message")
+    public interface Message {
+
+        @Shim("javax.jms.Destination getJMSDestination()")
+        @Nullable
+        Object getJMSDestination();
+    }
+
+    @Shim("javax.jms.MessageProducer")
+    public interface MessageProducer {
+
+        @Shim("javax.jms.Destination getDestination()")
+        @Nullable
+        Object getDestination();
+    }
+
+    @Pointcut(className = "javax.jms.MessageListener", methodName = "onMessage",
+            methodParameterTypes = {"javax.jms.Message"}, timerName = "jms message")
+    public static class OnMessageAdvice {
+        private static final TimerName timerName =
+                transactionService.getTimerName(OnMessageAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return configService.isEnabled();
+        }
+        @OnBefore
+        public static ReceiveEntry onBefore(@BindReceiver Object listener,
+                @BindParameter @Nullable Object message) {
+            String transactionName = "JMS Message: " + listener.getClass().getSimpleName();
+            TraceEntry traceEntry = transactionService.startTransaction("Background",
+                    transactionName, MessageSupplier.from(transactionName), timerName);
+            Object destination = getJMSDestination(message);
+            if (destination == null) {
+                return new ReceiveEntry(traceEntry, null);
+            }
+            String queryText;
+            if (destination instanceof Destination) {
+                queryText = ((Destination) destination).glowroot$getReceiveQueryText();
+            } else {
+                // destination class was loaded before this plugin was woven in
+                queryText = "receive " + destination;
+            }
+            // the query timer uses the same timer name as the transaction, so it does not add a
+            // nested timer
+            Timer queryTimer = transactionService.startQueryTimer(QUERY_TYPE, queryText, timerName);
+            return new ReceiveEntry(traceEntry, queryTimer);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler ReceiveEntry receiveEntry) {
+            receiveEntry.stopQueryTimer();
+            receiveEntry.traceEntry.end();
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler ReceiveEntry receiveEntry) {
+            receiveEntry.stopQueryTimer();
+            receiveEntry.traceEntry.endWithError(t);
+        }
+    }
+
+    @Pointcut(className = "javax.jms.MessageProducer", methodName = "send",
+            methodParameterTypes = {"javax.jms.Message", ".."}, timerName = "jms send message")
+    public static class SendAdvice {
+        private static final TimerName timerName =
+                transactionService.getTimerName(SendAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return !inSendAdvice.get() && configService.isEnabled();
+        }
+        @OnBefore
+        public static QueryEntry onBefore(@BindReceiver MessageProducer producer) {
+            inSendAdvice.set(true);
+            return startSendEntry(getDestination(producer), timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler QueryEntry queryEntry) {
+            queryEntry.end();
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler QueryEntry queryEntry) {
+            queryEntry.endWithError(t);
+        }
+        @OnAfter
+        public static void onAfter() {
+            inSendAdvice.set(false);
+        }
+    }
+
+    @Pointcut(className = "javax.jms.MessageProducer", methodName = "send",
+            methodParameterTypes = {"javax.jms.Destination", "javax.jms.Message", ".."},
+            timerName = "jms send message")
+    public static class SendToDestinationAdvice {
+        private static final TimerName timerName =
+                transactionService.getTimerName(SendToDestinationAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return !inSendAdvice.get() && configService.isEnabled();
+        }
+        @OnBefore
+        public static QueryEntry onBefore(@BindParameter @Nullable Object destination) {
+            inSendAdvice.set(true);
+            return startSendEntry(destination, timerName);
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler QueryEntry queryEntry) {
+            queryEntry.end();
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler QueryEntry queryEntry) {
+            queryEntry.endWithError(t);
+        }
+        @OnAfter
+        public static void onAfter() {
+            inSendAdvice.set(false);
+        }
+    }
+
+    private static QueryEntry startSendEntry(@Nullable Object destination, TimerName timerName) {
+        String queryText;
+        if (destination instanceof Destination) {
+            queryText = ((Destination) destination).glowroot$getSendQueryText();
+        } else if (destination == null) {
+            queryText = "send";
+        } else {
+            // destination class was loaded before this plugin was woven in
+            queryText = "send " + destination;
+        }
+        return transactionService.startQueryEntry(QUERY_TYPE, queryText,
+                MessageSupplier.from("jms {}", queryText), timerName);
+    }
+
+    private static @Nullable Object getJMSDestination(@Nullable Object message) {
+        if (!(message instanceof Message)) {
+            // null, or message class was loaded before this plugin was woven in
+            return null;
+        }
+        try {
+            return ((Message) message).getJMSDestination();
+        } catch (Exception e) {
+            // JMSException
+            return null;
+        }
+    }
+
+    private static @Nullable Object getDestination(MessageProducer producer) {
+        try {
+            return producer.getDestination();
+        } catch (Exception e) {
+            // JMSException, e.g. if the producer is closed
+            return null;
+        }
+    }
+
+    // this is the traveler of OnMessageAdvice, so it needs to be accessible from the listener class
+    public static class ReceiveEntry {
+
+        private final TraceEntry traceEntry;
+        private final @Nullable Timer queryTimer;
+
+        private ReceiveEntry(TraceEntry traceEntry, @Nullable Timer queryTimer) {
+            this.traceEntry = traceEntry;
+            this.queryTimer = queryTimer;
+        }
+
+        private void stopQueryTimer() {
+            if (queryTimer != null) {
+                queryTimer.stop();
+            }
+        }
+    }
+}
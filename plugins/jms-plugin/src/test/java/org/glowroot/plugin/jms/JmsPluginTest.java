@@ -36,6 +36,7 @@ import org.glowroot.Containers;
 import org.glowroot.container.AppUnderTest;
 import org.glowroot.container.Container;
 import org.glowroot.container.TraceMarker;
+import org.glowroot.container.aggregate.Query;
 import org.glowroot.container.trace.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -67,6 +68,21 @@ public class JmsPluginTest {
         assertThat(header.transactionType()).isEqualTo("Background");
         assertThat(header.transactionName()).isEqualTo("JMS Message: TestMessageListener");
         assertThat(header.headline()).isEqualTo("JMS Message: TestMessageListener");
+        // the query timer self-nests inside the transaction's root timer, since it has the same
+        // timer name, so it neither adds a nested timer nor an extra count
+        Trace.Timer rootTimer = header.rootTimer();
+        assertThat(rootTimer.name()).isEqualTo("jms message");
+        assertThat(rootTimer.count()).isEqualTo(1);
+        assertThat(rootTimer.active().or(false)).isFalse();
+        assertThat(rootTimer.childTimers()).isEmpty();
+        assertThat(header.active().or(false)).isFalse();
+        assertThat(header.entryCount()).isZero();
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryType()).isEqualTo("JMS");
+        assertThat(query.getQueryText()).isEqualTo("receive queue://a queue");
+        assertThat(query.getExecutionCount()).isEqualTo(1);
     }
 
     @Test
@@ -76,6 +92,15 @@ public class JmsPluginTest {
         List<Trace.Timer> nestedTimers = header.rootTimer().childTimers();
         assertThat(nestedTimers).hasSize(1);
         assertThat(nestedTimers.get(0).name()).isEqualTo("jms send message");
+        List<Trace.Entry> entries = container.getTraceService().getEntries(header.id());
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).message()).isEqualTo("jms send queue://a queue");
+        List<Query> queries = container.getAggregateService().getQueries();
+        assertThat(queries).hasSize(1);
+        Query query = queries.get(0);
+        assertThat(query.getQueryType()).isEqualTo("JMS");
+        assertThat(query.getQueryText()).isEqualTo("send queue://a queue");
+        assertThat(query.getExecutionCount()).isEqualTo(1);
     }
 
     public static class ReceiveMessage implements AppUnderTest {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.logger;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
+
+import org.glowroot.plugin.api.transaction.Message;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+
+// formats the slf4j log message lazily, since the formatted message is only needed if/when the
+// trace is stored (or viewed), which is not the case for most transactions
+//
+// the message is only formatted lazily when all of the arguments are immutable (e.g. strings and
+// numbers), otherwise formatting later (and in a different thread) could produce different text
+// than what was logged, or could even fail if an argument's toString() is not thread safe, so in
+// this case the message is formatted eagerly
+//
+// this also means a trailing throwable argument is always handled eagerly, which is needed anyways
+// in order to decide whether to mark the trace as an error
+class LogMessageSupplier extends MessageSupplier {
+
+    private final String level;
+
+    // format and arguments are only used when formatting lazily
+    private final @Nullable String format;
+    private final @Nullable Object/*@Nullable*/[] arguments;
+
+    private final @Nullable Throwable throwable;
+
+    private volatile @Nullable String formattedMessage;
+
+    private LogMessageSupplier(String level, @Nullable String format,
+            @Nullable Object/*@Nullable*/[] arguments, @Nullable String formattedMessage,
+            @Nullable Throwable throwable) {
+        this.level = level;
+        this.format = format;
+        this.arguments = arguments;
+        this.formattedMessage = formattedMessage;
+        this.throwable = throwable;
+    }
+
+    // the arguments array is retained when formatting lazily, so it must not be modified afterwards
+    static LogMessageSupplier create(String level, @Nullable String format,
+            @Nullable Object/*@Nullable*/[] arguments) {
+        if (arguments == null) {
+            return new LogMessageSupplier(level, format, null, null, null);
+        }
+        if (isImmutable(arguments)) {
+            return new LogMessageSupplier(level, format, arguments, null, null);
+        }
+        FormattingTuple formattingTuple = MessageFormatter.arrayFormat(format, arguments);
+        return new LogMessageSupplier(level, null, null,
+                nullToEmpty(formattingTuple.getMessage()), formattingTuple.getThrowable());
+    }
+
+    @Override
+    public Message get() {
+        return Message.from("log {}: {}", level, getFormattedMessage());
+    }
+
+    // the error message of the trace entry is just the formatted message (without the level)
+    MessageSupplier getErrorMessageSupplier() {
+        return new MessageSupplier() {
+            @Override
+            public Message get() {
+                return Message.from(getFormattedMessage());
+            }
+        };
+    }
+
+    String getFormattedMessage() {
+        String formattedMessage = this.formattedMessage;
+        if (formattedMessage == null) {
+            formattedMessage =
+                    nullToEmpty(MessageFormatter.arrayFormat(format, arguments).getMessage());
+            this.formattedMessage = formattedMessage;
+        }
+        return formattedMessage;
+    }
+
+    @Nullable
+    Throwable getThrowable() {
+        return throwable;
+    }
+
+    private static boolean isImmutable(Object/*@Nullable*/[] arguments) {
+        for (Object argument : arguments) {
+            if (argument == null || argument instanceof String) {
+                continue;
+            }
+            Class<?> argumentClass = argument.getClass();
+            if (argumentClass != Integer.class && argumentClass != Long.class
+                    && argumentClass != Boolean.class && argumentClass != Double.class
+                    && argumentClass != Float.class && argumentClass != Short.class
+                    && argumentClass != Byte.class && argumentClass != Character.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String nullToEmpty(@Nullable String s) {
+        return s == null ? "" : s;
+    }
+}
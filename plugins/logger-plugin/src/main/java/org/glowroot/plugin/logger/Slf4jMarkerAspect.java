@@ -17,9 +17,6 @@ package org.glowroot.plugin.logger;
 
 import javax.annotation.Nullable;
 
-import org.slf4j.helpers.FormattingTuple;
-import org.slf4j.helpers.MessageFormatter;
-
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.ConfigService;
 import org.glowroot.plugin.api.transaction.MessageSupplier;
@@ -41,22 +38,26 @@ public class Slf4jMarkerAspect {
     private static final TransactionService transactionService = Agent.getTransactionService();
     private static final ConfigService configService = Agent.getConfigService("logger");
 
-    private static LogAdviceTraveler onBefore(FormattingTuple formattingTuple, String methodName,
-            TimerName timerName) {
-        String formattedMessage = nullToEmpty(formattingTuple.getMessage());
-        Throwable throwable = formattingTuple.getThrowable();
+    private static LogAdviceTraveler onBefore(@Nullable String format,
+            @Nullable Object/*@Nullable*/[] arguments, String methodName, TimerName timerName) {
+        LogMessageSupplier messageSupplier =
+                LogMessageSupplier.create(methodName, format, arguments);
+        Throwable throwable = messageSupplier.getThrowable();
         if (LoggerPlugin.markTraceAsError(methodName.equals("warn"), throwable != null)) {
-            transactionService.setTransactionError(formattedMessage, throwable);
+            transactionService.setTransactionError(messageSupplier.getFormattedMessage(),
+                    throwable);
         }
-        TraceEntry traceEntry = transactionService.startTraceEntry(
-                MessageSupplier.from("log {}: {}", methodName, formattedMessage), timerName);
-        return new LogAdviceTraveler(traceEntry, formattedMessage, throwable);
+        TraceEntry traceEntry = transactionService.startTraceEntry(messageSupplier, timerName);
+        return new LogAdviceTraveler(traceEntry, messageSupplier);
     }
 
     private static void onAfter(LogAdviceTraveler traveler) {
-        Throwable t = traveler.throwable;
+        LogMessageSupplier messageSupplier = traveler.messageSupplier;
+        Throwable t = messageSupplier.getThrowable();
         if (t == null) {
-            traveler.traceEntry.endWithError(traveler.formattedMessage);
+            // the error message is only formatted if/when it is needed
+            traveler.traceEntry.endWithDeferredError(messageSupplier.getErrorMessageSupplier(),
+                    null);
         } else {
             // intentionally not passing message since it is already the trace entry message
             // and this way it will also capture/display Throwable's root cause message
@@ -109,8 +110,7 @@ public class Slf4jMarkerAspect {
                 @BindParameter @Nullable String format, @BindParameter @Nullable Object arg,
                 @BindMethodName String methodName) {
             LoggerPlugin.inAdvice(true);
-            FormattingTuple formattingTuple = MessageFormatter.format(format, arg);
-            return Slf4jMarkerAspect.onBefore(formattingTuple, methodName, timerName);
+            return Slf4jMarkerAspect.onBefore(format, new Object[] {arg}, methodName, timerName);
         }
         @OnAfter
         public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
@@ -135,8 +135,7 @@ public class Slf4jMarkerAspect {
                 @BindParameter @Nullable String format, @BindParameter @Nullable Object arg,
                 @BindMethodName String methodName) {
             LoggerPlugin.inAdvice(true);
-            FormattingTuple formattingTuple = MessageFormatter.format(format, arg);
-            return Slf4jMarkerAspect.onBefore(formattingTuple, methodName, timerName);
+            return Slf4jMarkerAspect.onBefore(format, new Object[] {arg}, methodName, timerName);
         }
         @OnAfter
         public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
@@ -162,8 +161,8 @@ public class Slf4jMarkerAspect {
                 @BindParameter @Nullable String format, @BindParameter @Nullable Object arg1,
                 @BindParameter @Nullable Object arg2, @BindMethodName String methodName) {
             LoggerPlugin.inAdvice(true);
-            FormattingTuple formattingTuple = MessageFormatter.format(format, arg1, arg2);
-            return Slf4jMarkerAspect.onBefore(formattingTuple, methodName, timerName);
+            return Slf4jMarkerAspect.onBefore(format, new Object[] {arg1, arg2}, methodName,
+                    timerName);
         }
         @OnAfter
         public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
@@ -188,8 +187,9 @@ public class Slf4jMarkerAspect {
                 @BindParameter @Nullable Object/*@Nullable*/[] arguments,
                 @BindMethodName String methodName) {
             LoggerPlugin.inAdvice(true);
-            FormattingTuple formattingTuple = MessageFormatter.arrayFormat(format, arguments);
-            return Slf4jMarkerAspect.onBefore(formattingTuple, methodName, timerName);
+            // copied since the array is retained if the message is formatted lazily
+            Object/*@Nullable*/[] argumentsCopy = arguments == null ? null : arguments.clone();
+            return Slf4jMarkerAspect.onBefore(format, argumentsCopy, methodName, timerName);
         }
         @OnAfter
         public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
@@ -198,19 +198,12 @@ public class Slf4jMarkerAspect {
         }
     }
 
-    private static String nullToEmpty(@Nullable String s) {
-        return s == null ? "" : s;
-    }
-
     private static class LogAdviceTraveler {
         private final TraceEntry traceEntry;
-        private final String formattedMessage;
-        private final @Nullable Throwable throwable;
-        private LogAdviceTraveler(TraceEntry traceEntry, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private final LogMessageSupplier messageSupplier;
+        private LogAdviceTraveler(TraceEntry traceEntry, LogMessageSupplier messageSupplier) {
             this.traceEntry = traceEntry;
-            this.formattedMessage = formattedMessage;
-            this.throwable = throwable;
+            this.messageSupplier = messageSupplier;
         }
     }
 }
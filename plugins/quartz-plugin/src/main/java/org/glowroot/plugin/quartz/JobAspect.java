@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.quartz;
+
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.plugin.api.Agent;
+import org.glowroot.plugin.api.config.ConfigService;
+import org.glowroot.plugin.api.transaction.MessageSupplier;
+import org.glowroot.plugin.api.transaction.TimerName;
+import org.glowroot.plugin.api.transaction.TraceEntry;
+import org.glowroot.plugin.api.transaction.TransactionService;
+import org.glowroot.plugin.api.weaving.BindParameter;
+import org.glowroot.plugin.api.weaving.BindThrowable;
+import org.glowroot.plugin.api.weaving.BindTraveler;
+import org.glowroot.plugin.api.weaving.IsEnabled;
+import org.glowroot.plugin.api.weaving.OnBefore;
+import org.glowroot.plugin.api.weaving.OnReturn;
+import org.glowroot.plugin.api.weaving.OnThrow;
+import org.glowroot.plugin.api.weaving.Pointcut;
+import org.glowroot.plugin.api.weaving.Shim;
+
+public class JobAspect {
+
+    private static final TransactionService transactionService = Agent.getTransactionService();
+    private static final ConfigService configService = Agent.getConfigService("quartz");
+
+    // JobDetail.getKey() was added in quartz 2.0, prior to that JobDetail was a class with
+    // getName(), this is flipped after the first NoSuchMethodError so that it is only thrown once
+    private static volatile boolean jobKeySupported = true;
+
+    @Shim("org.quartz.JobExecutionContext")
+    public interface JobExecutionContext {
+
+        @Shim("org.quartz.JobDetail getJobDetail()")
+        @Nullable
+        JobDetail getJobDetail();
+
+        @Nullable
+        Date getFireTime();
+
+        @Nullable
+        Date getScheduledFireTime();
+    }
+
+    @Shim("org.quartz.JobDetail")
+    public interface JobDetail {
+
+        @Shim("org.quartz.JobKey getKey()")
+        @Nullable
+        JobKey getKey();
+
+        // only used for quartz 1.x
+        @Nullable
+        String getName();
+    }
+
+    @Shim("org.quartz.JobKey")
+    public interface JobKey {
+
+        @Nullable
+        String getName();
+
+        @Nullable
+        String getGroup();
+    }
+
+    @Pointcut(className = "org.quartz.Job", methodName = "execute",
+            methodParameterTypes = {"org.quartz.JobExecutionContext"}, timerName = "quartz job")
+    public static class ExecuteAdvice {
+        private static final TimerName timerName =
+                transactionService.getTimerName(ExecuteAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled() {
+            return configService.isEnabled();
+        }
+        @OnBefore
+        public static TraceEntry onBefore(@BindParameter @Nullable JobExecutionContext context) {
+            if (context == null) {
+                return transactionService.startTransaction("Background", "Quartz job",
+                        MessageSupplier.from("Quartz job"), timerName);
+            }
+            JobDetail jobDetail = context.getJobDetail();
+            String jobName = null;
+            String jobGroup = null;
+            if (jobDetail != null) {
+                JobKey jobKey = getJobKey(jobDetail);
+                if (jobKey == null) {
+                    jobName = jobDetail.getName();
+                } else {
+                    jobName = jobKey.getName();
+                    jobGroup = jobKey.getGroup();
+                }
+            }
+            String transactionName = "Quartz job: " + jobName;
+            TraceEntry traceEntry = transactionService.startTransaction("Background",
+                    transactionName, MessageSupplier.from(transactionName), timerName);
+            Date fireTime = context.getFireTime();
+            Date scheduledFireTime = context.getScheduledFireTime();
+            if (fireTime != null && scheduledFireTime != null) {
+                long lagMillis = fireTime.getTime() - scheduledFireTime.getTime();
+                transactionService.addTransactionCustomAttribute("Scheduling lag (millis)",
+                        Long.toString(lagMillis));
+                if (jobName != null) {
+                    SchedulingLagStats.get(jobGroup, jobName).record(lagMillis);
+                }
+            }
+            return traceEntry;
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler TraceEntry traceEntry) {
+            traceEntry.end();
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler TraceEntry traceEntry) {
+            traceEntry.endWithError(t);
+        }
+    }
+
+    static @Nullable JobKey getJobKey(JobDetail jobDetail) {
+        if (!jobKeySupported) {
+            return null;
+        }
+        try {
+            return jobDetail.getKey();
+        } catch (NoSuchMethodError e) {
+            // quartz 1.x
+            jobKeySupported = false;
+            return null;
+        }
+    }
+}
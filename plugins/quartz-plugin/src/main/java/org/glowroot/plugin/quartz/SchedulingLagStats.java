@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.quartz;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+
+import org.glowroot.plugin.api.Agent;
+import org.glowroot.plugin.api.Logger;
+
+// scheduling lag is the time between when a job was scheduled to fire and when it actually fired,
+// which grows when the scheduler's thread pool is saturated, well before jobs start misfiring
+//
+// the stats are exposed per job as platform mbeans so they can be captured as gauges
+class SchedulingLagStats implements SchedulingLagStatsMXBean {
+
+    private static final Logger logger = Agent.getLogger(SchedulingLagStats.class);
+
+    // cap on the number of registered mbeans, in case job names are generated dynamically
+    private static final int MAX_JOBS = 1000;
+
+    private static final ConcurrentMap<String, SchedulingLagStats> statsByJob =
+            new ConcurrentHashMap<String, SchedulingLagStats>();
+
+    // used once the cap is reached, this is not registered
+    private static final SchedulingLagStats UNREGISTERED = new SchedulingLagStats();
+
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private final AtomicLong executionCount = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+
+    private SchedulingLagStats() {}
+
+    static SchedulingLagStats get(@Nullable String jobGroup, String jobName) {
+        String jobKey = jobGroup == null ? jobName : jobGroup + '.' + jobName;
+        SchedulingLagStats stats = statsByJob.get(jobKey);
+        if (stats != null) {
+            return stats;
+        }
+        if (statsByJob.size() >= MAX_JOBS) {
+            return UNREGISTERED;
+        }
+        stats = new SchedulingLagStats();
+        SchedulingLagStats existing = statsByJob.putIfAbsent(jobKey, stats);
+        if (existing != null) {
+            return existing;
+        }
+        register(stats, jobGroup, jobName);
+        return stats;
+    }
+
+    void record(long lagMillis) {
+        lastLagMillis.set(lagMillis);
+        executionCount.incrementAndGet();
+        totalLagMillis.addAndGet(lagMillis);
+    }
+
+    @Override
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    @Override
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    @Override
+    public long getTotalLagMillis() {
+        return totalLagMillis.get();
+    }
+
+    // registration happens lazily on the first execution of each job, by which time the platform
+    // mbean server is safe to initialize
+    private static void register(SchedulingLagStats stats, @Nullable String jobGroup,
+            String jobName) {
+        StringBuilder sb = new StringBuilder("org.glowroot.plugin.quartz:type=SchedulingLag");
+        if (jobGroup != null) {
+            sb.append(",group=");
+            sb.append(ObjectName.quote(jobGroup));
+        }
+        sb.append(",job=");
+        sb.append(ObjectName.quote(jobName));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                    new ObjectName(sb.toString()));
+        } catch (Exception e) {
+            // e.g. InstanceAlreadyExistsException if the plugin is loaded more than once in the
+            // same jvm
+            logger.debug(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.quartz;
+
+import org.junit.Test;
+
+import org.glowroot.plugin.quartz.JobAspect.JobDetail;
+import org.glowroot.plugin.quartz.JobAspect.JobKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobAspectTest {
+
+    // the fallback is sticky for the life of the class, so this is the only test here that calls
+    // getJobKey()
+    @Test
+    public void shouldFallBackToJobNameForQuartz1x() {
+        // given
+        Quartz1xJobDetail jobDetail = new Quartz1xJobDetail();
+        // when
+        JobKey jobKey = JobAspect.getJobKey(jobDetail);
+        JobKey secondJobKey = JobAspect.getJobKey(jobDetail);
+        // then
+        assertThat(jobKey).isNull();
+        assertThat(secondJobKey).isNull();
+        // NoSuchMethodError is only thrown once
+        assertThat(jobDetail.getKeyCount).isEqualTo(1);
+    }
+
+    // JobDetail shim woven into a quartz 1.x JobDetail, which has no getKey() method
+    private static class Quartz1xJobDetail implements JobDetail {
+
+        private int getKeyCount;
+
+        @Override
+        public JobKey getKey() {
+            getKeyCount++;
+            throw new NoSuchMethodError("org.quartz.JobDetail.getKey()Lorg/quartz/JobKey;");
+        }
+
+        @Override
+        public String getName() {
+            return "ajob";
+        }
+    }
+}
@@ -15,6 +15,12 @@
  */
 package org.glowroot.plugin.quartz;
 
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -59,6 +65,9 @@ public class QuartzPluginTest {
         assertThat(header.transactionType()).isEqualTo("Background");
         assertThat(header.transactionName()).isEqualTo("Quartz job: ajob");
         assertThat(header.headline()).isEqualTo("Quartz job: ajob");
+        List<String> lagValues = header.attributes().get("Scheduling lag (millis)");
+        assertThat(lagValues).hasSize(1);
+        assertThat(Long.parseLong(lagValues.get(0))).isGreaterThanOrEqualTo(0);
     }
 
     public static class ExecuteJob implements AppUnderTest {
@@ -72,6 +81,16 @@ public class QuartzPluginTest {
             scheduler.scheduleJob(job, trigger);
             Thread.sleep(1000);
             scheduler.shutdown();
+            // the stats mbean is registered in the jvm running the job
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.glowroot.plugin.quartz:type=SchedulingLag"
+                    + ",group=\"agroup\",job=\"ajob\"");
+            long executionCount = (Long) mbeanServer.getAttribute(objectName, "ExecutionCount");
+            long lastLagMillis = (Long) mbeanServer.getAttribute(objectName, "LastLagMillis");
+            long totalLagMillis = (Long) mbeanServer.getAttribute(objectName, "TotalLagMillis");
+            assertThat(executionCount).isGreaterThanOrEqualTo(1);
+            assertThat(lastLagMillis).isGreaterThanOrEqualTo(0);
+            assertThat(totalLagMillis).isGreaterThanOrEqualTo(lastLagMillis);
         }
     }
 }
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.quartz;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SchedulingLagStatsTest {
+
+    private static final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    // obtained before any test can reach the job cap
+    private static SchedulingLagStats groupedStats;
+    private static SchedulingLagStats ungroupedStats;
+
+    @BeforeClass
+    public static void setUp() {
+        groupedStats = SchedulingLagStats.get("test group", "test job");
+        ungroupedStats = SchedulingLagStats.get(null, "test ungrouped job");
+    }
+
+    @Test
+    public void shouldAccumulateLag() {
+        // given
+        SchedulingLagStats stats = SchedulingLagStats.get("test group", "test job");
+        long executionCount = stats.getExecutionCount();
+        long totalLagMillis = stats.getTotalLagMillis();
+        // when
+        stats.record(5);
+        stats.record(7);
+        // then
+        assertThat(stats).isSameAs(groupedStats);
+        assertThat(stats.getLastLagMillis()).isEqualTo(7);
+        assertThat(stats.getExecutionCount()).isEqualTo(executionCount + 2);
+        assertThat(stats.getTotalLagMillis()).isEqualTo(totalLagMillis + 12);
+    }
+
+    @Test
+    public void shouldExposeStatsAsMBean() throws Exception {
+        // given
+        ObjectName objectName = objectName("test group", "test job");
+        // when
+        groupedStats.record(3);
+        // then
+        assertThat(mbeanServer.getAttribute(objectName, "LastLagMillis")).isEqualTo(3L);
+        assertThat(mbeanServer.getAttribute(objectName, "ExecutionCount"))
+                .isEqualTo(groupedStats.getExecutionCount());
+        assertThat(mbeanServer.getAttribute(objectName, "TotalLagMillis"))
+                .isEqualTo(groupedStats.getTotalLagMillis());
+    }
+
+    @Test
+    public void shouldExposeStatsAsMBeanWithoutGroup() throws Exception {
+        // given
+        ObjectName objectName = new ObjectName("org.glowroot.plugin.quartz:type=SchedulingLag"
+                + ",job=" + ObjectName.quote("test ungrouped job"));
+        // when
+        ungroupedStats.record(4);
+        // then
+        assertThat(mbeanServer.getAttribute(objectName, "LastLagMillis")).isEqualTo(4L);
+        assertThat(mbeanServer.getAttribute(objectName, "ExecutionCount"))
+                .isEqualTo(ungroupedStats.getExecutionCount());
+    }
+
+    @Test
+    public void shouldStopRegisteringAtJobCap() throws Exception {
+        // given
+        SchedulingLagStats stats = null;
+        int i = 0;
+        // the cap is 1000 jobs, so the shared unregistered stats are returned within 1000 calls
+        for (; i <= 1000; i++) {
+            stats = SchedulingLagStats.get("cap group", "job " + i);
+            if (!mbeanServer.isRegistered(objectName("cap group", "job " + i))) {
+                break;
+            }
+        }
+        assertThat(i).isLessThanOrEqualTo(1000);
+        long executionCount = stats.getExecutionCount();
+        // when
+        SchedulingLagStats overflowStats = SchedulingLagStats.get("cap group", "overflow job");
+        overflowStats.record(9);
+        // then
+        assertThat(overflowStats).isSameAs(stats);
+        assertThat(mbeanServer.isRegistered(objectName("cap group", "overflow job"))).isFalse();
+        assertThat(overflowStats.getLastLagMillis()).isEqualTo(9);
+        assertThat(overflowStats.getExecutionCount()).isEqualTo(executionCount + 1);
+        // jobs seen before the cap was reached keep their own registered stats
+        assertThat(SchedulingLagStats.get("test group", "test job")).isSameAs(groupedStats);
+        assertThat(SchedulingLagStats.get("cap group", "job 0")).isNotSameAs(stats);
+    }
+
+    private static ObjectName objectName(String jobGroup, String jobName) throws Exception {
+        return new ObjectName("org.glowroot.plugin.quartz:type=SchedulingLag,group="
+                + ObjectName.quote(jobGroup) + ",job=" + ObjectName.quote(jobName));
+    }
+}
@@ -33,6 +33,10 @@ import org.glowroot.plugin.servlet.support.MockHttpRequest;
 import org.glowroot.plugin.servlet.support.MockHttpResponse;
 import org.glowroot.plugin.servlet.support.MockHttpServlet;
 
+// the mock request has typical browser headers and a few request parameters, so this also
+// measures the cost of request parameter capture (captureRequestParameters is "*" by default) and
+// request header capture (run once with captureRequestHeaders configured, e.g. "*", and once
+// without)
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
 @State(Scope.Thread)
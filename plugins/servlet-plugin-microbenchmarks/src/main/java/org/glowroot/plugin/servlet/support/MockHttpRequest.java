@@ -20,7 +20,9 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -41,6 +43,25 @@ import javax.servlet.http.Part;
 
 public class MockHttpRequest implements HttpServletRequest {
 
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+
+    public MockHttpRequest() {
+        // typical browser request headers
+        headers.put("Host", "localhost:8080");
+        headers.put("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:40.0) Gecko/20100101");
+        headers.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        headers.put("Accept-Language", "en-US,en;q=0.5");
+        headers.put("Accept-Encoding", "gzip, deflate");
+        headers.put("Referer", "http://localhost:8080/");
+        headers.put("Cookie", "JSESSIONID=1v0mvsqpkkwfl1gahjvn4wljyn");
+        headers.put("Connection", "keep-alive");
+        parameters.put("q", new String[] {"glowroot"});
+        parameters.put("page", new String[] {"2"});
+        parameters.put("sort", new String[] {"name", "date"});
+        parameters.put("password", new String[] {"secret"});
+    }
+
     @Override
     public Object getAttribute(String name) {
         return null;
@@ -96,7 +117,7 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public Map<String, String[]> getParameterMap() {
-        return null;
+        return parameters;
     }
 
     @Override
@@ -238,17 +259,21 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getHeader(String name) {
-        return null;
+        return headers.get(name);
     }
 
     @Override
     public Enumeration<String> getHeaders(String name) {
-        return null;
+        String value = headers.get(name);
+        if (value == null) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        }
+        return Collections.enumeration(Collections.singletonList(value));
     }
 
     @Override
     public Enumeration<String> getHeaderNames() {
-        return null;
+        return Collections.enumeration(headers.keySet());
     }
 
     @Override
@@ -258,7 +283,7 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getMethod() {
-        return null;
+        return "GET";
     }
 
     @Override
@@ -303,7 +328,7 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getRequestURI() {
-        return null;
+        return "/search";
     }
 
     @Override
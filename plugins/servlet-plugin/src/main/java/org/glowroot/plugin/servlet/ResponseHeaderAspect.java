@@ -16,12 +16,9 @@
 package org.glowroot.plugin.servlet;
 
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.ImmutableList;
-
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.ConfigService;
 import org.glowroot.plugin.api.util.FastThreadLocal;
@@ -371,9 +368,6 @@ public class ResponseHeaderAspect {
     }
 
     private static boolean captureResponseHeader(String name) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureResponseHeaders();
-        // converted to lower case for case-insensitive matching (patterns are lower case)
-        String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-        return DetailCapture.matchesOneOf(keyLowerCase, capturePatterns);
+        return ServletPluginProperties.captureResponseHeaders().matches(name);
     }
 }
@@ -15,14 +15,8 @@
  */
 package org.glowroot.plugin.servlet;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
-
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 
 import org.glowroot.plugin.api.Agent;
 import org.glowroot.plugin.api.config.ConfigListener;
@@ -42,10 +36,10 @@ class ServletPluginProperties {
 
     private static final Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
 
-    private static volatile ImmutableList<Pattern> captureRequestParameters = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> maskRequestParameters = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> captureRequestHeaders = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> captureResponseHeaders = ImmutableList.of();
+    private static volatile WildcardMatcher captureRequestParameters = WildcardMatcher.empty();
+    private static volatile WildcardMatcher maskRequestParameters = WildcardMatcher.empty();
+    private static volatile WildcardMatcher captureRequestHeaders = WildcardMatcher.empty();
+    private static volatile WildcardMatcher captureResponseHeaders = WildcardMatcher.empty();
 
     private static volatile String sessionUserAttributePath = "";
     private static volatile ImmutableSet<String> captureSessionAttributePaths = ImmutableSet.of();
@@ -62,19 +56,19 @@ class ServletPluginProperties {
 
     private ServletPluginProperties() {}
 
-    static ImmutableList<Pattern> captureRequestParameters() {
+    static WildcardMatcher captureRequestParameters() {
         return captureRequestParameters;
     }
 
-    static ImmutableList<Pattern> maskRequestParameters() {
+    static WildcardMatcher maskRequestParameters() {
         return maskRequestParameters;
     }
 
-    static ImmutableList<Pattern> captureRequestHeaders() {
+    static WildcardMatcher captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
-    static ImmutableList<Pattern> captureResponseHeaders() {
+    static WildcardMatcher captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -93,10 +87,10 @@ class ServletPluginProperties {
     }
 
     private static void updateCache() {
-        captureRequestParameters = buildPatternList(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
-        maskRequestParameters = buildPatternList(MASK_REQUEST_PARAMS_PROPERTY_NAME);
-        captureRequestHeaders = buildPatternList(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
-        captureResponseHeaders = buildPatternList(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
+        captureRequestParameters = buildWildcardMatcher(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
+        maskRequestParameters = buildWildcardMatcher(MASK_REQUEST_PARAMS_PROPERTY_NAME);
+        captureRequestHeaders = buildWildcardMatcher(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
+        captureResponseHeaders = buildWildcardMatcher(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
         sessionUserAttributePath =
                 configService.getStringProperty(SESSION_USER_ATTRIBUTE_PROPERTY_NAME).value();
         String captureSessionAttributesText =
@@ -106,14 +100,9 @@ class ServletPluginProperties {
         captureSessionAttributeNames = buildCaptureSessionAttributeNames();
     }
 
-    private static ImmutableList<Pattern> buildPatternList(String propertyName) {
-        String captureRequestParametersText = configService.getStringProperty(propertyName).value();
-        List<Pattern> captureParameters = Lists.newArrayList();
-        for (String parameter : splitter.split(captureRequestParametersText)) {
-            // converted to lower case for case-insensitive matching
-            captureParameters.add(buildRegexPattern(parameter.toLowerCase(Locale.ENGLISH)));
-        }
-        return ImmutableList.copyOf(captureParameters);
+    private static WildcardMatcher buildWildcardMatcher(String propertyName) {
+        String wildcardPatternsText = configService.getStringProperty(propertyName).value();
+        return WildcardMatcher.create(splitter.split(wildcardPatternsText));
     }
 
     private static ImmutableSet<String> buildCaptureSessionAttributeNames() {
@@ -128,12 +117,4 @@ class ServletPluginProperties {
         }
         return names.build();
     }
-
-    private static Pattern buildRegexPattern(String wildcardPattern) {
-        // convert * into .* and quote the rest of the text using \Q...\E
-        String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
-        // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
-        regex = regex.replace("\\Q\\E", "");
-        return Pattern.compile(regex);
-    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.servlet;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+// case-insensitive matcher for a list of wildcard patterns, e.g. "content-type, x-*, *-id"
+//
+// exact names are matched using a hash lookup, and patterns with a single leading or trailing
+// wildcard are matched using endsWith/startsWith, so regex is only needed for wildcards in other
+// positions
+//
+// the result for each distinct name is also cached, since the same header and parameter names
+// typically show up on every request, so the common case is a single map lookup without even
+// needing to lower case the name
+//
+// ServletPluginProperties builds new instances whenever the config changes, which is what
+// invalidates the cache
+class WildcardMatcher {
+
+    // bounded so that requests with many distinct names (e.g. generated parameter names) cannot
+    // grow the cache indefinitely, names beyond this limit are still matched, just not cached
+    private static final int MAX_CACHED_NAMES = 1000;
+
+    private static final WildcardMatcher EMPTY = new WildcardMatcher(false,
+            ImmutableSet.<String>of(), ImmutableList.<String>of(), ImmutableList.<String>of(),
+            ImmutableList.<Pattern>of());
+
+    private final boolean matchesAll;
+    private final ImmutableSet<String> exactNames;
+    private final ImmutableList<String> prefixes;
+    private final ImmutableList<String> suffixes;
+    private final ImmutableList<Pattern> patterns;
+
+    private final boolean empty;
+
+    private final ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+
+    private WildcardMatcher(boolean matchesAll, ImmutableSet<String> exactNames,
+            ImmutableList<String> prefixes, ImmutableList<String> suffixes,
+            ImmutableList<Pattern> patterns) {
+        this.matchesAll = matchesAll;
+        this.exactNames = exactNames;
+        this.prefixes = prefixes;
+        this.suffixes = suffixes;
+        this.patterns = patterns;
+        empty = !matchesAll && exactNames.isEmpty() && prefixes.isEmpty() && suffixes.isEmpty()
+                && patterns.isEmpty();
+    }
+
+    static WildcardMatcher empty() {
+        return EMPTY;
+    }
+
+    static WildcardMatcher create(Iterable<String> wildcardPatterns) {
+        boolean matchesAll = false;
+        ImmutableSet.Builder<String> exactNames = ImmutableSet.builder();
+        List<String> prefixes = Lists.newArrayList();
+        List<String> suffixes = Lists.newArrayList();
+        List<Pattern> patterns = Lists.newArrayList();
+        for (String wildcardPattern : wildcardPatterns) {
+            // converted to lower case for case-insensitive matching
+            String pattern = wildcardPattern.toLowerCase(Locale.ENGLISH);
+            int index = pattern.indexOf('*');
+            if (index == -1) {
+                exactNames.add(pattern);
+            } else if (pattern.replace("*", "").isEmpty()) {
+                matchesAll = true;
+            } else if (index == pattern.length() - 1) {
+                prefixes.add(pattern.substring(0, index));
+            } else if (index == 0 && pattern.indexOf('*', 1) == -1) {
+                suffixes.add(pattern.substring(1));
+            } else {
+                patterns.add(buildRegexPattern(pattern));
+            }
+        }
+        return new WildcardMatcher(matchesAll, exactNames.build(),
+                ImmutableList.copyOf(Sets.newLinkedHashSet(prefixes)),
+                ImmutableList.copyOf(Sets.newLinkedHashSet(suffixes)),
+                ImmutableList.copyOf(patterns));
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    boolean matches(String name) {
+        if (matchesAll) {
+            return true;
+        }
+        if (empty) {
+            return false;
+        }
+        Boolean cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        boolean matches = matchesInternal(name.toLowerCase(Locale.ENGLISH));
+        if (cache.size() < MAX_CACHED_NAMES) {
+            cache.put(name, matches);
+        }
+        return matches;
+    }
+
+    private boolean matchesInternal(String nameLowerCase) {
+        if (exactNames.contains(nameLowerCase)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (nameLowerCase.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String suffix : suffixes) {
+            if (nameLowerCase.endsWith(suffix)) {
+                return true;
+            }
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(nameLowerCase).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern buildRegexPattern(String wildcardPattern) {
+        // convert * into .* and quote the rest of the text using \Q...\E
+        String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
+        // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
+        regex = regex.replace("\\Q\\E", "");
+        return Pattern.compile(regex);
+    }
+}
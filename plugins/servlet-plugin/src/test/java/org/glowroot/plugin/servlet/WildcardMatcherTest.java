@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.plugin.servlet;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WildcardMatcherTest {
+
+    @Test
+    public void shouldMatchExactNamesCaseInsensitively() {
+        // when
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.of("Content-Type"));
+        // then
+        assertThat(matcher.matches("content-type")).isTrue();
+        assertThat(matcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(matcher.matches("content-type2")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchPrefixesAndSuffixes() {
+        // when
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.of("x-*", "*-id"));
+        // then
+        assertThat(matcher.matches("X-Forwarded-For")).isTrue();
+        assertThat(matcher.matches("Request-Id")).isTrue();
+        assertThat(matcher.matches("Accept")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchInnerWildcards() {
+        // when
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.of("a*b*c"));
+        // then
+        assertThat(matcher.matches("abc")).isTrue();
+        assertThat(matcher.matches("aXbYc")).isTrue();
+        assertThat(matcher.matches("aXbY")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchAll() {
+        // when
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.of("*"));
+        // then
+        assertThat(matcher.isEmpty()).isFalse();
+        assertThat(matcher.matches("anything")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchNothingWhenEmpty() {
+        // when
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.<String>of());
+        // then
+        assertThat(matcher.isEmpty()).isTrue();
+        assertThat(matcher.matches("anything")).isFalse();
+    }
+
+    @Test
+    public void shouldReturnSameResultWhenCached() {
+        // given
+        WildcardMatcher matcher = WildcardMatcher.create(ImmutableList.of("abc*"));
+        // when
+        boolean first = matcher.matches("AbcDef");
+        boolean second = matcher.matches("AbcDef");
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+    }
+}
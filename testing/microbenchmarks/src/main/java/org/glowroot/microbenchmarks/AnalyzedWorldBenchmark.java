@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.StandardSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// measures the heap retained by the agent's analyzed world while the spring classes are loaded
+// (and woven) in several isolated class loaders, e.g. redeployed webapps, and how much of it is
+// released after those class loaders are collected
+//
+// run once with and once without the glowroot javaagent and compare the reported heap usage
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(jvmArgsAppend = "-Dglowroot.internal.weaving.analyzedWorldEvictionIntervalMillis=1000")
+@State(Scope.Thread)
+public class AnalyzedWorldBenchmark {
+
+    @Param({"1", "4"})
+    private int classLoaderCount;
+
+    private URL[] jarUrls;
+    private Set<String> classNames;
+
+    private List<ClassLoader> classLoaders;
+    private long baselineHeapUsed;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<URL> urls = new ArrayList<URL>();
+        classNames = new HashSet<String>();
+        for (String path : getClassPath()) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            boolean springJar = false;
+            JarFile jarFile = new JarFile(path);
+            try {
+                Enumeration<JarEntry> e = jarFile.entries();
+                while (e.hasMoreElements()) {
+                    JarEntry jarEntry = e.nextElement();
+                    String name = jarEntry.getName();
+                    if (name.startsWith("org/springframework/") && name.endsWith(".class")) {
+                        name = name.replace('/', '.');
+                        name = name.substring(0, name.length() - ".class".length());
+                        classNames.add(name);
+                        springJar = true;
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+            if (springJar) {
+                urls.add(new File(path).toURI().toURL());
+            }
+        }
+        jarUrls = urls.toArray(new URL[urls.size()]);
+        classLoaders = new ArrayList<ClassLoader>();
+        baselineHeapUsed = getHeapUsedAfterGc();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        long loadedHeapUsed = getHeapUsedAfterGc();
+        classLoaders.clear();
+        // give the agent time to evict the analyzed classes of the collected class loaders
+        getHeapUsedAfterGc();
+        Thread.sleep(2000);
+        long releasedHeapUsed = getHeapUsedAfterGc();
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nclassLoaderCount=").append(classLoaderCount)
+                .append(", classCount=").append(classNames.size())
+                .append(", retained heap while loaded=")
+                .append((loadedHeapUsed - baselineHeapUsed) / 1024).append(" KB")
+                .append(", retained heap after release=")
+                .append((releasedHeapUsed - baselineHeapUsed) / 1024).append(" KB");
+        System.out.println(sb);
+    }
+
+    @Benchmark
+    public void execute() {
+        for (int i = 0; i < classLoaderCount; i++) {
+            // null parent so that each class loader loads (and the agent analyzes) its own copy
+            // of the spring classes
+            ClassLoader loader = new URLClassLoader(jarUrls, null);
+            for (String className : classNames) {
+                try {
+                    Class.forName(className, false, loader);
+                } catch (ClassNotFoundException e) {
+                    // dependencies are not on this class loader's class path
+                } catch (NoClassDefFoundError e) {
+                    // dependencies are not on this class loader's class path
+                }
+            }
+            classLoaders.add(loader);
+        }
+    }
+
+    private static long getHeapUsedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<String> getClassPath() {
+        String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
+        return Splitter.on(StandardSystemProperty.PATH_SEPARATOR.value()).splitToList(classPath);
+    }
+}
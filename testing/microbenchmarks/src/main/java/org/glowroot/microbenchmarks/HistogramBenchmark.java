@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.collector.spi.model.AggregateOuterClass.Aggregate;
+import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+
+// compares HdrHistogram (sketchRelativeAccuracy = 0) against the log-bucketed sketch
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HistogramBenchmark {
+
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+    @Param({"0", "0.01"})
+    private double sketchRelativeAccuracy;
+
+    @Param({"10000"})
+    private int valueCount;
+
+    private long[] values;
+    private int nextValueIndex;
+
+    private LazyHistogram histogram;
+    private Aggregate.Histogram encodedHistogram;
+    private ScratchBuffer scratchBuffer;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(0);
+        values = new long[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            // log-normal-ish response times centered around 10 milliseconds
+            values[i] = (long) (Math.exp(random.nextGaussian() + Math.log(10000000)));
+        }
+        histogram = newPopulatedHistogram();
+        scratchBuffer = new ScratchBuffer();
+        encodedHistogram = histogram.toProtobuf(scratchBuffer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        long[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        LazyHistogram mergedHistogram = new LazyHistogram(sketchRelativeAccuracy);
+        mergedHistogram.merge(encodedHistogram);
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nsketchRelativeAccuracy=").append(sketchRelativeAccuracy)
+                .append(", encoded bytes=").append(encodedHistogram.getSerializedSize());
+        for (double percentile : PERCENTILES) {
+            long expected = sortedValues[(int) Math.ceil(valueCount * percentile / 100) - 1];
+            long actual = mergedHistogram.getValueAtPercentile(percentile);
+            double error = Math.abs(actual - expected) / (double) expected;
+            sb.append(String.format(", p%s error=%.4f%%", percentile, error * 100));
+        }
+        System.out.println(sb);
+    }
+
+    @Benchmark
+    public void insert() {
+        histogram.add(values[nextValueIndex++ % valueCount]);
+    }
+
+    @Benchmark
+    public LazyHistogram merge() throws Exception {
+        LazyHistogram mergedHistogram = new LazyHistogram(sketchRelativeAccuracy);
+        mergedHistogram.merge(encodedHistogram);
+        mergedHistogram.merge(encodedHistogram);
+        return mergedHistogram;
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return histogram.toProtobuf(scratchBuffer).toByteArray();
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.getValueAtPercentile(99);
+    }
+
+    private LazyHistogram newPopulatedHistogram() {
+        LazyHistogram histogram = new LazyHistogram(sketchRelativeAccuracy);
+        for (long value : values) {
+            histogram.add(value);
+        }
+        return histogram;
+    }
+}
@@ -28,6 +28,7 @@ import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
@@ -37,6 +38,8 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
+import org.glowroot.microbenchmarks.support.InlineWorthy;
+
 @BenchmarkMode(Mode.SingleShotTime)
 @Warmup(iterations = 0)
 @Measurement(iterations = 1)
@@ -87,8 +90,40 @@ public class WeavingBenchmark {
         }
     }
 
+    // the instrumented tiny method is called outside of a transaction, so its advice is never
+    // enabled and its throughput depends on whether the woven method can still be inlined
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int executeTinyMethod(InlineWorthyState state) {
+        return state.inlineWorthy.getValue();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(jvmArgsAppend = "-Dglowroot.internal.weaving.outlineAdviceThreshold=35")
+    public int executeTinyMethodWithOutlinedAdvice(InlineWorthyState state) {
+        return state.inlineWorthy.getValue();
+    }
+
     private static List<String> getClassPath() {
         String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
         return Splitter.on(StandardSystemProperty.PATH_SEPARATOR.value()).splitToList(classPath);
     }
+
+    @State(Scope.Thread)
+    public static class InlineWorthyState {
+
+        private InlineWorthy inlineWorthy;
+
+        @Setup
+        public void setup() {
+            inlineWorthy = new InlineWorthy(42);
+        }
+    }
 }
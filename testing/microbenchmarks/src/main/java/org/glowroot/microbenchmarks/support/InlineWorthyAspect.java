@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.support;
+
+import org.glowroot.plugin.api.Agent;
+import org.glowroot.plugin.api.transaction.Timer;
+import org.glowroot.plugin.api.transaction.TimerName;
+import org.glowroot.plugin.api.transaction.TransactionService;
+import org.glowroot.plugin.api.weaving.BindTraveler;
+import org.glowroot.plugin.api.weaving.IsEnabled;
+import org.glowroot.plugin.api.weaving.OnAfter;
+import org.glowroot.plugin.api.weaving.OnBefore;
+import org.glowroot.plugin.api.weaving.Pointcut;
+
+public class InlineWorthyAspect {
+
+    private static final TransactionService transactionService = Agent.getTransactionService();
+
+    @Pointcut(className = "org.glowroot.microbenchmarks.core.support.InlineWorthy",
+            methodName = "getValue", methodParameterTypes = {}, timerName = "inline worthy")
+    public static class InlineWorthyAdvice {
+
+        private static final TimerName timerName =
+                transactionService.getTimerName(InlineWorthyAdvice.class);
+
+        @IsEnabled
+        public static boolean isEnabled() {
+            return transactionService.isInTransaction();
+        }
+
+        @OnBefore
+        public static Timer onBefore() {
+            return transactionService.startTimer(timerName);
+        }
+
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+}